@@ -0,0 +1,458 @@
+package com.acertainbookstore.business;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link AtomicBookStoreBook} is a {@link BookStoreBook} whose counters can be
+ * updated concurrently without a lock. The number of copies and the number of
+ * sale misses are updated with compare-and-set, and the total rating and the
+ * number of times rated are kept in one immutable holder that is swapped as a
+ * whole, so that the average rating is never computed from a half-applied
+ * rating. Each counter is atomic on its own; callers that need several books
+ * or several counters to change together still have to synchronize.
+ * <p>
+ * A hot book, on which purchases keep failing their compare-and-set, can split
+ * its copies into escrow allotments, either when designated with
+ * {@link #splitCopies(int)} or once {@link #HOT_CONTENTION_THRESHOLD}
+ * compare-and-sets failed. Each thread then takes copies out of the allotment
+ * it hashes to, so that concurrent purchases update different counters. Once
+ * an allotment runs dry, the purchase pools all copies under the book's
+ * monitor and hands out fresh allotments. Copies added or handed back go to
+ * the shared pool. Copies only move between the pool and the allotments under
+ * the monitor, which is also held while the total is summed, so the number of
+ * copies and the sale misses are the same as without the split.
+ * <p>
+ * The counters are the fields of {@link BookStoreBook}, updated through
+ * variable handles. Adding copies resets the sale misses, so both are done
+ * under the monitor, as is counting sale misses, which only follows a failed
+ * purchase. After each update, the cached {@link StockBook} view is rebuilt
+ * from the counters and swapped in with compare-and-set, retrying if another
+ * update swapped it meanwhile, so the last view swapped in holds every
+ * update. Books with split copies are the exception: their purchases must not
+ * write a shared field, so their view is built on each read instead.
+ *
+ * @see BookStoreBook
+ */
+public class AtomicBookStoreBook extends BookStoreBook {
+
+	/** The handle used to update {@link #numCopies}. */
+	private static final VarHandle NUM_COPIES;
+
+	/** The handle used to update {@link #numSaleMisses}. */
+	private static final VarHandle NUM_SALE_MISSES;
+
+	/** The handle used to update {@link #rating}. */
+	private static final VarHandle RATING;
+
+	/** The handle used to update {@link #editorPick}. */
+	private static final VarHandle EDITOR_PICK;
+
+	/** The handle used to swap {@link #stockBookView}. */
+	private static final VarHandle STOCK_BOOK_VIEW;
+
+	/** The handle used to update {@link #numContended}. */
+	private static final VarHandle NUM_CONTENDED;
+
+	/**
+	 * The number of failed compare-and-sets on the number of copies after
+	 * which the copies are split into allotments.
+	 */
+	public static final int HOT_CONTENTION_THRESHOLD = 256;
+
+	/** The number of allotments of an automatically split book. */
+	public static final int DEFAULT_NUM_ALLOTMENTS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	/** The distance between two allotments, so that each has a cache line. */
+	private static final int ALLOTMENT_PADDING = 16;
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			NUM_COPIES = lookup.findVarHandle(BookStoreBook.class, "numCopies", int.class);
+			NUM_SALE_MISSES = lookup.findVarHandle(BookStoreBook.class, "numSaleMisses", long.class);
+			RATING = lookup.findVarHandle(BookStoreBook.class, "rating", Rating.class);
+			EDITOR_PICK = lookup.findVarHandle(BookStoreBook.class, "editorPick", boolean.class);
+			STOCK_BOOK_VIEW = lookup.findVarHandle(BookStoreBook.class, "stockBookView", StockBook.class);
+			NUM_CONTENDED = lookup.findVarHandle(AtomicBookStoreBook.class, "numContended", int.class);
+		} catch (ReflectiveOperationException ex) {
+			throw new ExceptionInInitializerError(ex);
+		}
+	}
+
+	/** The escrow allotments of copies, null unless the copies are split. */
+	private volatile AtomicIntegerArray allotments;
+
+	/** The number of failed compare-and-sets on the number of copies. */
+	private volatile int numContended;
+
+	/**
+	 * Instantiates a new {@link AtomicBookStoreBook}.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param title
+	 *            the title
+	 * @param author
+	 *            the author
+	 * @param price
+	 *            the price
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	public AtomicBookStoreBook(int isbn, String title, String author, float price, int numCopies) {
+		super(isbn, title, author, price, numCopies);
+	}
+
+	/**
+	 * Instantiates a new {@link AtomicBookStoreBook} from a {@link StockBook}
+	 * instance.
+	 *
+	 * @param bookToCopy
+	 *            the book to copy
+	 */
+	public AtomicBookStoreBook(StockBook bookToCopy) {
+		super(bookToCopy);
+	}
+
+	/**
+	 * Reads the total rating and the number of times rated.
+	 *
+	 * @return the rating
+	 */
+	private Rating rating() {
+		return (Rating) RATING.getVolatile(this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#getTotalRating()
+	 */
+	@Override
+	public long getTotalRating() {
+		return rating().totalRating;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#getNumTimesRated()
+	 */
+	@Override
+	public long getNumTimesRated() {
+		return rating().numTimesRated;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#getNumCopies()
+	 */
+	@Override
+	public int getNumCopies() {
+		if (allotments == null) {
+			return (int) NUM_COPIES.getVolatile(this);
+		}
+
+		synchronized (this) {
+			int total = (int) NUM_COPIES.getVolatile(this);
+			for (int i = 0; i < allotments.length(); i += ALLOTMENT_PADDING) {
+				total += allotments.get(i);
+			}
+			return total;
+		}
+	}
+
+	/**
+	 * Splits the copies into escrow allotments, unless they are split
+	 * already. The allotments start empty and are filled by the first
+	 * purchases.
+	 *
+	 * @param numAllotments
+	 *            the number of allotments, must be positive
+	 */
+	public synchronized void splitCopies(int numAllotments) {
+		if (allotments == null) {
+			allotments = new AtomicIntegerArray(numAllotments * ALLOTMENT_PADDING);
+		}
+	}
+
+	/**
+	 * Checks if the copies are split into escrow allotments.
+	 *
+	 * @return true, if the copies are split
+	 */
+	public boolean areCopiesSplit() {
+		return allotments != null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#getNumSaleMisses()
+	 */
+	@Override
+	public long getNumSaleMisses() {
+		return (long) NUM_SALE_MISSES.getVolatile(this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#getAverageRating()
+	 */
+	@Override
+	public float getAverageRating() {
+		return rating().average();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#isEditorPick()
+	 */
+	@Override
+	public boolean isEditorPick() {
+		return (boolean) EDITOR_PICK.getVolatile(this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#setEditorPick(boolean)
+	 */
+	@Override
+	public void setEditorPick(boolean editorPick) {
+		EDITOR_PICK.setVolatile(this, editorPick);
+		publishStockBookView();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#areCopiesInStore(int)
+	 */
+	@Override
+	public boolean areCopiesInStore(int numCopies) {
+		return getNumCopies() >= numCopies;
+	}
+
+	/**
+	 * Atomically takes <code>numCopies</code> copies of the book out of stock
+	 * if that many are available.
+	 *
+	 * @param numCopies
+	 *            the number of copies, must be positive
+	 * @return zero if the copies were taken, otherwise the number of copies
+	 *         missing at the time of the attempt
+	 */
+	public int reserveCopies(int numCopies) {
+		if (allotments != null) {
+			return reserveAllotted(numCopies);
+		}
+
+		int current;
+
+		while (true) {
+			current = (int) NUM_COPIES.getVolatile(this);
+
+			if (current < numCopies) {
+				// A split since the check above moves copies out of the pool.
+				return allotments != null ? reserveAllotted(numCopies) : numCopies - current;
+			}
+			if (NUM_COPIES.compareAndSet(this, current, current - numCopies)) {
+				publishStockBookView();
+				return 0;
+			}
+
+			// Another purchase won the race; split the copies if that keeps happening.
+			if ((int) NUM_CONTENDED.getAndAdd(this, 1) + 1 == HOT_CONTENTION_THRESHOLD) {
+				splitCopies(DEFAULT_NUM_ALLOTMENTS);
+			}
+			if (allotments != null) {
+				return reserveAllotted(numCopies);
+			}
+		}
+	}
+
+	/**
+	 * Takes copies out of the allotment of the current thread, or rebalances
+	 * the allotments if it has too few.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 * @return zero if the copies were taken, otherwise the number of copies
+	 *         missing in total
+	 */
+	private int reserveAllotted(int numCopies) {
+		AtomicIntegerArray allotted = allotments;
+		int numAllotments = allotted.length() / ALLOTMENT_PADDING;
+		int index = (int) (Thread.currentThread().getId() % numAllotments) * ALLOTMENT_PADDING;
+		int current;
+
+		while ((current = allotted.get(index)) >= numCopies) {
+			if (allotted.compareAndSet(index, current, current - numCopies)) {
+				return 0;
+			}
+		}
+
+		synchronized (this) {
+			// Pool all copies, then take ours and share out the rest.
+			int total = (int) NUM_COPIES.getAndSet(this, 0);
+			for (int i = 0; i < allotted.length(); i += ALLOTMENT_PADDING) {
+				total += allotted.getAndSet(i, 0);
+			}
+
+			if (total < numCopies) {
+				NUM_COPIES.getAndAdd(this, total);
+				return numCopies - total;
+			}
+
+			total -= numCopies;
+			int share = total / numAllotments;
+			for (int i = 0; i < allotted.length(); i += ALLOTMENT_PADDING) {
+				allotted.addAndGet(i, share);
+			}
+			NUM_COPIES.getAndAdd(this, total - share * numAllotments);
+			return 0;
+		}
+	}
+
+	/**
+	 * Puts <code>numCopies</code> copies taken by
+	 * {@link #reserveCopies(int)} back in stock. Unlike
+	 * {@link #addCopies(int)}, the sale misses are kept.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 */
+	public void releaseCopies(int numCopies) {
+		NUM_COPIES.getAndAdd(this, numCopies);
+		publishStockBookView();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#buyCopies(int)
+	 */
+	@Override
+	public boolean buyCopies(int numCopies) {
+		return !BookStoreUtility.isInvalidNoCopies(numCopies) && reserveCopies(numCopies) == 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#addCopies(int)
+	 */
+	@Override
+	public void addCopies(int numNewCopies) {
+		if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
+			// No sale miss is counted between the new copies and the reset.
+			synchronized (this) {
+				NUM_COPIES.getAndAdd(this, numNewCopies);
+				NUM_SALE_MISSES.setVolatile(this, 0L);
+			}
+			publishStockBookView();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#addSaleMiss(int)
+	 */
+	@Override
+	public void addSaleMiss(int numSaleMisses) {
+		synchronized (this) {
+			NUM_SALE_MISSES.getAndAdd(this, (long) numSaleMisses);
+		}
+		publishStockBookView();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#addRating(int)
+	 */
+	@Override
+	public void addRating(int rating) {
+		if (BookStoreUtility.isInvalidRating(rating)) {
+			return;
+		}
+
+		Rating current;
+		Rating updated;
+
+		do {
+			current = rating();
+			updated = current.add(rating);
+		} while (!RATING.compareAndSet(this, current, updated));
+		publishStockBookView();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#hadSaleMiss()
+	 */
+	@Override
+	public boolean hadSaleMiss() {
+		return getNumSaleMisses() > 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#immutableStockBook()
+	 */
+	@Override
+	public StockBook immutableStockBook() {
+		if (allotments != null) {
+			return newStockBookView();
+		}
+		return super.immutableStockBook();
+	}
+
+	/**
+	 * Swaps in a view rebuilt from the counters after an update, unless the
+	 * copies are split.
+	 */
+	private void publishStockBookView() {
+		if (allotments != null) {
+			return;
+		}
+
+		StockBook current;
+		do {
+			current = stockBookView;
+		} while (!STOCK_BOOK_VIEW.compareAndSet(this, current, newStockBookView()));
+	}
+
+	/**
+	 * Builds a {@link StockBook} view from the counters.
+	 *
+	 * @return the stock book
+	 */
+	private StockBook newStockBookView() {
+		Rating current = rating();
+		return new ImmutableStockBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(),
+				getNumCopies(), getNumSaleMisses(), current.numTimesRated, current.totalRating, isEditorPick());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.business.BookStoreBook#copy()
+	 */
+	@Override
+	public BookStoreBook copy() {
+		return new AtomicBookStoreBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
+				this.getPrice(), getNumCopies());
+	}
+}
@@ -6,6 +6,12 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * {@link BookStoreBook} implements all parts of the book. Only parts of it are
  * available in the bookstore client and stock manager, cf. the {@link Book} and
  * {@link StockBook} interfaces.
+ * <p>
+ * The book keeps its immutable views, which the stores hand out to clients.
+ * The {@link ImmutableBook} view never changes, and the {@link StockBook} view
+ * is rebuilt by every update of the book, so repeated reads of an unchanged
+ * book allocate nothing. The views are swapped as a whole, so even a reader
+ * racing an update sees a consistent one.
  * 
  * @see Book
  * @see StockBook
@@ -13,20 +19,75 @@ import com.acertainbookstore.utils.BookStoreUtility;
  */
 public class BookStoreBook extends ImmutableBook {
 
-	/** The number of copies. */
-	private int numCopies;
+	/**
+	 * {@link Rating} holds the total rating and the number of times rated of
+	 * a book, which change together.
+	 */
+	static final class Rating {
+
+		/** The rating of a book that was never rated. */
+		static final Rating NONE = new Rating(0, 0);
+
+		/** The total rating. */
+		final long totalRating;
+
+		/** The number of times rated. */
+		final long numTimesRated;
+
+		/**
+		 * Instantiates a new {@link Rating}.
+		 *
+		 * @param totalRating
+		 *            the total rating
+		 * @param numTimesRated
+		 *            the number of times rated
+		 */
+		Rating(long totalRating, long numTimesRated) {
+			this.totalRating = totalRating;
+			this.numTimesRated = numTimesRated;
+		}
 
-	/** The total rating. */
-	private long totalRating;
+		/**
+		 * Adds a rating.
+		 *
+		 * @param rating
+		 *            the rating
+		 * @return the new rating
+		 */
+		Rating add(int rating) {
+			return new Rating(totalRating + rating, numTimesRated + 1);
+		}
+
+		/**
+		 * Gets the average rating.
+		 *
+		 * @return the average rating, -1 if the book was never rated
+		 */
+		float average() {
+			return (numTimesRated == 0 ? -1.0f : (float) totalRating / numTimesRated);
+		}
+	}
 
-	/** The number of times rated. */
-	private long numTimesRated;
+	// The state is package-private so that AtomicBookStoreBook updates the
+	// same fields with compare-and-set instead of keeping copies of them.
+
+	/** The number of copies, or the shared pool of a book with split copies. */
+	int numCopies;
+
+	/** The total rating and the number of times rated. */
+	Rating rating;
 
 	/** The number of sale misses. */
-	private long numSaleMisses;
+	long numSaleMisses;
 
 	/** Whether the book is editor picked. */
-	private boolean editorPick;
+	boolean editorPick;
+
+	/** The immutable view of the book. */
+	private final ImmutableBook bookView;
+
+	/** The immutable stock view of the book, as of its last update. */
+	volatile StockBook stockBookView;
 
 	/**
 	 * Instantiates a new {@link BookStoreBook}.
@@ -46,10 +107,11 @@ public class BookStoreBook extends ImmutableBook {
 		super(isbn, title, author, price);
 
 		this.setNumSaleMisses(0);
-		this.setNumTimesRated(0);
 		this.setNumCopies(numCopies);
-		this.setTotalRating(0);
-		this.setEditorPick(false);
+		this.rating = Rating.NONE;
+		this.editorPick = false;
+		this.bookView = new ImmutableBook(isbn, title, author, price);
+		refreshStockBookView();
 	}
 
 	/**
@@ -63,10 +125,12 @@ public class BookStoreBook extends ImmutableBook {
 		super(bookToCopy.getISBN(), bookToCopy.getTitle(), bookToCopy.getAuthor(), bookToCopy.getPrice());
 
 		this.setNumSaleMisses(bookToCopy.getNumSaleMisses());
-		this.setNumTimesRated(bookToCopy.getNumTimesRated());
 		this.setNumCopies(bookToCopy.getNumCopies());
-		this.setTotalRating(bookToCopy.getTotalRating());
-		this.setEditorPick(bookToCopy.isEditorPick());
+		this.rating = new Rating(bookToCopy.getTotalRating(), bookToCopy.getNumTimesRated());
+		this.editorPick = bookToCopy.isEditorPick();
+		this.bookView = new ImmutableBook(bookToCopy.getISBN(), bookToCopy.getTitle(), bookToCopy.getAuthor(),
+				bookToCopy.getPrice());
+		refreshStockBookView();
 	}
 
 	/**
@@ -75,7 +139,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the total rating
 	 */
 	public long getTotalRating() {
-		return totalRating;
+		return rating.totalRating;
 	}
 
 	/**
@@ -84,7 +148,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the number of times rated
 	 */
 	public long getNumTimesRated() {
-		return numTimesRated;
+		return rating.numTimesRated;
 	}
 
 	/**
@@ -111,7 +175,7 @@ public class BookStoreBook extends ImmutableBook {
 	 * @return the average rating
 	 */
 	public float getAverageRating() {
-		return (numTimesRated == 0 ? -1.0f : (float) totalRating / numTimesRated);
+		return rating.average();
 	}
 
 	/**
@@ -123,26 +187,6 @@ public class BookStoreBook extends ImmutableBook {
 		return editorPick;
 	}
 
-	/**
-	 * Sets the total rating of the book.
-	 *
-	 * @param totalRating
-	 *            the new total rating
-	 */
-	private void setTotalRating(long totalRating) {
-		this.totalRating = totalRating;
-	}
-
-	/**
-	 * Sets the number of times that the book was rated.
-	 *
-	 * @param numTimesRated
-	 *            the new number of times rated
-	 */
-	private void setNumTimesRated(long numTimesRated) {
-		this.numTimesRated = numTimesRated;
-	}
-
 	/**
 	 * Sets the number of copies of a book in stock.
 	 *
@@ -173,6 +217,7 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void setEditorPick(boolean editorPick) {
 		this.editorPick = editorPick;
+		refreshStockBookView();
 	}
 
 	/**
@@ -196,6 +241,7 @@ public class BookStoreBook extends ImmutableBook {
 	public boolean buyCopies(int numCopies) {
 		if (!BookStoreUtility.isInvalidNoCopies(numCopies) && areCopiesInStore(numCopies)) {
 			this.numCopies -= numCopies;
+			refreshStockBookView();
 			return true;
 		}
 
@@ -212,6 +258,7 @@ public class BookStoreBook extends ImmutableBook {
 		if (!BookStoreUtility.isInvalidNoCopies(numNewCopies)) {
 			this.numCopies += numNewCopies;
 			this.numSaleMisses = 0;
+			refreshStockBookView();
 		}
 	}
 
@@ -223,6 +270,7 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addSaleMiss(int numSaleMisses) {
 		this.numSaleMisses += numSaleMisses;
+		refreshStockBookView();
 	}
 
 	/**
@@ -233,8 +281,8 @@ public class BookStoreBook extends ImmutableBook {
 	 */
 	public void addRating(int rating) {
 		if (!BookStoreUtility.isInvalidRating(rating)) {
-			this.totalRating += rating;
-			this.numTimesRated++;
+			this.rating = this.rating.add(rating);
+			refreshStockBookView();
 		}
 	}
 
@@ -260,23 +308,29 @@ public class BookStoreBook extends ImmutableBook {
 	}
 
 	/**
-	 * Returns a {@link ImmutableBook} copy of the book.
+	 * Returns the {@link ImmutableBook} view of the book.
 	 *
 	 * @return the immutable book
 	 */
 	public ImmutableBook immutableBook() {
-		return new ImmutableBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice());
+		return bookView;
 	}
 
 	/**
-	 * Returns a {@link StockBook} copy of the book.
+	 * Returns the {@link StockBook} view of the book as of its last update.
 	 *
 	 * @return the stock book
 	 */
 	public StockBook immutableStockBook() {
-		return new ImmutableStockBook(this.getISBN(), new String(this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies, this.numSaleMisses, this.numTimesRated, this.totalRating,
+		return stockBookView;
+	}
+
+	/**
+	 * Rebuilds the {@link StockBook} view after an update of the book.
+	 */
+	private void refreshStockBookView() {
+		stockBookView = new ImmutableStockBook(this.getISBN(), this.getTitle(), this.getAuthor(), this.getPrice(),
+				this.numCopies, this.numSaleMisses, this.rating.numTimesRated, this.rating.totalRating,
 				this.editorPick);
 	}
 
@@ -0,0 +1,236 @@
+package com.acertainbookstore.business;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.acertainbookstore.interfaces.RecoverableStore;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link CheckpointFile} writes and reads the snapshot files of the
+ * {@link WriteAheadLog}. A snapshot is a header, with the log sequence number
+ * from which the log is replayed on top of it, followed by blocks of books.
+ * Each block is its length, the CRC32 checksum of its body and the body, the
+ * books of one page of the catalog.
+ * <p>
+ * Both directions go through memory-mapped blocks of the file, so a restart
+ * decodes the books straight from the page cache.
+ */
+final class CheckpointFile {
+
+	/** The first bytes of a snapshot file. */
+	private static final long MAGIC = 0x4143424B534E4150L;
+
+	/** The number of bytes of the header, the magic, log sequence number and number of books. */
+	private static final int HEADER_SIZE = 3 * Long.BYTES;
+
+	/** The number of bytes before the body of a block, its length and checksum. */
+	private static final int BLOCK_HEADER_SIZE = 2 * Integer.BYTES;
+
+	/** The number of books per block, read from the store as one page. */
+	private static final int BOOKS_PER_BLOCK = 4096;
+
+	/** The largest part of the file mapped at once when reading. */
+	private static final int MAX_WINDOW_SIZE = 1 << 30;
+
+	/**
+	 * Prevents the instantiation of a new {@link CheckpointFile}.
+	 */
+	private CheckpointFile() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * Writes a snapshot of the store, page by page, while it keeps serving
+	 * requests. The books of different pages are copied at different times,
+	 * so the snapshot is fuzzy: it holds the store as of the log sequence
+	 * number it starts from, plus some updates logged after it.
+	 *
+	 * @param file
+	 *            the file
+	 * @param startLsn
+	 *            the log sequence number the snapshot starts from
+	 * @param store
+	 *            the store
+	 * @return the number of books written
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             if the books could not be read from the store
+	 */
+	static long write(Path file, long startLsn, RecoverableStore store) throws IOException, BookStoreException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			long position = HEADER_SIZE;
+			long numBooks = 0;
+			int cursor = 0;
+
+			List<StockBook> page;
+			while (!(page = store.getBooks(cursor, BOOKS_PER_BLOCK)).isEmpty()) {
+				bytes.reset();
+				out.writeInt(page.size());
+				for (StockBook book : page) {
+					out.writeInt(book.getISBN());
+					writeString(out, book.getTitle());
+					writeString(out, book.getAuthor());
+					out.writeFloat(book.getPrice());
+					out.writeInt(book.getNumCopies());
+					out.writeLong(book.getNumSaleMisses());
+					out.writeLong(book.getNumTimesRated());
+					out.writeLong(book.getTotalRating());
+					out.writeBoolean(book.isEditorPick());
+				}
+
+				byte[] body = bytes.toByteArray();
+				CRC32 crc = new CRC32();
+				crc.update(body, 0, body.length);
+
+				MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_WRITE, position,
+						BLOCK_HEADER_SIZE + body.length);
+				block.putInt(body.length).putInt((int) crc.getValue()).put(body);
+				block.force();
+
+				position += BLOCK_HEADER_SIZE + body.length;
+				numBooks += page.size();
+				cursor = page.get(page.size() - 1).getISBN();
+			}
+
+			// The header goes last, once all blocks are on disk.
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			header.putLong(MAGIC).putLong(startLsn).putLong(numBooks);
+			header.force();
+			return numBooks;
+		}
+	}
+
+	/**
+	 * Reads the books of a snapshot.
+	 *
+	 * @param file
+	 *            the file
+	 * @param books
+	 *            the map the books are put in, by ISBN
+	 * @return the log sequence number the log is replayed from
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             if the snapshot is corrupt
+	 */
+	static long read(Path file, IntHashMap<StockBook> books) throws IOException, BookStoreException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				throw new BookStoreException("The checkpoint " + file + " is corrupt");
+			}
+
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getLong() != MAGIC) {
+				throw new BookStoreException("The checkpoint " + file + " is corrupt");
+			}
+			long startLsn = header.getLong();
+			long numBooks = header.getLong();
+
+			long position = HEADER_SIZE;
+			long windowStart = position;
+			MappedByteBuffer window = map(channel, position, size);
+
+			while (position < size) {
+				int offset = (int) (position - windowStart);
+				if (offset + BLOCK_HEADER_SIZE > window.limit()
+						|| offset + BLOCK_HEADER_SIZE + window.getInt(offset) > window.limit()) {
+					if (offset == 0) {
+						throw new BookStoreException("The checkpoint " + file + " is corrupt");
+					}
+
+					// Map the next window from the start of the block.
+					windowStart = position;
+					window = map(channel, position, size);
+					continue;
+				}
+
+				int length = window.getInt(offset);
+				int checksum = window.getInt(offset + Integer.BYTES);
+				ByteBuffer body = window.duplicate();
+				body.position(offset + BLOCK_HEADER_SIZE);
+				body.limit(offset + BLOCK_HEADER_SIZE + length);
+				body = body.slice();
+
+				CRC32 crc = new CRC32();
+				crc.update(body.duplicate());
+				if ((int) crc.getValue() != checksum) {
+					throw new BookStoreException("The checkpoint " + file + " is corrupt");
+				}
+
+				for (int i = body.getInt(); i > 0; i--) {
+					int isbn = body.getInt();
+					books.put(isbn, new ImmutableStockBook(isbn, readString(body), readString(body), body.getFloat(),
+							body.getInt(), body.getLong(), body.getLong(), body.getLong(), body.get() != 0));
+				}
+
+				position += BLOCK_HEADER_SIZE + length;
+			}
+
+			if (books.size() != numBooks) {
+				throw new BookStoreException("The checkpoint " + file + " is corrupt");
+			}
+			return startLsn;
+		}
+	}
+
+	/**
+	 * Maps the file from a position, up to its end or the window size.
+	 *
+	 * @param channel
+	 *            the file
+	 * @param position
+	 *            the position
+	 * @param size
+	 *            the size of the file
+	 * @return the mapped window
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static MappedByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, MAX_WINDOW_SIZE));
+	}
+
+	/**
+	 * Writes a string as its length and UTF-8 bytes.
+	 *
+	 * @param out
+	 *            the output
+	 * @param string
+	 *            the string
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+	 *
+	 * @param in
+	 *            the input
+	 * @return the string
+	 */
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,412 @@
+package com.acertainbookstore.business;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link ConcurrentIntHashMap} is the thread-safe variant of
+ * {@link IntHashMap}. Reads take no lock and do not allocate: slots are read
+ * with acquire semantics and written with release semantics, so a reader that
+ * sees a key also sees its value. Writes are serialized by an internal lock,
+ * which suits the catalog, where books are added and removed far less often
+ * than they are looked up.
+ * <p>
+ * A removed key keeps its slot with a null value, so concurrent readers never
+ * see entries move. Such tombstones are reused when the key comes back and are
+ * dropped when the table is rebuilt. A rebuild publishes a new table; readers
+ * still probing the old one see the map as it was before the rebuild. Views
+ * and {@link #forEach(IntHashMap.EntryVisitor)} are weakly consistent.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+public class ConcurrentIntHashMap<V> {
+
+	/** The handle used to access the key slots. */
+	private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(int[].class);
+
+	/** The handle used to access the value slots. */
+	private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+	/**
+	 * {@link Table} is one generation of the slots. Only the key and value
+	 * elements change after it is published.
+	 */
+	private static final class Table {
+
+		/** The keys, {@link IntHashMap#EMPTY} for empty slots. */
+		private final int[] keys;
+
+		/** The values, null for empty slots and tombstones. */
+		private final Object[] values;
+
+		/** The number of slots minus one. */
+		private final int mask;
+
+		/**
+		 * Instantiates a new, empty {@link Table}.
+		 *
+		 * @param capacity
+		 *            the number of slots, a power of two
+		 */
+		private Table(int capacity) {
+			keys = new int[capacity];
+			values = new Object[capacity];
+			mask = capacity - 1;
+		}
+
+		/**
+		 * Finds the slot of a key.
+		 *
+		 * @param key
+		 *            the key
+		 * @return the slot holding the key, or the empty slot ending its
+		 *         probe sequence
+		 */
+		private int find(int key) {
+			int slot = IntHashMap.slotOf(key, mask);
+			int current;
+
+			while ((current = (int) KEYS.getAcquire(keys, slot)) != key && current != IntHashMap.EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+
+			return slot;
+		}
+	}
+
+	/** The lock serializing writers. */
+	private final ReentrantLock writeLock = new ReentrantLock();
+
+	/** The current table. */
+	private volatile Table table;
+
+	/** The number of live entries. */
+	private volatile int size = 0;
+
+	/** The number of slots holding a key, including tombstones. */
+	private int usedSlots = 0;
+
+	/**
+	 * Instantiates a new, empty {@link ConcurrentIntHashMap}.
+	 */
+	public ConcurrentIntHashMap() {
+		this(IntHashMap.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new, empty {@link ConcurrentIntHashMap}.
+	 *
+	 * @param expectedSize
+	 *            the number of entries the map should hold without a rebuild
+	 */
+	public ConcurrentIntHashMap(int expectedSize) {
+		table = new Table(IntHashMap.tableSizeFor(expectedSize));
+	}
+
+	/**
+	 * Gets the value mapped to a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if the key is not mapped
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		if (key == IntHashMap.EMPTY) {
+			return null;
+		}
+
+		Table current = table;
+		return (V) VALUES.getAcquire(current.values, current.find(key));
+	}
+
+	/**
+	 * Checks if a key is mapped.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is mapped
+	 */
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Maps a key to a value.
+	 *
+	 * @param key
+	 *            the key, must not be 0
+	 * @param value
+	 *            the value, must not be null
+	 * @return the previous value, or null if the key was not mapped
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		IntHashMap.checkKey(key);
+		if (value == null) {
+			throw new NullPointerException();
+		}
+
+		writeLock.lock();
+		try {
+			Table current = table;
+			int slot = current.find(key);
+
+			if (current.keys[slot] == IntHashMap.EMPTY) {
+				if (usedSlots >= current.keys.length / 2) {
+					current = rebuild();
+					slot = current.find(key);
+				}
+
+				// Publish the value before the key that makes it reachable.
+				VALUES.setRelease(current.values, slot, value);
+				KEYS.setRelease(current.keys, slot, key);
+				usedSlots++;
+				size++;
+				return null;
+			}
+
+			V previous = (V) current.values[slot];
+			VALUES.setRelease(current.values, slot, value);
+			if (previous == null) {
+				size++;
+			}
+			return previous;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Maps a key to a value unless the key is already mapped.
+	 *
+	 * @param key
+	 *            the key, must not be 0
+	 * @param value
+	 *            the value, must not be null
+	 * @return the value mapped to the key after the call
+	 */
+	@SuppressWarnings("unchecked")
+	public V putIfAbsent(int key, V value) {
+		V existing = get(key);
+		if (existing != null) {
+			return existing;
+		}
+
+		writeLock.lock();
+		try {
+			Table current = table;
+			existing = (V) current.values[current.find(key)];
+			if (existing != null) {
+				return existing;
+			}
+
+			put(key, value);
+			return value;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the mapping of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the removed value, or null if the key was not mapped
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		if (key == IntHashMap.EMPTY) {
+			return null;
+		}
+
+		writeLock.lock();
+		try {
+			Table current = table;
+			int slot = current.find(key);
+			V previous = (V) current.values[slot];
+
+			if (previous != null) {
+				VALUES.setRelease(current.values, slot, null);
+				size--;
+			}
+			return previous;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the mapping of a key if it is mapped to the given value.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the expected value
+	 * @return true, if the mapping was removed
+	 */
+	public boolean remove(int key, V value) {
+		if (key == IntHashMap.EMPTY) {
+			return false;
+		}
+
+		writeLock.lock();
+		try {
+			Table current = table;
+			int slot = current.find(key);
+
+			if (value == null || current.values[slot] != value) {
+				return false;
+			}
+
+			VALUES.setRelease(current.values, slot, null);
+			size--;
+			return true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Publishes a new table holding the live entries, dropping tombstones.
+	 * The new table is sized so that the live entries fill at most a quarter
+	 * of it, leaving room for as many inserts before the next rebuild.
+	 * Called with the write lock held.
+	 *
+	 * @return the new table
+	 */
+	private Table rebuild() {
+		Table old = table;
+		Table rebuilt = new Table(IntHashMap.tableSizeFor(2 * size + 1));
+
+		for (int i = 0; i < old.keys.length; i++) {
+			Object value = old.values[i];
+
+			if (value != null) {
+				int slot = rebuilt.find(old.keys[i]);
+				rebuilt.keys[slot] = old.keys[i];
+				rebuilt.values[slot] = value;
+			}
+		}
+
+		usedSlots = size;
+		table = rebuilt;
+		return rebuilt;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 *
+	 * @return true, if there are no entries
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		writeLock.lock();
+		try {
+			table = new Table(IntHashMap.DEFAULT_CAPACITY);
+			usedSlots = 0;
+			size = 0;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Calls a visitor for every entry, in no particular order.
+	 *
+	 * @param visitor
+	 *            the visitor
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEach(IntHashMap.EntryVisitor<? super V> visitor) {
+		Table current = table;
+
+		for (int i = 0; i < current.keys.length; i++) {
+			int key = (int) KEYS.getAcquire(current.keys, i);
+
+			if (key != IntHashMap.EMPTY) {
+				V value = (V) VALUES.getAcquire(current.values, i);
+				if (value != null) {
+					visitor.visit(key, value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets a view of the values, in no particular order. The view does not
+	 * support removal.
+	 *
+	 * @return the values
+	 */
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+
+			@Override
+			public Iterator<V> iterator() {
+				return new Iterator<V>() {
+
+					private final Table current = table;
+
+					private int slot = -1;
+
+					private V next = advance();
+
+					@SuppressWarnings("unchecked")
+					private V advance() {
+						while (++slot < current.values.length) {
+							V value = (V) VALUES.getAcquire(current.values, slot);
+							if (value != null) {
+								return value;
+							}
+						}
+						return null;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next != null;
+					}
+
+					@Override
+					public V next() {
+						if (next == null) {
+							throw new NoSuchElementException();
+						}
+
+						V value = next;
+						next = advance();
+						return value;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+}
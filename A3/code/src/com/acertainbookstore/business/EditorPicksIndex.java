@@ -0,0 +1,179 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link EditorPicksIndex} keeps the editor picks of a store in a dense array
+ * of slots, so that random picks are sampled without scanning the catalog.
+ * The stores update the index whenever a book is added, removed or its editor
+ * pick flag changes.
+ * <p>
+ * A removed pick is replaced by the pick in the last slot, so both updates and
+ * lookups take constant time. Sampling uses Floyd's algorithm, which draws
+ * <code>n</code> distinct slots uniformly at random with <code>n</code>
+ * random numbers, whatever the number of picks.
+ * <p>
+ * The updates are synchronized, so the index stays consistent for stores that
+ * update books under finer locks than the whole catalog. Samples are drawn
+ * from an immutable copy of the picks, published through a volatile field,
+ * so they take no lock. An update drops the copy, and the next sample makes
+ * a new one under the monitor, so a bulk update copies the picks only once.
+ *
+ * @param <T>
+ *            the type of the books
+ */
+public class EditorPicksIndex<T> {
+
+	/** The ISBNs of the picks, in the first {@link #size} slots. */
+	private int[] isbns = new int[IntHashMap.DEFAULT_CAPACITY];
+
+	/** The picks, at the slot of their ISBN. */
+	private Object[] books = new Object[IntHashMap.DEFAULT_CAPACITY];
+
+	/** The slot of each pick, by ISBN. */
+	private final IntHashMap<Integer> slots = new IntHashMap<>();
+
+	/** The number of picks. */
+	private int size = 0;
+
+	/** The picks as of the last update, or null until the next sample. */
+	private volatile Object[] snapshot = new Object[0];
+
+	/**
+	 * Adds or removes a book according to its editor pick flag.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param book
+	 *            the book
+	 * @param editorPick
+	 *            whether the book is an editor pick
+	 */
+	public synchronized void update(int isbn, T book, boolean editorPick) {
+		if (!editorPick) {
+			remove(isbn);
+			return;
+		}
+
+		Integer slot = slots.get(isbn);
+		if (slot != null) {
+			books[slot] = book;
+			snapshot = null;
+			return;
+		}
+
+		if (size == isbns.length) {
+			isbns = Arrays.copyOf(isbns, size * 2);
+			books = Arrays.copyOf(books, size * 2);
+		}
+
+		isbns[size] = isbn;
+		books[size] = book;
+		slots.put(isbn, size++);
+		snapshot = null;
+	}
+
+	/**
+	 * Removes a book, if it is a pick.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	public synchronized void remove(int isbn) {
+		Integer slot = slots.remove(isbn);
+		if (slot == null) {
+			return;
+		}
+
+		// Move the last pick into the freed slot.
+		int last = --size;
+		if (slot != last) {
+			isbns[slot] = isbns[last];
+			books[slot] = books[last];
+			slots.put(isbns[slot], slot);
+		}
+		books[last] = null;
+		snapshot = null;
+	}
+
+	/**
+	 * Removes all books.
+	 */
+	public synchronized void clear() {
+		Arrays.fill(books, 0, size, null);
+		slots.clear();
+		size = 0;
+		snapshot = null;
+	}
+
+	/**
+	 * Gets the number of picks.
+	 *
+	 * @return the number of picks
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the picks as of the last update, copying them if they changed
+	 * since the last sample.
+	 *
+	 * @return the picks
+	 */
+	private Object[] snapshot() {
+		Object[] picks = snapshot;
+		if (picks != null) {
+			return picks;
+		}
+
+		synchronized (this) {
+			if (snapshot == null) {
+				snapshot = Arrays.copyOf(books, size);
+			}
+			return snapshot;
+		}
+	}
+
+	/**
+	 * Picks distinct books uniformly at random, or all picks if there are not
+	 * more than requested.
+	 *
+	 * @param numBooks
+	 *            the number of books to pick
+	 * @return the picked books
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> sample(int numBooks) {
+		Object[] picks = snapshot();
+		List<T> picked = new ArrayList<>(Math.min(numBooks, picks.length));
+
+		if (picks.length <= numBooks) {
+			for (int i = 0; i < picks.length; i++) {
+				picked.add((T) picks[i]);
+			}
+			return picked;
+		}
+
+		// Floyd's algorithm: for each of the last numBooks slots j, pick a
+		// random slot up to j, or j itself if that slot is already picked.
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
+		Set<Integer> tobePicked = new HashSet<>();
+
+		for (int j = picks.length - numBooks; j < picks.length; j++) {
+			int slot = rand.nextInt(j + 1);
+			if (!tobePicked.add(slot)) {
+				tobePicked.add(j);
+				slot = j;
+			}
+			picked.add((T) picks[slot]);
+		}
+
+		return picked;
+	}
+}
@@ -0,0 +1,400 @@
+package com.acertainbookstore.business;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link IntHashMap} maps primitive <code>int</code> keys, such as ISBNs, to
+ * values using open addressing with linear probing. Keys are never boxed and
+ * lookups do not allocate. The key 0 marks an empty slot and cannot be
+ * stored, which is never a valid ISBN. Removal shifts the following entries
+ * back, so the table holds no tombstones.
+ * <p>
+ * {@link IntHashMap} is not thread-safe; see {@link ConcurrentIntHashMap} for
+ * a variant that can be read without locking.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+public class IntHashMap<V> {
+
+	/**
+	 * {@link EntryVisitor} is called for every entry of an int-keyed map.
+	 *
+	 * @param <V>
+	 *            the type of the values
+	 */
+	@FunctionalInterface
+	public interface EntryVisitor<V> {
+
+		/**
+		 * Visits an entry.
+		 *
+		 * @param key
+		 *            the key
+		 * @param value
+		 *            the value
+		 */
+		void visit(int key, V value);
+	}
+
+	/** The default number of slots of a new map. */
+	static final int DEFAULT_CAPACITY = 16;
+
+	/** The key marking an empty slot. */
+	static final int EMPTY = 0;
+
+	/** The keys, {@link #EMPTY} for empty slots. */
+	private int[] keys;
+
+	/** The values, at the slot of their key. */
+	private Object[] values;
+
+	/** The number of entries. */
+	private int size = 0;
+
+	/** The number of entries at which the table grows. */
+	private int threshold;
+
+	/** The number of structural modifications, to detect concurrent use. */
+	private int modCount = 0;
+
+	/**
+	 * Instantiates a new, empty {@link IntHashMap}.
+	 */
+	public IntHashMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new, empty {@link IntHashMap}.
+	 *
+	 * @param expectedSize
+	 *            the number of entries the map should hold without growing
+	 */
+	public IntHashMap(int expectedSize) {
+		allocate(tableSizeFor(expectedSize));
+	}
+
+	/**
+	 * Instantiates a new {@link IntHashMap} holding the entries of another.
+	 *
+	 * @param source
+	 *            the map to copy
+	 */
+	private IntHashMap(IntHashMap<V> source) {
+		keys = source.keys.clone();
+		values = source.values.clone();
+		size = source.size;
+		threshold = source.threshold;
+	}
+
+	/**
+	 * Returns a shallow copy of the map. The copy takes two array copies, no
+	 * rehashing.
+	 *
+	 * @return the copy
+	 */
+	public IntHashMap<V> copy() {
+		return new IntHashMap<>(this);
+	}
+
+	/**
+	 * Gets the smallest power-of-two number of slots that holds the given
+	 * number of entries at a load factor of at most one half.
+	 *
+	 * @param numEntries
+	 *            the number of entries
+	 * @return the number of slots
+	 */
+	static int tableSizeFor(int numEntries) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity < (1 << 30) && capacity / 2 < numEntries) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Gets the home slot of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param mask
+	 *            the number of slots minus one
+	 * @return the slot
+	 */
+	static int slotOf(int key, int mask) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Checks that a key can be stored.
+	 *
+	 * @param key
+	 *            the key
+	 */
+	static void checkKey(int key) {
+		if (key == EMPTY) {
+			throw new IllegalArgumentException("The key " + EMPTY + " is reserved");
+		}
+	}
+
+	/**
+	 * Replaces the table by an empty one.
+	 *
+	 * @param capacity
+	 *            the number of slots
+	 */
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		threshold = capacity / 2;
+	}
+
+	/**
+	 * Finds the slot of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the slot holding the key, or the empty slot ending its probe
+	 *         sequence
+	 */
+	private int find(int key) {
+		int mask = keys.length - 1;
+		int slot = slotOf(key, mask);
+
+		while (keys[slot] != key && keys[slot] != EMPTY) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Gets the value mapped to a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if the key is not mapped
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		if (key == EMPTY) {
+			return null;
+		}
+
+		return (V) values[find(key)];
+	}
+
+	/**
+	 * Checks if a key is mapped.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is mapped
+	 */
+	public boolean containsKey(int key) {
+		return key != EMPTY && keys[find(key)] == key;
+	}
+
+	/**
+	 * Maps a key to a value.
+	 *
+	 * @param key
+	 *            the key, must not be 0
+	 * @param value
+	 *            the value, must not be null
+	 * @return the previous value, or null if the key was not mapped
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		checkKey(key);
+		if (value == null) {
+			throw new NullPointerException();
+		}
+
+		int slot = find(key);
+		V previous = (V) values[slot];
+
+		if (keys[slot] == EMPTY) {
+			if (size >= threshold) {
+				resize(keys.length << 1);
+				slot = find(key);
+			}
+			keys[slot] = key;
+			size++;
+			modCount++;
+		}
+
+		values[slot] = value;
+		return previous;
+	}
+
+	/**
+	 * Removes the mapping of a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the removed value, or null if the key was not mapped
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		if (key == EMPTY) {
+			return null;
+		}
+
+		int slot = find(key);
+		if (keys[slot] == EMPTY) {
+			return null;
+		}
+
+		V previous = (V) values[slot];
+		int mask = keys.length - 1;
+
+		// Shift back entries whose probe sequence passes the freed slot.
+		int free = slot;
+		for (int next = (free + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+			int home = slotOf(keys[next], mask);
+
+			if (((next - home) & mask) >= ((next - free) & mask)) {
+				keys[free] = keys[next];
+				values[free] = values[next];
+				free = next;
+			}
+		}
+
+		keys[free] = EMPTY;
+		values[free] = null;
+		size--;
+		modCount++;
+		return previous;
+	}
+
+	/**
+	 * Rehashes all entries into a table with the given number of slots.
+	 *
+	 * @param capacity
+	 *            the number of slots
+	 */
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = find(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 *
+	 * @return true, if there are no entries
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		Arrays.fill(values, null);
+		size = 0;
+		modCount++;
+	}
+
+	/**
+	 * Calls a visitor for every entry, in no particular order.
+	 *
+	 * @param visitor
+	 *            the visitor
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEach(EntryVisitor<? super V> visitor) {
+		int expectedModCount = modCount;
+
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != EMPTY) {
+				visitor.visit(keys[i], (V) values[i]);
+			}
+		}
+
+		if (modCount != expectedModCount) {
+			throw new ConcurrentModificationException();
+		}
+	}
+
+	/**
+	 * Gets a view of the values, in no particular order. The view does not
+	 * support removal.
+	 *
+	 * @return the values
+	 */
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+
+			@Override
+			public Iterator<V> iterator() {
+				return new Iterator<V>() {
+
+					private final int expectedModCount = modCount;
+
+					private int next = advance(0);
+
+					private int advance(int from) {
+						while (from < keys.length && keys[from] == EMPTY) {
+							from++;
+						}
+						return from;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next < keys.length;
+					}
+
+					@Override
+					@SuppressWarnings("unchecked")
+					public V next() {
+						if (modCount != expectedModCount) {
+							throw new ConcurrentModificationException();
+						}
+						if (next >= keys.length) {
+							throw new NoSuchElementException();
+						}
+
+						V value = (V) values[next];
+						next = advance(next + 1);
+						return value;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+}
@@ -0,0 +1,1141 @@
+package com.acertainbookstore.business;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.TransactionAbortedException;
+
+/**
+ * {@link LockManager} grants locks on resources, identified by
+ * <code>int</code>s, to {@link LockTransaction}s in any {@link LockMode}. The
+ * lock table is hashed into partitions, each guarded by its own latch, and
+ * holds an entry only for resources that are locked or waited for.
+ * <p>
+ * Requests on a resource are granted in arrival order: a request waits if it
+ * is incompatible with a granted mode or if an earlier request is still
+ * waiting. A transaction asking for a stronger mode on a resource it already
+ * holds is upgraded; upgrades wait ahead of new requests, since the upgrading
+ * transaction already blocks them. All locks of a transaction are released
+ * together, at its end, which makes the locking strict two-phase.
+ * <p>
+ * Deadlocks are broken by a background detector. At a fixed interval, and
+ * only while requests are waiting, it latches the whole lock table, builds the
+ * waits-for graph of the waiting transactions and searches it for cycles. For
+ * every cycle one victim, chosen by the {@link VictimPolicy}, has its waiting
+ * request aborted with a {@link TransactionAbortedException}; the victim's
+ * locks are released when it closes its transaction, and it can be retried.
+ * <p>
+ * Alternatively, a {@link DeadlockPolicy} can prevent deadlocks from forming,
+ * using the identifiers of transactions as timestamps: whenever a request
+ * would wait for another transaction, the wait-die or the wound-wait rule
+ * decides which one of the two is aborted instead. A transaction restarted
+ * with {@link #restart(LockTransaction)} keeps its timestamp, so it gets
+ * older with every restart and eventually wins all its conflicts.
+ * <p>
+ * Resources can form a hierarchy, as a catalog and its books do. A
+ * transaction locking a resource below a parent with
+ * {@link #lock(LockTransaction, int, int, LockMode)} escalates once it holds
+ * {@link #getEscalationThreshold()} locks: it locks the parent in the
+ * requested mode instead, which covers all further requests below it, so a
+ * bulk request stops paying for one lock table entry per resource.
+ *
+ * @see LockTransaction
+ * @see LockMode
+ */
+public class LockManager {
+
+	/** The default number of lock table partitions. */
+	public static final int DEFAULT_NUM_PARTITIONS = 64;
+
+	/** The default number of locks a transaction holds before it escalates. */
+	public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
+	/** The default interval between two deadlock detections, in milliseconds. */
+	public static final long DEFAULT_DETECTION_INTERVAL_MILLIS = 100;
+
+	/**
+	 * {@link VictimPolicy} chooses which transaction of a deadlock cycle is
+	 * aborted.
+	 */
+	public enum VictimPolicy {
+
+		/** Abort the transaction started last, which lost the least work. */
+		YOUNGEST,
+
+		/** Abort the transaction holding the fewest locks, the youngest of them on a tie. */
+		FEWEST_LOCKS
+	}
+
+	/**
+	 * {@link DeadlockPolicy} chooses how a lock manager deals with deadlocks.
+	 */
+	public enum DeadlockPolicy {
+
+		/** Let deadlocks form and break them with the periodic detector. */
+		DETECT,
+
+		/**
+		 * Wait-die: an older transaction waits for a younger one, a younger
+		 * transaction asking for a lock held by an older one is aborted.
+		 */
+		WAIT_DIE,
+
+		/**
+		 * Wound-wait: an older transaction asking for a lock held by a younger
+		 * one aborts (wounds) it, a younger transaction waits for an older one.
+		 * A wounded transaction is aborted at its next lock request, or right
+		 * away if it is waiting.
+		 */
+		WOUND_WAIT;
+
+		/**
+		 * Gets the policy selected by a property value.
+		 *
+		 * @param name
+		 *            the property value, or null
+		 * @return the policy, {@link #DETECT} if the value is null or unknown
+		 */
+		public static DeadlockPolicy forName(String name) {
+			if (BookStoreConstants.DEADLOCK_POLICY_WAIT_DIE.equals(name)) {
+				return WAIT_DIE;
+			} else if (BookStoreConstants.DEADLOCK_POLICY_WOUND_WAIT.equals(name)) {
+				return WOUND_WAIT;
+			}
+			return DETECT;
+		}
+	}
+
+	/** The thread running the deadlock detection of all lock managers. */
+	private static final ScheduledExecutorService DETECTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "lock-deadlock-detector");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * {@link DetectionTask} runs the periodic deadlock detection of a lock
+	 * manager. It only holds a weak reference, so that an unused lock manager
+	 * can be collected, and then cancels itself.
+	 */
+	private static final class DetectionTask implements Runnable {
+
+		/** The lock manager. */
+		private final WeakReference<LockManager> lockManager;
+
+		/** The scheduled execution of this task. */
+		private volatile ScheduledFuture<?> future;
+
+		private DetectionTask(LockManager lockManager) {
+			this.lockManager = new WeakReference<>(lockManager);
+		}
+
+		@Override
+		public void run() {
+			LockManager manager = lockManager.get();
+
+			if (manager == null) {
+				future.cancel(false);
+			} else {
+				manager.detectDeadlocks();
+			}
+		}
+	}
+
+	/**
+	 * {@link Request} is a lock request waiting in the queue of a resource.
+	 */
+	private static final class Request {
+
+		/** The requesting transaction. */
+		private final LockTransaction transaction;
+
+		/** The requested mode. */
+		private final LockMode mode;
+
+		/** Whether the request upgrades a lock already held. */
+		private final boolean upgrade;
+
+		/** The partition holding the resource. */
+		private final Partition partition;
+
+		/** The lock entry of the resource. */
+		private final LockEntry entry;
+
+		/** Signalled when the request is granted or aborted. */
+		private final Condition ready;
+
+		/** The time the request started waiting, in nanoseconds. */
+		private final long since = System.nanoTime();
+
+		/** Whether the request has been granted. */
+		private boolean granted = false;
+
+		/** Whether the request has been aborted. */
+		private boolean aborted = false;
+
+		/** Why the request has been aborted. */
+		private String abortMessage = null;
+
+		private Request(LockTransaction transaction, LockMode mode, boolean upgrade, Partition partition,
+				LockEntry entry) {
+			this.transaction = transaction;
+			this.mode = mode;
+			this.upgrade = upgrade;
+			this.partition = partition;
+			this.entry = entry;
+			this.ready = partition.latch.newCondition();
+		}
+	}
+
+	/**
+	 * {@link LockEntry} is the state of a lock on one resource.
+	 */
+	private static final class LockEntry {
+
+		/** The granted modes per holding transaction. */
+		private final Map<LockTransaction, LockMode> granted = new HashMap<>();
+
+		/** The waiting requests, upgrades first, then in arrival order. */
+		private final LinkedList<Request> queue = new LinkedList<>();
+
+		/**
+		 * Checks if a mode can be granted to a transaction, given the modes
+		 * granted to the other transactions.
+		 *
+		 * @param transaction
+		 *            the transaction
+		 * @param mode
+		 *            the mode
+		 * @return true, if the mode is compatible with all other holders
+		 */
+		private boolean isGrantable(LockTransaction transaction, LockMode mode) {
+			for (Map.Entry<LockTransaction, LockMode> holder : granted.entrySet()) {
+				if (holder.getKey() != transaction && !mode.isCompatibleWith(holder.getValue())) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Grants the waiting requests at the head of the queue, up to the
+		 * first one that cannot be granted.
+		 */
+		private void grantWaiters() {
+			for (Iterator<Request> it = queue.iterator(); it.hasNext();) {
+				Request request = it.next();
+
+				if (!isGrantable(request.transaction, request.mode)) {
+					break;
+				}
+
+				it.remove();
+				granted.put(request.transaction, request.mode);
+				request.granted = true;
+				request.ready.signal();
+			}
+		}
+	}
+
+	/**
+	 * {@link Partition} is a part of the lock table.
+	 */
+	private static final class Partition {
+
+		/** The latch guarding the entries of the partition. */
+		private final ReentrantLock latch = new ReentrantLock();
+
+		/** The lock entries per resource. */
+		private final IntHashMap<LockEntry> entries = new IntHashMap<>();
+	}
+
+	/** The partitions of the lock table. */
+	private final Partition[] partitions;
+
+	/** The mask selecting a partition from a resource. */
+	private final int partitionMask;
+
+	/** The identifier of the last transaction started. */
+	private final AtomicLong lastTransactionId = new AtomicLong();
+
+	/** The number of lock requests not already covered by a held lock. */
+	private final AtomicLong numRequests = new AtomicLong();
+
+	/** The number of requests that had to wait. */
+	private final AtomicLong numWaits = new AtomicLong();
+
+	/** The number of upgrades of held locks. */
+	private final AtomicLong numUpgrades = new AtomicLong();
+
+	/** The total time requests spent waiting, in nanoseconds. */
+	private final AtomicLong waitNanos = new AtomicLong();
+
+	/** The number of requests waiting right now. */
+	private final AtomicInteger numWaiting = new AtomicInteger();
+
+	/** The policy dealing with deadlocks. */
+	private final DeadlockPolicy deadlockPolicy;
+
+	/** The policy choosing deadlock victims. */
+	private final VictimPolicy victimPolicy;
+
+	/** The waiting request of each waiting transaction, to abort wounded ones. */
+	private final Map<LockTransaction, Request> waitingRequests = new ConcurrentHashMap<>();
+
+	/** The number of deadlocks broken. */
+	private final AtomicLong numDeadlocks = new AtomicLong();
+
+	/** The total time deadlock victims waited before being aborted, in nanoseconds. */
+	private final AtomicLong deadlockWaitNanos = new AtomicLong();
+
+	/** The longest time a deadlock victim waited before being aborted, in nanoseconds. */
+	private final AtomicLong maxDeadlockWaitNanos = new AtomicLong();
+
+	/** The number of requests aborted by the wait-die rule. */
+	private final AtomicLong numDies = new AtomicLong();
+
+	/** The number of transactions wounded by the wound-wait rule. */
+	private final AtomicLong numWounds = new AtomicLong();
+
+	/** The number of transactions restarted after an abort. */
+	private final AtomicLong numRestarts = new AtomicLong();
+
+	/** The number of locks a transaction holds before it escalates. */
+	private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+
+	/** The number of escalations to a parent lock. */
+	private final AtomicLong numEscalations = new AtomicLong();
+
+	/**
+	 * Instantiates a new {@link LockManager} with
+	 * {@link #DEFAULT_NUM_PARTITIONS} lock table partitions.
+	 */
+	public LockManager() {
+		this(DEFAULT_NUM_PARTITIONS);
+	}
+
+	/**
+	 * Instantiates a new {@link LockManager} aborting the youngest transaction
+	 * of a deadlock, detected every
+	 * {@link #DEFAULT_DETECTION_INTERVAL_MILLIS} milliseconds.
+	 *
+	 * @param numPartitions
+	 *            the number of lock table partitions, rounded up to a power of
+	 *            two
+	 */
+	public LockManager(int numPartitions) {
+		this(numPartitions, VictimPolicy.YOUNGEST, DEFAULT_DETECTION_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * Instantiates a new {@link LockManager} with the given deadlock policy.
+	 * With {@link DeadlockPolicy#DETECT}, the youngest transaction of a
+	 * deadlock is aborted, detected every
+	 * {@link #DEFAULT_DETECTION_INTERVAL_MILLIS} milliseconds.
+	 *
+	 * @param numPartitions
+	 *            the number of lock table partitions, rounded up to a power of
+	 *            two
+	 * @param deadlockPolicy
+	 *            the policy dealing with deadlocks
+	 */
+	public LockManager(int numPartitions, DeadlockPolicy deadlockPolicy) {
+		this(numPartitions, deadlockPolicy, VictimPolicy.YOUNGEST,
+				deadlockPolicy == DeadlockPolicy.DETECT ? DEFAULT_DETECTION_INTERVAL_MILLIS : 0);
+	}
+
+	/**
+	 * Instantiates a new {@link LockManager} detecting deadlocks.
+	 *
+	 * @param numPartitions
+	 *            the number of lock table partitions, rounded up to a power of
+	 *            two
+	 * @param victimPolicy
+	 *            the policy choosing deadlock victims
+	 * @param detectionIntervalMillis
+	 *            the interval between two deadlock detections in
+	 *            milliseconds, or 0 to detect deadlocks only when
+	 *            {@link #detectDeadlocks()} is called
+	 */
+	public LockManager(int numPartitions, VictimPolicy victimPolicy, long detectionIntervalMillis) {
+		this(numPartitions, DeadlockPolicy.DETECT, victimPolicy, detectionIntervalMillis);
+	}
+
+	/**
+	 * Instantiates a new {@link LockManager}.
+	 *
+	 * @param numPartitions
+	 *            the number of lock table partitions, rounded up to a power of
+	 *            two
+	 * @param deadlockPolicy
+	 *            the policy dealing with deadlocks
+	 * @param victimPolicy
+	 *            the policy choosing deadlock victims, if deadlocks are
+	 *            detected
+	 * @param detectionIntervalMillis
+	 *            the interval between two deadlock detections in
+	 *            milliseconds, or 0 to detect deadlocks only when
+	 *            {@link #detectDeadlocks()} is called
+	 */
+	public LockManager(int numPartitions, DeadlockPolicy deadlockPolicy, VictimPolicy victimPolicy,
+			long detectionIntervalMillis) {
+		if (numPartitions < 1) {
+			throw new IllegalArgumentException("numPartitions = " + numPartitions + ", but it must be positive");
+		}
+		if (detectionIntervalMillis < 0) {
+			throw new IllegalArgumentException(
+					"detectionIntervalMillis = " + detectionIntervalMillis + ", but it must not be negative");
+		}
+
+		int size = Integer.highestOneBit(numPartitions);
+		if (size < numPartitions) {
+			size <<= 1;
+		}
+
+		// Constructors are not synchronized
+		partitions = new Partition[size];
+		partitionMask = size - 1;
+
+		for (int i = 0; i < size; i++) {
+			partitions[i] = new Partition();
+		}
+
+		this.deadlockPolicy = deadlockPolicy;
+		this.victimPolicy = victimPolicy;
+
+		if (detectionIntervalMillis > 0) {
+			DetectionTask task = new DetectionTask(this);
+			task.future = DETECTOR.scheduleWithFixedDelay(task, detectionIntervalMillis, detectionIntervalMillis,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Starts a new transaction.
+	 *
+	 * @return the transaction
+	 */
+	public LockTransaction begin() {
+		return new LockTransaction(this, lastTransactionId.incrementAndGet());
+	}
+
+	/**
+	 * Starts a transaction again after it was aborted. The new transaction
+	 * keeps the identifier, and so the age, of the aborted one.
+	 *
+	 * @param aborted
+	 *            the aborted transaction, which must have released its locks
+	 * @return the new transaction
+	 */
+	public LockTransaction restart(LockTransaction aborted) {
+		if (aborted.getNumLocks() > 0) {
+			throw new IllegalStateException(aborted + " still holds locks");
+		}
+
+		numRestarts.incrementAndGet();
+		return new LockTransaction(this, aborted.getId());
+	}
+
+	/**
+	 * Gets the policy dealing with deadlocks.
+	 *
+	 * @return the deadlock policy
+	 */
+	public DeadlockPolicy getDeadlockPolicy() {
+		return deadlockPolicy;
+	}
+
+	/**
+	 * Gets the number of locks a transaction holds before it escalates.
+	 *
+	 * @return the escalation threshold
+	 */
+	public int getEscalationThreshold() {
+		return escalationThreshold;
+	}
+
+	/**
+	 * Sets the number of locks a transaction holds before it escalates.
+	 *
+	 * @param escalationThreshold
+	 *            the escalation threshold, or {@link Integer#MAX_VALUE} to
+	 *            never escalate
+	 */
+	public void setEscalationThreshold(int escalationThreshold) {
+		if (escalationThreshold < 1) {
+			throw new IllegalArgumentException(
+					"escalationThreshold = " + escalationThreshold + ", but it must be positive");
+		}
+		this.escalationThreshold = escalationThreshold;
+	}
+
+	/**
+	 * Gets the partition of the lock table holding a resource.
+	 *
+	 * @param resource
+	 *            the resource
+	 * @return the partition
+	 */
+	private Partition partitionOf(int resource) {
+		return partitions[IntHashMap.slotOf(resource, partitionMask)];
+	}
+
+	/**
+	 * Acquires a lock on a resource for a transaction, waiting until it can be
+	 * granted. If the transaction already holds a lock on the resource, the
+	 * lock is upgraded to cover both modes.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param resource
+	 *            the resource, must not be 0
+	 * @param mode
+	 *            the mode
+	 * @throws TransactionAbortedException
+	 *             if the transaction was chosen as the victim of a deadlock,
+	 *             or aborted by the wait-die or wound-wait rule; its request
+	 *             is not granted, but it keeps the locks it holds until it is
+	 *             closed
+	 */
+	public void lock(LockTransaction transaction, int resource, LockMode mode) throws TransactionAbortedException {
+		IntHashMap.checkKey(resource);
+
+		LockMode held = transaction.getHeldMode(resource);
+		if (held != null && held.covers(mode)) {
+			return;
+		}
+
+		if (transaction.isWounded()) {
+			throw new TransactionAbortedException();
+		}
+
+		boolean upgrade = held != null;
+		LockMode target = upgrade ? held.combine(mode) : mode;
+		Partition partition = partitionOf(resource);
+		Request request = null;
+		List<LockTransaction> toWound = null;
+
+		numRequests.incrementAndGet();
+		if (upgrade) {
+			numUpgrades.incrementAndGet();
+		}
+
+		partition.latch.lock();
+		try {
+			LockEntry entry = partition.entries.get(resource);
+			if (entry == null) {
+				entry = new LockEntry();
+				partition.entries.put(resource, entry);
+			}
+
+			if ((upgrade || entry.queue.isEmpty()) && entry.isGrantable(transaction, target)) {
+				entry.granted.put(transaction, target);
+			} else {
+				request = new Request(transaction, target, upgrade, partition, entry);
+				enqueue(entry, request);
+				numWaits.incrementAndGet();
+				numWaiting.incrementAndGet();
+				waitingRequests.put(transaction, request);
+			}
+
+			// The new request, or an upgrade, may make a transaction wait for another.
+			if (deadlockPolicy != DeadlockPolicy.DETECT && (request != null || upgrade)) {
+				toWound = enforce(entry);
+			}
+		} finally {
+			partition.latch.unlock();
+		}
+
+		wound(toWound);
+
+		if (request != null) {
+			await(request, resource);
+		}
+
+		transaction.held().put(resource, target);
+	}
+
+	/**
+	 * Waits until a request is granted or aborted.
+	 *
+	 * @param request
+	 *            the request
+	 * @param resource
+	 *            the resource requested
+	 * @throws TransactionAbortedException
+	 *             if the request was aborted
+	 */
+	private void await(Request request, int resource) throws TransactionAbortedException {
+		Partition partition = request.partition;
+
+		partition.latch.lock();
+		try {
+			try {
+				while (!request.granted && !request.aborted) {
+					if (request.transaction.isWounded()) {
+						// Wounded before its request could be found.
+						abortWaiting(request, BookStoreConstants.TRANSACTION_ABORTED);
+						break;
+					}
+					request.ready.awaitUninterruptibly();
+				}
+			} finally {
+				numWaiting.decrementAndGet();
+				waitingRequests.remove(request.transaction);
+				waitNanos.addAndGet(System.nanoTime() - request.since);
+			}
+
+			if (request.aborted) {
+				// The entry may have been dropped and replaced in the meantime.
+				LockEntry entry = request.entry;
+				if (entry.granted.isEmpty() && entry.queue.isEmpty() && partition.entries.get(resource) == entry) {
+					partition.entries.remove(resource);
+				}
+				throw new TransactionAbortedException(request.abortMessage);
+			}
+		} finally {
+			partition.latch.unlock();
+		}
+	}
+
+	/**
+	 * Aborts a waiting request and grants the requests that were waiting
+	 * behind it. Called with the latch of its partition held.
+	 *
+	 * @param request
+	 *            the request
+	 * @param message
+	 *            the message of the exception the requester gets
+	 */
+	private void abortWaiting(Request request, String message) {
+		request.entry.queue.remove(request);
+		request.aborted = true;
+		request.abortMessage = message;
+		request.ready.signal();
+		request.entry.grantWaiters();
+	}
+
+	/**
+	 * Applies the wait-die or wound-wait rule to every request waiting on a
+	 * resource. Under wait-die, requests waiting for an older transaction are
+	 * aborted; under wound-wait, the younger transactions that requests wait
+	 * for are returned, to be wounded once the latch is released. Called with
+	 * the latch of the partition held.
+	 *
+	 * @param entry
+	 *            the lock entry of the resource
+	 * @return the transactions to wound, or null if there are none
+	 */
+	private List<LockTransaction> enforce(LockEntry entry) {
+		List<LockTransaction> toWound = null;
+		boolean died;
+
+		do {
+			died = false;
+			List<LockTransaction> ahead = new ArrayList<>();
+
+			for (Request request : entry.queue) {
+				// A request waits for the incompatible holders and all requests ahead.
+				List<LockTransaction> blockers = new ArrayList<>(ahead);
+				entry.granted.forEach((holder, mode) -> {
+					if (holder != request.transaction && !request.mode.isCompatibleWith(mode)) {
+						blockers.add(holder);
+					}
+				});
+
+				boolean dies = false;
+				for (LockTransaction blocker : blockers) {
+					boolean older = blocker.getId() < request.transaction.getId();
+
+					if (deadlockPolicy == DeadlockPolicy.WAIT_DIE && older) {
+						dies = true;
+						break;
+					} else if (deadlockPolicy == DeadlockPolicy.WOUND_WAIT && !older && !blocker.isWounded()) {
+						if (toWound == null) {
+							toWound = new ArrayList<>();
+						}
+						toWound.add(blocker);
+					}
+				}
+
+				if (dies) {
+					numDies.incrementAndGet();
+					abortWaiting(request, BookStoreConstants.TRANSACTION_ABORTED);
+
+					// Requests behind it may have been granted, start over.
+					died = true;
+					break;
+				}
+				ahead.add(request.transaction);
+			}
+		} while (died);
+
+		return toWound;
+	}
+
+	/**
+	 * Wounds transactions: each is aborted at its next lock request, or right
+	 * away if it is waiting. Called without any latch held.
+	 *
+	 * @param transactions
+	 *            the transactions to wound, or null
+	 */
+	private void wound(List<LockTransaction> transactions) {
+		while (transactions != null && !transactions.isEmpty()) {
+			List<LockTransaction> next = new ArrayList<>();
+
+			for (LockTransaction victim : transactions) {
+				if (victim.wound()) {
+					numWounds.incrementAndGet();
+				}
+
+				Request request = waitingRequests.get(victim);
+				if (request == null) {
+					continue;
+				}
+
+				request.partition.latch.lock();
+				try {
+					if (!request.granted && !request.aborted) {
+						abortWaiting(request, BookStoreConstants.TRANSACTION_ABORTED);
+
+						List<LockTransaction> more = enforce(request.entry);
+						if (more != null) {
+							next.addAll(more);
+						}
+					}
+				} finally {
+					request.partition.latch.unlock();
+				}
+			}
+
+			transactions = next;
+		}
+	}
+
+	/**
+	 * Adds a request to the queue of a resource. Upgrades go behind earlier
+	 * upgrades but ahead of all new requests.
+	 *
+	 * @param entry
+	 *            the lock entry of the resource
+	 * @param request
+	 *            the request
+	 */
+	private void enqueue(LockEntry entry, Request request) {
+		if (!request.upgrade) {
+			entry.queue.addLast(request);
+			return;
+		}
+
+		ListIterator<Request> it = entry.queue.listIterator();
+		while (it.hasNext()) {
+			if (!it.next().upgrade) {
+				it.previous();
+				break;
+			}
+		}
+		it.add(request);
+	}
+
+	/**
+	 * Acquires a lock on a resource below a parent resource, on which the
+	 * transaction already holds an intention lock. The request is covered if
+	 * the transaction holds the parent in a mode covering the requested one.
+	 * Once the transaction holds {@link #getEscalationThreshold()} locks, the
+	 * lock is escalated: the parent is locked in the requested mode, which
+	 * covers this and every later request below it. The locks taken before
+	 * the escalation are kept until the transaction ends, like all others.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param parent
+	 *            the parent resource
+	 * @param resource
+	 *            the resource, must not be 0
+	 * @param mode
+	 *            the mode, {@link LockMode#SHARED} or
+	 *            {@link LockMode#EXCLUSIVE}
+	 * @throws TransactionAbortedException
+	 *             if the transaction was aborted, see
+	 *             {@link #lock(LockTransaction, int, LockMode)}
+	 */
+	public void lock(LockTransaction transaction, int parent, int resource, LockMode mode)
+			throws TransactionAbortedException {
+		LockMode parentMode = transaction.getHeldMode(parent);
+
+		if (parentMode != null && parentMode.covers(mode)) {
+			return;
+		}
+
+		if (transaction.getNumLocks() >= escalationThreshold) {
+			// Upgrades the intention lock, e.g. IS to S or IX to X.
+			lock(transaction, parent, mode);
+			numEscalations.incrementAndGet();
+			return;
+		}
+
+		lock(transaction, resource, mode);
+	}
+
+	/**
+	 * Releases all locks of a transaction and grants the requests waiting for
+	 * them.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 */
+	public void releaseAll(LockTransaction transaction) {
+		IntHashMap<LockMode> held = transaction.held();
+		if (held.isEmpty()) {
+			return;
+		}
+
+		List<LockTransaction> toWound = new ArrayList<>();
+
+		held.forEach((resource, mode) -> {
+			Partition partition = partitionOf(resource);
+
+			partition.latch.lock();
+			try {
+				LockEntry entry = partition.entries.get(resource);
+				entry.granted.remove(transaction);
+				entry.grantWaiters();
+
+				// Granted upgrades may make the remaining requests wait for them.
+				if (deadlockPolicy != DeadlockPolicy.DETECT) {
+					List<LockTransaction> more = enforce(entry);
+					if (more != null) {
+						toWound.addAll(more);
+					}
+				}
+
+				if (entry.granted.isEmpty() && entry.queue.isEmpty()) {
+					partition.entries.remove(resource);
+				}
+			} finally {
+				partition.latch.unlock();
+			}
+		});
+
+		held.clear();
+		wound(toWound);
+	}
+
+	/**
+	 * Searches the waits-for graph for deadlocks and aborts one victim per
+	 * cycle. The whole lock table is latched meanwhile, so the graph is a
+	 * consistent snapshot. Called periodically by the detector, but can be
+	 * called at any time.
+	 *
+	 * @return the number of deadlocks broken
+	 */
+	public int detectDeadlocks() {
+		if (numWaiting.get() == 0) {
+			return 0;
+		}
+
+		for (Partition partition : partitions) {
+			partition.latch.lock();
+		}
+
+		try {
+			Map<LockTransaction, Set<LockTransaction>> waitsFor = new HashMap<>();
+			Map<LockTransaction, Request> requests = new HashMap<>();
+			Map<LockTransaction, Integer> numLocks = new HashMap<>();
+
+			for (Partition partition : partitions) {
+				partition.entries.forEach((resource, entry) -> {
+					for (LockTransaction holder : entry.granted.keySet()) {
+						numLocks.merge(holder, 1, Integer::sum);
+					}
+
+					List<Request> ahead = new ArrayList<>();
+					for (Request request : entry.queue) {
+						Set<LockTransaction> blockers = new HashSet<>();
+
+						// A request waits for the incompatible holders and, as
+						// requests are granted in order, for all requests ahead.
+						entry.granted.forEach((holder, mode) -> {
+							if (holder != request.transaction && !request.mode.isCompatibleWith(mode)) {
+								blockers.add(holder);
+							}
+						});
+						for (Request earlier : ahead) {
+							blockers.add(earlier.transaction);
+						}
+
+						waitsFor.put(request.transaction, blockers);
+						requests.put(request.transaction, request);
+						ahead.add(request);
+					}
+				});
+			}
+
+			int numBroken = 0;
+			List<LockTransaction> cycle;
+
+			while ((cycle = findCycle(waitsFor)) != null) {
+				LockTransaction victim = chooseVictim(cycle, numLocks);
+				abort(requests.get(victim));
+
+				waitsFor.remove(victim);
+				for (Set<LockTransaction> blockers : waitsFor.values()) {
+					blockers.remove(victim);
+				}
+				numBroken++;
+			}
+
+			return numBroken;
+		} finally {
+			for (int i = partitions.length - 1; i >= 0; i--) {
+				partitions[i].latch.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Finds a cycle in a waits-for graph.
+	 *
+	 * @param waitsFor
+	 *            the transactions each waiting transaction waits for
+	 * @return the transactions of a cycle, or null if there is none
+	 */
+	private static List<LockTransaction> findCycle(Map<LockTransaction, Set<LockTransaction>> waitsFor) {
+		Set<LockTransaction> visited = new HashSet<>();
+
+		for (LockTransaction start : waitsFor.keySet()) {
+			List<LockTransaction> cycle = findCycle(waitsFor, start, new ArrayList<>(), visited);
+			if (cycle != null) {
+				return cycle;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Searches a waits-for graph depth first for a cycle through the current
+	 * path.
+	 *
+	 * @param waitsFor
+	 *            the transactions each waiting transaction waits for
+	 * @param transaction
+	 *            the transaction to visit
+	 * @param path
+	 *            the transactions on the path to the visited one
+	 * @param visited
+	 *            the transactions known to be on no cycle
+	 * @return the transactions of a cycle, or null if there is none
+	 */
+	private static List<LockTransaction> findCycle(Map<LockTransaction, Set<LockTransaction>> waitsFor,
+			LockTransaction transaction, List<LockTransaction> path, Set<LockTransaction> visited) {
+		int index = path.indexOf(transaction);
+		if (index >= 0) {
+			return new ArrayList<>(path.subList(index, path.size()));
+		}
+		if (visited.contains(transaction)) {
+			return null;
+		}
+
+		path.add(transaction);
+		for (LockTransaction blocker : waitsFor.getOrDefault(transaction, Collections.emptySet())) {
+			List<LockTransaction> cycle = findCycle(waitsFor, blocker, path, visited);
+			if (cycle != null) {
+				return cycle;
+			}
+		}
+		path.remove(path.size() - 1);
+		visited.add(transaction);
+
+		return null;
+	}
+
+	/**
+	 * Chooses the victim of a deadlock cycle according to the victim policy.
+	 *
+	 * @param cycle
+	 *            the transactions of the cycle
+	 * @param numLocks
+	 *            the number of locks held per transaction
+	 * @return the victim
+	 */
+	private LockTransaction chooseVictim(List<LockTransaction> cycle, Map<LockTransaction, Integer> numLocks) {
+		LockTransaction victim = null;
+
+		for (LockTransaction transaction : cycle) {
+			if (victim == null) {
+				victim = transaction;
+				continue;
+			}
+
+			int difference = 0;
+			if (victimPolicy == VictimPolicy.FEWEST_LOCKS) {
+				difference = numLocks.getOrDefault(victim, 0) - numLocks.getOrDefault(transaction, 0);
+			}
+
+			if (difference > 0 || (difference == 0 && transaction.getId() > victim.getId())) {
+				victim = transaction;
+			}
+		}
+
+		return victim;
+	}
+
+	/**
+	 * Aborts the waiting request of a deadlock victim. Called with the whole
+	 * lock table latched.
+	 *
+	 * @param request
+	 *            the request
+	 */
+	private void abort(Request request) {
+		abortWaiting(request, BookStoreConstants.DEADLOCK_VICTIM);
+
+		long waited = System.nanoTime() - request.since;
+		numDeadlocks.incrementAndGet();
+		deadlockWaitNanos.addAndGet(waited);
+		maxDeadlockWaitNanos.accumulateAndGet(waited, Math::max);
+	}
+
+	/**
+	 * Gets the number of deadlocks broken.
+	 *
+	 * @return the number of deadlocks
+	 */
+	public long getNumDeadlocks() {
+		return numDeadlocks.get();
+	}
+
+	/**
+	 * Gets the total time deadlock victims waited before their deadlock was
+	 * broken.
+	 *
+	 * @return the wait time in nanoseconds
+	 */
+	public long getDeadlockWaitNanos() {
+		return deadlockWaitNanos.get();
+	}
+
+	/**
+	 * Gets the longest time a deadlock victim waited before its deadlock was
+	 * broken.
+	 *
+	 * @return the wait time in nanoseconds
+	 */
+	public long getMaxDeadlockWaitNanos() {
+		return maxDeadlockWaitNanos.get();
+	}
+
+	/**
+	 * Gets the number of lock requests aborted by the wait-die rule.
+	 *
+	 * @return the number of aborted requests
+	 */
+	public long getNumDies() {
+		return numDies.get();
+	}
+
+	/**
+	 * Gets the number of transactions wounded by the wound-wait rule.
+	 *
+	 * @return the number of wounded transactions
+	 */
+	public long getNumWounds() {
+		return numWounds.get();
+	}
+
+	/**
+	 * Gets the number of transactions restarted after an abort.
+	 *
+	 * @return the number of restarts
+	 */
+	public long getNumRestarts() {
+		return numRestarts.get();
+	}
+
+	/**
+	 * Gets the number of escalations to a parent lock.
+	 *
+	 * @return the number of escalations
+	 */
+	public long getNumEscalations() {
+		return numEscalations.get();
+	}
+
+	/**
+	 * Gets the number of lock requests that were not already covered by a lock
+	 * of the requesting transaction.
+	 *
+	 * @return the number of requests
+	 */
+	public long getNumRequests() {
+		return numRequests.get();
+	}
+
+	/**
+	 * Gets the number of lock requests that had to wait.
+	 *
+	 * @return the number of waits
+	 */
+	public long getNumWaits() {
+		return numWaits.get();
+	}
+
+	/**
+	 * Gets the number of lock upgrades.
+	 *
+	 * @return the number of upgrades
+	 */
+	public long getNumUpgrades() {
+		return numUpgrades.get();
+	}
+
+	/**
+	 * Gets the total time lock requests spent waiting.
+	 *
+	 * @return the wait time in nanoseconds
+	 */
+	public long getWaitNanos() {
+		return waitNanos.get();
+	}
+
+	/**
+	 * Gets the number of resources currently locked or waited for.
+	 *
+	 * @return the number of lock table entries
+	 */
+	public int getNumLockedResources() {
+		int count = 0;
+
+		for (Partition partition : partitions) {
+			partition.latch.lock();
+			try {
+				count += partition.entries.size();
+			} finally {
+				partition.latch.unlock();
+			}
+		}
+
+		return count;
+	}
+}
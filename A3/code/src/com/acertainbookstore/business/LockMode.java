@@ -0,0 +1,84 @@
+package com.acertainbookstore.business;
+
+/**
+ * {@link LockMode} enumerates the modes of multi-granularity locking. A
+ * transaction takes an intention mode on a coarse resource, such as the
+ * catalog, before it takes the matching mode on finer resources, such as
+ * single books. Shared and exclusive modes on the coarse resource cover all
+ * of its finer resources at once.
+ */
+public enum LockMode {
+
+	/** Intention to read some finer resources. */
+	INTENTION_SHARED,
+
+	/** Intention to update some finer resources. */
+	INTENTION_EXCLUSIVE,
+
+	/** Read the whole resource. */
+	SHARED,
+
+	/** Update the whole resource. */
+	EXCLUSIVE;
+
+	/** The compatibility matrix, indexed by the ordinals of two modes. */
+	private static final boolean[][] COMPATIBLE = {
+			// IS IX S X
+			{ true, true, true, false }, // IS
+			{ true, true, false, false }, // IX
+			{ true, false, true, false }, // S
+			{ false, false, false, false } // X
+	};
+
+	/** Whether holding the first mode grants all that the second does. */
+	private static final boolean[][] COVERS = {
+			// IS IX S X
+			{ true, false, false, false }, // IS
+			{ true, true, false, false }, // IX
+			{ true, false, true, false }, // S
+			{ true, true, true, true } // X
+	};
+
+	/**
+	 * Checks if this mode can be held together with another mode on the same
+	 * resource by different transactions.
+	 *
+	 * @param other
+	 *            the other mode
+	 * @return true, if the modes are compatible
+	 */
+	public boolean isCompatibleWith(LockMode other) {
+		return COMPATIBLE[ordinal()][other.ordinal()];
+	}
+
+	/**
+	 * Checks if holding this mode grants everything that holding another mode
+	 * does.
+	 *
+	 * @param other
+	 *            the other mode
+	 * @return true, if this mode is at least as strong
+	 */
+	public boolean covers(LockMode other) {
+		return COVERS[ordinal()][other.ordinal()];
+	}
+
+	/**
+	 * Gets the weakest mode covering both this mode and another, the mode a
+	 * lock is upgraded to. Without a shared-intention-exclusive mode, shared
+	 * and intention exclusive combine to exclusive.
+	 *
+	 * @param other
+	 *            the other mode
+	 * @return the combined mode
+	 */
+	public LockMode combine(LockMode other) {
+		if (covers(other)) {
+			return this;
+		}
+		if (other.covers(this)) {
+			return other;
+		}
+		return EXCLUSIVE;
+	}
+}
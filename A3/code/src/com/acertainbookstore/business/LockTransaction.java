@@ -0,0 +1,157 @@
+package com.acertainbookstore.business;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.acertainbookstore.utils.TransactionAbortedException;
+
+/**
+ * {@link LockTransaction} is the unit that holds locks of a
+ * {@link LockManager}. It remembers the mode it holds on each resource, so
+ * repeated requests are granted without touching the lock table, and all of
+ * its locks are released together when it is closed. A transaction is used by
+ * one thread at a time.
+ *
+ * @see LockManager
+ */
+public final class LockTransaction implements AutoCloseable {
+
+	/** The lock manager that granted the locks. */
+	private final LockManager lockManager;
+
+	/**
+	 * The identifier, increasing with the start time. It doubles as the
+	 * timestamp of the wait-die and wound-wait rules.
+	 */
+	private final long id;
+
+	/** The mode held on each resource. */
+	private final IntHashMap<LockMode> held = new IntHashMap<>();
+
+	/** Whether an older transaction wounded this one under wound-wait. */
+	private final AtomicBoolean wounded = new AtomicBoolean();
+
+	/**
+	 * Instantiates a new {@link LockTransaction}.
+	 *
+	 * @param lockManager
+	 *            the lock manager
+	 * @param id
+	 *            the identifier
+	 */
+	LockTransaction(LockManager lockManager, long id) {
+		this.lockManager = lockManager;
+		this.id = id;
+	}
+
+	/**
+	 * Gets the identifier. Transactions started later have larger
+	 * identifiers.
+	 *
+	 * @return the identifier
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Gets the mode held on a resource.
+	 *
+	 * @param resource
+	 *            the resource
+	 * @return the mode, or null if no lock is held on the resource
+	 */
+	public LockMode getHeldMode(int resource) {
+		return held.get(resource);
+	}
+
+	/**
+	 * Gets the number of resources locked.
+	 *
+	 * @return the number of locks held
+	 */
+	public int getNumLocks() {
+		return held.size();
+	}
+
+	/**
+	 * Checks if the transaction was wounded, so that its next lock request
+	 * fails.
+	 *
+	 * @return true, if the transaction was wounded
+	 */
+	public boolean isWounded() {
+		return wounded.get();
+	}
+
+	/**
+	 * Wounds the transaction.
+	 *
+	 * @return true, if it was not wounded before
+	 */
+	boolean wound() {
+		return wounded.compareAndSet(false, true);
+	}
+
+	/**
+	 * Gets the modes held per resource, for the lock manager.
+	 *
+	 * @return the held modes
+	 */
+	IntHashMap<LockMode> held() {
+		return held;
+	}
+
+	/**
+	 * Acquires a lock through the lock manager of the transaction.
+	 *
+	 * @param resource
+	 *            the resource
+	 * @param mode
+	 *            the mode
+	 * @throws TransactionAbortedException
+	 *             if the transaction was chosen as the victim of a deadlock
+	 * @see LockManager#lock(LockTransaction, int, LockMode)
+	 */
+	public void lock(int resource, LockMode mode) throws TransactionAbortedException {
+		lockManager.lock(this, resource, mode);
+	}
+
+	/**
+	 * Acquires a lock below a parent resource through the lock manager of
+	 * the transaction, escalating to the parent if the transaction holds many
+	 * locks.
+	 *
+	 * @param parent
+	 *            the parent resource
+	 * @param resource
+	 *            the resource
+	 * @param mode
+	 *            the mode
+	 * @throws TransactionAbortedException
+	 *             if the transaction was chosen as the victim of a deadlock
+	 * @see LockManager#lock(LockTransaction, int, int, LockMode)
+	 */
+	public void lock(int parent, int resource, LockMode mode) throws TransactionAbortedException {
+		lockManager.lock(this, parent, resource, mode);
+	}
+
+	/**
+	 * Releases all locks of the transaction.
+	 *
+	 * @see LockManager#releaseAll(LockTransaction)
+	 */
+	@Override
+	public void close() {
+		lockManager.releaseAll(this);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "LockTransaction " + id;
+	}
+}
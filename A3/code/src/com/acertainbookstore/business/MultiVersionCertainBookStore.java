@@ -0,0 +1,760 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link MultiVersionCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities using multi-version concurrency
+ * control. Every book is stored as a chain of immutable versions, newest
+ * first, each stamped with the version number of the write that created it.
+ * <p>
+ * Readers never lock: they register the last committed version number as
+ * their snapshot and read, for every book, the newest version that is not
+ * newer than the snapshot. Writers are serialized among themselves; a write
+ * installs all its new versions under the next version number and then
+ * publishes that number, which makes the whole write visible at once.
+ * Versions that no registered snapshot can see any more are pruned by the
+ * writers.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class MultiVersionCertainBookStore implements BookStore, StockManager {
+
+	/**
+	 * The number of version chains pruned after a write, on top of the number
+	 * of chains the write itself extended.
+	 */
+	private static final int EXTRA_PRUNED_PER_WRITE = 64;
+
+	/**
+	 * {@link BookVersion} is one immutable version of a book. A version with
+	 * a <code>null</code> state records that the book was removed.
+	 */
+	private static final class BookVersion {
+
+		/** The version number of the write that created this version. */
+		private final long version;
+
+		/** The state of the book, or null if the book was removed. */
+		private final StockBook state;
+
+		/** The next older version, or null if it was pruned. */
+		private volatile BookVersion previous;
+
+		/**
+		 * Instantiates a new {@link BookVersion}.
+		 *
+		 * @param version
+		 *            the version number
+		 * @param state
+		 *            the state of the book
+		 * @param previous
+		 *            the next older version
+		 */
+		private BookVersion(long version, StockBook state, BookVersion previous) {
+			this.version = version;
+			this.state = state;
+			this.previous = previous;
+		}
+
+		/**
+		 * Finds the state of the book as of the given snapshot.
+		 *
+		 * @param snapshot
+		 *            the snapshot version number
+		 * @return the state, or null if the book did not exist in the snapshot
+		 */
+		private StockBook stateAt(long snapshot) {
+			BookVersion current = this;
+
+			while (current != null && current.version > snapshot) {
+				current = current.previous;
+			}
+
+			return current == null ? null : current.state;
+		}
+	}
+
+	/** The mapping of books from ISBN to their newest {@link BookVersion}. */
+	private final ConcurrentIntHashMap<BookVersion> versionMap = new ConcurrentIntHashMap<>();
+
+	/** The version number of the last committed write. */
+	private final AtomicLong committedVersion = new AtomicLong();
+
+	/**
+	 * The number of readers registered per snapshot version number. The
+	 * oldest registered snapshot bounds what can be pruned.
+	 */
+	private final ConcurrentSkipListMap<Long, Integer> activeSnapshots = new ConcurrentSkipListMap<>();
+
+	/** Snapshots older than the pruning horizon may no longer be registered. */
+	private volatile long pruningHorizon = 0;
+
+	/** The lock serializing the writers. */
+	private final ReentrantLock writeLock = new ReentrantLock();
+
+	/** The ISBNs whose version chains may hold prunable versions, oldest first. */
+	private final Set<Integer> pruneQueue = new LinkedHashSet<>();
+
+	/**
+	 * Instantiates a new {@link MultiVersionCertainBookStore}.
+	 */
+	public MultiVersionCertainBookStore() {
+		// Constructors are not synchronized
+	}
+
+	/**
+	 * Gets the version number of the last committed write.
+	 *
+	 * @return the committed version
+	 */
+	public long getCommittedVersion() {
+		return committedVersion.get();
+	}
+
+	/**
+	 * Registers a reader and returns its snapshot version number.
+	 *
+	 * @return the snapshot
+	 */
+	private long openSnapshot() {
+		while (true) {
+			long snapshot = committedVersion.get();
+			activeSnapshots.merge(snapshot, 1, Integer::sum);
+
+			// A writer may have pruned past this snapshot before it was
+			// registered; in that case take a newer one.
+			if (snapshot >= pruningHorizon) {
+				return snapshot;
+			}
+
+			closeSnapshot(snapshot);
+		}
+	}
+
+	/**
+	 * Unregisters a reader.
+	 *
+	 * @param snapshot
+	 *            the snapshot of the reader
+	 */
+	private void closeSnapshot(long snapshot) {
+		activeSnapshots.computeIfPresent(snapshot, (version, readers) -> readers == 1 ? null : readers - 1);
+	}
+
+	/**
+	 * Gets the state of a book as of a snapshot.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param snapshot
+	 *            the snapshot
+	 * @return the state, or null if the book is not in the snapshot
+	 */
+	private StockBook stateAt(int isbn, long snapshot) {
+		BookVersion head = versionMap.get(isbn);
+		return head == null ? null : head.stateAt(snapshot);
+	}
+
+	/**
+	 * Gets the states of all books as of a snapshot.
+	 *
+	 * @param snapshot
+	 *            the snapshot
+	 * @return the states
+	 */
+	private List<StockBook> statesAt(long snapshot) {
+		List<StockBook> states = new ArrayList<>();
+
+		for (BookVersion head : versionMap.values()) {
+			StockBook state = head.stateAt(snapshot);
+
+			if (state != null) {
+				states.add(state);
+			}
+		}
+
+		return states;
+	}
+
+	/**
+	 * Gets the newest state of a book. Only called by writers.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the state, or null if the book is not in stock
+	 */
+	private StockBook latest(int isbn) {
+		BookVersion head = versionMap.get(isbn);
+		return head == null ? null : head.state;
+	}
+
+	/**
+	 * Installs new versions of books and publishes them as the next version.
+	 * Only called by writers.
+	 *
+	 * @param newStates
+	 *            the new states by ISBN, null values remove the book
+	 */
+	private void commit(Map<Integer, StockBook> newStates) {
+		long version = committedVersion.get() + 1;
+
+		for (Map.Entry<Integer, StockBook> entry : newStates.entrySet()) {
+			int isbn = entry.getKey();
+			BookVersion head = versionMap.get(isbn);
+			versionMap.put(isbn, new BookVersion(version, entry.getValue(), head));
+
+			if (head != null || entry.getValue() == null) {
+				pruneQueue.add(isbn);
+			}
+		}
+
+		committedVersion.set(version);
+		prune(newStates.size() + EXTRA_PRUNED_PER_WRITE);
+	}
+
+	/**
+	 * Prunes versions that no registered or future snapshot can see. Only
+	 * called by writers.
+	 *
+	 * @param budget
+	 *            the maximum number of version chains to visit
+	 */
+	private void prune(int budget) {
+		if (pruneQueue.isEmpty()) {
+			return;
+		}
+
+		// Announce the horizon before looking for registered snapshots, so that
+		// a reader registering concurrently either is seen here or notices the
+		// horizon and retries.
+		long horizon = committedVersion.get();
+		pruningHorizon = horizon;
+
+		Map.Entry<Long, Integer> oldest = activeSnapshots.firstEntry();
+		if (oldest != null && oldest.getKey() < horizon) {
+			horizon = oldest.getKey();
+			pruningHorizon = horizon;
+		}
+
+		List<Integer> retained = new ArrayList<>();
+		Iterator<Integer> queued = pruneQueue.iterator();
+
+		for (int i = 0; i < budget && queued.hasNext(); i++) {
+			int isbn = queued.next();
+			queued.remove();
+			BookVersion head = versionMap.get(isbn);
+
+			if (head == null) {
+				continue;
+			}
+
+			// Keep everything newer than the horizon and the newest version
+			// visible at the horizon.
+			BookVersion visible = head;
+			while (visible != null && visible.version > horizon) {
+				visible = visible.previous;
+			}
+
+			if (visible == null) {
+				continue;
+			}
+
+			visible.previous = null;
+
+			if (visible != head) {
+				retained.add(isbn);
+			} else if (head.state == null) {
+				versionMap.remove(isbn, head);
+			}
+		}
+
+		// Chains still holding versions newer than the horizon go to the back.
+		pruneQueue.addAll(retained);
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (latest(isbn) != null) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookRating bookRating) throws BookStoreException {
+		int rating = bookRating.getRating();
+
+		validateISBNInStock(bookRating.getISBN()); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (latest(ISBN) == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	private StockBook validateISBNInSnapshot(Integer ISBN, long snapshot) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		StockBook state = stateAt(ISBN, snapshot);
+		if (state == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+		return state;
+	}
+
+	/**
+	 * Returns the {@link Book} view of a book state.
+	 *
+	 * @param state
+	 *            the state
+	 * @return the book
+	 */
+	private static Book toBook(StockBook state) {
+		return new ImmutableBook(state.getISBN(), state.getTitle(), state.getAuthor(), state.getPrice());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		writeLock.lock();
+		try {
+			if (bookSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			Map<Integer, StockBook> newStates = new HashMap<>();
+			for (StockBook book : bookSet) {
+				newStates.put(book.getISBN(), new BookStoreBook(book).immutableStockBook());
+			}
+			commit(newStates);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		writeLock.lock();
+		try {
+			if (bookCopiesSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy);
+			}
+
+			// Update the number of copies
+			Map<Integer, StockBook> newStates = new HashMap<>();
+			for (BookCopy bookCopy : bookCopiesSet) {
+				BookStoreBook book = new BookStoreBook(latest(bookCopy.getISBN()));
+				book.addCopies(bookCopy.getNumCopies());
+				newStates.put(book.getISBN(), book.immutableStockBook());
+			}
+			commit(newStates);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		long snapshot = openSnapshot();
+		try {
+			return new ArrayList<>(statesAt(snapshot));
+		} finally {
+			closeSnapshot(snapshot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		writeLock.lock();
+		try {
+			// Check that all ISBNs that we add/remove are there first.
+			if (editorPicks == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validateISBNInStock(editorPickArg.getISBN());
+			}
+
+			Map<Integer, StockBook> newStates = new HashMap<>();
+			for (BookEditorPick editorPickArg : editorPicks) {
+				BookStoreBook book = new BookStoreBook(latest(editorPickArg.getISBN()));
+				book.setEditorPick(editorPickArg.isEditorPick());
+				newStates.put(book.getISBN(), book.immutableStockBook());
+			}
+			commit(newStates);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		writeLock.lock();
+		try {
+			if (bookCopiesToBuy == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			// Check that all ISBNs that we buy are there first.
+			boolean saleMiss = false;
+			Map<Integer, BookStoreBook> books = new HashMap<>();
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				int isbn = bookCopyToBuy.getISBN();
+
+				validate(bookCopyToBuy);
+
+				BookStoreBook book = new BookStoreBook(latest(isbn));
+				books.put(isbn, book);
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+					saleMiss = true;
+				}
+			}
+
+			Map<Integer, StockBook> newStates = new HashMap<>();
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					BookStoreBook book = books.get(saleMissEntry.getKey());
+					book.addSaleMiss(saleMissEntry.getValue());
+					newStates.put(book.getISBN(), book.immutableStockBook());
+				}
+				commit(newStates);
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				BookStoreBook book = books.get(bookCopyToBuy.getISBN());
+				book.buyCopies(bookCopyToBuy.getNumCopies());
+				newStates.put(book.getISBN(), book.immutableStockBook());
+			}
+			commit(newStates);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long snapshot = openSnapshot();
+		try {
+			List<StockBook> books = new ArrayList<>(isbnSet.size());
+
+			for (Integer ISBN : isbnSet) {
+				books.add(validateISBNInSnapshot(ISBN, snapshot));
+			}
+
+			return books;
+		} finally {
+			closeSnapshot(snapshot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long snapshot = openSnapshot();
+		try {
+			List<Book> books = new ArrayList<>(isbnSet.size());
+
+			for (Integer ISBN : isbnSet) {
+				books.add(toBook(validateISBNInSnapshot(ISBN, snapshot)));
+			}
+
+			return books;
+		} finally {
+			closeSnapshot(snapshot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		List<StockBook> listAllEditorPicks;
+		long snapshot = openSnapshot();
+		try {
+			listAllEditorPicks = statesAt(snapshot).stream()
+					.filter(book -> book.isEditorPick())
+					.collect(Collectors.toList());
+		} finally {
+			closeSnapshot(snapshot);
+		}
+
+		// Find numBooks random indices of books that will be picked.
+		Random rand = new Random();
+		Set<Integer> tobePicked = new HashSet<>();
+		int rangePicks = listAllEditorPicks.size();
+
+		if (rangePicks <= numBooks) {
+
+			// We need to add all books.
+			for (int i = 0; i < listAllEditorPicks.size(); i++) {
+				tobePicked.add(i);
+			}
+		} else {
+
+			// We need to pick randomly the books that need to be returned.
+			int randNum;
+
+			while (tobePicked.size() < numBooks) {
+				randNum = rand.nextInt(rangePicks);
+				tobePicked.add(randNum);
+			}
+		}
+
+		// Return all the books by the randomly chosen indices.
+		return tobePicked.stream()
+				.map(index -> toBook(listAllEditorPicks.get(index)))
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		long snapshot = openSnapshot();
+		try {
+			return ParallelTopK.top(statesAt(snapshot),
+					Comparator.comparing(StockBook::getAverageRating).reversed().thenComparingInt(StockBook::getISBN),
+					numBooks).stream()
+					.map(MultiVersionCertainBookStore::toBook)
+					.collect(Collectors.toList());
+		} finally {
+			closeSnapshot(snapshot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		long snapshot = openSnapshot();
+		try {
+			return statesAt(snapshot).stream()
+					.filter(book -> book.getNumSaleMisses() > 0)
+					.collect(Collectors.toList());
+		} finally {
+			closeSnapshot(snapshot);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRatings) throws BookStoreException {
+		writeLock.lock();
+		try {
+			if (bookRatings == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			// We validate all our ratings before acting
+			for (BookRating bookRating : bookRatings) {
+				validate(bookRating);
+			}
+
+			Map<Integer, BookStoreBook> books = new HashMap<>();
+			for (BookRating bookRating : bookRatings) {
+				books.computeIfAbsent(bookRating.getISBN(), isbn -> new BookStoreBook(latest(isbn)))
+						.addRating(bookRating.getRating());
+			}
+
+			Map<Integer, StockBook> newStates = new HashMap<>();
+			for (BookStoreBook book : books.values()) {
+				newStates.put(book.getISBN(), book.immutableStockBook());
+			}
+			commit(newStates);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		writeLock.lock();
+		try {
+			Map<Integer, StockBook> newStates = new HashMap<>();
+			versionMap.forEach((isbn, head) -> {
+				if (head.state != null) {
+					newStates.put(isbn, null);
+				}
+			});
+			commit(newStates);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		writeLock.lock();
+		try {
+			if (isbnSet == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
+
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			Map<Integer, StockBook> newStates = new HashMap<>();
+			for (int isbn : isbnSet) {
+				newStates.put(isbn, null);
+			}
+			commit(newStates);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+}
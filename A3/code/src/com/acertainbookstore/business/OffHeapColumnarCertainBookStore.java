@@ -0,0 +1,1046 @@
+package com.acertainbookstore.business;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link OffHeapColumnarCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities without keeping an object per book.
+ * Every book occupies a slot, and each attribute of the book lives in its own
+ * off-heap column indexed by that slot. Titles and authors are stored as UTF-8
+ * in an off-heap byte arena, and the ISBN-to-slot index is an open-addressing
+ * table, also off-heap. {@link ImmutableBook} and {@link ImmutableStockBook}
+ * objects are only created for the books returned to the caller, so the heap
+ * and the garbage collector do not grow with the catalog.
+ * <p>
+ * All columns are guarded by a single read-write lock. Freed slots are reused,
+ * and the arena is compacted when removed books account for more than half of
+ * it. The arena is addressed with <code>int</code> offsets, which limits the
+ * text of the catalog to 2 GB.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class OffHeapColumnarCertainBookStore implements BookStore, StockManager {
+
+	/** The default number of slots of a new store. */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/** The largest size of a direct buffer. */
+	private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+	/** The largest number of books, so that the index fits in one buffer. */
+	private static final int MAX_SLOTS = 1 << 27;
+
+	/** The ISBN of a free slot and of an empty index entry. */
+	private static final int FREE = 0;
+
+	/** The column of ISBNs, {@link #FREE} for free slots. */
+	private ByteBuffer isbns;
+
+	/** The column of prices. */
+	private ByteBuffer prices;
+
+	/** The column of numbers of copies. */
+	private ByteBuffer numCopies;
+
+	/** The column of total ratings. */
+	private ByteBuffer totalRatings;
+
+	/** The column of numbers of times rated. */
+	private ByteBuffer numTimesRated;
+
+	/** The column of numbers of sale misses. */
+	private ByteBuffer numSaleMisses;
+
+	/** The column of editor pick flags. */
+	private ByteBuffer editorPicks;
+
+	/** The column of arena offsets of titles. */
+	private ByteBuffer titleOffsets;
+
+	/** The column of UTF-8 lengths of titles. */
+	private ByteBuffer titleLengths;
+
+	/** The column of arena offsets of authors. */
+	private ByteBuffer authorOffsets;
+
+	/** The column of UTF-8 lengths of authors. */
+	private ByteBuffer authorLengths;
+
+	/** The number of slots of every column. */
+	private int capacity;
+
+	/** The number of slots ever used; slots above are free. */
+	private int highWater = 0;
+
+	/** The freed slots below {@link #highWater}, used as a stack. */
+	private int[] freeSlots = new int[16];
+
+	/** The number of entries in {@link #freeSlots}. */
+	private int numFreeSlots = 0;
+
+	/** The number of books. */
+	private int size = 0;
+
+	/** The UTF-8 titles and authors. */
+	private ByteBuffer arena;
+
+	/** The number of arena bytes written. */
+	private int arenaEnd = 0;
+
+	/** The number of arena bytes belonging to removed books. */
+	private int arenaGarbage = 0;
+
+	/** The ISBN keys of the index, {@link #FREE} for empty entries. */
+	private ByteBuffer indexKeys;
+
+	/** The slots of the index. */
+	private ByteBuffer indexSlots;
+
+	/** The number of index entries minus one. */
+	private int indexMask;
+
+	/** The lock guarding all columns. */
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Instantiates a new {@link OffHeapColumnarCertainBookStore} with
+	 * {@link #DEFAULT_CAPACITY} slots.
+	 */
+	public OffHeapColumnarCertainBookStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link OffHeapColumnarCertainBookStore}.
+	 *
+	 * @param expectedNumBooks
+	 *            the number of books the store should hold without growing
+	 */
+	public OffHeapColumnarCertainBookStore(int expectedNumBooks) {
+		// Constructors are not synchronized
+		if (expectedNumBooks < 1 || expectedNumBooks > MAX_SLOTS) {
+			throw new IllegalArgumentException("The expected number of books must be between 1 and " + MAX_SLOTS);
+		}
+
+		allocate(expectedNumBooks);
+	}
+
+	/**
+	 * Allocates empty columns, arena and index.
+	 *
+	 * @param numSlots
+	 *            the number of slots
+	 */
+	private void allocate(int numSlots) {
+		capacity = numSlots;
+		isbns = ByteBuffer.allocateDirect(numSlots * Integer.BYTES);
+		prices = ByteBuffer.allocateDirect(numSlots * Float.BYTES);
+		numCopies = ByteBuffer.allocateDirect(numSlots * Integer.BYTES);
+		totalRatings = ByteBuffer.allocateDirect(numSlots * Long.BYTES);
+		numTimesRated = ByteBuffer.allocateDirect(numSlots * Long.BYTES);
+		numSaleMisses = ByteBuffer.allocateDirect(numSlots * Long.BYTES);
+		editorPicks = ByteBuffer.allocateDirect(numSlots);
+		titleOffsets = ByteBuffer.allocateDirect(numSlots * Integer.BYTES);
+		titleLengths = ByteBuffer.allocateDirect(numSlots * Integer.BYTES);
+		authorOffsets = ByteBuffer.allocateDirect(numSlots * Integer.BYTES);
+		authorLengths = ByteBuffer.allocateDirect(numSlots * Integer.BYTES);
+		highWater = 0;
+		numFreeSlots = 0;
+		size = 0;
+
+		arena = ByteBuffer.allocateDirect((int) Math.min(MAX_BUFFER_SIZE, numSlots * 32L));
+		arenaEnd = 0;
+		arenaGarbage = 0;
+
+		allocateIndex(IntHashMap.tableSizeFor(numSlots));
+	}
+
+	/**
+	 * Gets the number of off-heap bytes reserved by the columns, the arena and
+	 * the index.
+	 *
+	 * @return the number of bytes
+	 */
+	public long getOffHeapBytes() {
+		lock.readLock().lock();
+		try {
+			long bytesPerSlot = 6L * Integer.BYTES + Float.BYTES + 3L * Long.BYTES + 1;
+			return capacity * bytesPerSlot + arena.capacity() + 2L * indexKeys.capacity();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of off-heap bytes reserved per book in stock.
+	 *
+	 * @return the number of bytes per book, or 0 if there are no books
+	 */
+	public double getBytesPerBook() {
+		lock.readLock().lock();
+		try {
+			return size == 0 ? 0.0 : (double) getOffHeapBytes() / size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the next capacity of a buffer that has to hold at least the given
+	 * number of bytes.
+	 *
+	 * @param current
+	 *            the current capacity
+	 * @param required
+	 *            the required number of bytes
+	 * @return the new capacity
+	 * @throws BookStoreException
+	 *             if the buffer cannot hold that many bytes
+	 */
+	private static int grownCapacity(int current, long required) throws BookStoreException {
+		if (required > MAX_BUFFER_SIZE) {
+			throw new BookStoreException("The catalog exceeds the capacity of the off-heap store");
+		}
+
+		return (int) Math.min(MAX_BUFFER_SIZE, Math.max(required, 2L * current));
+	}
+
+	/**
+	 * Copies the first bytes of a buffer into a new, larger buffer.
+	 *
+	 * @param old
+	 *            the buffer
+	 * @param newCapacity
+	 *            the capacity of the new buffer
+	 * @param numBytes
+	 *            the number of bytes to copy
+	 * @return the new buffer
+	 */
+	private static ByteBuffer copyOf(ByteBuffer old, int newCapacity, int numBytes) {
+		ByteBuffer grown = ByteBuffer.allocateDirect(newCapacity);
+		grown.put(0, old, 0, numBytes);
+		return grown;
+	}
+
+	/**
+	 * Grows every column to hold one more slot.
+	 *
+	 * @throws BookStoreException
+	 *             if the columns cannot grow
+	 */
+	private void growColumns() throws BookStoreException {
+		if (capacity >= MAX_SLOTS) {
+			throw new BookStoreException("The catalog exceeds the capacity of the off-heap store");
+		}
+
+		int newCapacity = (int) Math.min(MAX_SLOTS, 2L * capacity);
+
+		isbns = copyOf(isbns, newCapacity * Integer.BYTES, highWater * Integer.BYTES);
+		prices = copyOf(prices, newCapacity * Float.BYTES, highWater * Float.BYTES);
+		numCopies = copyOf(numCopies, newCapacity * Integer.BYTES, highWater * Integer.BYTES);
+		totalRatings = copyOf(totalRatings, newCapacity * Long.BYTES, highWater * Long.BYTES);
+		numTimesRated = copyOf(numTimesRated, newCapacity * Long.BYTES, highWater * Long.BYTES);
+		numSaleMisses = copyOf(numSaleMisses, newCapacity * Long.BYTES, highWater * Long.BYTES);
+		editorPicks = copyOf(editorPicks, newCapacity, highWater);
+		titleOffsets = copyOf(titleOffsets, newCapacity * Integer.BYTES, highWater * Integer.BYTES);
+		titleLengths = copyOf(titleLengths, newCapacity * Integer.BYTES, highWater * Integer.BYTES);
+		authorOffsets = copyOf(authorOffsets, newCapacity * Integer.BYTES, highWater * Integer.BYTES);
+		authorLengths = copyOf(authorLengths, newCapacity * Integer.BYTES, highWater * Integer.BYTES);
+		capacity = newCapacity;
+	}
+
+	/**
+	 * Allocates an empty index.
+	 *
+	 * @param numEntries
+	 *            the number of entries, a power of two
+	 */
+	private void allocateIndex(int numEntries) {
+		indexKeys = ByteBuffer.allocateDirect(numEntries * Integer.BYTES);
+		indexSlots = ByteBuffer.allocateDirect(numEntries * Integer.BYTES);
+		indexMask = numEntries - 1;
+	}
+
+	/**
+	 * Finds the index entry of an ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the entry holding the ISBN, or the empty entry ending its probe
+	 *         sequence
+	 */
+	private int indexFind(int isbn) {
+		int entry = IntHashMap.slotOf(isbn, indexMask);
+		int key;
+
+		while ((key = indexKeys.getInt(entry * Integer.BYTES)) != isbn && key != FREE) {
+			entry = (entry + 1) & indexMask;
+		}
+
+		return entry;
+	}
+
+	/**
+	 * Gets the slot of a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the slot, or -1 if the book is not in stock
+	 */
+	private int slotOf(int isbn) {
+		if (isbn == FREE) {
+			return -1;
+		}
+
+		int entry = indexFind(isbn);
+		return indexKeys.getInt(entry * Integer.BYTES) == FREE ? -1 : indexSlots.getInt(entry * Integer.BYTES);
+	}
+
+	/**
+	 * Adds an ISBN that is not in the index yet.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param slot
+	 *            the slot of the book
+	 */
+	private void indexPut(int isbn, int slot) {
+		if (size >= (indexMask + 1) / 2) {
+			ByteBuffer oldKeys = indexKeys;
+			ByteBuffer oldSlots = indexSlots;
+			allocateIndex((indexMask + 1) << 1);
+
+			for (int i = 0; i < oldKeys.capacity(); i += Integer.BYTES) {
+				int key = oldKeys.getInt(i);
+				if (key != FREE) {
+					int entry = indexFind(key);
+					indexKeys.putInt(entry * Integer.BYTES, key);
+					indexSlots.putInt(entry * Integer.BYTES, oldSlots.getInt(i));
+				}
+			}
+		}
+
+		int entry = indexFind(isbn);
+		indexKeys.putInt(entry * Integer.BYTES, isbn);
+		indexSlots.putInt(entry * Integer.BYTES, slot);
+	}
+
+	/**
+	 * Removes an ISBN from the index, shifting back the entries that follow.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	private void indexRemove(int isbn) {
+		int free = indexFind(isbn);
+		int key;
+
+		for (int next = (free + 1) & indexMask; (key = indexKeys.getInt(next * Integer.BYTES)) != FREE;
+				next = (next + 1) & indexMask) {
+			int home = IntHashMap.slotOf(key, indexMask);
+
+			if (((next - home) & indexMask) >= ((next - free) & indexMask)) {
+				indexKeys.putInt(free * Integer.BYTES, key);
+				indexSlots.putInt(free * Integer.BYTES, indexSlots.getInt(next * Integer.BYTES));
+				free = next;
+			}
+		}
+
+		indexKeys.putInt(free * Integer.BYTES, FREE);
+	}
+
+	/**
+	 * Appends the title and the author of a book to the arena, back to back,
+	 * compacting or growing the arena first if needed. Both are appended after
+	 * the compaction, which moves all offsets.
+	 *
+	 * @param title
+	 *            the UTF-8 bytes of the title
+	 * @param author
+	 *            the UTF-8 bytes of the author
+	 * @return the offset of the title, followed by the author
+	 * @throws BookStoreException
+	 *             if the arena cannot hold the strings
+	 */
+	private int appendToArena(byte[] title, byte[] author) throws BookStoreException {
+		long length = (long) title.length + author.length;
+
+		if (arenaEnd + length > arena.capacity()) {
+			if (arenaGarbage > arenaEnd / 2) {
+				compactArena();
+			}
+
+			if (arenaEnd + length > arena.capacity()) {
+				int newCapacity = grownCapacity(arena.capacity(), arenaEnd + length);
+				arena = copyOf(arena, newCapacity, arenaEnd);
+			}
+		}
+
+		int offset = arenaEnd;
+		arena.put(offset, title);
+		arena.put(offset + title.length, author);
+		arenaEnd += title.length + author.length;
+		return offset;
+	}
+
+	/**
+	 * Copies the strings of the books in stock into a new arena, dropping
+	 * those of removed books.
+	 */
+	private void compactArena() {
+		ByteBuffer compacted = ByteBuffer.allocateDirect(arena.capacity());
+		int end = 0;
+
+		for (int slot = 0; slot < highWater; slot++) {
+			if (isbns.getInt(slot * Integer.BYTES) != FREE) {
+				end = moveString(compacted, end, slot, titleOffsets, titleLengths);
+				end = moveString(compacted, end, slot, authorOffsets, authorLengths);
+			}
+		}
+
+		arena = compacted;
+		arenaEnd = end;
+		arenaGarbage = 0;
+	}
+
+	/**
+	 * Copies one string of a slot into a new arena and updates its offset.
+	 *
+	 * @param target
+	 *            the new arena
+	 * @param end
+	 *            the number of bytes written to the new arena
+	 * @param slot
+	 *            the slot
+	 * @param offsets
+	 *            the offset column of the string
+	 * @param lengths
+	 *            the length column of the string
+	 * @return the new number of bytes written to the new arena
+	 */
+	private int moveString(ByteBuffer target, int end, int slot, ByteBuffer offsets, ByteBuffer lengths) {
+		int length = lengths.getInt(slot * Integer.BYTES);
+		target.put(end, arena, offsets.getInt(slot * Integer.BYTES), length);
+		offsets.putInt(slot * Integer.BYTES, end);
+		return end + length;
+	}
+
+	/**
+	 * Reads a string of a slot from the arena.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @param offsets
+	 *            the offset column of the string
+	 * @param lengths
+	 *            the length column of the string
+	 * @return the string
+	 */
+	private String readString(int slot, ByteBuffer offsets, ByteBuffer lengths) {
+		byte[] bytes = new byte[lengths.getInt(slot * Integer.BYTES)];
+		arena.get(offsets.getInt(slot * Integer.BYTES), bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Stores a book in a free slot.
+	 *
+	 * @param book
+	 *            the book
+	 * @throws BookStoreException
+	 *             if the store cannot grow
+	 */
+	private void insert(StockBook book) throws BookStoreException {
+		int existing = slotOf(book.getISBN());
+		if (existing >= 0) {
+			// The same ISBN appeared twice in one request, the last one wins.
+			free(existing);
+		}
+
+		byte[] title = book.getTitle().getBytes(StandardCharsets.UTF_8);
+		byte[] author = book.getAuthor().getBytes(StandardCharsets.UTF_8);
+		int titleOffset = appendToArena(title, author);
+		int authorOffset = titleOffset + title.length;
+
+		int slot;
+		if (numFreeSlots > 0) {
+			slot = freeSlots[--numFreeSlots];
+		} else {
+			if (highWater == capacity) {
+				growColumns();
+			}
+			slot = highWater++;
+		}
+
+		isbns.putInt(slot * Integer.BYTES, book.getISBN());
+		prices.putFloat(slot * Float.BYTES, book.getPrice());
+		numCopies.putInt(slot * Integer.BYTES, book.getNumCopies());
+		totalRatings.putLong(slot * Long.BYTES, book.getTotalRating());
+		numTimesRated.putLong(slot * Long.BYTES, book.getNumTimesRated());
+		numSaleMisses.putLong(slot * Long.BYTES, book.getNumSaleMisses());
+		editorPicks.put(slot, (byte) (book.isEditorPick() ? 1 : 0));
+		titleOffsets.putInt(slot * Integer.BYTES, titleOffset);
+		titleLengths.putInt(slot * Integer.BYTES, title.length);
+		authorOffsets.putInt(slot * Integer.BYTES, authorOffset);
+		authorLengths.putInt(slot * Integer.BYTES, author.length);
+
+		indexPut(book.getISBN(), slot);
+		size++;
+	}
+
+	/**
+	 * Frees the slot of a book in stock.
+	 *
+	 * @param slot
+	 *            the slot
+	 */
+	private void free(int slot) {
+		indexRemove(isbns.getInt(slot * Integer.BYTES));
+		isbns.putInt(slot * Integer.BYTES, FREE);
+		arenaGarbage += titleLengths.getInt(slot * Integer.BYTES) + authorLengths.getInt(slot * Integer.BYTES);
+
+		if (numFreeSlots == freeSlots.length) {
+			int[] grown = new int[freeSlots.length << 1];
+			System.arraycopy(freeSlots, 0, grown, 0, numFreeSlots);
+			freeSlots = grown;
+		}
+		freeSlots[numFreeSlots++] = slot;
+		size--;
+	}
+
+	/**
+	 * Gets the average rating of a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the average rating, or -1 if the book was never rated
+	 */
+	private float averageRatingOf(int slot) {
+		long timesRated = numTimesRated.getLong(slot * Long.BYTES);
+		return timesRated == 0 ? -1.0f : (float) totalRatings.getLong(slot * Long.BYTES) / timesRated;
+	}
+
+	/**
+	 * Materializes the {@link Book} in a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the book
+	 */
+	private Book bookAt(int slot) {
+		return new ImmutableBook(isbns.getInt(slot * Integer.BYTES), readString(slot, titleOffsets, titleLengths),
+				readString(slot, authorOffsets, authorLengths), prices.getFloat(slot * Float.BYTES));
+	}
+
+	/**
+	 * Materializes the {@link StockBook} in a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 * @return the stock book
+	 */
+	private StockBook stockBookAt(int slot) {
+		return new ImmutableStockBook(isbns.getInt(slot * Integer.BYTES),
+				readString(slot, titleOffsets, titleLengths), readString(slot, authorOffsets, authorLengths),
+				prices.getFloat(slot * Float.BYTES), numCopies.getInt(slot * Integer.BYTES),
+				numSaleMisses.getLong(slot * Long.BYTES), numTimesRated.getLong(slot * Long.BYTES),
+				totalRatings.getLong(slot * Long.BYTES), editorPicks.get(slot) != 0);
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (slotOf(isbn) >= 0) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private int validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		int slot = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+		return slot;
+	}
+
+	private int validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		int slot = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+		return slot;
+	}
+
+	private int validateISBNInStock(int ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		int slot = slotOf(ISBN);
+		if (slot < 0) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+		return slot;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			for (StockBook book : bookSet) {
+				insert(book);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			int[] slots = new int[bookCopiesSet.size()];
+			int i = 0;
+
+			for (BookCopy bookCopy : bookCopiesSet) {
+				slots[i++] = validate(bookCopy);
+			}
+
+			// Update the number of copies
+			i = 0;
+			for (BookCopy bookCopy : bookCopiesSet) {
+				int slot = slots[i++];
+				numCopies.putInt(slot * Integer.BYTES, numCopies.getInt(slot * Integer.BYTES) + bookCopy.getNumCopies());
+				numSaleMisses.putLong(slot * Long.BYTES, 0);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		lock.readLock().lock();
+		try {
+			List<StockBook> books = new ArrayList<>(size);
+			for (int slot = 0; slot < highWater; slot++) {
+				if (isbns.getInt(slot * Integer.BYTES) != FREE) {
+					books.add(stockBookAt(slot));
+				}
+			}
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			int[] slots = new int[editorPicks.size()];
+			int i = 0;
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				slots[i++] = validateISBNInStock(editorPickArg.getISBN());
+			}
+
+			i = 0;
+			for (BookEditorPick editorPickArg : editorPicks) {
+				this.editorPicks.put(slots[i++], (byte) (editorPickArg.isEditorPick() ? 1 : 0));
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			// Check that all ISBNs that we buy are there first.
+			int[] slots = new int[bookCopiesToBuy.size()];
+			int[] salesMisses = new int[slots.length];
+			boolean saleMiss = false;
+			int i = 0;
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				int slot = validate(bookCopyToBuy);
+				int inStock = numCopies.getInt(slot * Integer.BYTES);
+
+				if (inStock < bookCopyToBuy.getNumCopies()) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses[i] = bookCopyToBuy.getNumCopies() - inStock;
+					saleMiss = true;
+				}
+				slots[i++] = slot;
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				for (i = 0; i < slots.length; i++) {
+					if (salesMisses[i] > 0) {
+						int slot = slots[i];
+						numSaleMisses.putLong(slot * Long.BYTES, numSaleMisses.getLong(slot * Long.BYTES) + salesMisses[i]);
+					}
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			i = 0;
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				int slot = slots[i++];
+				numCopies.putInt(slot * Integer.BYTES, numCopies.getInt(slot * Integer.BYTES) - bookCopyToBuy.getNumCopies());
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.readLock().lock();
+		try {
+			int[] slots = new int[isbnSet.size()];
+			int i = 0;
+
+			for (Integer ISBN : isbnSet) {
+				slots[i++] = validateISBNInStock(ISBN);
+			}
+
+			List<StockBook> books = new ArrayList<>(slots.length);
+			for (int slot : slots) {
+				books.add(stockBookAt(slot));
+			}
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.readLock().lock();
+		try {
+			// Check that all ISBNs that we rate are there to start with.
+			int[] slots = new int[isbnSet.size()];
+			int i = 0;
+
+			for (Integer ISBN : isbnSet) {
+				slots[i++] = validateISBNInStock(ISBN);
+			}
+
+			List<Book> books = new ArrayList<>(slots.length);
+			for (int slot : slots) {
+				books.add(bookAt(slot));
+			}
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		lock.readLock().lock();
+		try {
+			int[] pickedSlots = new int[16];
+			int rangePicks = 0;
+
+			for (int slot = 0; slot < highWater; slot++) {
+				if (isbns.getInt(slot * Integer.BYTES) != FREE && editorPicks.get(slot) != 0) {
+					if (rangePicks == pickedSlots.length) {
+						int[] grown = new int[pickedSlots.length << 1];
+						System.arraycopy(pickedSlots, 0, grown, 0, rangePicks);
+						pickedSlots = grown;
+					}
+					pickedSlots[rangePicks++] = slot;
+				}
+			}
+
+			// Find numBooks random indices of books that will be picked.
+			Random rand = new Random();
+			Set<Integer> tobePicked = new HashSet<>();
+
+			if (rangePicks <= numBooks) {
+
+				// We need to add all books.
+				for (int i = 0; i < rangePicks; i++) {
+					tobePicked.add(i);
+				}
+			} else {
+
+				// We need to pick randomly the books that need to be returned.
+				int randNum;
+
+				while (tobePicked.size() < numBooks) {
+					randNum = rand.nextInt(rangePicks);
+					tobePicked.add(randNum);
+				}
+			}
+
+			// Return all the books by the randomly chosen indices.
+			List<Book> books = new ArrayList<>(tobePicked.size());
+			for (int index : tobePicked) {
+				books.add(bookAt(pickedSlots[index]));
+			}
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		lock.readLock().lock();
+		try {
+			// Keep the numBooks best slots seen so far, the worst at the head.
+			PriorityQueue<Integer> best = new PriorityQueue<>(Math.max(1, numBooks),
+					(a, b) -> Float.compare(averageRatingOf(a), averageRatingOf(b)));
+
+			for (int slot = 0; slot < highWater && numBooks > 0; slot++) {
+				if (isbns.getInt(slot * Integer.BYTES) == FREE) {
+					continue;
+				}
+
+				if (best.size() < numBooks) {
+					best.add(slot);
+				} else if (averageRatingOf(slot) > averageRatingOf(best.peek())) {
+					best.poll();
+					best.add(slot);
+				}
+			}
+
+			Book[] topRated = new Book[best.size()];
+			for (int i = topRated.length - 1; i >= 0; i--) {
+				topRated[i] = bookAt(best.poll());
+			}
+			return Arrays.asList(topRated);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		lock.readLock().lock();
+		try {
+			List<StockBook> books = new ArrayList<>();
+			for (int slot = 0; slot < highWater; slot++) {
+				if (isbns.getInt(slot * Integer.BYTES) != FREE && numSaleMisses.getLong(slot * Long.BYTES) > 0) {
+					books.add(stockBookAt(slot));
+				}
+			}
+			return books;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRatings) throws BookStoreException {
+		if (bookRatings == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			// We validate all our ratings before acting
+			int[] slots = new int[bookRatings.size()];
+			int i = 0;
+
+			for (BookRating bookRating : bookRatings) {
+				slots[i++] = validate(bookRating);
+			}
+
+			i = 0;
+			for (BookRating bookRating : bookRatings) {
+				int slot = slots[i++];
+				totalRatings.putLong(slot * Long.BYTES, totalRatings.getLong(slot * Long.BYTES) + bookRating.getRating());
+				numTimesRated.putLong(slot * Long.BYTES, numTimesRated.getLong(slot * Long.BYTES) + 1);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		lock.writeLock().lock();
+		try {
+			// Give the memory of a large catalog back instead of clearing it.
+			allocate(Math.min(capacity, DEFAULT_CAPACITY));
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			for (int isbn : isbnSet) {
+				free(slotOf(isbn));
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+}
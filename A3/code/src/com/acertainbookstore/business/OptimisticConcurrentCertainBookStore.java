@@ -0,0 +1,883 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.TransactionAbortedException;
+
+/**
+ * {@link OptimisticConcurrentCertainBookStore} implements the {@link BookStore}
+ * and {@link StockManager} functionalities using optimistic concurrency
+ * control with backward validation.
+ * <p>
+ * Every request runs as a transaction in three phases. The read phase works
+ * on private copies of the {@link BookStoreBook}s it updates and records the
+ * ISBNs it reads. The validation phase checks the read set against the write
+ * sets of all transactions that committed after the read phase started. If
+ * they are disjoint, the write phase installs the private copies as the new
+ * committed books; otherwise the transaction restarts. Validation and write
+ * phases are short and run under a single commit lock, while read phases run
+ * fully in parallel. Committed books are never modified in place, but a
+ * write phase installs its books one at a time, so a read phase overlapping
+ * it may see some of them. The write phase is bracketed by a sequence
+ * number, odd while it runs: a read-only transaction commits without the
+ * lock only if the sequence number was even and unchanged over its read
+ * phase, and is validated like the others otherwise.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class OptimisticConcurrentCertainBookStore implements BookStore, StockManager {
+
+	/** The default number of restarts before the retry policy applies. */
+	public static final int DEFAULT_MAX_RETRIES = 8;
+
+	/** The default number of committed write sets kept for validation. */
+	public static final int DEFAULT_HISTORY_SIZE = 1024;
+
+	/**
+	 * {@link RetryPolicy} decides what happens to a transaction that failed
+	 * validation more often than the configured number of retries.
+	 */
+	public enum RetryPolicy {
+
+		/** Abort the transaction with a {@link BookStoreException}. */
+		ABORT,
+
+		/** Run the transaction once more while holding the commit lock. */
+		SERIALIZE;
+	}
+
+	/**
+	 * {@link TransactionBody} is the read phase of a transaction.
+	 *
+	 * @param <T>
+	 *            the result type
+	 */
+	@FunctionalInterface
+	private interface TransactionBody<T> {
+
+		/**
+		 * Runs the read phase.
+		 *
+		 * @param txn
+		 *            the transaction
+		 * @return the result
+		 * @throws BookStoreException
+		 *             the book store exception returned to the client
+		 */
+		T run(OptimisticTransaction txn) throws BookStoreException;
+	}
+
+	/**
+	 * {@link CommittedWriteSet} records the ISBNs written by a committed
+	 * transaction.
+	 */
+	private static final class CommittedWriteSet {
+
+		/** The transaction number assigned at commit. */
+		private final long transactionNumber;
+
+		/** The ISBNs written. */
+		private final Set<Integer> isbns;
+
+		/** Whether the transaction removed all books. */
+		private final boolean writesAll;
+
+		/**
+		 * Instantiates a new {@link CommittedWriteSet}.
+		 *
+		 * @param transactionNumber
+		 *            the transaction number
+		 * @param isbns
+		 *            the ISBNs written
+		 * @param writesAll
+		 *            whether all books were removed
+		 */
+		private CommittedWriteSet(long transactionNumber, Set<Integer> isbns, boolean writesAll) {
+			this.transactionNumber = transactionNumber;
+			this.isbns = isbns;
+			this.writesAll = writesAll;
+		}
+	}
+
+	/**
+	 * {@link OptimisticTransaction} tracks the read set and the private
+	 * copies of one transaction attempt.
+	 */
+	private final class OptimisticTransaction {
+
+		/** The write sequence number before the read phase. */
+		private final long startSequence;
+
+		/** The last transaction number committed before the read phase. */
+		private final long startNumber;
+
+		/** The ISBNs read. */
+		private final Set<Integer> readSet = new HashSet<>();
+
+		/** Whether the whole catalog was read. */
+		private boolean readsAll = false;
+
+		/** The private copies by ISBN, null values remove the book. */
+		private final Map<Integer, BookStoreBook> writeSet = new HashMap<>();
+
+		/** Whether all books are removed. */
+		private boolean writesAll = false;
+
+		/**
+		 * Instantiates a new {@link OptimisticTransaction}, starting after the
+		 * last committed transaction.
+		 */
+		private OptimisticTransaction() {
+			this.startSequence = writeSequence;
+			this.startNumber = lastCommitted;
+		}
+
+		/**
+		 * Checks if no write phase ran during the read phase, not even one
+		 * that started before it.
+		 *
+		 * @return true, if the read phase saw no write
+		 */
+		private boolean sawNoWrite() {
+			return (startSequence & 1) == 0 && writeSequence == startSequence;
+		}
+
+		/**
+		 * Reads a book, seeing the transaction's own writes.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 * @return the book, or null if it is not in stock; must not be
+		 *         modified
+		 */
+		private BookStoreBook read(int isbn) {
+			readSet.add(isbn);
+
+			if (writeSet.containsKey(isbn)) {
+				return writeSet.get(isbn);
+			}
+
+			return writesAll ? null : bookMap.get(isbn);
+		}
+
+		/**
+		 * Reads all committed books.
+		 *
+		 * @return the books; must not be modified
+		 */
+		private Collection<BookStoreBook> readAll() {
+			readsAll = true;
+			return bookMap.values();
+		}
+
+		/**
+		 * Gets the private copy of a book in stock for updating.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 * @return the private copy
+		 */
+		private BookStoreBook write(int isbn) {
+			BookStoreBook copy = writeSet.get(isbn);
+
+			if (copy == null) {
+				copy = new BookStoreBook(read(isbn).immutableStockBook());
+				writeSet.put(isbn, copy);
+			}
+
+			return copy;
+		}
+
+		/**
+		 * Inserts a new book.
+		 *
+		 * @param book
+		 *            the book
+		 */
+		private void insert(BookStoreBook book) {
+			readSet.add(book.getISBN());
+			writeSet.put(book.getISBN(), book);
+		}
+
+		/**
+		 * Removes a book.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 */
+		private void delete(int isbn) {
+			readSet.add(isbn);
+			writeSet.put(isbn, null);
+		}
+
+		/**
+		 * Removes all books.
+		 */
+		private void deleteAll() {
+			readsAll = true;
+			writesAll = true;
+			writeSet.clear();
+		}
+
+		/**
+		 * Checks if the transaction has no write phase.
+		 *
+		 * @return true, if it only read
+		 */
+		private boolean isReadOnly() {
+			return writeSet.isEmpty() && !writesAll;
+		}
+	}
+
+	/** The mapping of books from ISBN to the committed {@link BookStoreBook}. */
+	private final ConcurrentIntHashMap<BookStoreBook> bookMap = new ConcurrentIntHashMap<>();
+
+	/** The lock held during validation and write phases. */
+	private final ReentrantLock commitLock = new ReentrantLock();
+
+	/** The number of the last committed writing transaction. */
+	private volatile long lastCommitted = 0;
+
+	/** Incremented before and after each write phase, so odd while one runs. */
+	private volatile long writeSequence = 0;
+
+	/** The write sets of the most recent committed transactions, oldest first. */
+	private final Deque<CommittedWriteSet> history = new ArrayDeque<>();
+
+	/** The number of restarts before the retry policy applies. */
+	private final int maxRetries;
+
+	/** What to do with a transaction that exhausted its retries. */
+	private final RetryPolicy retryPolicy;
+
+	/** The number of committed write sets kept for validation. */
+	private final int historySize;
+
+	/** The number of committed transactions. */
+	private final AtomicLong numCommits = new AtomicLong();
+
+	/** The number of transaction attempts that failed validation. */
+	private final AtomicLong numValidationFailures = new AtomicLong();
+
+	/** The number of transactions that exhausted their retries. */
+	private final AtomicLong numRetriesExhausted = new AtomicLong();
+
+	/**
+	 * Instantiates a new {@link OptimisticConcurrentCertainBookStore} with the
+	 * default retry policy.
+	 */
+	public OptimisticConcurrentCertainBookStore() {
+		this(DEFAULT_MAX_RETRIES, RetryPolicy.SERIALIZE, DEFAULT_HISTORY_SIZE);
+	}
+
+	/**
+	 * Instantiates a new {@link OptimisticConcurrentCertainBookStore}.
+	 *
+	 * @param maxRetries
+	 *            the number of restarts before the retry policy applies
+	 * @param retryPolicy
+	 *            what to do with a transaction that exhausted its retries
+	 * @param historySize
+	 *            the number of committed write sets kept for validation; a
+	 *            transaction that overlaps more commits than this restarts
+	 */
+	public OptimisticConcurrentCertainBookStore(int maxRetries, RetryPolicy retryPolicy, int historySize) {
+		if (maxRetries < 0 || historySize < 1 || retryPolicy == null) {
+			throw new IllegalArgumentException("Invalid retry policy");
+		}
+
+		this.maxRetries = maxRetries;
+		this.retryPolicy = retryPolicy;
+		this.historySize = historySize;
+	}
+
+	/**
+	 * Gets the number of committed transactions, including read-only ones.
+	 *
+	 * @return the number of commits
+	 */
+	public long getNumCommits() {
+		return numCommits.get();
+	}
+
+	/**
+	 * Gets the number of transaction attempts that failed validation and
+	 * restarted or aborted.
+	 *
+	 * @return the number of validation failures
+	 */
+	public long getNumValidationFailures() {
+		return numValidationFailures.get();
+	}
+
+	/**
+	 * Gets the number of transactions that exhausted their retries.
+	 *
+	 * @return the number of transactions that exhausted their retries
+	 */
+	public long getNumRetriesExhausted() {
+		return numRetriesExhausted.get();
+	}
+
+	/**
+	 * Gets the fraction of transaction attempts that failed validation.
+	 *
+	 * @return the abort rate, between 0 and 1
+	 */
+	public double getAbortRate() {
+		long failures = numValidationFailures.get();
+		long attempts = failures + numCommits.get();
+		return attempts == 0 ? 0.0 : (double) failures / attempts;
+	}
+
+	/**
+	 * Runs a transaction, restarting it until it validates or its retries are
+	 * exhausted. Writes made by the read phase are committed even if it ends
+	 * with an exception, so that sale misses are recorded.
+	 *
+	 * @param body
+	 *            the read phase
+	 * @return the result of the read phase
+	 * @throws BookStoreException
+	 *             the exception of the read phase, or an abort
+	 */
+	private <T> T execute(TransactionBody<T> body) throws BookStoreException {
+		for (int attempt = 0; attempt <= maxRetries; attempt++) {
+			OptimisticTransaction txn = new OptimisticTransaction();
+			T result = null;
+			BookStoreException failure = null;
+
+			try {
+				result = body.run(txn);
+			} catch (BookStoreException ex) {
+				failure = ex;
+			}
+
+			if (tryCommit(txn)) {
+				if (failure != null) {
+					throw failure;
+				}
+				return result;
+			}
+
+			numValidationFailures.incrementAndGet();
+		}
+
+		numRetriesExhausted.incrementAndGet();
+
+		if (retryPolicy == RetryPolicy.ABORT) {
+			throw new TransactionAbortedException();
+		}
+
+		// Holding the commit lock, no transaction can commit underneath.
+		commitLock.lock();
+		try {
+			OptimisticTransaction txn = new OptimisticTransaction();
+
+			try {
+				return body.run(txn);
+			} finally {
+				apply(txn);
+			}
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	/**
+	 * Validates a transaction and, if it is valid, runs its write phase.
+	 *
+	 * @param txn
+	 *            the transaction
+	 * @return true, if the transaction committed
+	 */
+	private boolean tryCommit(OptimisticTransaction txn) {
+		// Nothing written since the read phase started, nothing to check.
+		if (txn.isReadOnly() && txn.sawNoWrite()) {
+			numCommits.incrementAndGet();
+			return true;
+		}
+
+		commitLock.lock();
+		try {
+			if (!validate(txn)) {
+				return false;
+			}
+			apply(txn);
+			return true;
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	/**
+	 * Checks the read set of a transaction against the write sets committed
+	 * since it started. Called with the commit lock held.
+	 *
+	 * @param txn
+	 *            the transaction
+	 * @return true, if there is no conflict
+	 */
+	private boolean validate(OptimisticTransaction txn) {
+		if (lastCommitted == txn.startNumber) {
+			return true;
+		}
+
+		CommittedWriteSet oldest = history.peekFirst();
+		if (oldest == null || oldest.transactionNumber > txn.startNumber + 1) {
+			// Some of the overlapping write sets are no longer kept.
+			return false;
+		}
+
+		if (txn.readsAll) {
+			return false;
+		}
+
+		Iterator<CommittedWriteSet> newestFirst = history.descendingIterator();
+		while (newestFirst.hasNext()) {
+			CommittedWriteSet committed = newestFirst.next();
+
+			if (committed.transactionNumber <= txn.startNumber) {
+				break;
+			}
+
+			if (committed.writesAll) {
+				return false;
+			}
+
+			for (Integer isbn : committed.isbns) {
+				if (txn.readSet.contains(isbn)) {
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Runs the write phase of a validated transaction. Called with the commit
+	 * lock held.
+	 *
+	 * @param txn
+	 *            the transaction
+	 */
+	private void apply(OptimisticTransaction txn) {
+		numCommits.incrementAndGet();
+
+		if (txn.isReadOnly()) {
+			return;
+		}
+
+		writeSequence++;
+
+		if (txn.writesAll) {
+			bookMap.clear();
+		}
+
+		for (Map.Entry<Integer, BookStoreBook> write : txn.writeSet.entrySet()) {
+			if (write.getValue() == null) {
+				bookMap.remove(write.getKey());
+			} else {
+				bookMap.put(write.getKey(), write.getValue());
+			}
+		}
+
+		history.addLast(new CommittedWriteSet(lastCommitted + 1, txn.writeSet.keySet(), txn.writesAll));
+		if (history.size() > historySize) {
+			history.removeFirst();
+		}
+
+		lastCommitted++;
+		writeSequence++;
+	}
+
+	private void validate(StockBook book, OptimisticTransaction txn) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (txn.read(isbn) != null) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private void validate(BookCopy bookCopy, OptimisticTransaction txn) throws BookStoreException {
+		int numCopies = bookCopy.getNumCopies();
+
+		validateISBNInStock(bookCopy.getISBN(), txn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+	}
+
+	private void validate(BookRating bookRating, OptimisticTransaction txn) throws BookStoreException {
+		int rating = bookRating.getRating();
+
+		validateISBNInStock(bookRating.getISBN(), txn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+	}
+
+	private BookStoreBook validateISBNInStock(Integer ISBN, OptimisticTransaction txn) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		BookStoreBook book = txn.read(ISBN);
+		if (book == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+		return book;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(txn -> {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book, txn);
+			}
+
+			for (StockBook book : bookSet) {
+				txn.insert(new BookStoreBook(book));
+			}
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(txn -> {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy, txn);
+			}
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				txn.write(bookCopy.getISBN()).addCopies(bookCopy.getNumCopies());
+			}
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		return execute(txn -> txn.readAll().stream()
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(txn -> {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validateISBNInStock(editorPickArg.getISBN(), txn);
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				txn.write(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+			}
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(txn -> {
+			// Check that all ISBNs that we buy are there first.
+			boolean saleMiss = false;
+			Map<Integer, Integer> salesMisses = new HashMap<>();
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				validate(bookCopyToBuy, txn);
+
+				BookStoreBook book = txn.read(bookCopyToBuy.getISBN());
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.put(book.getISBN(), bookCopyToBuy.getNumCopies() - book.getNumCopies());
+					saleMiss = true;
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
+					txn.write(saleMissEntry.getKey()).addSaleMiss(saleMissEntry.getValue());
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				txn.write(bookCopyToBuy.getISBN()).buyCopies(bookCopyToBuy.getNumCopies());
+			}
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return execute(txn -> {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN, txn);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> txn.read(isbn).immutableStockBook())
+					.collect(Collectors.toList());
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return execute(txn -> {
+			// Check that all ISBNs that we rate are there to start with.
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN, txn);
+			}
+
+			return isbnSet.stream()
+					.map(isbn -> txn.read(isbn).immutableBook())
+					.collect(Collectors.toList());
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		List<Book> listAllEditorPicks = execute(txn -> txn.readAll().stream()
+				.filter(book -> book.isEditorPick())
+				.map(book -> book.immutableBook())
+				.collect(Collectors.toList()));
+
+		// Find numBooks random indices of books that will be picked.
+		Random rand = new Random();
+		Set<Integer> tobePicked = new HashSet<>();
+		int rangePicks = listAllEditorPicks.size();
+
+		if (rangePicks <= numBooks) {
+
+			// We need to add all books.
+			for (int i = 0; i < listAllEditorPicks.size(); i++) {
+				tobePicked.add(i);
+			}
+		} else {
+
+			// We need to pick randomly the books that need to be returned.
+			int randNum;
+
+			while (tobePicked.size() < numBooks) {
+				randNum = rand.nextInt(rangePicks);
+				tobePicked.add(randNum);
+			}
+		}
+
+		// Return all the books by the randomly chosen indices.
+		return tobePicked.stream()
+				.map(index -> listAllEditorPicks.get(index))
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return execute(txn -> ParallelTopK.top(txn.readAll(),
+				Comparator.comparing(BookStoreBook::getAverageRating).reversed().thenComparingInt(BookStoreBook::getISBN),
+				numBooks).stream()
+				.map(book -> (Book) book.immutableBook())
+				.collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return execute(txn -> txn.readAll().stream()
+				.filter(book -> book.hadSaleMiss())
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRatings) throws BookStoreException {
+		if (bookRatings == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(txn -> {
+			// We validate all our ratings before acting
+			for (BookRating bookRating : bookRatings) {
+				validate(bookRating, txn);
+			}
+
+			for (BookRating bookRating : bookRatings) {
+				txn.write(bookRating.getISBN()).addRating(bookRating.getRating());
+			}
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		execute(txn -> {
+			txn.deleteAll();
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		execute(txn -> {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN, txn);
+			}
+
+			for (int isbn : isbnSet) {
+				txn.delete(isbn);
+			}
+			return null;
+		});
+	}
+}
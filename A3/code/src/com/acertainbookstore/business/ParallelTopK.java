@@ -0,0 +1,238 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+
+/**
+ * {@link ParallelTopK} selects the best books of a catalog that is not kept
+ * ordered by an index. Instead of sorting the whole catalog, the books are
+ * split into partitions, the best books of each partition are kept in a heap
+ * bounded by the number of books requested, and the partial heaps are merged.
+ * <p>
+ * Catalogs of at least {@link #THRESHOLD} books are aggregated on a fork-join
+ * pool of {@link #PARALLELISM} threads, so that a large analytical read uses
+ * all cores instead of one server thread. Smaller catalogs are aggregated by
+ * the calling thread. Both are set by the "topkparallelism" and
+ * "topkthreshold" system properties, or passed to
+ * {@link #top(Collection, Comparator, int, ForkJoinPool, int)}.
+ */
+public final class ParallelTopK {
+
+	/** The default number of books from which the aggregation is parallel. */
+	public static final int DEFAULT_THRESHOLD = 1 << 14;
+
+	/** The number of books from which the aggregation is parallel. */
+	public static final int THRESHOLD = Math.max(1,
+			Integer.getInteger(BookStoreConstants.PROPERTY_KEY_TOPK_THRESHOLD, DEFAULT_THRESHOLD));
+
+	/** The number of threads aggregating in parallel. */
+	public static final int PARALLELISM = Math.max(1, Integer.getInteger(
+			BookStoreConstants.PROPERTY_KEY_TOPK_PARALLELISM, Runtime.getRuntime().availableProcessors()));
+
+	/** The number of partitions per thread, to even out uneven partitions. */
+	private static final int PARTITIONS_PER_THREAD = 4;
+
+	/** The pool running the parallel aggregations. */
+	private static final ForkJoinPool POOL = PARALLELISM > 1 ? new ForkJoinPool(PARALLELISM) : null;
+
+	/**
+	 * Prevents the instantiation of a new {@link ParallelTopK}.
+	 */
+	private ParallelTopK() {
+		// Prevent instances from being created.
+	}
+
+	/**
+	 * Selects the best books, best first.
+	 *
+	 * @param <T>
+	 *            the type of the books
+	 * @param books
+	 *            the books, which must not change during the call
+	 * @param order
+	 *            the order of the books, best first
+	 * @param numBooks
+	 *            the number of books to select
+	 * @return the numBooks best books, or all books if there are not more
+	 */
+	public static <T> List<T> top(Collection<? extends T> books, Comparator<? super T> order, int numBooks) {
+		return top(books, order, numBooks, POOL, THRESHOLD);
+	}
+
+	/**
+	 * Selects the best books, best first, aggregating them on the given pool
+	 * if there are at least <code>threshold</code> books.
+	 *
+	 * @param <T>
+	 *            the type of the books
+	 * @param books
+	 *            the books, which must not change during the call
+	 * @param order
+	 *            the order of the books, best first
+	 * @param numBooks
+	 *            the number of books to select
+	 * @param pool
+	 *            the pool aggregating in parallel, or null to aggregate on
+	 *            the calling thread
+	 * @param threshold
+	 *            the number of books from which the aggregation is parallel,
+	 *            must be positive
+	 * @return the numBooks best books, or all books if there are not more
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> List<T> top(Collection<? extends T> books, Comparator<? super T> order, int numBooks,
+			ForkJoinPool pool, int threshold) {
+		if (threshold < 1) {
+			throw new IllegalArgumentException("threshold = " + threshold + ", but it must be positive");
+		}
+		if (numBooks <= 0 || books.isEmpty()) {
+			return new ArrayList<>();
+		}
+
+		PriorityQueue<T> best;
+
+		if (pool == null || books.size() < threshold) {
+			best = newHeap(order, numBooks);
+			for (T book : books) {
+				offer(best, book, order, numBooks);
+			}
+		} else {
+			Object[] array = books.toArray();
+			int partitionSize = Math.max(threshold / PARTITIONS_PER_THREAD,
+					array.length / (pool.getParallelism() * PARTITIONS_PER_THREAD) + 1);
+			best = pool.invoke(new PartitionTask<T>((T[]) array, 0, array.length, partitionSize, order, numBooks));
+		}
+
+		// The heap polls the worst book first.
+		List<T> topBooks = new ArrayList<>(best.size());
+		while (!best.isEmpty()) {
+			topBooks.add(best.poll());
+		}
+		Collections.reverse(topBooks);
+		return topBooks;
+	}
+
+	/**
+	 * Creates a heap of at most numBooks books, the worst at its head.
+	 *
+	 * @param <T>
+	 *            the type of the books
+	 * @param order
+	 *            the order of the books, best first
+	 * @param numBooks
+	 *            the number of books kept
+	 * @return the heap
+	 */
+	private static <T> PriorityQueue<T> newHeap(Comparator<? super T> order, int numBooks) {
+		return new PriorityQueue<>(Math.min(numBooks, 1024) + 1, Collections.reverseOrder(order));
+	}
+
+	/**
+	 * Offers a book to a heap, which keeps it if it is among the best numBooks.
+	 *
+	 * @param <T>
+	 *            the type of the books
+	 * @param best
+	 *            the heap
+	 * @param book
+	 *            the book
+	 * @param order
+	 *            the order of the books, best first
+	 * @param numBooks
+	 *            the number of books kept
+	 */
+	private static <T> void offer(PriorityQueue<T> best, T book, Comparator<? super T> order, int numBooks) {
+		if (best.size() < numBooks) {
+			best.add(book);
+		} else if (order.compare(book, best.peek()) < 0) {
+			best.poll();
+			best.add(book);
+		}
+	}
+
+	/**
+	 * {@link PartitionTask} selects the best books of a range of the catalog,
+	 * splitting it in halves until a range fits in a partition.
+	 *
+	 * @param <T>
+	 *            the type of the books
+	 */
+	private static final class PartitionTask<T> extends RecursiveTask<PriorityQueue<T>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final T[] books;
+		private final int from;
+		private final int to;
+		private final int partitionSize;
+		private final Comparator<? super T> order;
+		private final int numBooks;
+
+		/**
+		 * Instantiates a new {@link PartitionTask}.
+		 *
+		 * @param books
+		 *            the catalog
+		 * @param from
+		 *            the first index of the range, inclusive
+		 * @param to
+		 *            the last index of the range, exclusive
+		 * @param partitionSize
+		 *            the largest range aggregated without splitting
+		 * @param order
+		 *            the order of the books, best first
+		 * @param numBooks
+		 *            the number of books to select
+		 */
+		PartitionTask(T[] books, int from, int to, int partitionSize, Comparator<? super T> order, int numBooks) {
+			this.books = books;
+			this.from = from;
+			this.to = to;
+			this.partitionSize = partitionSize;
+			this.order = order;
+			this.numBooks = numBooks;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.RecursiveTask#compute()
+		 */
+		@Override
+		protected PriorityQueue<T> compute() {
+			if (to - from <= partitionSize) {
+				PriorityQueue<T> best = newHeap(order, numBooks);
+				for (int i = from; i < to; i++) {
+					offer(best, books[i], order, numBooks);
+				}
+				return best;
+			}
+
+			int middle = (from + to) >>> 1;
+			PartitionTask<T> left = new PartitionTask<>(books, from, middle, partitionSize, order, numBooks);
+			left.fork();
+			PriorityQueue<T> best = new PartitionTask<>(books, middle, to, partitionSize, order, numBooks)
+					.compute();
+			PriorityQueue<T> other = left.join();
+
+			// Merge the smaller heap into the larger one.
+			if (other.size() > best.size()) {
+				PriorityQueue<T> swap = best;
+				best = other;
+				other = swap;
+			}
+			for (T book : other) {
+				offer(best, book, order, numBooks);
+			}
+			return best;
+		}
+	}
+}
@@ -0,0 +1,579 @@
+package com.acertainbookstore.business;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link PersistentIntMap} is an immutable map from primitive <code>int</code>
+ * keys to values, stored as a hash array mapped trie. Each node indexes 5 bits
+ * of the hashed key and only holds its used children, found through a bitmap.
+ * <p>
+ * A new version of the map is built with an {@link Editor}. The editor copies
+ * the nodes on the path to every key it changes, at most seven small arrays,
+ * and shares all other nodes with the version it started from. Nodes copied by
+ * the editor are then changed in place until the new version is published, so
+ * a batch of updates to the same part of the trie copies it only once. Older
+ * versions stay valid and can be read by other threads while the editor runs.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+final class PersistentIntMap<V> {
+
+	/** The number of bits of the hash indexed per level. */
+	private static final int BITS = 5;
+
+	/** The mask of the bits indexed per level. */
+	private static final int MASK = (1 << BITS) - 1;
+
+	/** The largest depth of the trie, to which the iterator stacks are sized. */
+	private static final int MAX_DEPTH = (Integer.SIZE + BITS - 1) / BITS;
+
+	/** The map without entries. */
+	private static final PersistentIntMap<?> EMPTY = new PersistentIntMap<>(new Node(null, 0, new Object[0]), 0);
+
+	/**
+	 * {@link Entry} is a key and its value, stored as a child of a node.
+	 */
+	private static final class Entry {
+
+		/** The key. */
+		private final int key;
+
+		/** The value. */
+		private final Object value;
+
+		/**
+		 * Instantiates a new {@link Entry}.
+		 *
+		 * @param key
+		 *            the key
+		 * @param value
+		 *            the value
+		 */
+		private Entry(int key, Object value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * {@link Node} is an inner node of the trie. Its children are entries or
+	 * nodes, ordered by the bits of the hash they are indexed by.
+	 */
+	private static final class Node {
+
+		/** The editor that created the node and may change it, or null. */
+		private final Object owner;
+
+		/** The bits of the hash for which a child exists. */
+		private int bitmap;
+
+		/** The children, one per bit set in the bitmap. */
+		private Object[] children;
+
+		/**
+		 * Instantiates a new {@link Node}.
+		 *
+		 * @param owner
+		 *            the editor that may change the node
+		 * @param bitmap
+		 *            the bits of the hash for which a child exists
+		 * @param children
+		 *            the children
+		 */
+		private Node(Object owner, int bitmap, Object[] children) {
+			this.owner = owner;
+			this.bitmap = bitmap;
+			this.children = children;
+		}
+	}
+
+	/** The root of the trie. */
+	private final Node root;
+
+	/** The number of entries. */
+	private final int size;
+
+	/**
+	 * Instantiates a new {@link PersistentIntMap}.
+	 *
+	 * @param root
+	 *            the root of the trie
+	 * @param size
+	 *            the number of entries
+	 */
+	private PersistentIntMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Gets the map without entries.
+	 *
+	 * @param <V>
+	 *            the type of the values
+	 * @return the empty map
+	 */
+	@SuppressWarnings("unchecked")
+	static <V> PersistentIntMap<V> empty() {
+		return (PersistentIntMap<V>) EMPTY;
+	}
+
+	/**
+	 * Spreads the bits of a key over the hash. The multiplier is odd, so
+	 * distinct keys have distinct hashes and the trie needs no collision
+	 * lists.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the hash
+	 */
+	private static int hash(int key) {
+		return key * 0x9E3779B9;
+	}
+
+	/**
+	 * Gets the bit of the hash indexed by a level.
+	 *
+	 * @param hash
+	 *            the hash
+	 * @param shift
+	 *            the shift of the level
+	 * @return the bit
+	 */
+	private static int bitOf(int hash, int shift) {
+		return 1 << ((hash >>> shift) & MASK);
+	}
+
+	/**
+	 * Gets the position of the child for a bit.
+	 *
+	 * @param node
+	 *            the node
+	 * @param bit
+	 *            the bit
+	 * @return the position in the children
+	 */
+	private static int indexOf(Node node, int bit) {
+		return Integer.bitCount(node.bitmap & (bit - 1));
+	}
+
+	/**
+	 * Finds the entry of a key under a node.
+	 *
+	 * @param node
+	 *            the node
+	 * @param hash
+	 *            the hash of the key
+	 * @param key
+	 *            the key
+	 * @return the entry, or null if the key is not mapped
+	 */
+	private static Entry find(Node node, int hash, int key) {
+		for (int shift = 0;; shift += BITS) {
+			int bit = bitOf(hash, shift);
+			if ((node.bitmap & bit) == 0) {
+				return null;
+			}
+
+			Object child = node.children[indexOf(node, bit)];
+			if (child instanceof Entry) {
+				Entry entry = (Entry) child;
+				return entry.key == key ? entry : null;
+			}
+			node = (Node) child;
+		}
+	}
+
+	/**
+	 * Gets the value mapped to a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value, or null if the key is not mapped
+	 */
+	@SuppressWarnings("unchecked")
+	V get(int key) {
+		Entry entry = find(root, hash(key), key);
+		return entry == null ? null : (V) entry.value;
+	}
+
+	/**
+	 * Checks if a key is mapped.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true, if the key is mapped
+	 */
+	boolean containsKey(int key) {
+		return find(root, hash(key), key) != null;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the number of entries
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the map is empty.
+	 *
+	 * @return true, if there are no entries
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Gets a view of the values, in no particular order. The view does not
+	 * support removal.
+	 *
+	 * @return the values
+	 */
+	Collection<V> values() {
+		return new AbstractCollection<V>() {
+
+			@Override
+			public Iterator<V> iterator() {
+				return new Iterator<V>() {
+
+					private final Node[] nodes = new Node[MAX_DEPTH + 1];
+
+					private final int[] positions = new int[MAX_DEPTH + 1];
+
+					private int depth = 0;
+
+					private Entry next;
+
+					{
+						nodes[0] = root;
+						next = advance();
+					}
+
+					private Entry advance() {
+						while (depth >= 0) {
+							Node node = nodes[depth];
+							if (positions[depth] == node.children.length) {
+								depth--;
+								continue;
+							}
+
+							Object child = node.children[positions[depth]++];
+							if (child instanceof Entry) {
+								return (Entry) child;
+							}
+							depth++;
+							nodes[depth] = (Node) child;
+							positions[depth] = 0;
+						}
+						return null;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return next != null;
+					}
+
+					@Override
+					@SuppressWarnings("unchecked")
+					public V next() {
+						if (next == null) {
+							throw new NoSuchElementException();
+						}
+
+						V value = (V) next.value;
+						next = advance();
+						return value;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Starts a new version of the map.
+	 *
+	 * @return the editor of the new version
+	 */
+	Editor<V> edit() {
+		return new Editor<>(root, size);
+	}
+
+	/**
+	 * {@link Editor} builds a new version of a {@link PersistentIntMap}. It is
+	 * not thread-safe and must not be used once the version is published.
+	 *
+	 * @param <V>
+	 *            the type of the values
+	 */
+	static final class Editor<V> {
+
+		/** The token marking the nodes the editor may change in place. */
+		private Object owner = new Object();
+
+		/** The root of the version being built. */
+		private Node root;
+
+		/** The number of entries of the version being built. */
+		private int size;
+
+		/**
+		 * Instantiates a new {@link Editor}.
+		 *
+		 * @param root
+		 *            the root of the version it starts from
+		 * @param size
+		 *            the number of entries of that version
+		 */
+		private Editor(Node root, int size) {
+			this.root = root;
+			this.size = size;
+		}
+
+		/**
+		 * Gets the value mapped to a key.
+		 *
+		 * @param key
+		 *            the key
+		 * @return the value, or null if the key is not mapped
+		 */
+		@SuppressWarnings("unchecked")
+		V get(int key) {
+			Entry entry = find(root, hash(key), key);
+			return entry == null ? null : (V) entry.value;
+		}
+
+		/**
+		 * Checks if a key is mapped.
+		 *
+		 * @param key
+		 *            the key
+		 * @return true, if the key is mapped
+		 */
+		boolean containsKey(int key) {
+			return find(root, hash(key), key) != null;
+		}
+
+		/**
+		 * Maps a key to a value.
+		 *
+		 * @param key
+		 *            the key
+		 * @param value
+		 *            the value, must not be null
+		 */
+		void put(int key, V value) {
+			if (value == null) {
+				throw new NullPointerException();
+			}
+
+			root = put(root, 0, hash(key), new Entry(key, value));
+		}
+
+		/**
+		 * Removes the mapping of a key.
+		 *
+		 * @param key
+		 *            the key
+		 */
+		void remove(int key) {
+			Object replacement = remove(root, 0, hash(key), key);
+			root = replacement == null ? newNode(new Object[0], 0) : (Node) replacement;
+		}
+
+		/**
+		 * Removes all entries.
+		 */
+		void clear() {
+			root = newNode(new Object[0], 0);
+			size = 0;
+		}
+
+		/**
+		 * Publishes the version being built. The editor can no longer change
+		 * its nodes, so further updates start a version of their own.
+		 *
+		 * @return the new version of the map
+		 */
+		PersistentIntMap<V> publish() {
+			owner = new Object();
+			return new PersistentIntMap<>(root, size);
+		}
+
+		/**
+		 * Creates a node owned by the editor.
+		 *
+		 * @param children
+		 *            the children
+		 * @param bitmap
+		 *            the bits of the hash for which a child exists
+		 * @return the node
+		 */
+		private Node newNode(Object[] children, int bitmap) {
+			return new Node(owner, bitmap, children);
+		}
+
+		/**
+		 * Gets a node the editor may change, copying it unless the editor
+		 * created it.
+		 *
+		 * @param node
+		 *            the node
+		 * @return the node or its copy
+		 */
+		private Node editable(Node node) {
+			return node.owner == owner ? node : newNode(node.children.clone(), node.bitmap);
+		}
+
+		/**
+		 * Maps a key to a value under a node.
+		 *
+		 * @param node
+		 *            the node
+		 * @param shift
+		 *            the shift of the level of the node
+		 * @param hash
+		 *            the hash of the key
+		 * @param entry
+		 *            the entry of the key
+		 * @return the node to replace it with
+		 */
+		private Node put(Node node, int shift, int hash, Entry entry) {
+			int bit = bitOf(hash, shift);
+			int index = indexOf(node, bit);
+
+			if ((node.bitmap & bit) == 0) {
+				Object[] children = new Object[node.children.length + 1];
+				System.arraycopy(node.children, 0, children, 0, index);
+				children[index] = entry;
+				System.arraycopy(node.children, index, children, index + 1, node.children.length - index);
+				size++;
+
+				Node edited = node.owner == owner ? node : newNode(null, 0);
+				edited.children = children;
+				edited.bitmap = node.bitmap | bit;
+				return edited;
+			}
+
+			Object child = node.children[index];
+			Object replacement;
+			if (child instanceof Node) {
+				replacement = put((Node) child, shift + BITS, hash, entry);
+				if (replacement == child) {
+					return node;
+				}
+			} else if (((Entry) child).key == entry.key) {
+				replacement = entry;
+			} else {
+				replacement = split(shift + BITS, (Entry) child, entry, hash);
+				size++;
+			}
+
+			Node edited = editable(node);
+			edited.children[index] = replacement;
+			return edited;
+		}
+
+		/**
+		 * Creates the nodes below which two entries whose hashes agree up to
+		 * a level are told apart.
+		 *
+		 * @param shift
+		 *            the shift of the level below the common one
+		 * @param existing
+		 *            the entry already in the trie
+		 * @param entry
+		 *            the new entry
+		 * @param hash
+		 *            the hash of the new entry
+		 * @return the node holding both entries
+		 */
+		private Node split(int shift, Entry existing, Entry entry, int hash) {
+			int existingBit = bitOf(hash(existing.key), shift);
+			int bit = bitOf(hash, shift);
+
+			if (existingBit == bit) {
+				return newNode(new Object[] { split(shift + BITS, existing, entry, hash) }, bit);
+			}
+
+			Object[] children = Integer.compareUnsigned(existingBit, bit) < 0 ? new Object[] { existing, entry }
+					: new Object[] { entry, existing };
+			return newNode(children, existingBit | bit);
+		}
+
+		/**
+		 * Removes the mapping of a key under a node. A node left with a
+		 * single entry is replaced by the entry, so every key sits at the
+		 * shallowest level that tells it apart.
+		 *
+		 * @param node
+		 *            the node
+		 * @param shift
+		 *            the shift of the level of the node
+		 * @param hash
+		 *            the hash of the key
+		 * @param key
+		 *            the key
+		 * @return the node or entry to replace it with, or null if it is left
+		 *         empty
+		 */
+		private Object remove(Node node, int shift, int hash, int key) {
+			int bit = bitOf(hash, shift);
+			if ((node.bitmap & bit) == 0) {
+				return node;
+			}
+
+			int index = indexOf(node, bit);
+			Object child = node.children[index];
+			Object replacement;
+			if (child instanceof Node) {
+				replacement = remove((Node) child, shift + BITS, hash, key);
+				if (replacement == child) {
+					return node;
+				}
+			} else if (((Entry) child).key == key) {
+				replacement = null;
+				size--;
+			} else {
+				return node;
+			}
+
+			if (replacement != null) {
+				if (replacement instanceof Entry && node.children.length == 1 && shift > 0) {
+					return replacement;
+				}
+
+				Node edited = editable(node);
+				edited.children[index] = replacement;
+				return edited;
+			}
+
+			if (node.children.length == 1) {
+				return null;
+			}
+			if (node.children.length == 2 && shift > 0 && node.children[1 - index] instanceof Entry) {
+				return node.children[1 - index];
+			}
+
+			Object[] children = new Object[node.children.length - 1];
+			System.arraycopy(node.children, 0, children, 0, index);
+			System.arraycopy(node.children, index + 1, children, index, children.length - index);
+
+			Node edited = node.owner == owner ? node : newNode(null, 0);
+			edited.children = children;
+			edited.bitmap = node.bitmap & ~bit;
+			return edited;
+		}
+	}
+}
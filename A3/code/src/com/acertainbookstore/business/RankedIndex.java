@@ -0,0 +1,218 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * {@link RankedIndex} keeps books of a store ordered by a score, highest
+ * first, so that the top books are read without sorting the catalog. The
+ * stores rank their books by average rating, and the books in demand by
+ * their number of sale misses. They update an index whenever the score of a
+ * book changes, in logarithmic time.
+ * <p>
+ * Books with the same score are ordered by ISBN. The updates are
+ * synchronized, so the index stays consistent for stores that update books
+ * under finer locks than the whole catalog. The top books are read from an
+ * immutable copy of the first books of the ranking, published through a
+ * volatile field, so reads take no lock. An update drops the copy, and the
+ * next read copies as many books as it asks for under the monitor, so a
+ * read after an update costs as much as before, not a copy of the catalog.
+ *
+ * @param <T>
+ *            the type of the books
+ */
+public class RankedIndex<T> {
+
+	/**
+	 * {@link Entry} is the position of a book in the index.
+	 *
+	 * @param <T>
+	 *            the type of the books
+	 */
+	private static final class Entry<T> {
+
+		/** The ISBN. */
+		private final int isbn;
+
+		/** The score when the entry was made. */
+		private final double score;
+
+		/** The book. */
+		private final T book;
+
+		/**
+		 * Instantiates a new {@link Entry}.
+		 *
+		 * @param isbn
+		 *            the ISBN
+		 * @param score
+		 *            the score
+		 * @param book
+		 *            the book
+		 */
+		private Entry(int isbn, double score, T book) {
+			this.isbn = isbn;
+			this.score = score;
+			this.book = book;
+		}
+	}
+
+	/**
+	 * {@link Top} is an immutable copy of the first books of the ranking.
+	 */
+	private static final class Top {
+
+		/** The first books, highest score first. */
+		private final Object[] books;
+
+		/** Whether the copy holds all books of the ranking. */
+		private final boolean complete;
+
+		/**
+		 * Instantiates a new {@link Top}.
+		 *
+		 * @param books
+		 *            the first books
+		 * @param complete
+		 *            whether these are all books
+		 */
+		private Top(Object[] books, boolean complete) {
+			this.books = books;
+			this.complete = complete;
+		}
+
+		/**
+		 * Checks if the copy holds the first books of the ranking.
+		 *
+		 * @param numBooks
+		 *            the number of books
+		 * @return true, if the copy holds them
+		 */
+		private boolean holds(int numBooks) {
+			return complete || books.length >= numBooks;
+		}
+	}
+
+	/** The order of the entries, highest score first. */
+	private static final Comparator<Entry<?>> BY_SCORE = Comparator
+			.<Entry<?>>comparingDouble(entry -> -entry.score)
+			.thenComparingInt(entry -> entry.isbn);
+
+	/** The entries, ordered by score. */
+	private final NavigableSet<Entry<T>> ranking = new TreeSet<>(BY_SCORE);
+
+	/** The entry of each book, by ISBN. */
+	private final IntHashMap<Entry<T>> entries = new IntHashMap<>();
+
+	/** The first books as of the last update, or null until the next read. */
+	private volatile Top top = new Top(new Object[0], true);
+
+	/**
+	 * Adds a book, or moves it to its new score.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param book
+	 *            the book
+	 * @param score
+	 *            the score of the book
+	 */
+	public synchronized void update(int isbn, T book, double score) {
+		Entry<T> entry = new Entry<>(isbn, score, book);
+		Entry<T> previous = entries.put(isbn, entry);
+
+		if (previous != null) {
+			ranking.remove(previous);
+		}
+		ranking.add(entry);
+		top = null;
+	}
+
+	/**
+	 * Removes a book, if it is in the index.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 */
+	public synchronized void remove(int isbn) {
+		Entry<T> previous = entries.remove(isbn);
+
+		if (previous != null) {
+			ranking.remove(previous);
+			top = null;
+		}
+	}
+
+	/**
+	 * Removes all books.
+	 */
+	public synchronized void clear() {
+		ranking.clear();
+		entries.clear();
+		top = null;
+	}
+
+	/**
+	 * Gets the number of books.
+	 *
+	 * @return the number of books
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Copies the first books of the ranking, unless the current copy holds
+	 * them already.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the copy
+	 */
+	private synchronized Top copyTop(int numBooks) {
+		Top copy = top;
+		if (copy != null && copy.holds(numBooks)) {
+			return copy;
+		}
+
+		Object[] books = new Object[Math.min(numBooks, ranking.size())];
+		Iterator<Entry<T>> iterator = ranking.iterator();
+
+		for (int i = 0; i < books.length; i++) {
+			books[i] = iterator.next().book;
+		}
+
+		copy = new Top(books, books.length == ranking.size());
+		top = copy;
+		return copy;
+	}
+
+	/**
+	 * Gets the books with the highest scores, highest first, or all books if
+	 * there are not more than requested.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the top books
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> top(int numBooks) {
+		Top copy = top;
+		if (copy == null || !copy.holds(numBooks)) {
+			copy = copyTop(numBooks);
+		}
+
+		int numTop = Math.min(numBooks, copy.books.length);
+		List<T> books = new ArrayList<>(numTop);
+
+		for (int i = 0; i < numTop; i++) {
+			books.add((T) copy.books[i]);
+		}
+
+		return books;
+	}
+}
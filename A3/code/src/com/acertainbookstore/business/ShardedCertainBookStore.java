@@ -0,0 +1,960 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link ShardedCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities by partitioning the ISBNs into shards.
+ * Each shard owns its books and is served by its own single-threaded
+ * executor, so the books of a shard are only ever touched by one thread and
+ * need no locks.
+ * <p>
+ * A call on the books of one shard runs as one task on that shard. A call
+ * spanning several shards is split into one part per shard, and the parts run
+ * in parallel. Updates spanning several shards commit through a local
+ * prepare/commit protocol: each part validates on its shard and votes, then
+ * holds its shard until all votes are in and applies the decision. The parts
+ * of all multi-shard calls are enqueued under one sequencer, so every shard
+ * runs them in the same order. A shard held by a prepared part therefore only
+ * waits for parts enqueued before, which cannot deadlock, and multi-shard
+ * reads see multi-shard updates either on all of their shards or on none.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class ShardedCertainBookStore implements BookStore, StockManager {
+
+	/**
+	 * {@link Outcome} is the decision on a call spanning several shards.
+	 */
+	private enum Outcome {
+
+		/** All parts voted to commit, the call takes effect. */
+		COMMIT,
+
+		/** All parts are valid but one voted against, e.g. for a sale miss. */
+		REJECT,
+
+		/** A part is invalid, nothing changes. */
+		ABORT
+	}
+
+	/**
+	 * {@link ShardTask} is a task run on the thread of a shard.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 */
+	@FunctionalInterface
+	private interface ShardTask<T> {
+
+		/**
+		 * Runs the task.
+		 *
+		 * @param books
+		 *            the books of the shard
+		 * @return the result
+		 * @throws BookStoreException
+		 *             the book store exception returned to the client
+		 */
+		T run(IntHashMap<BookStoreBook> books) throws BookStoreException;
+	}
+
+	/**
+	 * {@link ShardUpdate} is the part of an update on one shard. Both methods
+	 * run on the thread of the shard, one right after the other.
+	 */
+	private interface ShardUpdate {
+
+		/**
+		 * Validates the part without changing the shard.
+		 *
+		 * @param books
+		 *            the books of the shard
+		 * @return true, to vote for committing the update
+		 * @throws BookStoreException
+		 *             if the part is invalid
+		 */
+		boolean prepare(IntHashMap<BookStoreBook> books) throws BookStoreException;
+
+		/**
+		 * Applies the decision on the update. It is not called if the part
+		 * itself was invalid.
+		 *
+		 * @param books
+		 *            the books of the shard
+		 * @param outcome
+		 *            the decision
+		 */
+		void commit(IntHashMap<BookStoreBook> books, Outcome outcome);
+	}
+
+	/**
+	 * {@link Validation} checks the part of an update on one shard.
+	 */
+	@FunctionalInterface
+	private interface Validation {
+
+		/**
+		 * Checks the part.
+		 *
+		 * @param books
+		 *            the books of the shard
+		 * @throws BookStoreException
+		 *             if the part is invalid
+		 */
+		void check(IntHashMap<BookStoreBook> books) throws BookStoreException;
+	}
+
+	/**
+	 * {@link Change} applies the part of a validated update on one shard.
+	 */
+	@FunctionalInterface
+	private interface Change {
+
+		/**
+		 * Applies the part.
+		 *
+		 * @param books
+		 *            the books of the shard
+		 */
+		void apply(IntHashMap<BookStoreBook> books);
+	}
+
+	/**
+	 * {@link Shard} is a partition of the books with the thread serving it.
+	 */
+	private static final class Shard {
+
+		/** The books of the shard, only used on its thread. */
+		private final IntHashMap<BookStoreBook> books = new IntHashMap<>();
+
+		/** The executor running all tasks of the shard. */
+		private final ExecutorService executor;
+
+		/**
+		 * Instantiates a new {@link Shard}.
+		 *
+		 * @param index
+		 *            the index of the shard
+		 */
+		private Shard(int index) {
+			this.executor = Executors.newSingleThreadExecutor(task -> {
+				Thread thread = new Thread(task, "bookstore-shard-" + index);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/** The shards. */
+	private final Shard[] shards;
+
+	/** The sequencer ordering the parts of multi-shard calls. */
+	private final Object sequencer = new Object();
+
+	/** The number of calls that ran on a single shard. */
+	private final AtomicLong numSingleShardCalls = new AtomicLong();
+
+	/** The number of calls split across several shards. */
+	private final AtomicLong numMultiShardCalls = new AtomicLong();
+
+	/**
+	 * Instantiates a new {@link ShardedCertainBookStore} with one shard per
+	 * available processor.
+	 */
+	public ShardedCertainBookStore() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Instantiates a new {@link ShardedCertainBookStore} and starts the
+	 * threads of its shards.
+	 *
+	 * @param numShards
+	 *            the number of shards
+	 */
+	public ShardedCertainBookStore(int numShards) {
+		// Constructors are not synchronized
+		if (numShards < 1) {
+			throw new IllegalArgumentException("The number of shards must be positive");
+		}
+
+		shards = new Shard[numShards];
+		for (int i = 0; i < numShards; i++) {
+			shards[i] = new Shard(i);
+		}
+	}
+
+	/**
+	 * Stops the threads of the shards. Calls made afterwards fail.
+	 */
+	public void shutdown() {
+		for (Shard shard : shards) {
+			shard.executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Gets the number of shards.
+	 *
+	 * @return the number of shards
+	 */
+	public int getNumShards() {
+		return shards.length;
+	}
+
+	/**
+	 * Gets the number of calls that ran on a single shard.
+	 *
+	 * @return the number of single-shard calls
+	 */
+	public long getNumSingleShardCalls() {
+		return numSingleShardCalls.get();
+	}
+
+	/**
+	 * Gets the number of calls split across several shards.
+	 *
+	 * @return the number of multi-shard calls
+	 */
+	public long getNumMultiShardCalls() {
+		return numMultiShardCalls.get();
+	}
+
+	/**
+	 * Gets the index of the shard owning an ISBN.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the index of the shard
+	 */
+	private int shardOf(int isbn) {
+		return Math.floorMod(isbn, shards.length);
+	}
+
+	/**
+	 * Splits the elements of a call by the shards owning their ISBNs.
+	 *
+	 * @param elements
+	 *            the elements
+	 * @param isbnOf
+	 *            the ISBN of an element
+	 * @return the elements per shard index, in the order of the shards
+	 */
+	private <E> Map<Integer, Set<E>> split(Set<E> elements, ToIntFunction<? super E> isbnOf) {
+		Map<Integer, Set<E>> parts = new TreeMap<>();
+
+		for (E element : elements) {
+			parts.computeIfAbsent(shardOf(isbnOf.applyAsInt(element)), shard -> new HashSet<>()).add(element);
+		}
+		return parts;
+	}
+
+	/**
+	 * Enqueues a task on a shard.
+	 *
+	 * @param shard
+	 *            the shard
+	 * @param task
+	 *            the task
+	 * @return the handle completed with the result of the task
+	 */
+	private static <T> CompletableFuture<T> submit(Shard shard, ShardTask<T> task) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+
+		try {
+			shard.executor.execute(() -> {
+				try {
+					result.complete(task.run(shard.books));
+				} catch (BookStoreException | RuntimeException ex) {
+					result.completeExceptionally(ex);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			result.completeExceptionally(new BookStoreException("The bookstore is shut down"));
+		}
+		return result;
+	}
+
+	/**
+	 * Enqueues the prepare phase of an update on a shard. Once prepared, the
+	 * part holds the shard until the decision is known and then applies it.
+	 *
+	 * @param shard
+	 *            the shard
+	 * @param update
+	 *            the part of the update on the shard
+	 * @param decision
+	 *            the handle completed with the decision
+	 * @return the handle completed with the vote of the part
+	 */
+	private static CompletableFuture<Boolean> prepare(Shard shard, ShardUpdate update,
+			CompletableFuture<Outcome> decision) {
+		CompletableFuture<Boolean> vote = new CompletableFuture<>();
+
+		try {
+			shard.executor.execute(() -> {
+				try {
+					vote.complete(update.prepare(shard.books));
+				} catch (BookStoreException | RuntimeException ex) {
+					// The update aborts, and this part has nothing to undo.
+					vote.completeExceptionally(ex);
+					return;
+				}
+				update.commit(shard.books, decision.join());
+			});
+		} catch (RejectedExecutionException ex) {
+			vote.completeExceptionally(new BookStoreException("The bookstore is shut down"));
+		}
+		return vote;
+	}
+
+	/**
+	 * Waits for a task.
+	 *
+	 * @param result
+	 *            the handle of the task
+	 * @return the result
+	 * @throws BookStoreException
+	 *             the exception the task failed with
+	 */
+	private static <T> T join(CompletableFuture<T> result) throws BookStoreException {
+		try {
+			return result.join();
+		} catch (CompletionException ex) {
+			if (ex.getCause() instanceof BookStoreException) {
+				throw (BookStoreException) ex.getCause();
+			}
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new BookStoreException(ex.getCause());
+		}
+	}
+
+	/**
+	 * Runs tasks on several shards in parallel. A single task runs directly
+	 * on its shard, several are enqueued through the sequencer.
+	 *
+	 * @param tasks
+	 *            the task per shard index
+	 * @return the results, in the order of the tasks
+	 * @throws BookStoreException
+	 *             the exception of the first failed task
+	 */
+	private <T> List<T> run(Map<Integer, ShardTask<T>> tasks) throws BookStoreException {
+		List<CompletableFuture<T>> results = new ArrayList<>(tasks.size());
+
+		if (tasks.size() == 1) {
+			numSingleShardCalls.incrementAndGet();
+			for (Map.Entry<Integer, ShardTask<T>> task : tasks.entrySet()) {
+				results.add(submit(shards[task.getKey()], task.getValue()));
+			}
+		} else {
+			numMultiShardCalls.incrementAndGet();
+			synchronized (sequencer) {
+				for (Map.Entry<Integer, ShardTask<T>> task : tasks.entrySet()) {
+					results.add(submit(shards[task.getKey()], task.getValue()));
+				}
+			}
+		}
+
+		List<T> values = new ArrayList<>(results.size());
+		for (CompletableFuture<T> result : results) {
+			values.add(join(result));
+		}
+		return values;
+	}
+
+	/**
+	 * Runs the part of a call for each shard owning some of its elements.
+	 *
+	 * @param elements
+	 *            the elements of the call
+	 * @param isbnOf
+	 *            the ISBN of an element
+	 * @param taskOf
+	 *            the task on the elements of one shard
+	 * @return the results of the parts
+	 * @throws BookStoreException
+	 *             the exception of the first failed part
+	 */
+	private <E, T> List<T> run(Set<E> elements, ToIntFunction<? super E> isbnOf,
+			Function<Set<E>, ShardTask<T>> taskOf) throws BookStoreException {
+		Map<Integer, ShardTask<T>> tasks = new TreeMap<>();
+
+		for (Map.Entry<Integer, Set<E>> part : split(elements, isbnOf).entrySet()) {
+			tasks.put(part.getKey(), taskOf.apply(part.getValue()));
+		}
+		return run(tasks);
+	}
+
+	/**
+	 * Runs a task on every shard.
+	 *
+	 * @param task
+	 *            the task
+	 * @return the results, in the order of the shards
+	 * @throws BookStoreException
+	 *             the exception of the first failed task
+	 */
+	private <T> List<T> runOnAll(ShardTask<T> task) throws BookStoreException {
+		Map<Integer, ShardTask<T>> tasks = new TreeMap<>();
+
+		for (int i = 0; i < shards.length; i++) {
+			tasks.put(i, task);
+		}
+		return run(tasks);
+	}
+
+	/**
+	 * Runs an update on the shards owning its elements. On a single shard the
+	 * part prepares and commits in one task; on several shards the parts are
+	 * prepared in parallel and commit together.
+	 *
+	 * @param elements
+	 *            the elements of the update
+	 * @param isbnOf
+	 *            the ISBN of an element
+	 * @param updateOf
+	 *            the part of the update on the elements of one shard
+	 * @return the decision, either {@link Outcome#COMMIT} or
+	 *         {@link Outcome#REJECT}
+	 * @throws BookStoreException
+	 *             the exception of the first invalid part
+	 */
+	private <E> Outcome update(Set<E> elements, ToIntFunction<? super E> isbnOf,
+			Function<Set<E>, ShardUpdate> updateOf) throws BookStoreException {
+		Map<Integer, Set<E>> parts = split(elements, isbnOf);
+
+		if (parts.isEmpty()) {
+			return Outcome.COMMIT;
+		}
+
+		if (parts.size() == 1) {
+			numSingleShardCalls.incrementAndGet();
+			Map.Entry<Integer, Set<E>> part = parts.entrySet().iterator().next();
+			ShardUpdate update = updateOf.apply(part.getValue());
+
+			return join(submit(shards[part.getKey()], books -> {
+				Outcome outcome = update.prepare(books) ? Outcome.COMMIT : Outcome.REJECT;
+				update.commit(books, outcome);
+				return outcome;
+			}));
+		}
+
+		numMultiShardCalls.incrementAndGet();
+		CompletableFuture<Outcome> decision = new CompletableFuture<>();
+		List<CompletableFuture<Boolean>> votes = new ArrayList<>(parts.size());
+		Outcome outcome = Outcome.ABORT;
+
+		try {
+			synchronized (sequencer) {
+				for (Map.Entry<Integer, Set<E>> part : parts.entrySet()) {
+					votes.add(prepare(shards[part.getKey()], updateOf.apply(part.getValue()), decision));
+				}
+			}
+
+			boolean commit = true;
+			for (CompletableFuture<Boolean> vote : votes) {
+				commit &= join(vote);
+			}
+
+			outcome = commit ? Outcome.COMMIT : Outcome.REJECT;
+			return outcome;
+		} finally {
+			// Always release the prepared shards, with ABORT on failure.
+			decision.complete(outcome);
+		}
+	}
+
+	/**
+	 * Creates the part of an update that only commits if every part is valid.
+	 *
+	 * @param validation
+	 *            the validation of the part
+	 * @param change
+	 *            the change applied on commit
+	 * @return the part of the update
+	 */
+	private static ShardUpdate validated(Validation validation, Change change) {
+		return new ShardUpdate() {
+
+			@Override
+			public boolean prepare(IntHashMap<BookStoreBook> books) throws BookStoreException {
+				validation.check(books);
+				return true;
+			}
+
+			@Override
+			public void commit(IntHashMap<BookStoreBook> books, Outcome outcome) {
+				if (outcome == Outcome.COMMIT) {
+					change.apply(books);
+				}
+			}
+		};
+	}
+
+	/**
+	 * {@link Purchase} is the part of a purchase on one shard. A sale miss on
+	 * any shard rejects the whole purchase, and each shard then records its
+	 * own misses.
+	 */
+	private static final class Purchase implements ShardUpdate {
+
+		/** The copies to buy on the shard. */
+		private final Set<BookCopy> bookCopiesToBuy;
+
+		/** The books bought, found by the prepare phase. */
+		private BookStoreBook[] books;
+
+		/** The missing copies per book, found by the prepare phase. */
+		private int[] salesMisses;
+
+		/**
+		 * Instantiates a new {@link Purchase}.
+		 *
+		 * @param bookCopiesToBuy
+		 *            the copies to buy on the shard
+		 */
+		private Purchase(Set<BookCopy> bookCopiesToBuy) {
+			this.bookCopiesToBuy = bookCopiesToBuy;
+		}
+
+		@Override
+		public boolean prepare(IntHashMap<BookStoreBook> bookMap) throws BookStoreException {
+			// Check that all ISBNs that we buy are there first.
+			boolean saleMiss = false;
+
+			books = new BookStoreBook[bookCopiesToBuy.size()];
+			salesMisses = new int[books.length];
+			int i = 0;
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				BookStoreBook book = validate(bookCopyToBuy, bookMap);
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses[i] = bookCopyToBuy.getNumCopies() - book.getNumCopies();
+					saleMiss = true;
+				}
+				books[i++] = book;
+			}
+			return !saleMiss;
+		}
+
+		@Override
+		public void commit(IntHashMap<BookStoreBook> bookMap, Outcome outcome) {
+			if (outcome == Outcome.REJECT) {
+				// We record the misses since they are used by books in demand
+				for (int i = 0; i < books.length; i++) {
+					if (salesMisses[i] > 0) {
+						books[i].addSaleMiss(salesMisses[i]);
+					}
+				}
+			} else if (outcome == Outcome.COMMIT) {
+				int i = 0;
+				for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+					books[i++].buyCopies(bookCopyToBuy.getNumCopies());
+				}
+			}
+		}
+	}
+
+	private static void validate(StockBook book, IntHashMap<BookStoreBook> bookMap) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private static BookStoreBook validate(BookCopy bookCopy, IntHashMap<BookStoreBook> bookMap)
+			throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		BookStoreBook book = validateISBNInStock(isbn, bookMap); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+		return book;
+	}
+
+	private static BookStoreBook validate(BookRating bookRating, IntHashMap<BookStoreBook> bookMap)
+			throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		BookStoreBook book = validateISBNInStock(isbn, bookMap); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+		return book;
+	}
+
+	private static BookStoreBook validateISBNInStock(Integer ISBN, IntHashMap<BookStoreBook> bookMap)
+			throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		BookStoreBook book = bookMap.get(ISBN);
+		if (book == null) { // Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+		return book;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		update(bookSet, StockBook::getISBN, part -> validated(books -> {
+			// Check if all are there
+			for (StockBook book : part) {
+				validate(book, books);
+			}
+		}, books -> {
+			for (StockBook book : part) {
+				books.put(book.getISBN(), new BookStoreBook(book));
+			}
+		}));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		update(bookCopiesSet, BookCopy::getISBN, part -> validated(books -> {
+			for (BookCopy bookCopy : part) {
+				validate(bookCopy, books);
+			}
+		}, books -> {
+			// Update the number of copies
+			for (BookCopy bookCopy : part) {
+				books.get(bookCopy.getISBN()).addCopies(bookCopy.getNumCopies());
+			}
+		}));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		return runOnAll(books -> books.values().stream()
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList()))
+				.stream()
+				.flatMap(List::stream)
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		update(editorPicks, BookEditorPick::getISBN, part -> validated(books -> {
+			for (BookEditorPick editorPickArg : part) {
+				validateISBNInStock(editorPickArg.getISBN(), books);
+			}
+		}, books -> {
+			for (BookEditorPick editorPickArg : part) {
+				books.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+			}
+		}));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (update(bookCopiesToBuy, BookCopy::getISBN, Purchase::new) == Outcome.REJECT) {
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		IntHashMap<StockBook> found = new IntHashMap<>(isbnSet.size());
+		for (List<StockBook> part : run(isbnSet, ISBN -> ISBN, part -> books -> {
+			List<StockBook> result = new ArrayList<>(part.size());
+			for (Integer ISBN : part) {
+				result.add(validateISBNInStock(ISBN, books).immutableStockBook());
+			}
+			return result;
+		})) {
+			part.forEach(book -> found.put(book.getISBN(), book));
+		}
+
+		return isbnSet.stream()
+				.map(ISBN -> found.get(ISBN))
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Check that all ISBNs that we rate are there to start with.
+		IntHashMap<Book> found = new IntHashMap<>(isbnSet.size());
+		for (List<Book> part : run(isbnSet, ISBN -> ISBN, part -> books -> {
+			List<Book> result = new ArrayList<>(part.size());
+			for (Integer ISBN : part) {
+				result.add(validateISBNInStock(ISBN, books).immutableBook());
+			}
+			return result;
+		})) {
+			part.forEach(book -> found.put(book.getISBN(), book));
+		}
+
+		return isbnSet.stream()
+				.map(ISBN -> found.get(ISBN))
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		List<Book> listAllEditorPicks = runOnAll(books -> books.values().stream()
+				.filter(book -> book.isEditorPick())
+				.map(book -> (Book) book.immutableBook())
+				.collect(Collectors.toList()))
+				.stream()
+				.flatMap(List::stream)
+				.collect(Collectors.toList());
+
+		// Find numBooks random indices of books that will be picked.
+		Random rand = new Random();
+		Set<Integer> tobePicked = new HashSet<>();
+		int rangePicks = listAllEditorPicks.size();
+
+		if (rangePicks <= numBooks) {
+
+			// We need to add all books.
+			for (int i = 0; i < listAllEditorPicks.size(); i++) {
+				tobePicked.add(i);
+			}
+		} else {
+
+			// We need to pick randomly the books that need to be returned.
+			int randNum;
+
+			while (tobePicked.size() < numBooks) {
+				randNum = rand.nextInt(rangePicks);
+				tobePicked.add(randNum);
+			}
+		}
+
+		// Return all the books by the randomly chosen indices.
+		return tobePicked.stream()
+				.map(index -> listAllEditorPicks.get(index))
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Each shard sends its own top books, the overall top is among them.
+		List<StockBook> shardTops = runOnAll(books -> ParallelTopK.top(books.values(),
+				Comparator.comparing(BookStoreBook::getAverageRating).reversed().thenComparingInt(BookStoreBook::getISBN),
+				numBooks)
+				.stream()
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList()))
+				.stream()
+				.flatMap(List::stream)
+				.collect(Collectors.toList());
+
+		return ParallelTopK.top(shardTops,
+				Comparator.comparing(StockBook::getAverageRating).reversed().thenComparingInt(StockBook::getISBN),
+				numBooks).stream()
+				.map(book -> (Book) new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(),
+						book.getPrice()))
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return runOnAll(books -> books.values().stream()
+				.filter(book -> book.hadSaleMiss())
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList()))
+				.stream()
+				.flatMap(List::stream)
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRatings) throws BookStoreException {
+		if (bookRatings == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		update(bookRatings, BookRating::getISBN, part -> validated(books -> {
+			// We validate all our ratings before acting
+			for (BookRating bookRating : part) {
+				validate(bookRating, books);
+			}
+		}, books -> {
+			for (BookRating bookRating : part) {
+				books.get(bookRating.getISBN()).addRating(bookRating.getRating());
+			}
+		}));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		runOnAll(books -> {
+			books.clear();
+			return null;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		update(isbnSet, ISBN -> ISBN, part -> validated(books -> {
+			for (Integer ISBN : part) {
+				validateISBNInStock(ISBN, books);
+			}
+		}, books -> {
+			for (int isbn : part) {
+				books.remove(isbn);
+			}
+		}));
+	}
+}
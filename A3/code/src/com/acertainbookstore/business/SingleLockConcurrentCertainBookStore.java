@@ -2,45 +2,76 @@ package com.acertainbookstore.business;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Comparator;
-import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
-import static java.util.Collections.reverseOrder;
+import java.util.NavigableMap;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
+import com.acertainbookstore.interfaces.BatchedStockUpdates;
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.RecoverableStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
 
 /** {@link SingleLockConcurrentCertainBookStore} implements the {@link BookStore} and
- * {@link StockManager} functionalities.
+ * {@link StockManager} functionalities. Batches of purchases and additions of
+ * copies are applied under one acquisition of the catalog lock.
  * 
  * @see BookStore
  * @see StockManager
+ * @see BatchedStockUpdates
+ * @see RecoverableStore
  */
-public class SingleLockConcurrentCertainBookStore implements BookStore, StockManager {
+public class SingleLockConcurrentCertainBookStore
+		implements BookStore, StockManager, BatchedStockUpdates, RecoverableStore {
 
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap = null;
+	private IntHashMap<BookStoreBook> bookMap = null;
+
+	/** The books in ascending ISBN order, kept up to date with the book map for paging. */
+	private final NavigableMap<Integer, BookStoreBook> isbnOrder = new TreeMap<>();
+
+	/** The editor picks, kept up to date with the book map. */
+	private final EditorPicksIndex<BookStoreBook> editorPicksIndex = new EditorPicksIndex<>();
+
+	/** The books ordered by average rating, kept up to date with the book map. */
+	private final RankedIndex<BookStoreBook> topRatedIndex = new RankedIndex<>();
+
+	/** The books with sale misses ordered by their number, kept up to date with the book map. */
+	private final RankedIndex<BookStoreBook> inDemandIndex = new RankedIndex<>();
+
+	/** The log the updates are appended to under the catalog lock. */
+	private final WriteAheadLog log;
 
 	/**
 	 * Instantiates a new {@link CertainBookStore}.
 	 */
 	public SingleLockConcurrentCertainBookStore() {
+		this(WriteAheadLog.DISABLED);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} whose updates are durable.
+	 *
+	 * @param log
+	 *            the write-ahead log, recovered once the store is created
+	 */
+	public SingleLockConcurrentCertainBookStore(WriteAheadLog log) {
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
+		bookMap = new IntHashMap<>();
+		this.log = log;
 	}
 
-	private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+	/** The lock resource of the whole catalog, never a valid ISBN. */
+	private static final int CATALOG = -1;
+
+	/** The lock manager granting the catalog lock. */
+	private final LockManager lockManager = new LockManager(1);
 
 	private void validate(StockBook book) throws BookStoreException {
 		int isbn = book.getISBN();
@@ -74,29 +105,32 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 		}
 	}
 	
-	private void validate(BookCopy bookCopy) throws BookStoreException {
+	private BookStoreBook validate(BookCopy bookCopy) throws BookStoreException {
 		int isbn = bookCopy.getISBN();
 		int numCopies = bookCopy.getNumCopies();
 
-		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+		BookStoreBook book = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 
 		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
 			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
 		}
+		return book;
 	}
 	
-	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+	private BookStoreBook validate(BookEditorPick editorPickArg) throws BookStoreException {
 		int isbn = editorPickArg.getISBN();
-		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+		return validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 	}
 	
-	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+	private BookStoreBook validateISBNInStock(int ISBN) throws BookStoreException {
 		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 		}
-		if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
+		BookStoreBook book = bookMap.get(ISBN);
+		if (book == null) {// Check if the book is in stock
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
 		}
+		return book;
 	}
 
 	
@@ -107,8 +141,11 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
 	 */
 	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
-		lock.writeLock().lock();
-		try {
+		long lsn;
+
+		try (LockTransaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.EXCLUSIVE);
+
 			if (bookSet == null) {
 				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 			}
@@ -119,12 +156,50 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			}
 
 			for (StockBook book : bookSet) {
-				int isbn = book.getISBN();
-				bookMap.put(isbn, new BookStoreBook(book));
+				insert(book);
 			}
+
+			lsn = log.logAddBooks(bookSet);
 		}
-		finally {
-			lock.writeLock().unlock();
+
+		// Wait for the fsync without holding the catalog lock.
+		log.sync(lsn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.RecoverableStore#restoreBooks(java.util.
+	 * Collection)
+	 */
+	@Override
+	public void restoreBooks(Collection<StockBook> books) throws BookStoreException {
+		try (LockTransaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.EXCLUSIVE);
+
+			for (StockBook book : books) {
+				insert(book);
+			}
+		}
+	}
+
+	/**
+	 * Inserts a book in the book map and the indexes, with the catalog locked
+	 * exclusively.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	private void insert(StockBook book) {
+		int isbn = book.getISBN();
+		BookStoreBook storeBook = new BookStoreBook(book);
+		bookMap.put(isbn, storeBook);
+		isbnOrder.put(isbn, storeBook);
+		editorPicksIndex.update(isbn, storeBook, storeBook.isEditorPick());
+		topRatedIndex.update(isbn, storeBook, storeBook.getAverageRating());
+		if (storeBook.hadSaleMiss()) {
+			inDemandIndex.update(isbn, storeBook, storeBook.getNumSaleMisses());
 		}
 	}
 
@@ -135,32 +210,80 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
-		lock.writeLock().lock();
-		try {
-			int isbn;
-			int numCopies;
+		long lsn;
 
-			if (bookCopiesSet == null) {
-				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-			}
+		try (LockTransaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.EXCLUSIVE);
 
-			for (BookCopy bookCopy : bookCopiesSet) {
-				validate(bookCopy);
-			}
+			lsn = applyCopies(bookCopiesSet);
+		}
 
-			BookStoreBook book;
+		log.sync(lsn);
+	}
 
-			// Update the number of copies
-			for (BookCopy bookCopy : bookCopiesSet) {
-				isbn = bookCopy.getISBN();
-				numCopies = bookCopy.getNumCopies();
-				book = bookMap.get(isbn);
-				book.addCopies(numCopies);
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BatchedStockUpdates#addCopies(java.util.
+	 * List)
+	 */
+	public List<BookStoreException> addCopies(List<Set<BookCopy>> batch) throws BookStoreException {
+		List<BookStoreException> failures = new ArrayList<>(batch.size());
+		long lsn = 0;
+
+		try (LockTransaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.EXCLUSIVE);
+
+			for (Set<BookCopy> bookCopiesSet : batch) {
+				try {
+					lsn = applyCopies(bookCopiesSet);
+					failures.add(null);
+				} catch (BookStoreException ex) {
+					failures.add(ex);
+				}
 			}
 		}
-		finally {
-			lock.writeLock().unlock();
+
+		// One sync covers the whole batch.
+		log.sync(lsn);
+		return failures;
+	}
+
+	/**
+	 * Adds copies of existing books, with the catalog locked exclusively.
+	 *
+	 * @param bookCopiesSet
+	 *            the book copies set
+	 * @return the log sequence number of the update
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private long applyCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		int numCopies;
+
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
+
+		BookStoreBook[] books = new BookStoreBook[bookCopiesSet.size()];
+		int i = 0;
+
+		for (BookCopy bookCopy : bookCopiesSet) {
+			books[i++] = validate(bookCopy);
+		}
+
+		// Update the number of copies
+		i = 0;
+		for (BookCopy bookCopy : bookCopiesSet) {
+			numCopies = bookCopy.getNumCopies();
+			books[i++].addCopies(numCopies);
+
+			// New copies reset the sale misses.
+			inDemandIndex.remove(bookCopy.getISBN());
+		}
+
+		return log.logStock(books);
 	}
 
 
@@ -169,17 +292,41 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * 
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
 	 */
-	public List<StockBook> getBooks() {
-		lock.readLock().lock();
-		try {
+	public List<StockBook> getBooks() throws BookStoreException {
+		try (LockTransaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.SHARED);
+
 			Collection<BookStoreBook> bookMapValues = bookMap.values();
 
 			return bookMapValues.stream()
 					.map(book -> book.immutableStockBook())
 					.collect(Collectors.toList());
 		}
-		finally {
-			lock.readLock().unlock();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	@Override
+	public List<StockBook> getBooks(int cursor, int limit) throws BookStoreException {
+		try (LockTransaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.SHARED);
+
+			if (cursor < 0) {
+				throw new BookStoreException("cursor = " + cursor + ", but it must not be negative");
+			}
+
+			if (limit < 1) {
+				throw new BookStoreException("limit = " + limit + ", but it must be positive");
+			}
+
+			// The catalog lock is only held for one page, so writers run between pages.
+			return isbnOrder.tailMap(cursor, false).values().stream()
+					.limit(limit)
+					.map(book -> book.immutableStockBook())
+					.collect(Collectors.toList());
 		}
 	}
 
@@ -191,26 +338,33 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * .Set)
 	 */
 	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
-		lock.writeLock().lock();
-		try {
+		long lsn;
+
+		try (LockTransaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.EXCLUSIVE);
+
 			// Check that all ISBNs that we add/remove are there first.
 			if (editorPicks == null) {
 				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 			}
 
-			int isbnValue;
+			BookStoreBook[] books = new BookStoreBook[editorPicks.size()];
+			int i = 0;
 
 			for (BookEditorPick editorPickArg : editorPicks) {
-				validate(editorPickArg);
+				books[i++] = validate(editorPickArg);
 			}
 
+			i = 0;
 			for (BookEditorPick editorPickArg : editorPicks) {
-				bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
+				books[i].setEditorPick(editorPickArg.isEditorPick());
+				editorPicksIndex.update(editorPickArg.getISBN(), books[i++], editorPickArg.isEditorPick());
 			}
+
+			lsn = log.logUpdateEditorPicks(editorPicks);
 		}
-		finally {
-			lock.writeLock().unlock();
-		}
+
+		log.sync(lsn);
 	}
 
 	/*
@@ -219,52 +373,101 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
 	 */
 	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
-		lock.writeLock().lock();
-		try {
-			if (bookCopiesToBuy == null) {
-				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		long lsn;
+
+		try (LockTransaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.EXCLUSIVE);
+
+			lsn = applyPurchase(bookCopiesToBuy);
+		}
+
+		log.sync(lsn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.acertainbookstore.interfaces.BatchedStockUpdates#buyBooks(java.util.
+	 * List)
+	 */
+	public List<BookStoreException> buyBooks(List<Set<BookCopy>> batch) throws BookStoreException {
+		List<BookStoreException> failures = new ArrayList<>(batch.size());
+		long lsn = 0;
+
+		try (LockTransaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.EXCLUSIVE);
+
+			for (Set<BookCopy> bookCopiesToBuy : batch) {
+				try {
+					lsn = applyPurchase(bookCopiesToBuy);
+					failures.add(null);
+				} catch (BookStoreException ex) {
+					failures.add(ex);
+				}
 			}
+		}
 
-			// Check that all ISBNs that we buy are there first.
-			int isbn;
-			BookStoreBook book;
-			Boolean saleMiss = false;
+		// One sync covers the whole batch.
+		log.sync(lsn);
+		return failures;
+	}
 
-			Map<Integer, Integer> salesMisses = new HashMap<>();
+	/**
+	 * Buys books, with the catalog locked exclusively.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the books to buy
+	 * @return the log sequence number of the update
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private long applyPurchase(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
 
-			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-				isbn = bookCopyToBuy.getISBN();
+		// Check that all ISBNs that we buy are there first.
+		BookStoreBook book;
+		Boolean saleMiss = false;
 
-				validate(bookCopyToBuy);
+		BookStoreBook[] books = new BookStoreBook[bookCopiesToBuy.size()];
+		int[] salesMisses = new int[books.length];
+		int i = 0;
 
-				book = bookMap.get(isbn);
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			book = validate(bookCopyToBuy);
 
-				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
-					// If we cannot sell the copies of the book, it is a miss.
-					salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
-					saleMiss = true;
-				}
+			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+				// If we cannot sell the copies of the book, it is a miss.
+				salesMisses[i] = bookCopyToBuy.getNumCopies() - book.getNumCopies();
+				saleMiss = true;
 			}
+			books[i++] = book;
+		}
 
-			// We throw exception now since we want to see how many books in the
-			// order incurred misses which is used by books in demand
-			if (saleMiss) {
-				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-					book = bookMap.get(saleMissEntry.getKey());
-					book.addSaleMiss(saleMissEntry.getValue());
+		// We throw exception now since we want to see how many books in the
+		// order incurred misses which is used by books in demand
+		if (saleMiss) {
+			for (i = 0; i < books.length; i++) {
+				if (salesMisses[i] > 0) {
+					books[i].addSaleMiss(salesMisses[i]);
+					inDemandIndex.update(books[i].getISBN(), books[i], books[i].getNumSaleMisses());
 				}
-				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 			}
 
-			// Then make the purchase.
-			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-				book = bookMap.get(bookCopyToBuy.getISBN());
-				book.buyCopies(bookCopyToBuy.getNumCopies());
-			}
+			// The sale misses are logged, and synced with the next update.
+			log.logStock(books);
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 		}
-		finally {
-			lock.writeLock().unlock();
+
+		// Then make the purchase.
+		i = 0;
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			books[i++].buyCopies(bookCopyToBuy.getNumCopies());
 		}
+
+		return log.logStock(books);
 	}
 
 	/*
@@ -275,22 +478,19 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * Set)
 	 */
 	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
-		lock.readLock().lock();
-		try {
+		try (LockTransaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.SHARED);
+
 			if (isbnSet == null) {
 				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 			}
 
+			List<StockBook> books = new ArrayList<>(isbnSet.size());
 			for (Integer ISBN : isbnSet) {
-				validateISBNInStock(ISBN);
+				books.add(validateISBNInStock(ISBN).immutableStockBook());
 			}
 
-			return isbnSet.stream()
-					.map(isbn -> bookMap.get(isbn).immutableStockBook())
-					.collect(Collectors.toList());
-		}
-		finally {
-			lock.readLock().unlock();
+			return books;
 		}
 	}
 
@@ -300,23 +500,20 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
 	 */
 	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
-		lock.readLock().lock();
-		try {
+		try (LockTransaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.SHARED);
+
 			if (isbnSet == null) {
 				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 			}
 
 			// Check that all ISBNs that we rate are there to start with.
+			List<Book> books = new ArrayList<>(isbnSet.size());
 			for (Integer ISBN : isbnSet) {
-				validateISBNInStock(ISBN);
+				books.add(validateISBNInStock(ISBN).immutableBook());
 			}
 
-			return isbnSet.stream()
-					.map(isbn -> bookMap.get(isbn).immutableBook())
-					.collect(Collectors.toList());
-		}
-		finally {
-			lock.readLock().unlock();
+			return books;
 		}
 	}
 
@@ -326,47 +523,18 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
 	 */
 	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
-		lock.readLock().lock();
-		try {
+		try (LockTransaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.SHARED);
+
 			if (numBooks < 0) {
 				throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 			}
 
-			List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-					.map(pair -> pair.getValue())
-					.filter(book -> book.isEditorPick())
-					.collect(Collectors.toList());
-
-			// Find numBooks random indices of books that will be picked.
-			Random rand = new Random();
-			Set<Integer> tobePicked = new HashSet<>();
-			int rangePicks = listAllEditorPicks.size();
-
-			if (rangePicks <= numBooks) {
-
-				// We need to add all books.
-				for (int i = 0; i < listAllEditorPicks.size(); i++) {
-					tobePicked.add(i);
-				}
-			} else {
-
-				// We need to pick randomly the books that need to be returned.
-				int randNum;
-
-				while (tobePicked.size() < numBooks) {
-					randNum = rand.nextInt(rangePicks);
-					tobePicked.add(randNum);
-				}
-			}
-
-			// Return all the books by the randomly chosen indices.
-			return tobePicked.stream()
-					.map(index -> listAllEditorPicks.get(index).immutableBook())
+			// Sample the index, whose cost does not grow with the catalog.
+			return editorPicksIndex.sample(numBooks).stream()
+					.map(book -> book.immutableBook())
 					.collect(Collectors.toList());
 		}
-		finally {
-			lock.readLock().unlock();
-		}
 	}
 
 	/*
@@ -376,34 +544,18 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 */
 	@Override
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		lock.readLock().lock();
-		try {
+		try (LockTransaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.SHARED);
+
 			if (numBooks < 0) {
 				throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
 			}
-			List<BookStoreBook> listTopRated = bookMap.entrySet()
-					.stream()
-					.map(pair -> pair.getValue())
-					.sorted(reverseOrder(Comparator.comparing(b -> b.getAverageRating())))
-					.collect(Collectors.toList());
-			Set<Integer> tobePicked = new HashSet<>();
-			int rangePicks = listTopRated.size();
 
-			if (rangePicks <= numBooks) {
-				for (int i = 0; i < rangePicks; i++) {
-					tobePicked.add(i);
-				}
-			} else {
-				for (int i = 0; i < numBooks; i++) {
-					tobePicked.add(i);
-				}
-			}
-			return tobePicked.stream().map(index -> listTopRated.get(index).immutableBook())
+			// Read only the top of the index instead of sorting the catalog.
+			return topRatedIndex.top(numBooks).stream()
+					.map(book -> book.immutableBook())
 					.collect(Collectors.toList());
 		}
-		finally {
-			lock.readLock().unlock();
-		}
 	}
 
 
@@ -414,15 +566,27 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 */
 	@Override
 	public  List<StockBook> getBooksInDemand() throws BookStoreException {
-		lock.readLock().lock();
-		try {
-			Collection<BookStoreBook> bookMapValues = bookMap.values();
-			List<StockBook> listBooksInDemand = bookMapValues.stream().map(pair -> pair.immutableStockBook())
-					.filter(book -> (book.getNumSaleMisses() > 0)).collect(Collectors.toList());
-			return listBooksInDemand;
-		}
-		finally {
-			lock.readLock().unlock();
+		return getBooksInDemand(Integer.MAX_VALUE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand(int)
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand(int numBooks) throws BookStoreException {
+		try (LockTransaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.SHARED);
+
+			if (numBooks < 0) {
+				throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+			}
+
+			// Only the books in demand are copied, not the whole catalog.
+			return inDemandIndex.top(numBooks).stream()
+					.map(book -> book.immutableStockBook())
+					.collect(Collectors.toList());
 		}
 	}
 
@@ -433,18 +597,22 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 */
 	@Override
 	public void rateBooks(Set<BookRating> bookRatings) throws BookStoreException {
-		lock.writeLock().lock();
-		try {
+		long lsn;
+
+		try (LockTransaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.EXCLUSIVE);
+
 			if (bookRatings == null) {
 				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 			}
-			BookStoreBook book;
+			BookStoreBook[] books = new BookStoreBook[bookRatings.size()];
+			int i = 0;
 			// We validate all our ratings before acting
 			try {
 				for (BookRating bookRating : bookRatings) {
 					int rating = bookRating.getRating();
 					int isbn = bookRating.getISBN();
-					validateISBNInStock(isbn);
+					books[i++] = validateISBNInStock(isbn);
 					System.out.println("We are here");
 					if (rating < 0 || rating > 5) {
 						throw new BookStoreException("Invalid Rating");
@@ -453,17 +621,19 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 			} catch (BookStoreException ex) {
 				throw new BookStoreException(ex);
 			}
+			i = 0;
 			for (BookRating bookRating : bookRatings) {
 				System.out.print("We are rating the books");
 				int rating = bookRating.getRating();
-				int isbn = bookRating.getISBN();
-				book = bookMap.get(isbn);
+				BookStoreBook book = books[i++];
 				book.addRating(rating);
+				topRatedIndex.update(book.getISBN(), book, book.getAverageRating());
 			}
+
+			lsn = log.logRatings(books);
 		}
-		finally {
-			lock.writeLock().unlock();
-		}
+
+		log.sync(lsn);
 	}
 
 	/*
@@ -472,13 +642,21 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
 	 */
 	public void removeAllBooks() throws BookStoreException {
-		lock.writeLock().lock();
-		try {
+		long lsn;
+
+		try (LockTransaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.EXCLUSIVE);
+
 			bookMap.clear();
+			isbnOrder.clear();
+			editorPicksIndex.clear();
+			topRatedIndex.clear();
+			inDemandIndex.clear();
+
+			lsn = log.logRemoveAllBooks();
 		}
-		finally {
-			lock.writeLock().unlock();
-		}
+
+		log.sync(lsn);
 	}
 
 	/*
@@ -488,8 +666,11 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
 	 */
 	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
-		lock.writeLock().lock();
-		try {
+		long lsn;
+
+		try (LockTransaction transaction = lockManager.begin()) {
+			transaction.lock(CATALOG, LockMode.EXCLUSIVE);
+
 			if (isbnSet == null) {
 				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 			}
@@ -506,10 +687,15 @@ public class SingleLockConcurrentCertainBookStore implements BookStore, StockMan
 
 			for (int isbn : isbnSet) {
 				bookMap.remove(isbn);
+				isbnOrder.remove(isbn);
+				editorPicksIndex.remove(isbn);
+				topRatedIndex.remove(isbn);
+				inDemandIndex.remove(isbn);
 			}
+
+			lsn = log.logRemoveBooks(isbnSet);
 		}
-		finally {
-			lock.writeLock().unlock();
-		}
-		}
+
+		log.sync(lsn);
+	}
 }
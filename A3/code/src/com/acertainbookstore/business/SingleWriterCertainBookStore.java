@@ -0,0 +1,747 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link SingleWriterCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities with a single writer thread and no
+ * locks.
+ * <p>
+ * Every mutating call is enqueued on a bounded ring buffer and returns a
+ * {@link CompletableFuture}; the blocking methods of the interfaces wait for
+ * it. The writer thread drains the ring buffer in batches and applies them to
+ * a new version of the catalog, a {@link PersistentIntMap} from ISBNs to
+ * immutable {@link StockBook}s. After each batch, the new version is
+ * published as the read view, and only then are the futures of the batch
+ * completed. A caller therefore always reads its own writes. Read calls run
+ * on the caller's thread against the current read view and never wait for
+ * the writer. A new version copies only the trie nodes on the paths to the
+ * books the batch changed and shares the rest of the catalog with the
+ * previous one, so a purchase costs a few small array copies, however large
+ * the catalog.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class SingleWriterCertainBookStore implements BookStore, StockManager {
+
+	/** The default number of pending mutations before callers block. */
+	public static final int DEFAULT_RING_SIZE = 1024;
+
+	/** The default maximal number of mutations applied per batch. */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+	/**
+	 * {@link Mutation} is the body of a mutating call, run on the writer
+	 * thread.
+	 */
+	@FunctionalInterface
+	private interface Mutation {
+
+		/**
+		 * Applies the mutation to the writer's version of the catalog.
+		 *
+		 * @param books
+		 *            the catalog being built by the current batch
+		 * @throws BookStoreException
+		 *             the book store exception returned to the caller
+		 */
+		void apply(PersistentIntMap.Editor<StockBook> books) throws BookStoreException;
+	}
+
+	/**
+	 * {@link PendingMutation} is a mutation waiting in the ring buffer.
+	 */
+	private static final class PendingMutation {
+
+		/** The mutation. */
+		private final Mutation mutation;
+
+		/** The handle completed once the mutation is visible to readers. */
+		private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+		/**
+		 * Instantiates a new {@link PendingMutation}.
+		 *
+		 * @param mutation
+		 *            the mutation
+		 */
+		private PendingMutation(Mutation mutation) {
+			this.mutation = mutation;
+		}
+	}
+
+	/** The ring buffer of pending mutations. */
+	private final BlockingQueue<PendingMutation> ring;
+
+	/** The maximal number of mutations applied per batch. */
+	private final int maxBatchSize;
+
+	/** The thread applying all mutations. */
+	private final Thread writer;
+
+	/** The current read view, never modified once published. */
+	private volatile PersistentIntMap<StockBook> view = PersistentIntMap.empty();
+
+	/** The number of batches published. */
+	private final AtomicLong numBatches = new AtomicLong();
+
+	/** The number of mutations applied. */
+	private final AtomicLong numMutations = new AtomicLong();
+
+	/**
+	 * Instantiates a new {@link SingleWriterCertainBookStore} with the default
+	 * ring buffer and batch sizes.
+	 */
+	public SingleWriterCertainBookStore() {
+		this(DEFAULT_RING_SIZE, DEFAULT_MAX_BATCH_SIZE);
+	}
+
+	/**
+	 * Instantiates a new {@link SingleWriterCertainBookStore} and starts its
+	 * writer thread.
+	 *
+	 * @param ringSize
+	 *            the number of pending mutations before callers block
+	 * @param maxBatchSize
+	 *            the maximal number of mutations applied per batch
+	 */
+	public SingleWriterCertainBookStore(int ringSize, int maxBatchSize) {
+		// Constructors are not synchronized
+		if (ringSize < 1 || maxBatchSize < 1) {
+			throw new IllegalArgumentException("The ring and batch sizes must be positive");
+		}
+
+		this.ring = new ArrayBlockingQueue<>(ringSize);
+		this.maxBatchSize = maxBatchSize;
+		this.writer = new Thread(this::drain, "bookstore-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Stops the writer thread. Mutations still pending are failed.
+	 */
+	public void shutdown() {
+		writer.interrupt();
+	}
+
+	/**
+	 * Gets the number of batches published.
+	 *
+	 * @return the number of batches
+	 */
+	public long getNumBatches() {
+		return numBatches.get();
+	}
+
+	/**
+	 * Gets the number of mutations applied.
+	 *
+	 * @return the number of mutations
+	 */
+	public long getNumMutations() {
+		return numMutations.get();
+	}
+
+	/**
+	 * Runs the writer thread: takes a batch of mutations, applies them to a
+	 * new version of the read view, publishes it and completes the batch.
+	 */
+	private void drain() {
+		List<PendingMutation> batch = new ArrayList<>(maxBatchSize);
+
+		try {
+			while (true) {
+				batch.add(ring.take());
+				ring.drainTo(batch, maxBatchSize - 1);
+
+				PersistentIntMap.Editor<StockBook> books = view.edit();
+				Throwable[] failures = new Throwable[batch.size()];
+
+				for (int i = 0; i < batch.size(); i++) {
+					try {
+						batch.get(i).mutation.apply(books);
+					} catch (BookStoreException | RuntimeException ex) {
+						// A mutation validates before it changes anything, so
+						// a failed one leaves the catalog as it should be.
+						failures[i] = ex;
+					}
+				}
+
+				view = books.publish();
+				numBatches.incrementAndGet();
+				numMutations.addAndGet(batch.size());
+
+				for (int i = 0; i < batch.size(); i++) {
+					if (failures[i] == null) {
+						batch.get(i).completion.complete(null);
+					} else {
+						batch.get(i).completion.completeExceptionally(failures[i]);
+					}
+				}
+				batch.clear();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			batch.addAll(ring);
+			for (PendingMutation pending : batch) {
+				pending.completion.completeExceptionally(new BookStoreException("The bookstore is shut down"));
+			}
+		}
+	}
+
+	/**
+	 * Enqueues a mutation, blocking while the ring buffer is full.
+	 *
+	 * @param mutation
+	 *            the mutation
+	 * @return the handle completed once the mutation is visible to readers
+	 */
+	private CompletableFuture<Void> submit(Mutation mutation) {
+		PendingMutation pending = new PendingMutation(mutation);
+
+		if (!writer.isAlive()) {
+			pending.completion.completeExceptionally(new BookStoreException("The bookstore is shut down"));
+			return pending.completion;
+		}
+
+		try {
+			ring.put(pending);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			pending.completion.completeExceptionally(new BookStoreException(ex));
+		}
+		return pending.completion;
+	}
+
+	/**
+	 * Waits for a mutation to complete.
+	 *
+	 * @param completion
+	 *            the handle of the mutation
+	 * @throws BookStoreException
+	 *             the exception the mutation failed with
+	 */
+	private static void await(CompletableFuture<Void> completion) throws BookStoreException {
+		try {
+			completion.join();
+		} catch (CompletionException ex) {
+			if (ex.getCause() instanceof BookStoreException) {
+				throw (BookStoreException) ex.getCause();
+			}
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new BookStoreException(ex.getCause());
+		}
+	}
+
+	/**
+	 * Returns a failed handle.
+	 *
+	 * @param ex
+	 *            the failure
+	 * @return the handle
+	 */
+	private static CompletableFuture<Void> failed(BookStoreException ex) {
+		CompletableFuture<Void> completion = new CompletableFuture<>();
+		completion.completeExceptionally(ex);
+		return completion;
+	}
+
+	/**
+	 * Creates a copy of a book with new counters.
+	 *
+	 * @param book
+	 *            the book
+	 * @param numCopies
+	 *            the number of copies
+	 * @param numSaleMisses
+	 *            the number of sale misses
+	 * @param numTimesRated
+	 *            the number of times rated
+	 * @param totalRating
+	 *            the total rating
+	 * @param editorPick
+	 *            whether the book is editor picked
+	 * @return the updated book
+	 */
+	private static StockBook updated(StockBook book, int numCopies, long numSaleMisses, long numTimesRated,
+			long totalRating, boolean editorPick) {
+		return new ImmutableStockBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice(),
+				numCopies, numSaleMisses, numTimesRated, totalRating, editorPick);
+	}
+
+	/**
+	 * Converts a {@link StockBook} of the read view to a {@link Book}.
+	 *
+	 * @param book
+	 *            the stock book
+	 * @return the book
+	 */
+	private static Book toBook(StockBook book) {
+		return new ImmutableBook(book.getISBN(), book.getTitle(), book.getAuthor(), book.getPrice());
+	}
+
+	private static void validate(StockBook book, PersistentIntMap.Editor<StockBook> books) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (books.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private static StockBook validate(BookCopy bookCopy, PersistentIntMap.Editor<StockBook> books) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		StockBook book = validateISBNInStock(isbn, books.get(isbn)); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+		return book;
+	}
+
+	private static StockBook validate(BookRating bookRating, PersistentIntMap.Editor<StockBook> books) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		StockBook book = validateISBNInStock(isbn, books.get(isbn)); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+		return book;
+	}
+
+	private static StockBook validateISBNInStock(int ISBN, StockBook book) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		if (book == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+		return book;
+	}
+
+	/**
+	 * Enqueues the addition of books.
+	 *
+	 * @param bookSet
+	 *            the books
+	 * @return the handle completed once the books are visible to readers
+	 * @see #addBooks(Set)
+	 */
+	public CompletableFuture<Void> addBooksAsync(Set<StockBook> bookSet) {
+		if (bookSet == null) {
+			return failed(new BookStoreException(BookStoreConstants.NULL_INPUT));
+		}
+
+		return submit(books -> {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book, books);
+			}
+
+			for (StockBook book : bookSet) {
+				books.put(book.getISBN(), new BookStoreBook(book).immutableStockBook());
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		await(addBooksAsync(bookSet));
+	}
+
+	/**
+	 * Enqueues the addition of copies.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies
+	 * @return the handle completed once the copies are visible to readers
+	 * @see #addCopies(Set)
+	 */
+	public CompletableFuture<Void> addCopiesAsync(Set<BookCopy> bookCopiesSet) {
+		if (bookCopiesSet == null) {
+			return failed(new BookStoreException(BookStoreConstants.NULL_INPUT));
+		}
+
+		return submit(books -> {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				validate(bookCopy, books);
+			}
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				StockBook book = books.get(bookCopy.getISBN());
+				books.put(book.getISBN(), updated(book, book.getNumCopies() + bookCopy.getNumCopies(), 0,
+						book.getNumTimesRated(), book.getTotalRating(), book.isEditorPick()));
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		await(addCopiesAsync(bookCopiesSet));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() {
+		return new ArrayList<>(view.values());
+	}
+
+	/**
+	 * Enqueues an update of the editor picks.
+	 *
+	 * @param editorPicks
+	 *            the editor picks
+	 * @return the handle completed once the update is visible to readers
+	 * @see #updateEditorPicks(Set)
+	 */
+	public CompletableFuture<Void> updateEditorPicksAsync(Set<BookEditorPick> editorPicks) {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			return failed(new BookStoreException(BookStoreConstants.NULL_INPUT));
+		}
+
+		return submit(books -> {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validateISBNInStock(editorPickArg.getISBN(), books.get(editorPickArg.getISBN()));
+			}
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				StockBook book = books.get(editorPickArg.getISBN());
+				books.put(book.getISBN(), updated(book, book.getNumCopies(), book.getNumSaleMisses(),
+						book.getNumTimesRated(), book.getTotalRating(), editorPickArg.isEditorPick()));
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		await(updateEditorPicksAsync(editorPicks));
+	}
+
+	/**
+	 * Enqueues a purchase.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the copies to buy
+	 * @return the handle completed once the purchase is visible to readers
+	 * @see #buyBooks(Set)
+	 */
+	public CompletableFuture<Void> buyBooksAsync(Set<BookCopy> bookCopiesToBuy) {
+		if (bookCopiesToBuy == null) {
+			return failed(new BookStoreException(BookStoreConstants.NULL_INPUT));
+		}
+
+		return submit(books -> {
+			// Check that all ISBNs that we buy are there first.
+			StockBook[] toBuy = new StockBook[bookCopiesToBuy.size()];
+			int[] salesMisses = new int[toBuy.length];
+			boolean saleMiss = false;
+			int i = 0;
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				StockBook book = validate(bookCopyToBuy, books);
+
+				if (book.getNumCopies() < bookCopyToBuy.getNumCopies()) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses[i] = bookCopyToBuy.getNumCopies() - book.getNumCopies();
+					saleMiss = true;
+				}
+				toBuy[i++] = book;
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				for (i = 0; i < toBuy.length; i++) {
+					if (salesMisses[i] > 0) {
+						StockBook book = books.get(toBuy[i].getISBN());
+						books.put(book.getISBN(), updated(book, book.getNumCopies(),
+								book.getNumSaleMisses() + salesMisses[i], book.getNumTimesRated(),
+								book.getTotalRating(), book.isEditorPick()));
+					}
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				StockBook book = books.get(bookCopyToBuy.getISBN());
+				books.put(book.getISBN(), updated(book, book.getNumCopies() - bookCopyToBuy.getNumCopies(),
+						book.getNumSaleMisses(), book.getNumTimesRated(), book.getTotalRating(),
+						book.isEditorPick()));
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		await(buyBooksAsync(bookCopiesToBuy));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		PersistentIntMap<StockBook> books = view;
+		List<StockBook> result = new ArrayList<>(isbnSet.size());
+
+		for (Integer ISBN : isbnSet) {
+			result.add(validateISBNInStock(ISBN, books.get(ISBN)));
+		}
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		PersistentIntMap<StockBook> books = view;
+		List<Book> result = new ArrayList<>(isbnSet.size());
+
+		// Check that all ISBNs that we rate are there to start with.
+		for (Integer ISBN : isbnSet) {
+			result.add(toBook(validateISBNInStock(ISBN, books.get(ISBN))));
+		}
+		return result;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		List<StockBook> listAllEditorPicks = view.values().stream()
+				.filter(book -> book.isEditorPick())
+				.collect(Collectors.toList());
+
+		// Find numBooks random indices of books that will be picked.
+		Random rand = new Random();
+		Set<Integer> tobePicked = new HashSet<>();
+		int rangePicks = listAllEditorPicks.size();
+
+		if (rangePicks <= numBooks) {
+
+			// We need to add all books.
+			for (int i = 0; i < listAllEditorPicks.size(); i++) {
+				tobePicked.add(i);
+			}
+		} else {
+
+			// We need to pick randomly the books that need to be returned.
+			int randNum;
+
+			while (tobePicked.size() < numBooks) {
+				randNum = rand.nextInt(rangePicks);
+				tobePicked.add(randNum);
+			}
+		}
+
+		// Return all the books by the randomly chosen indices.
+		return tobePicked.stream()
+				.map(index -> toBook(listAllEditorPicks.get(index)))
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return ParallelTopK.top(view.values(),
+				Comparator.comparing(StockBook::getAverageRating).reversed().thenComparingInt(StockBook::getISBN),
+				numBooks).stream()
+				.map(SingleWriterCertainBookStore::toBook)
+				.collect(Collectors.toList());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return view.values().stream()
+				.filter(book -> book.getNumSaleMisses() > 0)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Enqueues ratings.
+	 *
+	 * @param bookRatings
+	 *            the ratings
+	 * @return the handle completed once the ratings are visible to readers
+	 * @see #rateBooks(Set)
+	 */
+	public CompletableFuture<Void> rateBooksAsync(Set<BookRating> bookRatings) {
+		if (bookRatings == null) {
+			return failed(new BookStoreException(BookStoreConstants.NULL_INPUT));
+		}
+
+		return submit(books -> {
+			// We validate all our ratings before acting
+			for (BookRating bookRating : bookRatings) {
+				validate(bookRating, books);
+			}
+
+			for (BookRating bookRating : bookRatings) {
+				StockBook book = books.get(bookRating.getISBN());
+				books.put(book.getISBN(), updated(book, book.getNumCopies(), book.getNumSaleMisses(),
+						book.getNumTimesRated() + 1, book.getTotalRating() + bookRating.getRating(),
+						book.isEditorPick()));
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRatings) throws BookStoreException {
+		await(rateBooksAsync(bookRatings));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		await(submit(books -> books.clear()));
+	}
+
+	/**
+	 * Enqueues the removal of books.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs of the books
+	 * @return the handle completed once the removal is visible to readers
+	 * @see #removeBooks(Set)
+	 */
+	public CompletableFuture<Void> removeBooksAsync(Set<Integer> isbnSet) {
+		if (isbnSet == null) {
+			return failed(new BookStoreException(BookStoreConstants.NULL_INPUT));
+		}
+
+		return submit(books -> {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN, books.get(ISBN));
+			}
+
+			for (int isbn : isbnSet) {
+				books.remove(isbn);
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		await(removeBooksAsync(isbnSet));
+	}
+}
@@ -0,0 +1,643 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.RecoverableStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * {@link StampedLockCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities with a single {@link StampedLock}.
+ * Updates take the write lock. Reads first run as optimistic reads, which
+ * write nothing shared: they copy the books they need into immutable books
+ * and then check that no write lock was taken meanwhile. Only if one was, the
+ * copies are thrown away and the read runs again under the read lock. Reads
+ * thus scale with the number of cores as long as updates are rare.
+ * <p>
+ * An optimistic read can see a book halfway through an update, so what it
+ * returns, throws or fails with is only used after the stamp validated.
+ *
+ * @see BookStore
+ * @see StockManager
+ * @see RecoverableStore
+ */
+public class StampedLockCertainBookStore implements BookStore, StockManager, RecoverableStore {
+
+	/** The mapping of books from ISBN to {@link BookStoreBook}. */
+	private ConcurrentIntHashMap<BookStoreBook> bookMap = null;
+
+	/** The books in ascending ISBN order, kept up to date with the book map for paging. */
+	private final NavigableMap<Integer, BookStoreBook> isbnOrder = new ConcurrentSkipListMap<>();
+
+	/** The editor picks, kept up to date with the book map. */
+	private final EditorPicksIndex<BookStoreBook> editorPicksIndex = new EditorPicksIndex<>();
+
+	/** The books ordered by average rating, kept up to date with the book map. */
+	private final RankedIndex<BookStoreBook> topRatedIndex = new RankedIndex<>();
+
+	/** The books with sale misses ordered by their number, kept up to date with the book map. */
+	private final RankedIndex<BookStoreBook> inDemandIndex = new RankedIndex<>();
+
+	/** The lock guarding the books. */
+	private final StampedLock lock = new StampedLock();
+
+	/** The log the updates are appended to under the write lock. */
+	private final WriteAheadLog log;
+
+	/**
+	 * {@link ReadOperation} is the body of a read-only request. It may run
+	 * more than once, and must not change anything.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 */
+	@FunctionalInterface
+	private interface ReadOperation<T> {
+
+		/**
+		 * Runs the read.
+		 *
+		 * @return the result
+		 * @throws BookStoreException
+		 *             the book store exception returned to the client
+		 */
+		T run() throws BookStoreException;
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore}.
+	 */
+	public StampedLockCertainBookStore() {
+		this(WriteAheadLog.DISABLED);
+	}
+
+	/**
+	 * Instantiates a new {@link CertainBookStore} whose updates are durable.
+	 *
+	 * @param log
+	 *            the write-ahead log, recovered once the store is created
+	 */
+	public StampedLockCertainBookStore(WriteAheadLog log) {
+		// Constructors are not synchronized
+		bookMap = new ConcurrentIntHashMap<>();
+		this.log = log;
+	}
+
+	/**
+	 * Runs a read-only request, optimistically first and under the read lock
+	 * if a write interfered.
+	 *
+	 * @param operation
+	 *            the read
+	 * @return the result
+	 * @throws BookStoreException
+	 *             the book store exception returned to the client
+	 */
+	private <T> T read(ReadOperation<T> operation) throws BookStoreException {
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			try {
+				T result = operation.run();
+				if (lock.validate(stamp)) {
+					return result;
+				}
+			} catch (BookStoreException ex) {
+				if (lock.validate(stamp)) {
+					throw ex;
+				}
+			} catch (RuntimeException ex) {
+				// A torn read, unless the stamp is still valid.
+				if (lock.validate(stamp)) {
+					throw ex;
+				}
+			}
+		}
+
+		stamp = lock.readLock();
+		try {
+			return operation.run();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private BookStoreBook validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		BookStoreBook book = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+		return book;
+	}
+
+	private BookStoreBook validate(BookEditorPick editorPickArg) throws BookStoreException {
+		int isbn = editorPickArg.getISBN();
+		return validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private BookStoreBook validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		BookStoreBook book = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+		return book;
+	}
+
+	private BookStoreBook validateISBNInStock(Integer ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+
+		BookStoreBook book = bookMap.get(ISBN);
+		if (book == null) { // Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+		return book;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long lsn;
+		long stamp = lock.writeLock();
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			for (StockBook book : bookSet) {
+				insert(book);
+			}
+
+			lsn = log.logAddBooks(bookSet);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+
+		// Wait for the fsync without holding the write lock.
+		log.sync(lsn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.RecoverableStore#restoreBooks(java.util.
+	 * Collection)
+	 */
+	@Override
+	public void restoreBooks(Collection<StockBook> books) throws BookStoreException {
+		long stamp = lock.writeLock();
+		try {
+			for (StockBook book : books) {
+				insert(book);
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Inserts a book in the book map and the indexes, under the write lock.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	private void insert(StockBook book) {
+		int isbn = book.getISBN();
+		BookStoreBook storeBook = new BookStoreBook(book);
+		bookMap.put(isbn, storeBook);
+		isbnOrder.put(isbn, storeBook);
+		editorPicksIndex.update(isbn, storeBook, storeBook.isEditorPick());
+		topRatedIndex.update(isbn, storeBook, storeBook.getAverageRating());
+		if (storeBook.hadSaleMiss()) {
+			inDemandIndex.update(isbn, storeBook, storeBook.getNumSaleMisses());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long lsn;
+		long stamp = lock.writeLock();
+		try {
+			BookStoreBook[] books = new BookStoreBook[bookCopiesSet.size()];
+			int i = 0;
+
+			for (BookCopy bookCopy : bookCopiesSet) {
+				books[i++] = validate(bookCopy);
+			}
+
+			// Update the number of copies
+			i = 0;
+			for (BookCopy bookCopy : bookCopiesSet) {
+				books[i++].addCopies(bookCopy.getNumCopies());
+
+				// New copies reset the sale misses.
+				inDemandIndex.remove(bookCopy.getISBN());
+			}
+
+			lsn = log.logStock(books);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+
+		log.sync(lsn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		return read(() -> bookMap.values().stream()
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	@Override
+	public List<StockBook> getBooks(int cursor, int limit) throws BookStoreException {
+		if (cursor < 0) {
+			throw new BookStoreException("cursor = " + cursor + ", but it must not be negative");
+		}
+
+		if (limit < 1) {
+			throw new BookStoreException("limit = " + limit + ", but it must be positive");
+		}
+
+		// Only one page is read at a time, so a write only retries that page.
+		return read(() -> isbnOrder.tailMap(cursor, false).values().stream()
+				.limit(limit)
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long lsn;
+		long stamp = lock.writeLock();
+		try {
+			BookStoreBook[] books = new BookStoreBook[editorPicks.size()];
+			int i = 0;
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				books[i++] = validate(editorPickArg);
+			}
+
+			i = 0;
+			for (BookEditorPick editorPickArg : editorPicks) {
+				books[i].setEditorPick(editorPickArg.isEditorPick());
+				editorPicksIndex.update(editorPickArg.getISBN(), books[i++], editorPickArg.isEditorPick());
+			}
+
+			lsn = log.logUpdateEditorPicks(editorPicks);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+
+		log.sync(lsn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long lsn;
+		long stamp = lock.writeLock();
+		try {
+			// Check that all ISBNs that we buy are there first.
+			BookStoreBook book;
+			boolean saleMiss = false;
+
+			BookStoreBook[] books = new BookStoreBook[bookCopiesToBuy.size()];
+			int[] salesMisses = new int[books.length];
+			int i = 0;
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				book = validate(bookCopyToBuy);
+
+				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses[i] = bookCopyToBuy.getNumCopies() - book.getNumCopies();
+					saleMiss = true;
+				}
+				books[i++] = book;
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss) {
+				for (i = 0; i < books.length; i++) {
+					if (salesMisses[i] > 0) {
+						books[i].addSaleMiss(salesMisses[i]);
+						inDemandIndex.update(books[i].getISBN(), books[i], books[i].getNumSaleMisses());
+					}
+				}
+
+				// The sale misses are logged, and synced with the next update.
+				log.logStock(books);
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+
+			// Then make the purchase.
+			i = 0;
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				books[i++].buyCopies(bookCopyToBuy.getNumCopies());
+			}
+
+			lsn = log.logStock(books);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+
+		log.sync(lsn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return read(() -> {
+			List<StockBook> books = new ArrayList<>(isbnSet.size());
+			for (Integer ISBN : isbnSet) {
+				books.add(validateISBNInStock(ISBN).immutableStockBook());
+			}
+
+			return books;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return read(() -> {
+			// Check that all ISBNs that we rate are there to start with.
+			List<Book> books = new ArrayList<>(isbnSet.size());
+			for (Integer ISBN : isbnSet) {
+				books.add(validateISBNInStock(ISBN).immutableBook());
+			}
+
+			return books;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Sample the index, whose cost does not grow with the catalog.
+		return read(() -> editorPicksIndex.sample(numBooks).stream()
+				.map(book -> (Book) book.immutableBook())
+				.collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Read only the top of the index instead of sorting the catalog.
+		return read(() -> topRatedIndex.top(numBooks).stream()
+				.map(book -> (Book) book.immutableBook())
+				.collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		return getBooksInDemand(Integer.MAX_VALUE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand(int)
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		// Only the books in demand are copied, not the whole catalog.
+		return read(() -> inDemandIndex.top(numBooks).stream()
+				.map(book -> book.immutableStockBook())
+				.collect(Collectors.toList()));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRatings) throws BookStoreException {
+		if (bookRatings == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long lsn;
+		long stamp = lock.writeLock();
+		try {
+			// We validate all our ratings before acting
+			BookStoreBook[] books = new BookStoreBook[bookRatings.size()];
+			int i = 0;
+
+			for (BookRating bookRating : bookRatings) {
+				books[i++] = validate(bookRating);
+			}
+
+			i = 0;
+			for (BookRating bookRating : bookRatings) {
+				BookStoreBook book = books[i++];
+				book.addRating(bookRating.getRating());
+				topRatedIndex.update(book.getISBN(), book, book.getAverageRating());
+			}
+
+			lsn = log.logRatings(books);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+
+		log.sync(lsn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		long lsn;
+		long stamp = lock.writeLock();
+		try {
+			bookMap.clear();
+			isbnOrder.clear();
+			editorPicksIndex.clear();
+			topRatedIndex.clear();
+			inDemandIndex.clear();
+
+			lsn = log.logRemoveAllBooks();
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+
+		log.sync(lsn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long lsn;
+		long stamp = lock.writeLock();
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			for (int isbn : isbnSet) {
+				bookMap.remove(isbn);
+				isbnOrder.remove(isbn);
+				editorPicksIndex.remove(isbn);
+				topRatedIndex.remove(isbn);
+				inDemandIndex.remove(isbn);
+			}
+
+			lsn = log.logRemoveBooks(isbnSet);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+
+		log.sync(lsn);
+	}
+}
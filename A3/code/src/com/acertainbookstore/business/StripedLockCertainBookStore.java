@@ -0,0 +1,697 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.TransactionAbortedException;
+
+/**
+ * {@link StripedLockCertainBookStore} implements the {@link BookStore} and
+ * {@link StockManager} functionalities using a fixed number of lock stripes.
+ * Every ISBN hashes onto one stripe, so the number of locks does not grow
+ * with the catalog; the stripe locks are granted by a {@link LockManager}.
+ * Operations lock the stripes of the ISBNs they touch, always in ascending
+ * stripe order, so that two multi-book requests can never wait for each other
+ * in a cycle. Requests on disjoint stripes run in
+ * parallel; requests that read the whole catalog lock all stripes.
+ * <p>
+ * Book counters are {@link AtomicBookStoreBook}s, so purchases of a single
+ * book bypass the stripe locks altogether. Multi-book purchases hold the
+ * stripe locks and reserve copies book by book, handing reservations back when
+ * any book falls short. A whole-catalog read therefore sees each book's
+ * counters atomically, though not necessarily all single-book purchases in
+ * the order they completed.
+ * <p>
+ * Purchases piling up on one bestseller split its copies into escrow
+ * allotments, see {@link AtomicBookStoreBook}; {@link #splitCopies(Set)}
+ * does so up front for books known to be hot.
+ *
+ * @see BookStore
+ * @see StockManager
+ */
+public class StripedLockCertainBookStore implements BookStore, StockManager {
+
+	/** The default number of lock stripes. */
+	public static final int DEFAULT_NUM_STRIPES = 256;
+
+	/** The mapping of books from ISBN to {@link AtomicBookStoreBook}. */
+	private final ConcurrentIntHashMap<AtomicBookStoreBook> bookMap;
+
+	/** The lock manager granting the stripe locks. */
+	private final LockManager lockManager;
+
+	/** The number of lock stripes. */
+	private final int numStripes;
+
+	/** The mask selecting a stripe from a hashed ISBN. */
+	private final int stripeMask;
+
+	/**
+	 * Instantiates a new {@link StripedLockCertainBookStore} with
+	 * {@link #DEFAULT_NUM_STRIPES} lock stripes.
+	 */
+	public StripedLockCertainBookStore() {
+		this(DEFAULT_NUM_STRIPES);
+	}
+
+	/**
+	 * Instantiates a new {@link StripedLockCertainBookStore}.
+	 *
+	 * @param numStripes
+	 *            the number of lock stripes, rounded up to a power of two
+	 */
+	public StripedLockCertainBookStore(int numStripes) {
+		if (numStripes < 1) {
+			throw new IllegalArgumentException("numStripes = " + numStripes + ", but it must be positive");
+		}
+
+		int size = Integer.highestOneBit(numStripes);
+		if (size < numStripes) {
+			size <<= 1;
+		}
+
+		// Constructors are not synchronized
+		bookMap = new ConcurrentIntHashMap<>();
+		lockManager = new LockManager(size);
+		this.numStripes = size;
+		stripeMask = size - 1;
+	}
+
+	/**
+	 * Gets the number of lock stripes.
+	 *
+	 * @return the number of stripes
+	 */
+	public int getNumStripes() {
+		return numStripes;
+	}
+
+	/**
+	 * Designates hot books, whose copies are split into escrow allotments
+	 * right away rather than once purchases contend on them.
+	 *
+	 * @param isbnSet
+	 *            the ISBNs of the hot books
+	 * @throws BookStoreException
+	 *             if a book is not in stock
+	 */
+	public void splitCopies(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<AtomicBookStoreBook> books = new ArrayList<>(isbnSet.size());
+		for (Integer ISBN : isbnSet) {
+			books.add(validateISBNInStock(ISBN));
+		}
+
+		for (AtomicBookStoreBook book : books) {
+			book.splitCopies(AtomicBookStoreBook.DEFAULT_NUM_ALLOTMENTS);
+		}
+	}
+
+	/**
+	 * Maps an ISBN onto its stripe. The ISBN is scrambled first, so that runs
+	 * of consecutive ISBNs spread over all stripes.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the stripe index
+	 */
+	private int stripeOf(int isbn) {
+		int hash = isbn * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & stripeMask;
+	}
+
+	/**
+	 * Computes the distinct stripes covering the ISBNs of the given items, in
+	 * ascending order.
+	 *
+	 * @param items
+	 *            the items
+	 * @param isbnOf
+	 *            extracts the ISBN of an item
+	 * @return the sorted stripe indices
+	 */
+	private <T> int[] stripesOf(Collection<T> items, ToIntFunction<T> isbnOf) {
+		if (items.size() >= numStripes) {
+			return allStripes();
+		}
+
+		int[] indices = new int[items.size()];
+		int count = 0;
+
+		for (T item : items) {
+			indices[count++] = stripeOf(isbnOf.applyAsInt(item));
+		}
+
+		Arrays.sort(indices);
+
+		// Drop duplicates in place, the array is sorted.
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			if (distinct == 0 || indices[distinct - 1] != indices[i]) {
+				indices[distinct++] = indices[i];
+			}
+		}
+
+		return Arrays.copyOf(indices, distinct);
+	}
+
+	/**
+	 * Gets the indices of all stripes in ascending order.
+	 *
+	 * @return all stripe indices
+	 */
+	private int[] allStripes() {
+		int[] indices = new int[numStripes];
+
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = i;
+		}
+
+		return indices;
+	}
+
+	/**
+	 * Locks the given stripes in ascending order, in a new lock transaction.
+	 * Closing the transaction unlocks them.
+	 *
+	 * @param indices
+	 *            the sorted stripe indices
+	 * @param exclusive
+	 *            whether to take exclusive instead of shared locks
+	 * @return the transaction holding the locks
+	 * @throws TransactionAbortedException
+	 *             if the transaction was aborted to break a deadlock, after
+	 *             releasing the stripes locked so far
+	 */
+	private LockTransaction lockStripes(int[] indices, boolean exclusive) throws TransactionAbortedException {
+		LockTransaction transaction = lockManager.begin();
+		LockMode mode = exclusive ? LockMode.EXCLUSIVE : LockMode.SHARED;
+
+		try {
+			// Lock resources cannot be 0, so stripe i is resource i + 1.
+			for (int index : indices) {
+				transaction.lock(index + 1, mode);
+			}
+		} catch (TransactionAbortedException ex) {
+			transaction.close();
+			throw ex;
+		}
+
+		return transaction;
+	}
+
+	private void validate(StockBook book) throws BookStoreException {
+		int isbn = book.getISBN();
+		String bookTitle = book.getTitle();
+		String bookAuthor = book.getAuthor();
+		int noCopies = book.getNumCopies();
+		float bookPrice = book.getPrice();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookTitle)) { // Check if the book has valid title
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isEmpty(bookAuthor)) { // Check if the book has valid author
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(noCopies)) { // Check if the book has at least one copy
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookPrice < 0.0) { // Check if the price of the book is valid
+			throw new BookStoreException(BookStoreConstants.BOOK + book.toString() + BookStoreConstants.INVALID);
+		}
+
+		if (bookMap.containsKey(isbn)) {// Check if the book is not in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.DUPLICATED);
+		}
+	}
+
+	private AtomicBookStoreBook validate(BookCopy bookCopy) throws BookStoreException {
+		int isbn = bookCopy.getISBN();
+		int numCopies = bookCopy.getNumCopies();
+
+		AtomicBookStoreBook book = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+		return book;
+	}
+
+	private AtomicBookStoreBook validate(BookEditorPick editorPickArg) throws BookStoreException {
+		int isbn = editorPickArg.getISBN();
+		return validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private AtomicBookStoreBook validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		AtomicBookStoreBook book = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+		return book;
+	}
+
+	private AtomicBookStoreBook validateISBNInStock(int ISBN) throws BookStoreException {
+		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
+		}
+		AtomicBookStoreBook book = bookMap.get(ISBN);
+		if (book == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
+		}
+		return book;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
+	 */
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		LockTransaction locked = lockStripes(stripesOf(bookSet, StockBook::getISBN), true);
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				validate(book);
+			}
+
+			for (StockBook book : bookSet) {
+				int isbn = book.getISBN();
+				bookMap.put(isbn, new AtomicBookStoreBook(book));
+			}
+		} finally {
+			locked.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		LockTransaction locked = lockStripes(stripesOf(bookCopiesSet, BookCopy::getISBN), true);
+		try {
+			AtomicBookStoreBook[] books = new AtomicBookStoreBook[bookCopiesSet.size()];
+			int i = 0;
+
+			for (BookCopy bookCopy : bookCopiesSet) {
+				books[i++] = validate(bookCopy);
+			}
+
+			// Update the number of copies
+			i = 0;
+			for (BookCopy bookCopy : bookCopiesSet) {
+				books[i++].addCopies(bookCopy.getNumCopies());
+			}
+		} finally {
+			locked.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
+	 */
+	public List<StockBook> getBooks() throws BookStoreException {
+		LockTransaction locked = lockStripes(allStripes(), false);
+		try {
+			return bookMap.values().stream()
+					.map(book -> book.immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			locked.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
+	 * .Set)
+	 */
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		LockTransaction locked = lockStripes(stripesOf(editorPicks, BookEditorPick::getISBN), true);
+		try {
+			AtomicBookStoreBook[] books = new AtomicBookStoreBook[editorPicks.size()];
+			int i = 0;
+
+			for (BookEditorPick editorPickArg : editorPicks) {
+				books[i++] = validate(editorPickArg);
+			}
+
+			i = 0;
+			for (BookEditorPick editorPickArg : editorPicks) {
+				books[i++].setEditorPick(editorPickArg.isEditorPick());
+			}
+		} finally {
+			locked.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		if (bookCopiesToBuy.size() == 1) {
+			buyBook(bookCopiesToBuy.iterator().next());
+			return;
+		}
+
+		LockTransaction locked = lockStripes(stripesOf(bookCopiesToBuy, BookCopy::getISBN), true);
+		try {
+			// Check that all ISBNs that we buy are there first.
+			AtomicBookStoreBook[] books = new AtomicBookStoreBook[bookCopiesToBuy.size()];
+			int i = 0;
+
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				books[i++] = validate(bookCopyToBuy);
+			}
+
+			// Single-book purchases do not take the stripe locks, so the copies
+			// are reserved one book at a time and handed back on a shortfall.
+			Map<AtomicBookStoreBook, Integer> reserved = new HashMap<>();
+			Map<AtomicBookStoreBook, Integer> salesMisses = new HashMap<>();
+
+			i = 0;
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				AtomicBookStoreBook book = books[i++];
+				int missing = book.reserveCopies(bookCopyToBuy.getNumCopies());
+
+				if (missing == 0) {
+					reserved.merge(book, bookCopyToBuy.getNumCopies(), Integer::sum);
+				} else {
+					// If we cannot sell the copies of the book, it is a miss.
+					salesMisses.merge(book, missing, Integer::sum);
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (!salesMisses.isEmpty()) {
+				for (Map.Entry<AtomicBookStoreBook, Integer> reservation : reserved.entrySet()) {
+					reservation.getKey().releaseCopies(reservation.getValue());
+				}
+				for (Map.Entry<AtomicBookStoreBook, Integer> saleMissEntry : salesMisses.entrySet()) {
+					saleMissEntry.getKey().addSaleMiss(saleMissEntry.getValue());
+				}
+				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+			}
+		} finally {
+			locked.close();
+		}
+	}
+
+	/**
+	 * Buys copies of a single book without taking any lock. The copies are
+	 * taken out of stock with a single compare-and-set, which is the
+	 * linearization point of the purchase.
+	 *
+	 * @param bookCopyToBuy
+	 *            the copies to buy
+	 * @throws BookStoreException
+	 *             if the book is not in stock or has too few copies
+	 */
+	private void buyBook(BookCopy bookCopyToBuy) throws BookStoreException {
+		int isbn = bookCopyToBuy.getISBN();
+		int numCopies = bookCopyToBuy.getNumCopies();
+
+		if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+		}
+
+		// The book may be removed concurrently, so look it up only once.
+		AtomicBookStoreBook book = bookMap.get(isbn);
+		if (book == null) {// Check if the book is in stock
+			throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
+			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
+		}
+
+		int missing = book.reserveCopies(numCopies);
+		if (missing > 0) {
+			// If we cannot sell the copies of the book, it is a miss.
+			book.addSaleMiss(missing);
+			throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#getBooksByISBN(java.util.
+	 * Set)
+	 */
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		LockTransaction locked = lockStripes(stripesOf(isbnSet, Integer::intValue), false);
+		try {
+			List<StockBook> books = new ArrayList<>(isbnSet.size());
+			for (Integer ISBN : isbnSet) {
+				books.add(validateISBNInStock(ISBN).immutableStockBook());
+			}
+
+			return books;
+		} finally {
+			locked.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
+	 */
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		LockTransaction locked = lockStripes(stripesOf(isbnSet, Integer::intValue), false);
+		try {
+			// Check that all ISBNs that we rate are there to start with.
+			List<Book> books = new ArrayList<>(isbnSet.size());
+			for (Integer ISBN : isbnSet) {
+				books.add(validateISBNInStock(ISBN).immutableBook());
+			}
+
+			return books;
+		} finally {
+			locked.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
+	 */
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		LockTransaction locked = lockStripes(allStripes(), false);
+		try {
+			List<BookStoreBook> listAllEditorPicks = bookMap.values().stream()
+					.filter(book -> book.isEditorPick())
+					.collect(Collectors.toList());
+
+			// Find numBooks random indices of books that will be picked.
+			Random rand = new Random();
+			Set<Integer> tobePicked = new HashSet<>();
+			int rangePicks = listAllEditorPicks.size();
+
+			if (rangePicks <= numBooks) {
+
+				// We need to add all books.
+				for (int i = 0; i < listAllEditorPicks.size(); i++) {
+					tobePicked.add(i);
+				}
+			} else {
+
+				// We need to pick randomly the books that need to be returned.
+				int randNum;
+
+				while (tobePicked.size() < numBooks) {
+					randNum = rand.nextInt(rangePicks);
+					tobePicked.add(randNum);
+				}
+			}
+
+			// Return all the books by the randomly chosen indices.
+			return tobePicked.stream()
+					.map(index -> listAllEditorPicks.get(index).immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			locked.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#getTopRatedBooks(int)
+	 */
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		LockTransaction locked = lockStripes(allStripes(), false);
+		try {
+			return ParallelTopK.top(bookMap.values(),
+					Comparator.comparing(BookStoreBook::getAverageRating).reversed().thenComparingInt(BookStoreBook::getISBN),
+					numBooks).stream()
+					.map(book -> book.immutableBook())
+					.collect(Collectors.toList());
+		} finally {
+			locked.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand()
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		LockTransaction locked = lockStripes(allStripes(), false);
+		try {
+			return bookMap.values().stream()
+					.filter(book -> book.hadSaleMiss())
+					.map(book -> book.immutableStockBook())
+					.collect(Collectors.toList());
+		} finally {
+			locked.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
+	 */
+	@Override
+	public void rateBooks(Set<BookRating> bookRatings) throws BookStoreException {
+		if (bookRatings == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		LockTransaction locked = lockStripes(stripesOf(bookRatings, BookRating::getISBN), true);
+		try {
+			// We validate all our ratings before acting
+			AtomicBookStoreBook[] books = new AtomicBookStoreBook[bookRatings.size()];
+			int i = 0;
+
+			for (BookRating bookRating : bookRatings) {
+				books[i++] = validate(bookRating);
+			}
+
+			i = 0;
+			for (BookRating bookRating : bookRatings) {
+				books[i++].addRating(bookRating.getRating());
+			}
+		} finally {
+			locked.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
+	 */
+	public void removeAllBooks() throws BookStoreException {
+		LockTransaction locked = lockStripes(allStripes(), true);
+		try {
+			bookMap.clear();
+		} finally {
+			locked.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.StockManager#removeBooks(java.util.Set)
+	 */
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		LockTransaction locked = lockStripes(stripesOf(isbnSet, Integer::intValue), true);
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
+			}
+
+			for (int isbn : isbnSet) {
+				bookMap.remove(isbn);
+			}
+		} finally {
+			locked.close();
+		}
+	}
+}
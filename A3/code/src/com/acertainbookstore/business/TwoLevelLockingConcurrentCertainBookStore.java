@@ -1,51 +1,260 @@
 package com.acertainbookstore.business;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Random;
+import java.util.NavigableMap;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.RecoverableStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.TransactionAbortedException;
 
 /** {@link TwoLevelLockingConcurrentCertainBookStore} implements the {@link BookStore} and
  * {@link StockManager} functionalities.
+ * <p>
+ * Locking has two levels, the catalog and the single books, following
+ * multi-granularity locking. Requests on some books take an intention lock on
+ * the catalog, {@link LockMode#INTENTION_SHARED} to read or
+ * {@link LockMode#INTENTION_EXCLUSIVE} to update, and then read or write locks
+ * on those books, in ascending ISBN order. Requests that read the whole
+ * catalog take it {@link LockMode#SHARED}, which covers every book, and
+ * removing all books takes it {@link LockMode#EXCLUSIVE}. Adding a book only
+ * needs an intention lock on the catalog and a write lock on the new ISBN, so
+ * it conflicts with full-catalog reads but not with purchases of other books.
+ * All locks are granted by a {@link LockManager} and released together when
+ * the request ends. Depending on the {@link LockManager.DeadlockPolicy}, the
+ * lock manager breaks deadlocks or prevents them by aborting transactions;
+ * aborted requests are restarted. Requests locking more books than the
+ * escalation threshold of the lock manager lock the whole catalog instead.
  *
  * @see BookStore
  * @see StockManager
+ * @see RecoverableStore
  */
-public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, StockManager {
+public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, StockManager, RecoverableStore {
 
 	/** The mapping of books from ISBN to {@link BookStoreBook}. */
-	private Map<Integer, BookStoreBook> bookMap = null;
-	private Map<Integer, ReentrantReadWriteLock> lockMap = null;
+	private ConcurrentIntHashMap<BookStoreBook> bookMap = null;
+
+	/** The books in ascending ISBN order, kept up to date with the book map for paging. */
+	private final NavigableMap<Integer, BookStoreBook> isbnOrder = new ConcurrentSkipListMap<>();
+
+	/** The editor picks, kept up to date with the book map. */
+	private final EditorPicksIndex<BookStoreBook> editorPicksIndex = new EditorPicksIndex<>();
+
+	/** The books ordered by average rating, kept up to date with the book map. */
+	private final RankedIndex<BookStoreBook> topRatedIndex = new RankedIndex<>();
+
+	/** The books with sale misses ordered by their number, kept up to date with the book map. */
+	private final RankedIndex<BookStoreBook> inDemandIndex = new RankedIndex<>();
+
+	/** The lock resource of the whole catalog, never a valid ISBN. */
+	private static final int CATALOG = -1;
+
+	/** The lock manager granting catalog-level and book-level locks. */
+	private final LockManager lockManager;
+
+	/** The log the updates are appended to while their locks are held. */
+	private final WriteAheadLog log;
 
 	/**
-	 * Instantiates a new {@link CertainBookStore}.
+	 * {@link LockedOperation} is the body of a request, run in a lock
+	 * transaction.
+	 *
+	 * @param <T>
+	 *            the type of the result
+	 */
+	@FunctionalInterface
+	private interface LockedOperation<T> {
+
+		/**
+		 * Runs the request.
+		 *
+		 * @param transaction
+		 *            the transaction taking the locks
+		 * @return the result
+		 * @throws BookStoreException
+		 *             the book store exception returned to the client
+		 */
+		T run(LockTransaction transaction) throws BookStoreException;
+	}
+
+	/**
+	 * Instantiates a new {@link TwoLevelLockingConcurrentCertainBookStore} that detects deadlocks.
 	 */
 	public TwoLevelLockingConcurrentCertainBookStore() {
+		this(LockManager.DeadlockPolicy.DETECT);
+	}
+
+	/**
+	 * Instantiates a new {@link TwoLevelLockingConcurrentCertainBookStore}.
+	 *
+	 * @param deadlockPolicy
+	 *            how the lock manager deals with deadlocks
+	 */
+	public TwoLevelLockingConcurrentCertainBookStore(LockManager.DeadlockPolicy deadlockPolicy) {
+		this(deadlockPolicy, WriteAheadLog.DISABLED);
+	}
+
+	/**
+	 * Instantiates a new {@link TwoLevelLockingConcurrentCertainBookStore} whose updates are durable.
+	 *
+	 * @param deadlockPolicy
+	 *            how the lock manager deals with deadlocks
+	 * @param log
+	 *            the write-ahead log, recovered once the store is created
+	 */
+	public TwoLevelLockingConcurrentCertainBookStore(LockManager.DeadlockPolicy deadlockPolicy, WriteAheadLog log) {
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
-		lockMap = new HashMap<>();
+		bookMap = new ConcurrentIntHashMap<>();
+		lockManager = new LockManager(LockManager.DEFAULT_NUM_PARTITIONS, deadlockPolicy);
+		this.log = log;
 	}
-	//TODO: Need to add another datastructure which holds the ISBNS of each book and a lock.
-	// This new datastructure will function as a gatekeeper, where you will 'query' if you can access the book.
-	// There has to be one lock which locks the entire datastructure, for instance if you wish to add new book, you'll
-	// extend the map, where as if you add copies/buy books you just update allready existing entires.
 
-	private static final ReentrantReadWriteLock globalLock = new ReentrantReadWriteLock(true);
+	/**
+	 * Gets the number of requests restarted after their transaction was
+	 * aborted by the lock manager.
+	 *
+	 * @return the number of restarts
+	 */
+	public long getNumRestarts() {
+		return lockManager.getNumRestarts();
+	}
+
+	/**
+	 * Gets the number of requests that locked so many books that they locked
+	 * the whole catalog instead.
+	 *
+	 * @return the number of escalations
+	 */
+	public long getNumEscalations() {
+		return lockManager.getNumEscalations();
+	}
+
+	/**
+	 * Sets the number of book-level locks a request takes before it locks the
+	 * whole catalog instead.
+	 *
+	 * @param escalationThreshold
+	 *            the escalation threshold
+	 * @see LockManager#setEscalationThreshold(int)
+	 */
+	public void setEscalationThreshold(int escalationThreshold) {
+		lockManager.setEscalationThreshold(escalationThreshold);
+	}
+
+	/**
+	 * Runs a request in a lock transaction and releases its locks at the end.
+	 * Requests take all their locks before they change anything, so a request
+	 * whose transaction is aborted is restarted, keeping its timestamp.
+	 *
+	 * @param operation
+	 *            the request
+	 * @return the result
+	 * @throws BookStoreException
+	 *             the book store exception returned to the client
+	 */
+	private <T> T execute(LockedOperation<T> operation) throws BookStoreException {
+		LockTransaction transaction = lockManager.begin();
+
+		while (true) {
+			try (LockTransaction current = transaction) {
+				return operation.run(current);
+			} catch (TransactionAbortedException ex) {
+				// Give the transaction that won the conflict a chance to finish.
+				Thread.yield();
+				transaction = lockManager.restart(transaction);
+			}
+		}
+	}
+
+	/**
+	 * Gets the distinct ISBNs of some items in ascending order, the order in
+	 * which their book-level locks are acquired.
+	 *
+	 * @param items
+	 *            the items
+	 * @param isbnOf
+	 *            the function mapping an item to its ISBN
+	 * @return the sorted distinct ISBNs
+	 * @throws BookStoreException
+	 *             if an ISBN is invalid
+	 */
+	private <T> int[] sortedISBNs(Collection<T> items, ToIntFunction<T> isbnOf) throws BookStoreException {
+		int[] isbns = new int[items.size()];
+		int i = 0;
+
+		for (T item : items) {
+			int isbn = isbnOf.applyAsInt(item);
+			if (BookStoreUtility.isInvalidISBN(isbn)) { // Check if the book has valid ISBN
+				throw new BookStoreException(BookStoreConstants.ISBN + isbn + BookStoreConstants.INVALID);
+			}
+			isbns[i++] = isbn;
+		}
+
+		return Arrays.stream(isbns).sorted().distinct().toArray();
+	}
+
+	/**
+	 * Acquires the book-level locks of some ISBNs in the order given. A
+	 * request locking more books than the escalation threshold of the lock
+	 * manager locks the whole catalog instead of the remaining books.
+	 *
+	 * @param transaction
+	 *            the transaction acquiring the locks
+	 * @param isbns
+	 *            the sorted distinct ISBNs
+	 * @param mode
+	 *            the lock mode
+	 * @throws TransactionAbortedException
+	 *             if the transaction was aborted
+	 */
+	private void lockBooks(LockTransaction transaction, int[] isbns, LockMode mode)
+			throws TransactionAbortedException {
+		for (int isbn : isbns) {
+			transaction.lock(CATALOG, isbn, mode);
+		}
+	}
+
+	/**
+	 * Reads books from an index, such as the top books of a ranking or a page
+	 * of the catalog, and locks them shared. The index is read again once the
+	 * locks are granted, and the books are locked anew if it changed
+	 * meanwhile, so the books returned are still the ones the index holds.
+	 *
+	 * @param transaction
+	 *            the transaction acquiring the locks
+	 * @param indexRead
+	 *            the read of the index
+	 * @return the books read, locked shared
+	 * @throws BookStoreException
+	 *             if the transaction was aborted
+	 */
+	private List<BookStoreBook> lockStable(LockTransaction transaction, Supplier<List<BookStoreBook>> indexRead)
+			throws BookStoreException {
+		List<BookStoreBook> books = indexRead.get();
+
+		while (true) {
+			lockBooks(transaction, sortedISBNs(books, BookStoreBook::getISBN), LockMode.SHARED);
+
+			// Books may have been updated or removed before their locks were granted.
+			List<BookStoreBook> current = indexRead.get();
+			if (current.equals(books)) {
+				return books;
+			}
+			books = current;
+		}
+	}
 
 	private void validate(StockBook book) throws BookStoreException {
 		int isbn = book.getISBN();
@@ -79,29 +288,44 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		}
 	}
 
-	private void validate(BookCopy bookCopy) throws BookStoreException {
+	private BookStoreBook validate(BookCopy bookCopy) throws BookStoreException {
 		int isbn = bookCopy.getISBN();
 		int numCopies = bookCopy.getNumCopies();
 
-		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+		BookStoreBook book = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
 
 		if (BookStoreUtility.isInvalidNoCopies(numCopies)) { // Check if the number of the book copy is larger than zero
 			throw new BookStoreException(BookStoreConstants.NUM_COPIES + numCopies + BookStoreConstants.INVALID);
 		}
+		return book;
 	}
 
-	private void validate(BookEditorPick editorPickArg) throws BookStoreException {
+	private BookStoreBook validate(BookEditorPick editorPickArg) throws BookStoreException {
 		int isbn = editorPickArg.getISBN();
-		validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+		return validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+	}
+
+	private BookStoreBook validate(BookRating bookRating) throws BookStoreException {
+		int isbn = bookRating.getISBN();
+		int rating = bookRating.getRating();
+
+		BookStoreBook book = validateISBNInStock(isbn); // Check if the book has valid ISBN and in stock
+
+		if (BookStoreUtility.isInvalidRating(rating)) { // Check if the rating is between 0 and 5
+			throw new BookStoreException(BookStoreConstants.RATING + rating + BookStoreConstants.INVALID);
+		}
+		return book;
 	}
 
-	private void validateISBNInStock(Integer ISBN) throws BookStoreException {
+	private BookStoreBook validateISBNInStock(int ISBN) throws BookStoreException {
 		if (BookStoreUtility.isInvalidISBN(ISBN)) { // Check if the book has valid ISBN
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
 		}
-		if (!bookMap.containsKey(ISBN)) {// Check if the book is in stock
+		BookStoreBook book = bookMap.get(ISBN);
+		if (book == null) {// Check if the book is in stock
 			throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
 		}
+		return book;
 	}
 
 	/*
@@ -110,13 +334,14 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#addBooks(java.util.Set)
 	 */
-	// Here we need to add a write lock on the entire datastructure.
 	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
-		globalLock.writeLock().lock();
-		try {
-			if (bookSet == null) {
-				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-			}
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long lsn = execute(transaction -> {
+			transaction.lock(CATALOG, LockMode.INTENTION_EXCLUSIVE);
+			lockBooks(transaction, sortedISBNs(bookSet, StockBook::getISBN), LockMode.EXCLUSIVE);
 
 			// Check if all are there
 			for (StockBook book : bookSet) {
@@ -124,20 +349,51 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 			}
 
 			for (StockBook book : bookSet) {
-				int isbn = book.getISBN();
-				lockMap.put(isbn, new ReentrantReadWriteLock(true));
-				ReentrantReadWriteLock lock = lockMap.get(isbn);
-				lock.writeLock().lock();
-				try {
-					bookMap.put(isbn, new BookStoreBook(book));
-				}
-				finally {
-					lock.writeLock().unlock();
-				}
+				insert(book);
 			}
-		}
-		finally {
-			globalLock.writeLock().unlock();
+
+			return log.logAddBooks(bookSet);
+		});
+
+		// Wait for the fsync without holding the locks.
+		log.sync(lsn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.RecoverableStore#restoreBooks(java.util.
+	 * Collection)
+	 */
+	@Override
+	public void restoreBooks(Collection<StockBook> books) throws BookStoreException {
+		execute(transaction -> {
+			transaction.lock(CATALOG, LockMode.EXCLUSIVE);
+
+			for (StockBook book : books) {
+				insert(book);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Inserts a book in the book map and the indexes, with its ISBN locked
+	 * exclusively.
+	 *
+	 * @param book
+	 *            the book
+	 */
+	private void insert(StockBook book) {
+		int isbn = book.getISBN();
+		BookStoreBook storeBook = new BookStoreBook(book);
+		bookMap.put(isbn, storeBook);
+		isbnOrder.put(isbn, storeBook);
+		editorPicksIndex.update(isbn, storeBook, storeBook.isEditorPick());
+		topRatedIndex.update(isbn, storeBook, storeBook.getAverageRating());
+		if (storeBook.hadSaleMiss()) {
+			inDemandIndex.update(isbn, storeBook, storeBook.getNumSaleMisses());
 		}
 	}
 
@@ -147,41 +403,35 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * @see
 	 * com.acertainbookstore.interfaces.StockManager#addCopies(java.util.Set)
 	 */
-	// Here we only need to add a write lock on the ISBN.
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
-		// Only needs to read from the bookMap, checks if the given ISBN is available further down.
-		globalLock.readLock().lock();
-		try {
-			int isbn;
-			int numCopies;
-
-			if (bookCopiesSet == null) {
-				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-			}
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long lsn = execute(transaction -> {
+			transaction.lock(CATALOG, LockMode.INTENTION_EXCLUSIVE);
+			lockBooks(transaction, sortedISBNs(bookCopiesSet, BookCopy::getISBN), LockMode.EXCLUSIVE);
+
+			BookStoreBook[] books = new BookStoreBook[bookCopiesSet.size()];
+			int i = 0;
 
 			for (BookCopy bookCopy : bookCopiesSet) {
-				validate(bookCopy);
+				books[i++] = validate(bookCopy);
 			}
 
-			BookStoreBook book;
-
 			// Update the number of copies
+			i = 0;
 			for (BookCopy bookCopy : bookCopiesSet) {
-				isbn = bookCopy.getISBN();
-				ReentrantReadWriteLock lock = lockMap.get(isbn);
-				lock.writeLock().lock();
-				try {
-					numCopies = bookCopy.getNumCopies();
-					book = bookMap.get(isbn);
-					book.addCopies(numCopies);
-				} finally {
-					lock.writeLock().unlock();
-				}
+				books[i++].addCopies(bookCopy.getNumCopies());
+
+				// New copies reset the sale misses.
+				inDemandIndex.remove(bookCopy.getISBN());
 			}
-		}
-		finally {
-			globalLock.readLock().unlock();
-		}
+
+			return log.logStock(books);
+		});
+
+		log.sync(lsn);
 	}
 
 	/*
@@ -189,18 +439,46 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 *
 	 * @see com.acertainbookstore.interfaces.StockManager#getBooks()
 	 */
-	public List<StockBook> getBooks() {
-		globalLock.readLock().lock();
-		try {
+	public List<StockBook> getBooks() throws BookStoreException {
+		return execute(transaction -> {
+			transaction.lock(CATALOG, LockMode.SHARED);
+
 			Collection<BookStoreBook> bookMapValues = bookMap.values();
 
 			return bookMapValues.stream()
 					.map(book -> book.immutableStockBook())
 					.collect(Collectors.toList());
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	@Override
+	public List<StockBook> getBooks(int cursor, int limit) throws BookStoreException {
+		if (cursor < 0) {
+			throw new BookStoreException("cursor = " + cursor + ", but it must not be negative");
 		}
-		finally {
-			globalLock.readLock().unlock();
+
+		if (limit < 1) {
+			throw new BookStoreException("limit = " + limit + ", but it must be positive");
 		}
+
+		return execute(transaction -> {
+			transaction.lock(CATALOG, LockMode.INTENTION_SHARED);
+
+			// Only the books of the page are locked, instead of the whole catalog.
+			List<BookStoreBook> page = lockStable(transaction, () -> isbnOrder.tailMap(cursor, false).values()
+					.stream()
+					.limit(limit)
+					.collect(Collectors.toList()));
+
+			return page.stream()
+					.map(book -> book.immutableStockBook())
+					.collect(Collectors.toList());
+		});
 	}
 
 	/*
@@ -210,35 +488,33 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * com.acertainbookstore.interfaces.StockManager#updateEditorPicks(java.util
 	 * .Set)
 	 */
-	//Here we only need to add read locks on certain books.
 	public void updateEditorPicks(Set<BookEditorPick> editorPicks) throws BookStoreException {
-		globalLock.readLock().lock();
-		try {
-			// Check that all ISBNs that we add/remove are there first.
-			if (editorPicks == null) {
-				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-			}
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long lsn = execute(transaction -> {
+			transaction.lock(CATALOG, LockMode.INTENTION_EXCLUSIVE);
+			lockBooks(transaction, sortedISBNs(editorPicks, BookEditorPick::getISBN), LockMode.EXCLUSIVE);
 
-			int isbnValue;
+			BookStoreBook[] books = new BookStoreBook[editorPicks.size()];
+			int i = 0;
 
 			for (BookEditorPick editorPickArg : editorPicks) {
-				validate(editorPickArg);
+				books[i++] = validate(editorPickArg);
 			}
 
+			i = 0;
 			for (BookEditorPick editorPickArg : editorPicks) {
-				ReentrantReadWriteLock lock = lockMap.get(editorPickArg.getISBN());
-				lock.writeLock().lock();
-				try {
-					bookMap.get(editorPickArg.getISBN()).setEditorPick(editorPickArg.isEditorPick());
-				}
-				finally {
-					lock.writeLock().unlock();
-				}
+				books[i].setEditorPick(editorPickArg.isEditorPick());
+				editorPicksIndex.update(editorPickArg.getISBN(), books[i++], editorPickArg.isEditorPick());
 			}
-		}
-		finally {
-			globalLock.readLock().unlock();
-		}
+
+			return log.logUpdateEditorPicks(editorPicks);
+		});
+
+		log.sync(lsn);
 	}
 
 	/*
@@ -247,69 +523,58 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * @see com.acertainbookstore.interfaces.BookStore#buyBooks(java.util.Set)
 	 */
 	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
-		globalLock.readLock().lock();
 		if (bookCopiesToBuy == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
-		try {
+
+		long lsn = execute(transaction -> {
+			transaction.lock(CATALOG, LockMode.INTENTION_EXCLUSIVE);
+			lockBooks(transaction, sortedISBNs(bookCopiesToBuy, BookCopy::getISBN), LockMode.EXCLUSIVE);
+
 			// Check that all ISBNs that we buy are there first.
-			int isbn;
 			BookStoreBook book;
-			Boolean saleMiss = false;
+			boolean saleMiss = false;
 
-			Map<Integer, Integer> salesMisses = new HashMap<>();
+			BookStoreBook[] books = new BookStoreBook[bookCopiesToBuy.size()];
+			int[] salesMisses = new int[books.length];
+			int i = 0;
 
 			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-				isbn = bookCopyToBuy.getISBN();
-				ReentrantReadWriteLock lock = lockMap.get(isbn);
-				if (lock == null){
-					throw new BookStoreException("No Lock");
-				}
-				lock.writeLock().lock();
-				validateISBNInStock(isbn);
+				book = validate(bookCopyToBuy);
 
-				validate(bookCopyToBuy);
-				book = bookMap.get(isbn);
 				if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
 					// If we cannot sell the copies of the book, it is a miss.
-					salesMisses.put(isbn, bookCopyToBuy.getNumCopies() - book.getNumCopies());
+					salesMisses[i] = bookCopyToBuy.getNumCopies() - book.getNumCopies();
 					saleMiss = true;
 				}
+				books[i++] = book;
 			}
 
 			// We throw exception now since we want to see how many books in the
 			// order incurred misses which is used by books in demand
 			if (saleMiss) {
-				for (Map.Entry<Integer, Integer> saleMissEntry : salesMisses.entrySet()) {
-					ReentrantReadWriteLock lock = lockMap.get(saleMissEntry.getKey());
-					book = bookMap.get(saleMissEntry.getKey());
-					book.addSaleMiss(saleMissEntry.getValue());
-					lock.writeLock().unlock();
-
+				for (i = 0; i < books.length; i++) {
+					if (salesMisses[i] > 0) {
+						books[i].addSaleMiss(salesMisses[i]);
+						inDemandIndex.update(books[i].getISBN(), books[i], books[i].getNumSaleMisses());
+					}
 				}
+
+				// The sale misses are logged, and synced with the next update.
+				log.logStock(books);
 				throw new BookStoreException(BookStoreConstants.BOOK + BookStoreConstants.NOT_AVAILABLE);
 			}
 
 			// Then make the purchase.
+			i = 0;
 			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-				isbn = bookCopyToBuy.getISBN();
-				book = bookMap.get(isbn);
-				book.buyCopies(bookCopyToBuy.getNumCopies());
+				books[i++].buyCopies(bookCopyToBuy.getNumCopies());
 			}
 
-			//Releases all locks in the end.
-			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-				isbn = bookCopyToBuy.getISBN();
-				ReentrantReadWriteLock lock = lockMap.get(isbn);
-				if (lock.isWriteLocked()) {
-					lock.writeLock().unlock();
-				}
-				//lock.readLock().unlock();
-			}
-		}
-		finally {
-			globalLock.readLock().unlock();
-		}
+			return log.logStock(books);
+		});
+
+		log.sync(lsn);
 	}
 
 	/*
@@ -320,37 +585,21 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * Set)
 	 */
 	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet) throws BookStoreException {
-		globalLock.readLock().lock();
-		try {
-			if (isbnSet == null) {
-				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-			}
-
-			// Check that all ISBNs that we rate are there to start with.
-			// If ISBN are not there we do not acquire locks, as we do not have locks for the ISBN
-			// ISBNs cannot be deleted in the meantime as we have a top-level lock on the entire 'bookMap'
-			for (Integer ISBN : isbnSet) {
-				ReentrantReadWriteLock lock = lockMap.get(ISBN);
-				if (lock == null){
-					throw new BookStoreException("No Lock");
-				}
-				lock.readLock().lock();
-				validateISBNInStock(ISBN);
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
 
-			}
+		return execute(transaction -> {
+			transaction.lock(CATALOG, LockMode.INTENTION_SHARED);
+			lockBooks(transaction, sortedISBNs(isbnSet, Integer::intValue), LockMode.SHARED);
 
-			List<StockBook> res = isbnSet.stream()
-					.map(isbn -> bookMap.get(isbn).immutableStockBook())
-					.collect(Collectors.toList());
+			List<StockBook> books = new ArrayList<>(isbnSet.size());
 			for (Integer ISBN : isbnSet) {
-				ReentrantReadWriteLock lock = lockMap.get(ISBN);
-				lock.readLock().unlock();
+				books.add(validateISBNInStock(ISBN).immutableStockBook());
 			}
-			return res;
-		}
-		finally {
-			globalLock.readLock().unlock();
-		}
+
+			return books;
+		});
 	}
 
 	/*
@@ -359,36 +608,22 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * @see com.acertainbookstore.interfaces.BookStore#getBooks(java.util.Set)
 	 */
 	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
-		globalLock.readLock().lock();
-		try {
-			if (isbnSet == null) {
-				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
-			}
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		return execute(transaction -> {
+			transaction.lock(CATALOG, LockMode.INTENTION_SHARED);
+			lockBooks(transaction, sortedISBNs(isbnSet, Integer::intValue), LockMode.SHARED);
 
 			// Check that all ISBNs that we rate are there to start with.
-			// If ISBN are not there we do not acquire locks, as we do not have locks for the ISBN
-			// ISBNs cannot be deleted in the meantime as we have a top-level lock on the entire 'bookMap'
+			List<Book> books = new ArrayList<>(isbnSet.size());
 			for (Integer ISBN : isbnSet) {
-				ReentrantReadWriteLock lock = lockMap.get(ISBN);
-				if (lock == null){
-					throw new BookStoreException("No Lock");
-				}
-				lock.readLock().lock();
-				validateISBNInStock(ISBN);
+				books.add(validateISBNInStock(ISBN).immutableBook());
 			}
-			List<Book> res = isbnSet.stream()
-					.map(isbn -> bookMap.get(isbn).immutableBook())
-					.collect(Collectors.toList());
-			// Unlocking all bottom locks
-			for (Integer ISBN : isbnSet) {
-				ReentrantReadWriteLock lock = lockMap.get(ISBN);
-				lock.readLock().unlock();
-			}
-			return res;
-		}
-		finally {
-			globalLock.readLock().unlock();
-		}
+
+			return books;
+		});
 	}
 
 	/*
@@ -397,58 +632,26 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * @see com.acertainbookstore.interfaces.BookStore#getEditorPicks(int)
 	 */
 	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
-		globalLock.readLock().lock();
-		try {
-			if (numBooks < 0) {
-				throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
-			}
-			// Locks all books as we read everything.
-			for (Map.Entry<Integer, ReentrantReadWriteLock> set :
-				lockMap.entrySet()) {
-				set.getValue().readLock().lock();
-			}
-
-			List<BookStoreBook> listAllEditorPicks = bookMap.entrySet().stream()
-					.map(pair -> pair.getValue())
-					.filter(book -> book.isEditorPick())
-					.collect(Collectors.toList());
-
-			// Unlocks all locks as we are done reading from 'bookMap'
-			for (Map.Entry<Integer, ReentrantReadWriteLock> set :
-					lockMap.entrySet()) {
-				set.getValue().readLock().lock();
-			}
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
 
-			// Find numBooks random indices of books that will be picked.
-			Random rand = new Random();
-			Set<Integer> tobePicked = new HashSet<>();
-			int rangePicks = listAllEditorPicks.size();
+		return execute(transaction -> {
+			transaction.lock(CATALOG, LockMode.INTENTION_SHARED);
 
-			if (rangePicks <= numBooks) {
+			// Only the sampled books are locked, instead of the whole catalog.
+			while (true) {
+				List<BookStoreBook> picked = editorPicksIndex.sample(numBooks);
+				lockBooks(transaction, sortedISBNs(picked, BookStoreBook::getISBN), LockMode.SHARED);
 
-				// We need to add all books.
-				for (int i = 0; i < listAllEditorPicks.size(); i++) {
-					tobePicked.add(i);
-				}
-			} else {
-
-				// We need to pick randomly the books that need to be returned.
-				int randNum;
-
-				while (tobePicked.size() < numBooks) {
-					randNum = rand.nextInt(rangePicks);
-					tobePicked.add(randNum);
+				// A book may have been unpicked or removed before its lock was granted.
+				if (picked.stream().allMatch(book -> book.isEditorPick() && bookMap.get(book.getISBN()) == book)) {
+					return picked.stream()
+							.map(book -> (Book) book.immutableBook())
+							.collect(Collectors.toList());
 				}
 			}
-
-			// Return all the books by the randomly chosen indices.
-			return tobePicked.stream()
-					.map(index -> listAllEditorPicks.get(index).immutableBook())
-					.collect(Collectors.toList());
-		}
-		finally {
-			globalLock.readLock().lock();
-		}
+		});
 	}
 
 	/*
@@ -458,7 +661,18 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
 	@Override
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		throw new BookStoreException();
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return execute(transaction -> {
+			transaction.lock(CATALOG, LockMode.INTENTION_SHARED);
+
+			// Only the top rated books are locked, instead of the whole catalog.
+			return lockStable(transaction, () -> topRatedIndex.top(numBooks)).stream()
+					.map(book -> (Book) book.immutableBook())
+					.collect(Collectors.toList());
+		});
 	}
 
 	/*
@@ -468,7 +682,28 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 */
 	@Override
 	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException();
+		return getBooksInDemand(Integer.MAX_VALUE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooksInDemand(int)
+	 */
+	@Override
+	public List<StockBook> getBooksInDemand(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return execute(transaction -> {
+			transaction.lock(CATALOG, LockMode.INTENTION_SHARED);
+
+			// Only the books in demand are locked, instead of the whole catalog.
+			return lockStable(transaction, () -> inDemandIndex.top(numBooks)).stream()
+					.map(book -> book.immutableStockBook())
+					.collect(Collectors.toList());
+		});
 	}
 
 	/*
@@ -477,8 +712,34 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * @see com.acertainbookstore.interfaces.BookStore#rateBooks(java.util.Set)
 	 */
 	@Override
-	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		throw new BookStoreException();
+	public void rateBooks(Set<BookRating> bookRatings) throws BookStoreException {
+		if (bookRatings == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		long lsn = execute(transaction -> {
+			transaction.lock(CATALOG, LockMode.INTENTION_EXCLUSIVE);
+			lockBooks(transaction, sortedISBNs(bookRatings, BookRating::getISBN), LockMode.EXCLUSIVE);
+
+			// We validate all our ratings before acting
+			BookStoreBook[] books = new BookStoreBook[bookRatings.size()];
+			int i = 0;
+
+			for (BookRating bookRating : bookRatings) {
+				books[i++] = validate(bookRating);
+			}
+
+			i = 0;
+			for (BookRating bookRating : bookRatings) {
+				BookStoreBook book = books[i++];
+				book.addRating(bookRating.getRating());
+				topRatedIndex.update(book.getISBN(), book, book.getAverageRating());
+			}
+
+			return log.logRatings(books);
+		});
+
+		log.sync(lsn);
 	}
 
 	/*
@@ -487,15 +748,19 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 	 * @see com.acertainbookstore.interfaces.StockManager#removeAllBooks()
 	 */
 	public void removeAllBooks() throws BookStoreException {
-		globalLock.writeLock().lock();
-		try {
+		long lsn = execute(transaction -> {
+			transaction.lock(CATALOG, LockMode.EXCLUSIVE);
+
 			bookMap.clear();
-			lockMap.clear();
-		}
-		finally {
-			globalLock.writeLock().unlock();
-		}
+			isbnOrder.clear();
+			editorPicksIndex.clear();
+			topRatedIndex.clear();
+			inDemandIndex.clear();
+
+			return log.logRemoveAllBooks();
+		});
 
+		log.sync(lsn);
 	}
 
 	/*
@@ -508,31 +773,28 @@ public class TwoLevelLockingConcurrentCertainBookStore implements BookStore, Sto
 		if (isbnSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
-		globalLock.writeLock().lock();
-		try {
-			for (Integer ISBN : isbnSet) {
-				ReentrantReadWriteLock lock = lockMap.get(ISBN);
-				if (lock == null) {
-					throw new BookStoreException("No Lock");
-				}
-				lock.writeLock().lock();
-				if (BookStoreUtility.isInvalidISBN(ISBN)) {
-					throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.INVALID);
-				}
 
-					if (!bookMap.containsKey(ISBN)) {
-						throw new BookStoreException(BookStoreConstants.ISBN + ISBN + BookStoreConstants.NOT_AVAILABLE);
-					}
+		long lsn = execute(transaction -> {
+			transaction.lock(CATALOG, LockMode.INTENTION_EXCLUSIVE);
+			lockBooks(transaction, sortedISBNs(isbnSet, Integer::intValue), LockMode.EXCLUSIVE);
+
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStock(ISBN);
 			}
 
+			// Requests waiting for these books validate them once their locks are
+			// granted, when the lock manager releases ours, and find them removed.
 			for (int isbn : isbnSet) {
 				bookMap.remove(isbn);
-				lockMap.get(isbn).writeLock().unlock();
+				isbnOrder.remove(isbn);
+				editorPicksIndex.remove(isbn);
+				topRatedIndex.remove(isbn);
+				inDemandIndex.remove(isbn);
 			}
 
-		}
-		finally {
-			globalLock.writeLock().unlock();
-		}
+			return log.logRemoveBooks(isbnSet);
+		});
+
+		log.sync(lsn);
 	}
 }
@@ -0,0 +1,912 @@
+package com.acertainbookstore.business;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import com.acertainbookstore.interfaces.RecoverableStore;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link WriteAheadLog} makes the updates of a store durable. The store
+ * appends a record of each update while it still holds the locks of the
+ * update, so the records are in the order the updates took effect, and waits
+ * for the record to be on disk with {@link #sync(long)} once it released them.
+ * <p>
+ * Records hold the values of the books after the update, not its arguments,
+ * so applying a record twice has the same effect as applying it once. Each
+ * record is its length, the CRC32 checksum of its body and the body, written
+ * with {@link DataOutputStream}. A record with a bad checksum or cut short
+ * ends the log, since it can only be the tail of a write interrupted by a
+ * crash.
+ * <p>
+ * The log is a directory of segment files, each named after the log sequence
+ * number, the offset in the whole log, of its first record. A checkpoint
+ * starts a new segment, copies the catalog to a snapshot file while the store
+ * keeps serving requests, and deletes the segments before the new one. Since
+ * the records are idempotent, recovery can replay the segments from the start
+ * of the checkpoint on top of the snapshot, even if the snapshot already holds
+ * some of their updates.
+ * <p>
+ * Syncs use group commit. The first thread to sync writes all records
+ * appended so far and forces them to disk with one fsync, while the threads
+ * syncing meanwhile wait. Once it is done, one of the waiters whose record is
+ * not on disk yet writes the next group. Under load, the fsync of one group
+ * thus covers the updates of all requests that arrived during the previous
+ * one.
+ * <p>
+ * A new log must be recovered with {@link #recover(RecoverableStore)} before
+ * the store updates anything.
+ */
+public final class WriteAheadLog implements AutoCloseable {
+
+	/** The log of stores that are not durable, which ignores all records. */
+	public static final WriteAheadLog DISABLED = new WriteAheadLog();
+
+	/** The record types. */
+	private static final byte ADD_BOOKS = 1;
+	private static final byte UPDATE_STOCK = 2;
+	private static final byte UPDATE_RATINGS = 3;
+	private static final byte UPDATE_EDITOR_PICKS = 4;
+	private static final byte REMOVE_BOOKS = 5;
+	private static final byte REMOVE_ALL_BOOKS = 6;
+
+	/** The prefix and suffix of the names of the segment files. */
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	/** The name of the snapshot file of the last checkpoint. */
+	private static final String SNAPSHOT_FILE = "checkpoint.snapshot";
+
+	/** The name of the snapshot file of a checkpoint in progress. */
+	private static final String PARTIAL_SNAPSHOT_FILE = SNAPSHOT_FILE + ".partial";
+
+	/** The number of bytes before the body of a record, its length and checksum. */
+	private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+	/** The initial size of the buffers of appended records. */
+	private static final int INITIAL_BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * {@link LogBuffer} holds the records appended since the last write.
+	 */
+	private static final class LogBuffer extends ByteArrayOutputStream {
+
+		/** The records of the buffer, written with their length prefix. */
+		private final DataOutputStream out = new DataOutputStream(this);
+
+		/**
+		 * Instantiates a new {@link LogBuffer}.
+		 */
+		private LogBuffer() {
+			super(INITIAL_BUFFER_SIZE);
+		}
+
+		/**
+		 * Fills in the header of the record starting at an offset.
+		 *
+		 * @param offset
+		 *            the offset of the record
+		 */
+		private void sealRecord(int offset) {
+			int bodyOffset = offset + HEADER_SIZE;
+			CRC32 crc = new CRC32();
+			crc.update(buf, bodyOffset, count - bodyOffset);
+
+			putInt(offset, count - bodyOffset);
+			putInt(offset + Integer.BYTES, (int) crc.getValue());
+		}
+
+		/**
+		 * Writes an int at an offset, big-endian like {@link DataOutputStream}.
+		 *
+		 * @param offset
+		 *            the offset
+		 * @param value
+		 *            the value
+		 */
+		private void putInt(int offset, int value) {
+			buf[offset] = (byte) (value >>> 24);
+			buf[offset + 1] = (byte) (value >>> 16);
+			buf[offset + 2] = (byte) (value >>> 8);
+			buf[offset + 3] = (byte) value;
+		}
+
+		/**
+		 * Gets the records of the buffer.
+		 *
+		 * @return the records
+		 */
+		private ByteBuffer contents() {
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
+
+	/**
+	 * {@link RecordWriter} writes the body of a record.
+	 */
+	@FunctionalInterface
+	private interface RecordWriter {
+
+		/**
+		 * Writes the body.
+		 *
+		 * @param out
+		 *            the output
+		 * @throws IOException
+		 *             Signals that an I/O exception has occurred.
+		 */
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/** The log directory, null if the log is disabled. */
+	private final Path directory;
+
+	/** The lock of the checkpoints, so only one is taken at a time. */
+	private final Object checkpointLock = new Object();
+
+	/** The segment records are appended to, null until the log is recovered. */
+	private FileChannel channel = null;
+
+	/** The log sequence number of the first record of the segment. */
+	private long segmentLsn = 0;
+
+	/** Whether the log was recovered, and new records are appended. */
+	private boolean recovered = false;
+
+	/** The records appended since the last write. */
+	private LogBuffer appended = new LogBuffer();
+
+	/** The buffer written by the thread writing a group, or null while it writes. */
+	private LogBuffer spare = new LogBuffer();
+
+	/** The offset in the log after the last appended record. */
+	private long appendedLsn = 0;
+
+	/** The offset in the log up to which the records are on disk. */
+	private long durableLsn = 0;
+
+	/** Whether a thread is writing a group of records. */
+	private boolean writing = false;
+
+	/** The failure of the last write, after which nothing is durable anymore. */
+	private IOException failure = null;
+
+	/** The number of records appended. */
+	private long numRecords = 0;
+
+	/** The number of groups of records forced to disk. */
+	private long numSyncs = 0;
+
+	/** The number of records replayed on recovery. */
+	private long numReplayed = 0;
+
+	/** The number of bytes of a torn tail cut off on recovery. */
+	private long numDiscardedBytes = 0;
+
+	/** The number of checkpoints taken. */
+	private long numCheckpoints = 0;
+
+	/**
+	 * Instantiates the disabled {@link WriteAheadLog}.
+	 */
+	private WriteAheadLog() {
+		this.directory = null;
+	}
+
+	/**
+	 * Opens a {@link WriteAheadLog}, creating its directory if it does not
+	 * exist.
+	 *
+	 * @param directory
+	 *            the log directory
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public WriteAheadLog(Path directory) throws IOException {
+		this.directory = Files.createDirectories(directory);
+	}
+
+	/**
+	 * Recovers an empty store from the snapshot of the last checkpoint and the
+	 * segments logged since it started, then cuts off a torn tail left by a
+	 * crash and opens the last segment for new records.
+	 *
+	 * @param store
+	 *            the store
+	 * @return the number of books recovered
+	 * @throws BookStoreException
+	 *             if the log could not be read
+	 */
+	public synchronized long recover(RecoverableStore store) throws BookStoreException {
+		if (directory == null) {
+			return 0;
+		}
+
+		if (recovered) {
+			throw new IllegalStateException("The log was already recovered");
+		}
+
+		IntHashMap<StockBook> books = new IntHashMap<>();
+		long lsn;
+
+		try {
+			Path snapshot = directory.resolve(SNAPSHOT_FILE);
+			lsn = Files.exists(snapshot) ? CheckpointFile.read(snapshot, books) : 0;
+			Files.deleteIfExists(directory.resolve(PARTIAL_SNAPSHOT_FILE));
+
+			List<Long> segmentLsns = listSegments();
+			long lastSegmentLsn = lsn;
+			for (int i = 0; i < segmentLsns.size(); i++) {
+				long firstLsn = segmentLsns.get(i);
+				Path segment = segmentFile(firstLsn);
+
+				if (firstLsn < lsn) {
+					// A checkpoint completed before the crash could delete it.
+					Files.delete(segment);
+					continue;
+				}
+
+				if (firstLsn != lsn) {
+					throw new BookStoreException("The log segment " + segment + " does not follow the previous one");
+				}
+
+				try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+					long fileLength = in.size();
+					long validLength = replaySegment(in, books);
+
+					if (validLength < fileLength) {
+						if (i < segmentLsns.size() - 1) {
+							throw new BookStoreException("The log segment " + segment + " is corrupt");
+						}
+
+						numDiscardedBytes = fileLength - validLength;
+						in.truncate(validLength);
+						in.force(true);
+					}
+					lastSegmentLsn = firstLsn;
+					lsn = firstLsn + validLength;
+				}
+			}
+
+			channel = openSegment(lastSegmentLsn);
+			channel.position(lsn - lastSegmentLsn);
+			segmentLsn = lastSegmentLsn;
+		} catch (IOException ex) {
+			throw new BookStoreException("The log could not be recovered", ex);
+		}
+
+		// Restore the books in ISBN order, in which the ordered indexes of the store grow fastest.
+		int[] isbns = new int[books.size()];
+		int i = 0;
+		for (StockBook book : books.values()) {
+			isbns[i++] = book.getISBN();
+		}
+		Arrays.sort(isbns);
+
+		List<StockBook> restoredBooks = new ArrayList<>(isbns.length);
+		for (int isbn : isbns) {
+			restoredBooks.add(books.get(isbn));
+		}
+		store.restoreBooks(restoredBooks);
+
+		appendedLsn = lsn;
+		durableLsn = appendedLsn;
+		recovered = true;
+		return restoredBooks.size();
+	}
+
+	/**
+	 * Replays the records of a segment on the recovered books.
+	 *
+	 * @param segment
+	 *            the segment
+	 * @param books
+	 *            the recovered books, by ISBN
+	 * @return the length of the complete and intact records of the segment
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             if a record is of an unknown type
+	 */
+	private long replaySegment(FileChannel segment, IntHashMap<StockBook> books)
+			throws IOException, BookStoreException {
+		long fileLength = segment.size();
+		long validLength = 0;
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Channels.newInputStream(segment), INITIAL_BUFFER_SIZE));
+
+		byte[] body;
+		while ((body = readRecord(in, fileLength - validLength)) != null) {
+			apply(new DataInputStream(new ByteArrayInputStream(body)), books);
+			validLength += HEADER_SIZE + body.length;
+			numReplayed++;
+		}
+		return validLength;
+	}
+
+	/**
+	 * Reads the body of the next record, if it is complete and intact.
+	 *
+	 * @param in
+	 *            the input, at the start of a record
+	 * @param remaining
+	 *            the number of bytes left in the segment
+	 * @return the body, or null at the end of the segment
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static byte[] readRecord(DataInputStream in, long remaining) throws IOException {
+		if (remaining < HEADER_SIZE) {
+			return null;
+		}
+
+		int length = in.readInt();
+		int checksum = in.readInt();
+		if (length <= 0 || length > remaining - HEADER_SIZE) {
+			return null;
+		}
+
+		byte[] body = new byte[length];
+		try {
+			in.readFully(body);
+		} catch (EOFException ex) {
+			return null;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(body, 0, length);
+		return (int) crc.getValue() == checksum ? body : null;
+	}
+
+	/**
+	 * Applies a record to the recovered books. The updates of books that are
+	 * missing are skipped, as the snapshot was copied after a later record
+	 * removed them.
+	 *
+	 * @param in
+	 *            the body of the record
+	 * @param books
+	 *            the recovered books, by ISBN
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             if the record is of an unknown type
+	 */
+	private static void apply(DataInputStream in, IntHashMap<StockBook> books) throws IOException, BookStoreException {
+		byte type = in.readByte();
+		int size = in.readInt();
+
+		switch (type) {
+		case ADD_BOOKS:
+			for (int i = 0; i < size; i++) {
+				int isbn = in.readInt();
+				books.put(isbn, new ImmutableStockBook(isbn, in.readUTF(), in.readUTF(), in.readFloat(), in.readInt(),
+						in.readLong(), in.readLong(), in.readLong(), in.readBoolean()));
+			}
+			break;
+
+		case UPDATE_STOCK:
+			for (int i = 0; i < size; i++) {
+				int isbn = in.readInt();
+				int numCopies = in.readInt();
+				long numSaleMisses = in.readLong();
+				StockBook book = books.get(isbn);
+				if (book != null) {
+					books.put(isbn, new ImmutableStockBook(isbn, book.getTitle(), book.getAuthor(), book.getPrice(),
+							numCopies, numSaleMisses, book.getNumTimesRated(), book.getTotalRating(),
+							book.isEditorPick()));
+				}
+			}
+			break;
+
+		case UPDATE_RATINGS:
+			for (int i = 0; i < size; i++) {
+				int isbn = in.readInt();
+				long numTimesRated = in.readLong();
+				long totalRating = in.readLong();
+				StockBook book = books.get(isbn);
+				if (book != null) {
+					books.put(isbn, new ImmutableStockBook(isbn, book.getTitle(), book.getAuthor(), book.getPrice(),
+							book.getNumCopies(), book.getNumSaleMisses(), numTimesRated, totalRating,
+							book.isEditorPick()));
+				}
+			}
+			break;
+
+		case UPDATE_EDITOR_PICKS:
+			for (int i = 0; i < size; i++) {
+				int isbn = in.readInt();
+				boolean editorPick = in.readBoolean();
+				StockBook book = books.get(isbn);
+				if (book != null) {
+					books.put(isbn, new ImmutableStockBook(isbn, book.getTitle(), book.getAuthor(), book.getPrice(),
+							book.getNumCopies(), book.getNumSaleMisses(), book.getNumTimesRated(),
+							book.getTotalRating(), editorPick));
+				}
+			}
+			break;
+
+		case REMOVE_BOOKS:
+			for (int i = 0; i < size; i++) {
+				books.remove(in.readInt());
+			}
+			break;
+
+		case REMOVE_ALL_BOOKS:
+			books.clear();
+			break;
+
+		default:
+			throw new BookStoreException("Unknown log record type " + type);
+		}
+	}
+
+	/**
+	 * Lists the log sequence numbers of the segments, in order.
+	 *
+	 * @return the log sequence numbers
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private List<Long> listSegments() throws IOException {
+		List<Long> segmentLsns = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+				SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				segmentLsns.add(Long.parseLong(
+						name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+			}
+		}
+		Collections.sort(segmentLsns);
+		return segmentLsns;
+	}
+
+	/**
+	 * Gets the file of the segment starting at a log sequence number.
+	 *
+	 * @param firstLsn
+	 *            the log sequence number of its first record
+	 * @return the file
+	 */
+	private Path segmentFile(long firstLsn) {
+		return directory.resolve(String.format("%s%019d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX));
+	}
+
+	/**
+	 * Opens the segment starting at a log sequence number, creating it if it
+	 * does not exist.
+	 *
+	 * @param firstLsn
+	 *            the log sequence number of its first record
+	 * @return the segment
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private FileChannel openSegment(long firstLsn) throws IOException {
+		return FileChannel.open(segmentFile(firstLsn), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Logs the addition of books.
+	 *
+	 * @param books
+	 *            the books
+	 * @return the log sequence number to sync
+	 */
+	public long logAddBooks(Set<StockBook> books) {
+		return append(ADD_BOOKS, books.size(), out -> {
+			for (StockBook book : books) {
+				out.writeInt(book.getISBN());
+				out.writeUTF(book.getTitle());
+				out.writeUTF(book.getAuthor());
+				out.writeFloat(book.getPrice());
+				out.writeInt(book.getNumCopies());
+				out.writeLong(book.getNumSaleMisses());
+				out.writeLong(book.getNumTimesRated());
+				out.writeLong(book.getTotalRating());
+				out.writeBoolean(book.isEditorPick());
+			}
+		});
+	}
+
+	/**
+	 * Logs the copies and sale misses of books, after copies were added or
+	 * bought or sale misses counted.
+	 *
+	 * @param books
+	 *            the updated books
+	 * @return the log sequence number to sync
+	 */
+	public long logStock(BookStoreBook[] books) {
+		return append(UPDATE_STOCK, books.length, out -> {
+			for (BookStoreBook book : books) {
+				out.writeInt(book.getISBN());
+				out.writeInt(book.getNumCopies());
+				out.writeLong(book.getNumSaleMisses());
+			}
+		});
+	}
+
+	/**
+	 * Logs the ratings of books, after they were rated.
+	 *
+	 * @param books
+	 *            the updated books
+	 * @return the log sequence number to sync
+	 */
+	public long logRatings(BookStoreBook[] books) {
+		return append(UPDATE_RATINGS, books.length, out -> {
+			for (BookStoreBook book : books) {
+				out.writeInt(book.getISBN());
+				out.writeLong(book.getNumTimesRated());
+				out.writeLong(book.getTotalRating());
+			}
+		});
+	}
+
+	/**
+	 * Logs the update of editor picks.
+	 *
+	 * @param editorPicks
+	 *            the editor picks
+	 * @return the log sequence number to sync
+	 */
+	public long logUpdateEditorPicks(Set<BookEditorPick> editorPicks) {
+		return append(UPDATE_EDITOR_PICKS, editorPicks.size(), out -> {
+			for (BookEditorPick editorPick : editorPicks) {
+				out.writeInt(editorPick.getISBN());
+				out.writeBoolean(editorPick.isEditorPick());
+			}
+		});
+	}
+
+	/**
+	 * Logs the removal of books.
+	 *
+	 * @param isbns
+	 *            the ISBNs of the books
+	 * @return the log sequence number to sync
+	 */
+	public long logRemoveBooks(Set<Integer> isbns) {
+		return append(REMOVE_BOOKS, isbns.size(), out -> {
+			for (int isbn : isbns) {
+				out.writeInt(isbn);
+			}
+		});
+	}
+
+	/**
+	 * Logs the removal of all books.
+	 *
+	 * @return the log sequence number to sync
+	 */
+	public long logRemoveAllBooks() {
+		return append(REMOVE_ALL_BOOKS, 0, out -> {
+			// The record has no arguments.
+		});
+	}
+
+	/**
+	 * Appends a record to the buffer of the next group.
+	 *
+	 * @param type
+	 *            the type of the record
+	 * @param size
+	 *            the number of arguments of the record
+	 * @param writer
+	 *            the writer of the arguments
+	 * @return the log sequence number to sync, 0 if nothing is to be synced
+	 */
+	private synchronized long append(byte type, int size, RecordWriter writer) {
+		if (directory == null) {
+			return 0;
+		}
+
+		if (!recovered) {
+			throw new IllegalStateException("The log must be recovered before it is appended to");
+		}
+
+		int offset = appended.size();
+		try {
+			appended.out.writeLong(0); // The header, filled in once the body is written.
+			appended.out.writeByte(type);
+			appended.out.writeInt(size);
+			writer.write(appended.out);
+		} catch (IOException ex) {
+			// Cannot happen when writing to memory.
+			throw new IllegalStateException(ex);
+		}
+		appended.sealRecord(offset);
+
+		appendedLsn += appended.size() - offset;
+		numRecords++;
+		return appendedLsn;
+	}
+
+	/**
+	 * Waits until the records up to a log sequence number are on disk, and
+	 * writes the group of records appended so far if no other thread is
+	 * writing one.
+	 *
+	 * @param lsn
+	 *            the log sequence number returned by the append
+	 * @throws BookStoreException
+	 *             if the records could not be written
+	 */
+	public void sync(long lsn) throws BookStoreException {
+		LogBuffer group;
+		long groupLsn;
+		FileChannel segment;
+
+		synchronized (this) {
+			while (true) {
+				if (failure != null) {
+					throw new BookStoreException("The log could not be written", failure);
+				}
+				if (durableLsn >= lsn) {
+					return;
+				}
+				if (!writing) {
+					break;
+				}
+
+				try {
+					wait();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new BookStoreException(ex);
+				}
+			}
+
+			// Lead the next group, with all records appended so far.
+			writing = true;
+			group = appended;
+			groupLsn = appendedLsn;
+			segment = channel;
+			appended = spare;
+			spare = null;
+		}
+
+		IOException writeFailure = null;
+		try {
+			ByteBuffer records = group.contents();
+			while (records.hasRemaining()) {
+				segment.write(records);
+			}
+			segment.force(false);
+		} catch (IOException ex) {
+			writeFailure = ex;
+		}
+
+		synchronized (this) {
+			group.reset();
+			spare = group;
+			writing = false;
+
+			if (writeFailure != null) {
+				failure = writeFailure;
+			} else {
+				durableLsn = groupLsn;
+				numSyncs++;
+			}
+			notifyAll();
+
+			if (failure != null) {
+				throw new BookStoreException("The log could not be written", failure);
+			}
+		}
+	}
+
+	/**
+	 * Takes a fuzzy checkpoint of the store while it keeps serving requests. A
+	 * new segment is started, the catalog is copied to a snapshot, which is
+	 * published once the records of the updates it may hold are on disk, and
+	 * the segments before the new one are deleted. Recovery then only replays
+	 * the records logged since the checkpoint started.
+	 *
+	 * @param store
+	 *            the store
+	 * @return the number of books in the snapshot
+	 * @throws BookStoreException
+	 *             if the checkpoint could not be written
+	 */
+	public long checkpoint(RecoverableStore store) throws BookStoreException {
+		if (directory == null) {
+			return 0;
+		}
+
+		synchronized (checkpointLock) {
+			try {
+				long startLsn = startSegment();
+
+				Path partialSnapshot = directory.resolve(PARTIAL_SNAPSHOT_FILE);
+				long numBooks = CheckpointFile.write(partialSnapshot, startLsn, store);
+
+				long lsn;
+				synchronized (this) {
+					lsn = appendedLsn;
+				}
+				sync(lsn);
+
+				Files.move(partialSnapshot, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+				try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+					directoryChannel.force(true);
+				}
+
+				for (long firstLsn : listSegments()) {
+					if (firstLsn < startLsn) {
+						Files.delete(segmentFile(firstLsn));
+					}
+				}
+
+				synchronized (this) {
+					numCheckpoints++;
+				}
+				return numBooks;
+			} catch (IOException ex) {
+				throw new BookStoreException("The checkpoint could not be written", ex);
+			}
+		}
+	}
+
+	/**
+	 * Writes the records appended so far to the current segment, forces it to
+	 * disk and starts a new segment, unless the current one is empty. Only the
+	 * last segment can then have a torn tail.
+	 *
+	 * @return the log sequence number of the first record of the new segment
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws BookStoreException
+	 *             if the log was not recovered or could not be written
+	 */
+	private synchronized long startSegment() throws IOException, BookStoreException {
+		if (!recovered) {
+			throw new IllegalStateException("The log must be recovered before it is checkpointed");
+		}
+
+		while (writing) {
+			try {
+				wait();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new BookStoreException(ex);
+			}
+		}
+
+		if (failure != null) {
+			throw new BookStoreException("The log could not be written", failure);
+		}
+
+		if (appendedLsn == segmentLsn) {
+			return segmentLsn;
+		}
+
+		try {
+			ByteBuffer records = appended.contents();
+			while (records.hasRemaining()) {
+				channel.write(records);
+			}
+			channel.force(false);
+			channel.close();
+			channel = openSegment(appendedLsn);
+		} catch (IOException ex) {
+			failure = ex;
+			notifyAll();
+			throw ex;
+		}
+
+		appended.reset();
+		segmentLsn = appendedLsn;
+		durableLsn = appendedLsn;
+		numSyncs++;
+		notifyAll();
+		return segmentLsn;
+	}
+
+	/**
+	 * Checks whether the log was recovered, and new records are appended.
+	 *
+	 * @return true, if the log was recovered
+	 */
+	public synchronized boolean isRecovered() {
+		return recovered;
+	}
+
+	/**
+	 * Gets the number of records appended.
+	 *
+	 * @return the number of records
+	 */
+	public synchronized long getNumRecords() {
+		return numRecords;
+	}
+
+	/**
+	 * Gets the number of groups of records forced to disk, each with one fsync.
+	 *
+	 * @return the number of syncs
+	 */
+	public synchronized long getNumSyncs() {
+		return numSyncs;
+	}
+
+	/**
+	 * Gets the number of records replayed on recovery, those logged after the
+	 * start of the last checkpoint.
+	 *
+	 * @return the number of records replayed
+	 */
+	public synchronized long getNumReplayed() {
+		return numReplayed;
+	}
+
+	/**
+	 * Gets the number of bytes of a torn tail cut off the last segment on
+	 * recovery, left by a crash in the middle of a write.
+	 *
+	 * @return the number of bytes discarded
+	 */
+	public synchronized long getNumDiscardedBytes() {
+		return numDiscardedBytes;
+	}
+
+	/**
+	 * Gets the number of checkpoints taken.
+	 *
+	 * @return the number of checkpoints
+	 */
+	public synchronized long getNumCheckpoints() {
+		return numCheckpoints;
+	}
+
+	/**
+	 * Syncs the records appended so far and closes the log file.
+	 *
+	 * @throws BookStoreException
+	 *             if the records could not be written
+	 */
+	@Override
+	public void close() throws BookStoreException {
+		long lsn;
+		synchronized (this) {
+			if (channel == null) {
+				return;
+			}
+			lsn = appendedLsn;
+		}
+
+		try {
+			sync(lsn);
+		} finally {
+			synchronized (this) {
+				try {
+					channel.close();
+				} catch (IOException ex) {
+					throw new BookStoreException("The log could not be closed", ex);
+				}
+			}
+		}
+	}
+}
@@ -14,6 +14,9 @@ public final class BookStoreClientConstants {
 	/** The Constant CLIENT_MAX_THREADSPOOL_THREADS. */
 	public static final int CLIENT_MAX_THREADSPOOL_THREADS = 250;
 
+	/** The Constant CLIENT_MAX_QUEUED_REQUESTS_ADDRESS used with virtual threads. */
+	public static final int CLIENT_MAX_QUEUED_REQUESTS_ADDRESS = 65536;
+
 	/** The Constant CLIENT_MAX_TIMEOUT_MILLISECS. */
 	public static final int CLIENT_MAX_TIMEOUT_MILLISECS = 30000;
 
@@ -13,6 +13,7 @@ import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreSerializerPool;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.utils.BookStoreConstants;
@@ -21,6 +22,7 @@ import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreRequest;
 import com.acertainbookstore.utils.BookStoreResponse;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.VirtualThreadPool;
 
 /**
  * {@link BookStoreHTTPProxy} implements the client level synchronous
@@ -38,7 +40,7 @@ public class BookStoreHTTPProxy implements BookStore {
 	protected String serverAddress;
 
 	/** The serializer. */
-	private static ThreadLocal<BookStoreSerializer> serializer;
+	private static BookStoreSerializer serializer;
 
 	/**
 	 * Initializes a new {@link BookStoreHTTPProxy}.
@@ -52,9 +54,9 @@ public class BookStoreHTTPProxy implements BookStore {
 
 		// Setup the type of serializer.
 		if (BookStoreConstants.BINARY_SERIALIZATION) {
-			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
+			serializer = new BookStoreSerializerPool(BookStoreKryoSerializer::new);
 		} else {
-			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
+			serializer = new BookStoreSerializerPool(BookStoreXStreamSerializer::new);
 		}
 
 		setServerAddress(serverAddress);
@@ -63,8 +65,14 @@ public class BookStoreHTTPProxy implements BookStore {
 		// Max concurrent connections to every address.
 		client.setMaxConnectionsPerDestination(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS);
 
-		// Max number of threads.
-		client.setExecutor(new QueuedThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS));
+		if (VirtualThreadPool.isEnabled()) {
+			// A virtual thread per task, and room to queue many blocked requests.
+			client.setExecutor(new VirtualThreadPool());
+			client.setMaxRequestsQueuedPerDestination(BookStoreClientConstants.CLIENT_MAX_QUEUED_REQUESTS_ADDRESS);
+		} else {
+			// Max number of threads.
+			client.setExecutor(new QueuedThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS));
+		}
 
 		// Seconds timeout; if no server reply, the request expires.
 		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
@@ -99,7 +107,7 @@ public class BookStoreHTTPProxy implements BookStore {
 	public void buyBooks(Set<BookCopy> isbnSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.BUYBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer);
 	}
 
 	/*
@@ -112,7 +120,7 @@ public class BookStoreHTTPProxy implements BookStore {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
 		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+				serializer);
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
@@ -132,7 +140,7 @@ public class BookStoreHTTPProxy implements BookStore {
 
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
 		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+				serializer);
 		return (List<Book>) bookStoreResponse.getList();
 	}
 
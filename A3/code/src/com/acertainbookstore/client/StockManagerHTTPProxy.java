@@ -1,5 +1,7 @@
 package com.acertainbookstore.client;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Set;
 
@@ -10,6 +12,7 @@ import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreSerializerPool;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.utils.BookStoreXStreamSerializer;
 import com.acertainbookstore.interfaces.StockManager;
@@ -19,6 +22,7 @@ import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreRequest;
 import com.acertainbookstore.utils.BookStoreResponse;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.VirtualThreadPool;
 
 /**
  * {@link StockManagerHTTPProxy} implements the client level synchronous
@@ -37,7 +41,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	protected String serverAddress;
 
 	/** The serializer. */
-	private static ThreadLocal<BookStoreSerializer> serializer;
+	private static BookStoreSerializer serializer;
 
 	/**
 	 * Initializes a new {@link StockManagerHTTPProxy}.
@@ -51,9 +55,9 @@ public class StockManagerHTTPProxy implements StockManager {
 
 		// Setup the type of serializer.
 		if (BookStoreConstants.BINARY_SERIALIZATION) {
-			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
+			serializer = new BookStoreSerializerPool(BookStoreKryoSerializer::new);
 		} else {
-			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
+			serializer = new BookStoreSerializerPool(BookStoreXStreamSerializer::new);
 		}
 
 		setServerAddress(serverAddress);
@@ -62,8 +66,14 @@ public class StockManagerHTTPProxy implements StockManager {
 		// Max concurrent connections to every address.
 		client.setMaxConnectionsPerDestination(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS);
 
-		// Max number of threads.
-		client.setExecutor(new QueuedThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS));
+		if (VirtualThreadPool.isEnabled()) {
+			// A virtual thread per task, and room to queue many blocked requests.
+			client.setExecutor(new VirtualThreadPool());
+			client.setMaxRequestsQueuedPerDestination(BookStoreClientConstants.CLIENT_MAX_QUEUED_REQUESTS_ADDRESS);
+		} else {
+			// Max number of threads.
+			client.setExecutor(new QueuedThreadPool(BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS));
+		}
 
 		// Seconds timeout; if no server reply, the request expires.
 		client.setConnectTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
@@ -99,7 +109,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer);
 	}
 
 	/*
@@ -111,7 +121,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.ADDCOPIES;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, bookCopiesSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer);
 	}
 
 	/*
@@ -124,7 +134,27 @@ public class StockManagerHTTPProxy implements StockManager {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.LISTBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
 		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+				serializer);
+		return (List<StockBook>) bookStoreResponse.getList();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.acertainbookstore.interfaces.StockManager#getBooks(int, int)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<StockBook> getBooks(int cursor, int limit) throws BookStoreException {
+		String urlEncodedCursor = URLEncoder.encode(Integer.toString(cursor), StandardCharsets.UTF_8);
+		String urlEncodedLimit = URLEncoder.encode(Integer.toString(limit), StandardCharsets.UTF_8);
+
+		String urlString = serverAddress + "/" + BookStoreMessageTag.LISTBOOKSPAGE + "?"
+				+ BookStoreConstants.BOOK_CURSOR_PARAM + "=" + urlEncodedCursor + "&"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedLimit;
+
+		BookStoreRequest bookStoreRequest = BookStoreRequest.newGetRequest(urlString);
+		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
+				serializer);
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
@@ -138,7 +168,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void updateEditorPicks(Set<BookEditorPick> editorPicksValues) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.UPDATEEDITORPICKS + "?";
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, editorPicksValues);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer);
 	}
 
 	/*
@@ -163,7 +193,7 @@ public class StockManagerHTTPProxy implements StockManager {
 		// need to send any data; this request is just a signal to remove all
 		// books.
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, "");
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer);
 	}
 
 	/*
@@ -175,7 +205,7 @@ public class StockManagerHTTPProxy implements StockManager {
 	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.REMOVEBOOKS;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbnSet);
-		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer.get());
+		BookStoreUtility.performHttpExchange(client, bookStoreRequest, serializer);
 	}
 
 	/*
@@ -190,7 +220,7 @@ public class StockManagerHTTPProxy implements StockManager {
 		String urlString = serverAddress + "/" + BookStoreMessageTag.GETSTOCKBOOKSBYISBN;
 		BookStoreRequest bookStoreRequest = BookStoreRequest.newPostRequest(urlString, isbns);
 		BookStoreResponse bookStoreResponse = BookStoreUtility.performHttpExchange(client, bookStoreRequest,
-				serializer.get());
+				serializer);
 		return (List<StockBook>) bookStoreResponse.getList();
 	}
 
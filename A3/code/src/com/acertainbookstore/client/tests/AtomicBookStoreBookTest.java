@@ -0,0 +1,311 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.AtomicBookStoreBook;
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * {@link AtomicBookStoreBookTest} tests the counters, the cached views and the
+ * escrow allotments of {@link AtomicBookStoreBook}.
+ *
+ * @see AtomicBookStoreBook
+ */
+public class AtomicBookStoreBookTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 30345650;
+
+	/** The Constant NUM_THREADS. */
+	private static final int NUM_THREADS = 8;
+
+	/**
+	 * Creates the book used by the tests.
+	 *
+	 * @param numCopies
+	 *            the number of copies
+	 * @return the book
+	 */
+	private static AtomicBookStoreBook newBook(int numCopies) {
+		return new AtomicBookStoreBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10, numCopies);
+	}
+
+	/**
+	 * Runs a task on several threads at once and waits for them.
+	 *
+	 * @param numThreads
+	 *            the number of threads
+	 * @param task
+	 *            the task, given the index of its thread
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	static void runConcurrently(int numThreads, IntTask task) throws InterruptedException {
+		List<Thread> threads = new ArrayList<>(numThreads);
+		List<Throwable> failures = new ArrayList<>();
+
+		for (int i = 0; i < numThreads; i++) {
+			int index = i;
+			threads.add(new Thread(() -> {
+				try {
+					task.run(index);
+				} catch (Throwable ex) {
+					synchronized (failures) {
+						failures.add(ex);
+					}
+				}
+			}));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		if (!failures.isEmpty()) {
+			throw new AssertionError(failures.get(0));
+		}
+	}
+
+	/**
+	 * {@link IntTask} is a task run by one of several threads.
+	 */
+	@FunctionalInterface
+	interface IntTask {
+
+		/**
+		 * Runs the task.
+		 *
+		 * @param index
+		 *            the index of the thread
+		 * @throws Exception
+		 *             if the task failed
+		 */
+		void run(int index) throws Exception;
+	}
+
+	/**
+	 * Tests that reads of an unchanged book return the same view, and that
+	 * every update swaps in a view with the new counters.
+	 */
+	@Test
+	public void testStockBookViewIsCachedAndSwappedOnUpdate() {
+		AtomicBookStoreBook book = newBook(5);
+		StockBook view = book.immutableStockBook();
+		assertSame(view, book.immutableStockBook());
+		assertEquals(5, view.getNumCopies());
+
+		assertTrue(book.buyCopies(2));
+		StockBook bought = book.immutableStockBook();
+		assertNotSame(view, bought);
+		assertEquals(3, bought.getNumCopies());
+
+		// A purchase that fails changes nothing, so the view is kept.
+		assertFalse(book.buyCopies(4));
+		assertSame(bought, book.immutableStockBook());
+
+		book.addSaleMiss(1);
+		book.addRating(4);
+		book.setEditorPick(true);
+		StockBook updated = book.immutableStockBook();
+		assertEquals(1, updated.getNumSaleMisses());
+		assertEquals(4, updated.getTotalRating());
+		assertEquals(1, updated.getNumTimesRated());
+		assertTrue(updated.isEditorPick());
+
+		book.addCopies(2);
+		assertEquals(5, book.immutableStockBook().getNumCopies());
+		assertEquals(0, book.immutableStockBook().getNumSaleMisses());
+	}
+
+	/**
+	 * Tests that the view published after concurrent updates holds all of
+	 * them.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testStockBookViewAfterConcurrentUpdates() throws InterruptedException {
+		int numPurchases = 500;
+		AtomicBookStoreBook book = newBook(NUM_THREADS * numPurchases);
+
+		runConcurrently(NUM_THREADS, index -> {
+			for (int i = 0; i < numPurchases; i++) {
+				assertTrue(book.buyCopies(1));
+				book.addRating(index % 6);
+				book.addSaleMiss(1);
+			}
+		});
+
+		StockBook view = book.immutableStockBook();
+		assertEquals(0, view.getNumCopies());
+		assertEquals(NUM_THREADS * numPurchases, view.getNumSaleMisses());
+		assertEquals(NUM_THREADS * numPurchases, view.getNumTimesRated());
+		assertEquals(book.getTotalRating(), view.getTotalRating());
+	}
+
+	/**
+	 * Tests that sale misses counted while copies are added are either reset
+	 * or kept whole, and that the view agrees with the counters afterwards.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testAddCopiesResetsSaleMissesAtomically() throws InterruptedException {
+		int numUpdates = 2000;
+		AtomicBookStoreBook book = newBook(0);
+
+		runConcurrently(2, index -> {
+			for (int i = 0; i < numUpdates; i++) {
+				if (index == 0) {
+					book.addSaleMiss(2);
+				} else {
+					book.addCopies(1);
+				}
+			}
+		});
+
+		assertEquals(0, book.getNumSaleMisses() % 2);
+		assertEquals(numUpdates, book.getNumCopies());
+		assertEquals(book.getNumSaleMisses(), book.immutableStockBook().getNumSaleMisses());
+
+		book.addCopies(1);
+		assertEquals(0, book.getNumSaleMisses());
+		assertFalse(book.hadSaleMiss());
+	}
+
+	/**
+	 * Tests that the view of a book with split copies is built on read, since
+	 * its purchases do not update a shared field.
+	 */
+	@Test
+	public void testSplitBookViewIsBuiltOnRead() {
+		AtomicBookStoreBook book = newBook(10);
+		book.splitCopies(4);
+		assertTrue(book.areCopiesSplit());
+
+		assertTrue(book.buyCopies(3));
+		assertEquals(7, book.immutableStockBook().getNumCopies());
+		assertEquals(7, book.getNumCopies());
+	}
+
+	/**
+	 * Reserves copies of a book from several threads at once, one attempt
+	 * after another, and counts the outcomes.
+	 *
+	 * @param book
+	 *            the book
+	 * @param numAttempts
+	 *            the number of attempts per thread
+	 * @param numCopies
+	 *            the number of copies per attempt
+	 * @param reserved
+	 *            counts the attempts that got their copies
+	 * @param missing
+	 *            sums the copies missing in the rejected attempts
+	 * @return the number of rejected attempts
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	private static int reserveConcurrently(AtomicBookStoreBook book, int numAttempts, int numCopies,
+			AtomicInteger reserved, AtomicInteger missing) throws InterruptedException {
+		AtomicInteger rejected = new AtomicInteger();
+
+		runConcurrently(NUM_THREADS, index -> {
+			for (int i = 0; i < numAttempts; i++) {
+				int missed = book.reserveCopies(numCopies);
+				if (missed == 0) {
+					reserved.incrementAndGet();
+				} else {
+					assertTrue(missed > 0 && missed <= numCopies);
+					rejected.incrementAndGet();
+					missing.addAndGet(missed);
+				}
+			}
+		});
+
+		return rejected.get();
+	}
+
+	/**
+	 * Tests that concurrent purchases of a book with split copies sell
+	 * exactly the copies in stock, first out of the allotments and then,
+	 * once they run dry, out of the copies pooled and shared out again, and
+	 * that the copies added afterwards are shared out as well.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testSplitPurchasesAreExact() throws InterruptedException {
+		int numCopies = 1000;
+		int numAttempts = 200;
+		AtomicBookStoreBook book = newBook(numCopies);
+		book.splitCopies(NUM_THREADS);
+
+		AtomicInteger reserved = new AtomicInteger();
+		AtomicInteger missing = new AtomicInteger();
+		int rejected = reserveConcurrently(book, numAttempts, 1, reserved, missing);
+
+		assertEquals(numCopies, reserved.get());
+		assertEquals(NUM_THREADS * numAttempts - numCopies, rejected);
+		assertEquals(rejected, missing.get());
+		assertEquals(0, book.getNumCopies());
+		assertEquals(0, book.immutableStockBook().getNumCopies());
+
+		// 100 copies sell as 33 purchases of 3 copies, and 1 copy is left over.
+		book.addCopies(100);
+		assertEquals(100, book.getNumCopies());
+		reserved.set(0);
+		missing.set(0);
+		rejected = reserveConcurrently(book, 10, 3, reserved, missing);
+
+		assertEquals(33, reserved.get());
+		assertEquals(NUM_THREADS * 10 - 33, rejected);
+		assertEquals(2 * rejected, missing.get());
+		assertEquals(1, book.getNumCopies());
+
+		assertTrue(book.buyCopies(1));
+		assertEquals(0, book.getNumCopies());
+		assertTrue(book.areCopiesSplit());
+	}
+
+	/**
+	 * Tests a book with fewer copies than allotments, so every share is empty
+	 * and every purchase takes the copies pooled under the monitor.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testSplitWithFewerCopiesThanAllotments() throws InterruptedException {
+		AtomicBookStoreBook book = newBook(3);
+		book.splitCopies(NUM_THREADS);
+
+		AtomicInteger reserved = new AtomicInteger();
+		AtomicInteger missing = new AtomicInteger();
+		int rejected = reserveConcurrently(book, 10, 1, reserved, missing);
+
+		assertEquals(3, reserved.get());
+		assertEquals(NUM_THREADS * 10 - 3, rejected);
+		assertEquals(rejected, missing.get());
+		assertEquals(0, book.getNumCopies());
+
+		// A purchase larger than the stock reports the whole shortfall.
+		book.addCopies(2);
+		assertEquals(1, book.reserveCopies(3));
+		assertEquals(2, book.getNumCopies());
+		assertEquals(0, book.reserveCopies(2));
+		assertEquals(0, book.getNumCopies());
+	}
+}
@@ -1,7 +1,10 @@
 package com.acertainbookstore.client.tests;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -62,13 +65,45 @@ public class BookStoreTest {
 			String singleLockProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_SINGLE_LOCK);
 			singleLock = (singleLockProperty != null) ? Boolean.parseBoolean(singleLockProperty) : singleLock;
 
+			String engineProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_STORE_ENGINE);
+
 			if (localTest) {
-				if (singleLock) {
+				if (BookStoreConstants.STORE_ENGINE_STRIPED_LOCK.equals(engineProperty)) {
+					StripedLockCertainBookStore store = new StripedLockCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_ENGINE_MULTI_VERSION.equals(engineProperty)) {
+					MultiVersionCertainBookStore store = new MultiVersionCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_ENGINE_OPTIMISTIC.equals(engineProperty)) {
+					OptimisticConcurrentCertainBookStore store = new OptimisticConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_ENGINE_OFF_HEAP_COLUMNAR.equals(engineProperty)) {
+					OffHeapColumnarCertainBookStore store = new OffHeapColumnarCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_ENGINE_SINGLE_WRITER.equals(engineProperty)) {
+					SingleWriterCertainBookStore store = new SingleWriterCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_ENGINE_STAMPED_LOCK.equals(engineProperty)) {
+					StampedLockCertainBookStore store = new StampedLockCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_ENGINE_SHARDED.equals(engineProperty)) {
+					ShardedCertainBookStore store = new ShardedCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (singleLock) {
 					SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
 					storeManager = store;
 					client = store;
 				} else {
-					TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore();
+					TwoLevelLockingConcurrentCertainBookStore store = new TwoLevelLockingConcurrentCertainBookStore(
+							LockManager.DeadlockPolicy.forName(
+									System.getProperty(BookStoreConstants.PROPERTY_KEY_DEADLOCK_POLICY)));
 					storeManager = store;
 					client = store;
 				}
@@ -408,6 +443,21 @@ public class BookStoreTest {
 	// 		HashSet<BookCopy> booksToAdd = new HashSet<BookCopy>();
 
 
+	/**
+	 * Runs clients on threads of their own and waits for them. A failed
+	 * assertion in a client fails the test, instead of only its thread.
+	 *
+	 * @param clients
+	 *            the clients
+	 */
+	private static void runClients(Runnable... clients) {
+		try {
+			AtomicBookStoreBookTest.runConcurrently(clients.length, index -> clients[index].run());
+		} catch (InterruptedException e) {
+			fail();
+		}
+	}
+
 	/**
 	 * Tests that number of copies are preserved after one thread buys a collection of books, and another adds them
 	 * again.
@@ -459,20 +509,7 @@ public class BookStoreTest {
 			isbnSet.add(TEST_ISBN+i);
 		}
 		List<StockBook> booksInStorePreTest = storeManager.getBooksByISBN(isbnSet);
-		Thread t1 = new Thread(new Client1());
-		Thread t2 = new Thread(new Client2());
-		t1.start();
-		t2.start();
-		try {
-			t1.join();
-		} catch (InterruptedException e) {
-			fail();
-		}
-		try {
-			t2.join();
-		} catch (InterruptedException e) {
-			fail();
-		}
+		runClients(new Client1(), new Client2());
 		List<StockBook> booksInStorePostTest = storeManager.getBooksByISBN(isbnSet);
 		int sumPre = 0;
 		int sumPost = 0;
@@ -537,20 +574,7 @@ public class BookStoreTest {
 				}
 			}
 		}
-		Thread t1 = new Thread(new Client1());
-	 	Thread t2 = new Thread(new Client2());
-		t1.start();
-		t2.start();
-		try {
-			t1.join();
-		} catch (InterruptedException e) {
-			;
-		}
-		try {
-			t2.join();
-		} catch (InterruptedException e) {
-			;
-		}
+		runClients(new Client1(), new Client2());
 	}
 	/**
 	 * Tests the same as async2, only with more books.
@@ -605,46 +629,14 @@ public class BookStoreTest {
 					Integer stockSize = stock.size();
 					for (int j = 0; j < stockSize; j++) {
 						Integer count_j = stock.get(j).getNumCopies();
-						try {
-							assertTrue(count_j % 5 == 0);
-						}
-						catch (AssertionError e) {
-							System.out.println(e);
-						}
+						assertTrue(count_j % 5 == 0);
 
 					}
 				}
 			}
 		}
 
-		Thread t1 = new Thread(new ClientAddBuy());
-		Thread t2 = new Thread(new ClientCheck());
-		Thread t3 = new Thread(new ClientAddBuy());
-		Thread t4 = new Thread(new ClientCheck());
-		t1.start();
-		t2.start();
-		t3.start();
-		t4.start();
-		try {
-			t1.join();
-		} catch (InterruptedException e) {
-			;
-		}
-		try {
-			t2.join();
-		} catch (InterruptedException e) {
-			;
-		}
-		try {
-			t3.join();
-		} catch (InterruptedException e) {
-			;
-		}
-		try {
-			t4.join();
-		} catch (InterruptedException e) {
-			;
-		}
+		runClients(new ClientAddBuy(), new ClientCheck(), new ClientAddBuy(), new ClientCheck());
 	}
 
 	@Test
@@ -685,22 +677,135 @@ public class BookStoreTest {
 			}
 		}
 
-		Thread t1 = new Thread(new Client1());
-		Thread t2 = new Thread(new Client2());
-		t1.start();
-		t2.start();
-		try {
-			t1.join();
-		} catch (InterruptedException e) {
-			;
+		runClients(new Client1(), new Client2());
+	}
+
+	/**
+	 * Tests that repeated reads of unchanged books hand out the cached views
+	 * of the books, allocating nothing per book. Only the stores locking the
+	 * whole catalog allocate nothing per book to lock it, so the budget is
+	 * only checked for them.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testRepeatedReadsAllocationBudget() throws BookStoreException {
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		assumeTrue(client instanceof SingleLockConcurrentCertainBookStore
+				|| client instanceof StampedLockCertainBookStore);
+		assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+
+		int numBooks = 100;
+		int invocations = 1000;
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		Set<Integer> isbns = new HashSet<Integer>();
+		for (int i = 1; i <= numBooks; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 100 + i, "Title " + i, "Author " + i, (float) 10,
+					NUM_COPIES, 0, 0, 0, false));
+			isbns.add(TEST_ISBN + 100 + i);
 		}
+		storeManager.addBooks(booksToAdd);
+
+		// Unchanged books are read as the same views.
+		List<Book> firstRead = client.getBooks(isbns);
+		List<Book> secondRead = client.getBooks(isbns);
+		for (int i = 0; i < numBooks; i++) {
+			assertSame(firstRead.get(i), secondRead.get(i));
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < invocations; i++) {
+			client.getBooks(isbns);
+			storeManager.getBooksByISBN(isbns);
+		}
+		long allocatedPerBook = (threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore)
+				/ (2L * invocations * numBooks);
+
+		// Only the slot of each book in the result lists is allocated.
+		assertTrue("Allocated " + allocatedPerBook + " bytes per book", allocatedPerBook < 16);
+	}
+
+	/**
+	 * Tries to buy more copies of a book than are in stock, which counts the
+	 * copies missing as sale misses.
+	 *
+	 * @param isbn
+	 *            the isbn
+	 * @param numCopies
+	 *            the number of copies, more than in stock
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void buyMissing(int isbn, int numCopies) throws BookStoreException {
+		HashSet<BookCopy> booksToBuy = new HashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(isbn, numCopies));
+
 		try {
-			t2.join();
-		} catch (InterruptedException e) {
+			client.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
 			;
 		}
 	}
 
+	/**
+	 * Gets the ISBNs of the books most in demand.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the ISBNs, most sale misses first
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private List<Integer> getIsbnsInDemand(int numBooks) throws BookStoreException {
+		List<Integer> isbns = new ArrayList<Integer>();
+		for (StockBook book : storeManager.getBooksInDemand(numBooks)) {
+			isbns.add(book.getISBN());
+		}
+		return isbns;
+	}
+
+	/**
+	 * Tests that the books most in demand are ordered by sale misses, most
+	 * first and by ISBN among books with as many, and that a book is no
+	 * longer in demand once copies are added.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksInDemandOrderedBySaleMisses() throws BookStoreException {
+		int first = TEST_ISBN + 10;
+		int second = TEST_ISBN + 11;
+		int third = TEST_ISBN + 12;
+		for (int isbn = first; isbn <= third; isbn++) {
+			addBooks(isbn, NUM_COPIES);
+		}
+
+		buyMissing(third, NUM_COPIES + 2);
+		buyMissing(first, NUM_COPIES + 4);
+		buyMissing(second, NUM_COPIES + 2);
+
+		assertEquals(Arrays.asList(first, second, third), getIsbnsInDemand(3));
+		assertEquals(Arrays.asList(first, second), getIsbnsInDemand(2));
+		assertEquals(Arrays.asList(first, second, third), getIsbnsInDemand(10));
+		assertTrue(getIsbnsInDemand(0).isEmpty());
+		assertEquals(4, storeManager.getBooksInDemand(1).get(0).getNumSaleMisses());
+
+		// Misses add up, so the third book moves ahead of the second.
+		buyMissing(third, NUM_COPIES + 1);
+		assertEquals(Arrays.asList(first, third, second), getIsbnsInDemand(10));
+
+		HashSet<BookCopy> copiesToAdd = new HashSet<BookCopy>();
+		copiesToAdd.add(new BookCopy(first, 1));
+		storeManager.addCopies(copiesToAdd);
+		assertEquals(Arrays.asList(third, second), getIsbnsInDemand(10));
+		assertEquals(3, storeManager.getBooksInDemand(1).get(0).getNumSaleMisses());
+	}
+
 	@AfterClass
 	public static void tearDownAfterClass() throws BookStoreException {
 		storeManager.removeAllBooks();
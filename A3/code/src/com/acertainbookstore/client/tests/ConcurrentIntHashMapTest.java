@@ -0,0 +1,203 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.ConcurrentIntHashMap;
+
+/**
+ * {@link ConcurrentIntHashMapTest} tests the tombstones, rebuilds and lock-free
+ * reads of {@link ConcurrentIntHashMap}.
+ *
+ * @see ConcurrentIntHashMap
+ */
+public class ConcurrentIntHashMapTest {
+
+	/** The Constant NUM_KEYS. */
+	private static final int NUM_KEYS = 1000;
+
+	/**
+	 * Checks that a map holds exactly the entries of a reference map.
+	 *
+	 * @param expected
+	 *            the reference map
+	 * @param map
+	 *            the map
+	 */
+	private static void assertSameEntries(Map<Integer, String> expected, ConcurrentIntHashMap<String> map) {
+		assertEquals(expected.size(), map.size());
+		for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+		}
+
+		Map<Integer, String> visited = new HashMap<>();
+		map.forEach((key, value) -> assertNull(visited.put(key, value)));
+		assertEquals(expected, visited);
+		assertEquals(expected.size(), new ArrayList<>(map.values()).size());
+	}
+
+	/**
+	 * Tests that the key 0, which marks empty slots, is rejected.
+	 */
+	@Test
+	public void testReservedKey() {
+		ConcurrentIntHashMap<String> map = new ConcurrentIntHashMap<>();
+		try {
+			map.put(0, "zero");
+			fail();
+		} catch (IllegalArgumentException ex) {
+			;
+		}
+
+		assertNull(map.get(0));
+		assertFalse(map.containsKey(0));
+		assertNull(map.remove(0));
+		assertFalse(map.remove(0, "zero"));
+		assertTrue(map.isEmpty());
+	}
+
+	/**
+	 * Tests that a removed key leaves a tombstone that is skipped by reads and
+	 * views, and reused when the key comes back.
+	 */
+	@Test
+	public void testTombstoneReuse() {
+		ConcurrentIntHashMap<String> map = new ConcurrentIntHashMap<>();
+		map.put(1, "a");
+		map.put(2, "b");
+
+		assertEquals("a", map.remove(1));
+		assertNull(map.get(1));
+		assertFalse(map.containsKey(1));
+		assertNull(map.remove(1));
+		assertFalse(map.remove(1, "a"));
+
+		Map<Integer, String> expected = new HashMap<>();
+		expected.put(2, "b");
+		assertSameEntries(expected, map);
+
+		assertNull(map.put(1, "c"));
+		expected.put(1, "c");
+		assertSameEntries(expected, map);
+
+		assertEquals("c", map.putIfAbsent(1, "d"));
+		assertFalse(map.remove(1, "d"));
+		assertTrue(map.remove(1, "c"));
+		assertEquals("e", map.putIfAbsent(1, "e"));
+		expected.put(1, "e");
+		assertSameEntries(expected, map);
+	}
+
+	/**
+	 * Tests that adding and removing many distinct keys rebuilds the table
+	 * instead of filling it with tombstones. Without the rebuild, a probe for
+	 * a new key would never find an empty slot.
+	 */
+	@Test(timeout = 10000)
+	public void testRebuildDropsTombstones() {
+		ConcurrentIntHashMap<String> map = new ConcurrentIntHashMap<>(1);
+		Map<Integer, String> expected = new HashMap<>();
+		map.put(-1, "kept");
+		expected.put(-1, "kept");
+
+		for (int key = 1; key <= 100 * NUM_KEYS; key++) {
+			map.put(key, "v" + key);
+			assertEquals("v" + key, map.remove(key));
+		}
+		assertSameEntries(expected, map);
+	}
+
+	/**
+	 * Tests that the map grows past its load factor and keeps all entries,
+	 * starting from the smallest table.
+	 */
+	@Test
+	public void testGrowthPastLoadFactor() {
+		ConcurrentIntHashMap<String> map = new ConcurrentIntHashMap<>(1);
+		Map<Integer, String> expected = new HashMap<>();
+
+		for (int key = 1; key <= NUM_KEYS; key++) {
+			assertNull(map.put(key, "v" + key));
+			expected.put(key, "v" + key);
+		}
+		assertSameEntries(expected, map);
+
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertNull(map.get(1));
+	}
+
+	/**
+	 * Tests that an iterator started before a rebuild keeps returning the
+	 * entries of the table it started on, and none added after the rebuild.
+	 */
+	@Test
+	public void testIteratorAcrossRebuild() {
+		ConcurrentIntHashMap<String> map = new ConcurrentIntHashMap<>(1);
+		for (int key = 1; key <= 4; key++) {
+			map.put(key, "v" + key);
+		}
+
+		Iterator<String> values = map.values().iterator();
+		for (int key = 5; key <= NUM_KEYS; key++) {
+			map.put(key, "v" + key);
+		}
+
+		Set<String> seen = new HashSet<>();
+		while (values.hasNext()) {
+			assertTrue(seen.add(values.next()));
+		}
+		for (int key = 1; key <= 4; key++) {
+			assertTrue(seen.contains("v" + key));
+		}
+		assertFalse(seen.contains("v" + NUM_KEYS));
+	}
+
+	/**
+	 * Tests that readers always find keys that are never removed while a
+	 * writer adds and removes other keys, rebuilding the table many times.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testReadsDuringRebuilds() throws InterruptedException {
+		ConcurrentIntHashMap<String> map = new ConcurrentIntHashMap<>(1);
+		List<Integer> stableKeys = new ArrayList<>();
+		for (int key = 1; key <= 64; key++) {
+			map.put(key, "v" + key);
+			stableKeys.add(key);
+		}
+		AtomicBoolean done = new AtomicBoolean();
+
+		AtomicBookStoreBookTest.runConcurrently(4, index -> {
+			if (index == 0) {
+				for (int i = 0; i < 50 * NUM_KEYS; i++) {
+					map.put(1000 + i, "v" + i);
+					if (i % 3 != 0) {
+						map.remove(1000 + i);
+					}
+				}
+				done.set(true);
+			} else {
+				while (!done.get()) {
+					for (int key : stableKeys) {
+						assertEquals("v" + key, map.get(key));
+					}
+				}
+			}
+		});
+
+		assertEquals(stableKeys.size() + (50 * NUM_KEYS + 2) / 3, map.size());
+	}
+}
@@ -0,0 +1,123 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.EditorPicksIndex;
+
+/**
+ * {@link EditorPicksIndexTest} tests the slots of {@link EditorPicksIndex}
+ * and the picks it samples.
+ *
+ * @see EditorPicksIndex
+ */
+public class EditorPicksIndexTest {
+
+	/** The Constant NUM_PICKS. */
+	private static final int NUM_PICKS = 100;
+
+	/**
+	 * Creates an index holding the picks with ISBNs 1 to
+	 * <code>numPicks</code>, each named after its ISBN.
+	 *
+	 * @param numPicks
+	 *            the number of picks
+	 * @return the index
+	 */
+	private static EditorPicksIndex<String> newIndex(int numPicks) {
+		EditorPicksIndex<String> index = new EditorPicksIndex<>();
+		for (int isbn = 1; isbn <= numPicks; isbn++) {
+			index.update(isbn, "Book " + isbn, true);
+		}
+		return index;
+	}
+
+	/**
+	 * Gets all picks of an index.
+	 *
+	 * @param index
+	 *            the index
+	 * @return the picks
+	 */
+	private static Set<String> allPicks(EditorPicksIndex<String> index) {
+		List<String> picks = index.sample(Integer.MAX_VALUE);
+		Set<String> distinct = new HashSet<>(picks);
+		assertEquals(picks.size(), distinct.size());
+		return distinct;
+	}
+
+	/**
+	 * Tests that removing a pick moves the last pick into its slot, so the
+	 * other picks are kept, and that updates replace books and remove books
+	 * which are no longer picks.
+	 */
+	@Test
+	public void testRemoveMovesLastPick() {
+		EditorPicksIndex<String> index = newIndex(5);
+
+		index.remove(2);
+		assertEquals(4, index.size());
+		assertEquals(new HashSet<>(Arrays.asList("Book 1", "Book 3", "Book 4", "Book 5")), allPicks(index));
+
+		// The last pick was moved into the slot of 2, so it can be removed too.
+		index.remove(5);
+		index.remove(5);
+		index.remove(42);
+		assertEquals(new HashSet<>(Arrays.asList("Book 1", "Book 3", "Book 4")), allPicks(index));
+
+		index.update(3, "New book 3", true);
+		index.update(1, "Book 1", false);
+		index.update(6, "Book 6", false);
+		assertEquals(new HashSet<>(Arrays.asList("New book 3", "Book 4")), allPicks(index));
+
+		index.update(1, "Book 1", true);
+		assertEquals(new HashSet<>(Arrays.asList("Book 1", "New book 3", "Book 4")), allPicks(index));
+
+		index.clear();
+		assertEquals(0, index.size());
+		assertTrue(index.sample(1).isEmpty());
+	}
+
+	/**
+	 * Tests that a sample holds the requested number of distinct picks, and
+	 * that every pick is sampled eventually.
+	 */
+	@Test
+	public void testSampleIsDistinct() {
+		EditorPicksIndex<String> index = newIndex(NUM_PICKS);
+		Set<String> all = allPicks(index);
+		Set<String> sampled = new HashSet<>();
+
+		for (int i = 0; i < 1000; i++) {
+			List<String> picks = index.sample(10);
+			assertEquals(10, picks.size());
+			assertEquals(10, new HashSet<>(picks).size());
+			assertTrue(all.containsAll(picks));
+			sampled.addAll(picks);
+		}
+
+		assertEquals(all, sampled);
+	}
+
+	/**
+	 * Tests samples of no picks and of at least as many picks as the index
+	 * holds.
+	 */
+	@Test
+	public void testSampleLimits() {
+		EditorPicksIndex<String> index = newIndex(NUM_PICKS);
+
+		assertTrue(index.sample(0).isEmpty());
+		assertEquals(NUM_PICKS, allPicks(index).size());
+		assertEquals(NUM_PICKS, new HashSet<>(index.sample(NUM_PICKS)).size());
+		assertEquals(NUM_PICKS, new HashSet<>(index.sample(NUM_PICKS + 1)).size());
+
+		assertTrue(new EditorPicksIndex<String>().sample(3).isEmpty());
+	}
+}
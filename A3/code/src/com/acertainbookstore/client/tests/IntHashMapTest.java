@@ -0,0 +1,161 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.IntHashMap;
+
+/**
+ * {@link IntHashMapTest} tests the probing, removal and growth of
+ * {@link IntHashMap}.
+ *
+ * @see IntHashMap
+ */
+public class IntHashMapTest {
+
+	/** The Constant NUM_KEYS. */
+	private static final int NUM_KEYS = 1000;
+
+	/**
+	 * Checks that a map holds exactly the entries of a reference map.
+	 *
+	 * @param expected
+	 *            the reference map
+	 * @param map
+	 *            the map
+	 */
+	private static void assertSameEntries(Map<Integer, String> expected, IntHashMap<String> map) {
+		assertEquals(expected.size(), map.size());
+		for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), map.get(entry.getKey()));
+			assertTrue(map.containsKey(entry.getKey()));
+		}
+
+		Map<Integer, String> visited = new HashMap<>();
+		map.forEach((key, value) -> assertNull(visited.put(key, value)));
+		assertEquals(expected, visited);
+		assertEquals(expected.size(), new ArrayList<>(map.values()).size());
+	}
+
+	/**
+	 * Tests that the key 0, which marks empty slots, is rejected.
+	 */
+	@Test
+	public void testReservedKey() {
+		IntHashMap<String> map = new IntHashMap<>();
+		try {
+			map.put(0, "zero");
+			fail();
+		} catch (IllegalArgumentException ex) {
+			;
+		}
+
+		assertNull(map.get(0));
+		assertFalse(map.containsKey(0));
+		assertNull(map.remove(0));
+		assertTrue(map.isEmpty());
+	}
+
+	/**
+	 * Tests that the map grows past its load factor and keeps all entries,
+	 * starting from the smallest table.
+	 */
+	@Test
+	public void testGrowthPastLoadFactor() {
+		IntHashMap<String> map = new IntHashMap<>(1);
+		Map<Integer, String> expected = new HashMap<>();
+
+		for (int key = 1; key <= NUM_KEYS; key++) {
+			assertNull(map.put(key, "v" + key));
+			expected.put(key, "v" + key);
+		}
+		assertSameEntries(expected, map);
+
+		assertEquals("v7", map.put(7, "w7"));
+		expected.put(7, "w7");
+		assertSameEntries(expected, map);
+	}
+
+	/**
+	 * Tests that removing any key of a cluster of colliding keys shifts back
+	 * the keys probed past it, so all the others stay reachable. The keys are
+	 * multiples of 2^20, which all hash to the first slot of a small table.
+	 */
+	@Test
+	public void testBackwardShiftDeletion() {
+		List<Integer> keys = new ArrayList<>();
+		for (int i = 1; i <= 7; i++) {
+			keys.add(i << 20);
+		}
+
+		for (int removed : keys) {
+			IntHashMap<String> map = new IntHashMap<>(keys.size());
+			Map<Integer, String> expected = new HashMap<>();
+			for (int key : keys) {
+				map.put(key, "v" + key);
+				expected.put(key, "v" + key);
+			}
+
+			assertEquals("v" + removed, map.remove(removed));
+			assertNull(map.remove(removed));
+			expected.remove(removed);
+			assertSameEntries(expected, map);
+
+			// The freed slot is reused.
+			map.put(removed, "w" + removed);
+			expected.put(removed, "w" + removed);
+			assertSameEntries(expected, map);
+		}
+	}
+
+	/**
+	 * Tests random puts and removals against a reference map, which goes
+	 * through wrapping probe sequences and shifts across the table end.
+	 */
+	@Test
+	public void testRandomOperations() {
+		Random random = new Random(42);
+		IntHashMap<String> map = new IntHashMap<>();
+		Map<Integer, String> expected = new HashMap<>();
+
+		for (int i = 0; i < 100000; i++) {
+			int key = 1 + random.nextInt(200);
+			if (random.nextBoolean()) {
+				assertEquals(expected.put(key, "v" + i), map.put(key, "v" + i));
+			} else {
+				assertEquals(expected.remove(key), map.remove(key));
+			}
+		}
+		assertSameEntries(expected, map);
+	}
+
+	/**
+	 * Tests that a copy is independent of the map it was copied from.
+	 */
+	@Test
+	public void testCopy() {
+		IntHashMap<String> map = new IntHashMap<>();
+		map.put(1, "a");
+		map.put(2, "b");
+
+		IntHashMap<String> copy = map.copy();
+		map.remove(1);
+		copy.put(3, "c");
+
+		assertEquals("a", copy.get(1));
+		assertNull(map.get(3));
+		assertEquals(1, map.size());
+		assertEquals(3, copy.size());
+
+		copy.clear();
+		assertTrue(copy.isEmpty());
+		assertEquals("b", map.get(2));
+	}
+}
@@ -0,0 +1,404 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.LockManager;
+import com.acertainbookstore.business.LockManager.DeadlockPolicy;
+import com.acertainbookstore.business.LockManager.VictimPolicy;
+import com.acertainbookstore.business.LockMode;
+import com.acertainbookstore.business.LockTransaction;
+import com.acertainbookstore.utils.TransactionAbortedException;
+
+/**
+ * {@link LockManagerTest} tests how {@link LockManager} deals with deadlocks,
+ * under each {@link DeadlockPolicy}, restarts aborted transactions and
+ * escalates many locks below a parent resource to the parent.
+ *
+ * @see LockManager
+ */
+public class LockManagerTest {
+
+	/** The first resource. */
+	private static final int RESOURCE_A = 1;
+
+	/** The second resource. */
+	private static final int RESOURCE_B = 2;
+
+	/** The parent resource of the books, like the catalog of a store. */
+	private static final int CATALOG = 1000;
+
+	/** The number of locks a transaction holds before it escalates. */
+	private static final int ESCALATION_THRESHOLD = 3;
+
+	/** The number of seconds to wait for a request before failing. */
+	private static final long TIMEOUT_SECONDS = 10;
+
+	/** The threads waiting for locks. */
+	private ExecutorService executor;
+
+	/**
+	 * Starts the threads waiting for locks.
+	 */
+	@Before
+	public void setUp() {
+		executor = Executors.newCachedThreadPool();
+	}
+
+	/**
+	 * Stops the threads waiting for locks.
+	 */
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Requests a lock on another thread.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param resource
+	 *            the resource
+	 * @return the handle completed once the lock is granted or aborted
+	 */
+	private Future<Void> lockInBackground(LockTransaction transaction, int resource) {
+		return executor.submit(() -> {
+			transaction.lock(resource, LockMode.EXCLUSIVE);
+			return null;
+		});
+	}
+
+	/**
+	 * Requests a lock on a book below the catalog on another thread, after
+	 * the matching intention lock on the catalog.
+	 *
+	 * @param transaction
+	 *            the transaction
+	 * @param book
+	 *            the book
+	 * @param mode
+	 *            the mode, {@link LockMode#SHARED} or
+	 *            {@link LockMode#EXCLUSIVE}
+	 * @return the handle completed once both locks are granted
+	 */
+	private Future<Void> lockBookInBackground(LockTransaction transaction, int book, LockMode mode) {
+		return executor.submit(() -> {
+			transaction.lock(CATALOG,
+					mode == LockMode.SHARED ? LockMode.INTENTION_SHARED : LockMode.INTENTION_EXCLUSIVE);
+			transaction.lock(CATALOG, book, mode);
+			return null;
+		});
+	}
+
+	/**
+	 * Locks more books than the escalation threshold, below the catalog.
+	 *
+	 * @param lockManager
+	 *            the lock manager
+	 * @param mode
+	 *            the mode, {@link LockMode#SHARED} or
+	 *            {@link LockMode#EXCLUSIVE}
+	 * @return the transaction holding the locks
+	 * @throws TransactionAbortedException
+	 *             if the transaction was aborted
+	 */
+	private static LockTransaction lockManyBooks(LockManager lockManager, LockMode mode)
+			throws TransactionAbortedException {
+		lockManager.setEscalationThreshold(ESCALATION_THRESHOLD);
+		LockTransaction bulk = lockManager.begin();
+		bulk.lock(CATALOG, mode == LockMode.SHARED ? LockMode.INTENTION_SHARED : LockMode.INTENTION_EXCLUSIVE);
+
+		for (int book = RESOURCE_A; book <= 2 * ESCALATION_THRESHOLD; book++) {
+			bulk.lock(CATALOG, book, mode);
+		}
+
+		// The catalog and the books locked before the escalation.
+		assertEquals(mode, bulk.getHeldMode(CATALOG));
+		assertEquals(ESCALATION_THRESHOLD, bulk.getNumLocks());
+		assertNull(bulk.getHeldMode(2 * ESCALATION_THRESHOLD));
+		assertEquals(1, lockManager.getNumEscalations());
+		return bulk;
+	}
+
+	/**
+	 * Waits until a number of requests had to wait, so they are queued.
+	 *
+	 * @param lockManager
+	 *            the lock manager
+	 * @param numWaits
+	 *            the number of requests
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	private static void awaitWaits(LockManager lockManager, long numWaits) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+		while (lockManager.getNumWaits() < numWaits) {
+			assertTrue(System.nanoTime() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * Checks that a request was aborted.
+	 *
+	 * @param request
+	 *            the handle of the request
+	 * @throws Exception
+	 *             if the request did not complete in time
+	 */
+	private static void assertAborted(Future<Void> request) throws Exception {
+		try {
+			request.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof TransactionAbortedException);
+		}
+	}
+
+	/**
+	 * Checks that a request is still waiting.
+	 *
+	 * @param request
+	 *            the handle of the request
+	 * @throws Exception
+	 *             if the request failed
+	 */
+	private static void assertWaiting(Future<Void> request) throws Exception {
+		try {
+			request.get(50, TimeUnit.MILLISECONDS);
+			fail();
+		} catch (TimeoutException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that the detector finds two transactions locking two resources
+	 * in opposite order and aborts exactly one of them, the youngest, so the
+	 * other one gets its lock once the victim is closed.
+	 *
+	 * @throws Exception
+	 *             if a request failed unexpectedly
+	 */
+	@Test
+	public void testDeadlockDetection() throws Exception {
+		LockManager lockManager = new LockManager(4, VictimPolicy.YOUNGEST, 0);
+		LockTransaction older = lockManager.begin();
+		LockTransaction younger = lockManager.begin();
+		older.lock(RESOURCE_A, LockMode.EXCLUSIVE);
+		younger.lock(RESOURCE_B, LockMode.EXCLUSIVE);
+
+		Future<Void> olderRequest = lockInBackground(older, RESOURCE_B);
+		awaitWaits(lockManager, 1);
+		Future<Void> youngerRequest = lockInBackground(younger, RESOURCE_A);
+		awaitWaits(lockManager, 2);
+
+		assertEquals(1, lockManager.detectDeadlocks());
+		assertEquals(1, lockManager.getNumDeadlocks());
+		assertAborted(youngerRequest);
+		assertWaiting(olderRequest);
+		assertEquals(0, lockManager.detectDeadlocks());
+
+		younger.close();
+		olderRequest.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		assertEquals(LockMode.EXCLUSIVE, older.getHeldMode(RESOURCE_B));
+		assertNull(younger.getHeldMode(RESOURCE_A));
+
+		older.close();
+		assertEquals(0, lockManager.getNumLockedResources());
+		assertEquals(1, lockManager.getNumDeadlocks());
+	}
+
+	/**
+	 * Tests that under wait-die, the older transaction waits for the younger
+	 * one, while the younger one asking for the lock of the older one dies
+	 * without waiting.
+	 *
+	 * @throws Exception
+	 *             if a request failed unexpectedly
+	 */
+	@Test
+	public void testWaitDie() throws Exception {
+		LockManager lockManager = new LockManager(4, DeadlockPolicy.WAIT_DIE);
+		LockTransaction older = lockManager.begin();
+		LockTransaction younger = lockManager.begin();
+		older.lock(RESOURCE_A, LockMode.EXCLUSIVE);
+		younger.lock(RESOURCE_B, LockMode.EXCLUSIVE);
+
+		Future<Void> olderRequest = lockInBackground(older, RESOURCE_B);
+		awaitWaits(lockManager, 1);
+
+		try {
+			younger.lock(RESOURCE_A, LockMode.EXCLUSIVE);
+			fail();
+		} catch (TransactionAbortedException ex) {
+			;
+		}
+		assertEquals(1, lockManager.getNumDies());
+		assertEquals(0, lockManager.getNumWounds());
+		assertWaiting(olderRequest);
+
+		younger.close();
+		olderRequest.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		assertEquals(LockMode.EXCLUSIVE, older.getHeldMode(RESOURCE_B));
+		older.close();
+		assertEquals(0, lockManager.getNumLockedResources());
+	}
+
+	/**
+	 * Tests that under wound-wait, the younger transaction waits for the
+	 * older one, and is aborted right away when the older one asks for its
+	 * lock.
+	 *
+	 * @throws Exception
+	 *             if a request failed unexpectedly
+	 */
+	@Test
+	public void testWoundWait() throws Exception {
+		LockManager lockManager = new LockManager(4, DeadlockPolicy.WOUND_WAIT);
+		LockTransaction older = lockManager.begin();
+		LockTransaction younger = lockManager.begin();
+		older.lock(RESOURCE_A, LockMode.EXCLUSIVE);
+		younger.lock(RESOURCE_B, LockMode.EXCLUSIVE);
+
+		Future<Void> youngerRequest = lockInBackground(younger, RESOURCE_A);
+		awaitWaits(lockManager, 1);
+		Future<Void> olderRequest = lockInBackground(older, RESOURCE_B);
+
+		assertAborted(youngerRequest);
+		assertTrue(younger.isWounded());
+		assertFalse(older.isWounded());
+		assertEquals(1, lockManager.getNumWounds());
+		assertEquals(0, lockManager.getNumDies());
+
+		// The wounded transaction keeps its locks until it is closed.
+		assertWaiting(olderRequest);
+		younger.close();
+		olderRequest.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		assertEquals(LockMode.EXCLUSIVE, older.getHeldMode(RESOURCE_B));
+		older.close();
+		assertEquals(0, lockManager.getNumLockedResources());
+	}
+
+	/**
+	 * Tests that a restarted transaction keeps the identifier of the aborted
+	 * one, so under wait-die it now waits for a transaction started after it
+	 * instead of dying.
+	 *
+	 * @throws Exception
+	 *             if a request failed unexpectedly
+	 */
+	@Test
+	public void testRestartKeepsTransactionId() throws Exception {
+		LockManager lockManager = new LockManager(4, DeadlockPolicy.WAIT_DIE);
+		LockTransaction older = lockManager.begin();
+		LockTransaction aborted = lockManager.begin();
+		older.lock(RESOURCE_A, LockMode.EXCLUSIVE);
+
+		try {
+			aborted.lock(RESOURCE_A, LockMode.EXCLUSIVE);
+			fail();
+		} catch (TransactionAbortedException ex) {
+			;
+		}
+		aborted.close();
+		older.close();
+
+		LockTransaction restarted = lockManager.restart(aborted);
+		assertEquals(aborted.getId(), restarted.getId());
+		assertEquals(1, lockManager.getNumRestarts());
+
+		LockTransaction newer = lockManager.begin();
+		assertTrue(newer.getId() > restarted.getId());
+		newer.lock(RESOURCE_B, LockMode.EXCLUSIVE);
+
+		Future<Void> restartedRequest = lockInBackground(restarted, RESOURCE_B);
+		assertWaiting(restartedRequest);
+		assertEquals(1, lockManager.getNumDies());
+
+		newer.close();
+		restartedRequest.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		assertEquals(LockMode.EXCLUSIVE, restarted.getHeldMode(RESOURCE_B));
+
+		try {
+			lockManager.restart(restarted);
+			fail();
+		} catch (IllegalStateException ex) {
+			;
+		}
+		restarted.close();
+	}
+
+	/**
+	 * Tests that a transaction writing more books than the escalation
+	 * threshold locks the catalog exclusively, so a writer of another book
+	 * waits until it ends.
+	 *
+	 * @throws Exception
+	 *             if a request failed unexpectedly
+	 */
+	@Test
+	public void testEscalationToExclusive() throws Exception {
+		LockManager lockManager = new LockManager(4, VictimPolicy.YOUNGEST, 0);
+		LockTransaction bulk = lockManyBooks(lockManager, LockMode.EXCLUSIVE);
+
+		LockTransaction writer = lockManager.begin();
+		Future<Void> writerRequest = lockBookInBackground(writer, CATALOG - 1, LockMode.EXCLUSIVE);
+		awaitWaits(lockManager, 1);
+		assertWaiting(writerRequest);
+
+		bulk.close();
+		writerRequest.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		assertEquals(LockMode.INTENTION_EXCLUSIVE, writer.getHeldMode(CATALOG));
+		assertEquals(LockMode.EXCLUSIVE, writer.getHeldMode(CATALOG - 1));
+		writer.close();
+
+		assertEquals(1, lockManager.getNumEscalations());
+		assertEquals(0, lockManager.getNumLockedResources());
+	}
+
+	/**
+	 * Tests that a transaction reading more books than the escalation
+	 * threshold locks the catalog shared, so a reader of another book goes
+	 * ahead while a writer of another book waits until it ends.
+	 *
+	 * @throws Exception
+	 *             if a request failed unexpectedly
+	 */
+	@Test
+	public void testEscalationToShared() throws Exception {
+		LockManager lockManager = new LockManager(4, VictimPolicy.YOUNGEST, 0);
+		LockTransaction bulk = lockManyBooks(lockManager, LockMode.SHARED);
+
+		LockTransaction reader = lockManager.begin();
+		lockBookInBackground(reader, CATALOG - 1, LockMode.SHARED).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		assertEquals(LockMode.SHARED, reader.getHeldMode(CATALOG - 1));
+		assertEquals(0, lockManager.getNumWaits());
+
+		LockTransaction writer = lockManager.begin();
+		Future<Void> writerRequest = lockBookInBackground(writer, CATALOG - 2, LockMode.EXCLUSIVE);
+		awaitWaits(lockManager, 1);
+		assertWaiting(writerRequest);
+
+		reader.close();
+		assertWaiting(writerRequest);
+		bulk.close();
+		writerRequest.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		assertEquals(LockMode.EXCLUSIVE, writer.getHeldMode(CATALOG - 2));
+		writer.close();
+
+		assertEquals(1, lockManager.getNumEscalations());
+		assertEquals(0, lockManager.getNumLockedResources());
+	}
+}
@@ -0,0 +1,117 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.OffHeapColumnarCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link OffHeapColumnarCertainBookStoreTest} tests the string arena of
+ * {@link OffHeapColumnarCertainBookStore}, which the interface tests do not
+ * fill up.
+ *
+ * @see OffHeapColumnarCertainBookStore
+ */
+public class OffHeapColumnarCertainBookStoreTest {
+
+	/**
+	 * Creates a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @param title
+	 *            the title
+	 * @param author
+	 *            the author
+	 * @return the book
+	 */
+	private static StockBook newBook(int isbn, String title, String author) {
+		return new ImmutableStockBook(isbn, title, author, (float) 10, 5, 0, 0, 0, false);
+	}
+
+	/**
+	 * Gets the only book of a store with the given ISBN.
+	 *
+	 * @param store
+	 *            the store
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private static Book getBook(OffHeapColumnarCertainBookStore store, int isbn) throws BookStoreException {
+		List<Book> books = store.getBooks(Collections.singleton(isbn));
+		assertEquals(1, books.size());
+		return books.get(0);
+	}
+
+	/**
+	 * Tests that a book whose author does not fit after its title, so that the
+	 * arena is compacted in the middle of the insert, keeps both strings.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testCompactionBetweenTitleAndAuthor() throws BookStoreException {
+		OffHeapColumnarCertainBookStore store = new OffHeapColumnarCertainBookStore(1);
+
+		store.addBooks(Collections.singleton(newBook(1, "A title of 20 chars.", "An author.")));
+		store.removeBooks(Collections.singleton(1));
+
+		// The title fits behind the removed strings, but the author does not.
+		store.addBooks(Collections.singleton(newBook(2, "T", "Author")));
+
+		Book book = getBook(store, 2);
+		assertEquals("T", book.getTitle());
+		assertEquals("Author", book.getAuthor());
+	}
+
+	/**
+	 * Tests that books in stock keep their strings across many compactions
+	 * and growths of the arena.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testStringsSurviveCompactions() throws BookStoreException {
+		OffHeapColumnarCertainBookStore store = new OffHeapColumnarCertainBookStore(1);
+		store.addBooks(Collections.singleton(newBook(1, "Kept title", "Kept author")));
+
+		for (int isbn = 2; isbn < 500; isbn++) {
+			Set<StockBook> books = new HashSet<>();
+			books.add(newBook(isbn, "Title " + isbn, "Author " + isbn));
+			store.addBooks(books);
+
+			Book book = getBook(store, isbn);
+			assertEquals("Title " + isbn, book.getTitle());
+			assertEquals("Author " + isbn, book.getAuthor());
+
+			if (isbn % 4 != 0) {
+				store.removeBooks(Collections.singleton(isbn));
+			}
+		}
+
+		Book kept = getBook(store, 1);
+		assertEquals("Kept title", kept.getTitle());
+		assertEquals("Kept author", kept.getAuthor());
+
+		for (int isbn = 4; isbn < 500; isbn += 4) {
+			Book book = getBook(store, isbn);
+			assertEquals("Title " + isbn, book.getTitle());
+			assertEquals("Author " + isbn, book.getAuthor());
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.ParallelTopK;
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * {@link ParallelTopKTest} tests that {@link ParallelTopK} selects the same
+ * books as a full sort, whether it aggregates the catalog on the calling
+ * thread or in partitions on a fork-join pool.
+ *
+ * @see ParallelTopK
+ */
+public class ParallelTopKTest {
+
+	/** The Constant NUM_BOOKS. */
+	private static final int NUM_BOOKS = 5000;
+
+	/** The number of books from which the tests aggregate in parallel. */
+	private static final int THRESHOLD = 64;
+
+	/** The order of the books in demand, most sale misses first. */
+	private static final Comparator<StockBook> BY_SALE_MISSES = Comparator
+			.comparingLong(StockBook::getNumSaleMisses).reversed().thenComparingInt(StockBook::getISBN);
+
+	/** The pool aggregating in parallel. */
+	private ForkJoinPool pool;
+
+	/** The books, in no particular order. */
+	private List<StockBook> books;
+
+	/** The books sorted by sale misses. */
+	private List<StockBook> sorted;
+
+	/**
+	 * Creates books with few distinct numbers of sale misses, so most books
+	 * are ordered by ISBN, and a pool of more threads than partitions need.
+	 */
+	@Before
+	public void setUp() {
+		pool = new ForkJoinPool(4);
+		Random random = new Random(42);
+		books = new ArrayList<>(NUM_BOOKS);
+
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author", (float) 10, 5, random.nextInt(20), 0, 0,
+					false));
+		}
+		Collections.shuffle(books, random);
+
+		sorted = new ArrayList<>(books);
+		sorted.sort(BY_SALE_MISSES);
+	}
+
+	/**
+	 * Stops the pool.
+	 */
+	@After
+	public void tearDown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Tests that the partitioned aggregation selects the first books of a
+	 * full sort, including the ISBN tie-break and more books than there are.
+	 */
+	@Test
+	public void testPartitionedTopMatchesSort() {
+		AtomicBoolean comparedOnPool = new AtomicBoolean();
+		Comparator<StockBook> order = (first, second) -> {
+			Thread thread = Thread.currentThread();
+			if (thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool) {
+				comparedOnPool.set(true);
+			}
+			return BY_SALE_MISSES.compare(first, second);
+		};
+
+		for (int numBooks : new int[] { 1, 7, 100, 1000, NUM_BOOKS, NUM_BOOKS + 1, Integer.MAX_VALUE }) {
+			List<StockBook> top = ParallelTopK.top(books, order, numBooks, pool, THRESHOLD);
+			assertEquals(sorted.subList(0, Math.min(numBooks, NUM_BOOKS)), top);
+		}
+		assertTrue(comparedOnPool.get());
+	}
+
+	/**
+	 * Tests that the aggregation on the calling thread, below the threshold
+	 * or without a pool, selects the same books.
+	 */
+	@Test
+	public void testSequentialTopMatchesSort() {
+		for (int numBooks : new int[] { 1, 100, NUM_BOOKS + 1 }) {
+			List<StockBook> expected = sorted.subList(0, Math.min(numBooks, NUM_BOOKS));
+			assertEquals(expected, ParallelTopK.top(books, BY_SALE_MISSES, numBooks, pool, NUM_BOOKS + 1));
+			assertEquals(expected, ParallelTopK.top(books, BY_SALE_MISSES, numBooks, null, THRESHOLD));
+			assertEquals(expected, ParallelTopK.top(books, BY_SALE_MISSES, numBooks));
+		}
+	}
+
+	/**
+	 * Tests that no books are selected when none are requested or there are
+	 * none, and that the threshold must be positive.
+	 */
+	@Test
+	public void testEmptyAndInvalid() {
+		assertTrue(ParallelTopK.top(books, BY_SALE_MISSES, 0, pool, THRESHOLD).isEmpty());
+		assertTrue(ParallelTopK.top(new ArrayList<StockBook>(), BY_SALE_MISSES, 10, pool, 1).isEmpty());
+		assertEquals(sorted.subList(0, 10), ParallelTopK.top(books, BY_SALE_MISSES, 10, pool, 1));
+
+		try {
+			ParallelTopK.top(books, BY_SALE_MISSES, 10, pool, 0);
+			fail();
+		} catch (IllegalArgumentException ex) {
+			;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.RankedIndex;
+
+/**
+ * {@link RankedIndexTest} tests the order of the books of
+ * {@link RankedIndex}, as the top books are read and the scores change.
+ *
+ * @see RankedIndex
+ */
+public class RankedIndexTest {
+
+	/**
+	 * Tests that the top books are ordered by score, highest first, and by
+	 * ISBN among books with the same score.
+	 */
+	@Test
+	public void testOrderByScoreThenIsbn() {
+		RankedIndex<String> index = new RankedIndex<>();
+		index.update(4, "D", 3.5);
+		index.update(2, "B", 1.0);
+		index.update(3, "C", 3.5);
+		index.update(1, "A", 0.0);
+		index.update(5, "E", 4.0);
+
+		assertEquals(5, index.size());
+		assertEquals(Arrays.asList("E", "C", "D", "B", "A"), index.top(5));
+		assertEquals(Arrays.asList("E", "C"), index.top(2));
+		assertEquals(Arrays.asList("E", "C", "D"), index.top(3));
+		assertEquals(Arrays.asList("E", "C", "D", "B", "A"), index.top(100));
+		assertEquals(Collections.emptyList(), index.top(0));
+	}
+
+	/**
+	 * Tests that the top books read after an update reflect it, whether the
+	 * update moves, replaces or removes a book.
+	 */
+	@Test
+	public void testTopFollowsUpdates() {
+		RankedIndex<String> index = new RankedIndex<>();
+		for (int isbn = 1; isbn <= 10; isbn++) {
+			index.update(isbn, "Book " + isbn, isbn);
+		}
+		assertEquals(Arrays.asList("Book 10", "Book 9"), index.top(2));
+
+		// Moves a book from the bottom to a tie at the top.
+		index.update(1, "Book 1", 10);
+		assertEquals(Arrays.asList("Book 1", "Book 10", "Book 9"), index.top(3));
+		assertEquals(10, index.size());
+
+		// Replaces a book without moving it.
+		index.update(9, "New book 9", 9);
+		assertEquals(Arrays.asList("Book 1", "Book 10", "New book 9"), index.top(3));
+
+		index.remove(10);
+		index.remove(10);
+		index.remove(42);
+		assertEquals(9, index.size());
+		assertEquals(Arrays.asList("Book 1", "New book 9", "Book 8", "Book 7"), index.top(4));
+		assertEquals(9, index.top(Integer.MAX_VALUE).size());
+
+		index.clear();
+		assertEquals(0, index.size());
+		assertEquals(Collections.emptyList(), index.top(3));
+
+		index.update(7, "Book 7", 1);
+		assertEquals(Arrays.asList("Book 7"), index.top(3));
+	}
+}
@@ -0,0 +1,249 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.server.RequestBatcher;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link RequestBatcherTest} tests that {@link RequestBatcher} gives every
+ * request of a batch its own outcome, closes batches by size and by window,
+ * and fails the requests submitted around its shutdown.
+ *
+ * @see RequestBatcher
+ */
+public class RequestBatcherTest {
+
+	/** The ISBN of the first book. */
+	private static final int ISBN_A = 3044560;
+
+	/** The ISBN of the second book. */
+	private static final int ISBN_B = 3044561;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The number of seconds to wait for a request before failing. */
+	private static final long TIMEOUT_SECONDS = 10;
+
+	/** The store. */
+	private SingleLockConcurrentCertainBookStore store;
+
+	/** The batcher. */
+	private RequestBatcher batcher;
+
+	/** The threads submitting requests. */
+	private ExecutorService executor;
+
+	/**
+	 * Fills a new store.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void setUp() throws BookStoreException {
+		store = new SingleLockConcurrentCertainBookStore();
+		Set<StockBook> books = new HashSet<>();
+		books.add(new ImmutableStockBook(ISBN_A, "Book A", "Author", (float) 10, NUM_COPIES, 0, 0, 0, false));
+		books.add(new ImmutableStockBook(ISBN_B, "Book B", "Author", (float) 10, NUM_COPIES, 0, 0, 0, false));
+		store.addBooks(books);
+		executor = Executors.newCachedThreadPool();
+	}
+
+	/**
+	 * Stops the batcher and the threads.
+	 */
+	@After
+	public void tearDown() {
+		if (batcher != null) {
+			batcher.shutdown();
+		}
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Creates the copies of a request.
+	 *
+	 * @param isbnsAndCopies
+	 *            the ISBNs, each followed by its number of copies
+	 * @return the copies
+	 */
+	private static Set<BookCopy> copies(int... isbnsAndCopies) {
+		Set<BookCopy> bookCopies = new HashSet<>();
+		for (int i = 0; i < isbnsAndCopies.length; i += 2) {
+			bookCopies.add(new BookCopy(isbnsAndCopies[i], isbnsAndCopies[i + 1]));
+		}
+		return bookCopies;
+	}
+
+	/**
+	 * Buys books through the batcher on another thread.
+	 *
+	 * @param bookCopies
+	 *            the books to buy
+	 * @return the handle completed with the outcome of the purchase
+	 */
+	private Future<Void> buyInBackground(Set<BookCopy> bookCopies) {
+		return executor.submit(() -> {
+			batcher.buyBooks(bookCopies);
+			return null;
+		});
+	}
+
+	/**
+	 * Checks that a request failed with a {@link BookStoreException}.
+	 *
+	 * @param request
+	 *            the handle of the request
+	 * @throws Exception
+	 *             if the request did not complete in time
+	 */
+	private static void assertFailed(Future<Void> request) throws Exception {
+		try {
+			request.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof BookStoreException);
+		}
+	}
+
+	/**
+	 * Gets a book of the store.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private StockBook getBook(int isbn) throws BookStoreException {
+		return store.getBooksByISBN(Collections.singleton(isbn)).get(0);
+	}
+
+	/**
+	 * Tests that valid and invalid requests of one batch each get their own
+	 * outcome, that a failed request changes none of its books but the sale
+	 * misses, and that the batch closes once it holds the maximal number of
+	 * requests, long before its window elapses.
+	 *
+	 * @throws Exception
+	 *             if a request failed unexpectedly
+	 */
+	@Test
+	public void testMixedRequestsInOneBatch() throws Exception {
+		batcher = new RequestBatcher(store, TimeUnit.SECONDS.toMicros(60), 4);
+		long start = System.nanoTime();
+
+		Future<Void> valid = buyInBackground(copies(ISBN_A, 2));
+		Future<Void> tooMany = buyInBackground(copies(ISBN_A, 1, ISBN_B, NUM_COPIES + 5));
+		Future<Void> invalid = buyInBackground(copies(-1, 1));
+		Future<Void> restock = executor.submit(() -> {
+			batcher.addCopies(copies(ISBN_B, 3));
+			return null;
+		});
+
+		valid.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		restock.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		assertFailed(tooMany);
+		assertFailed(invalid);
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS));
+
+		assertEquals(1, batcher.getNumBatches());
+		assertEquals(4, batcher.getNumRequests());
+
+		// The copies of ISBN_A asked for by the failed purchase were not bought.
+		assertEquals(NUM_COPIES - 2, getBook(ISBN_A).getNumCopies());
+		assertEquals(0, getBook(ISBN_A).getNumSaleMisses());
+
+		// The additions of a batch go first, so the purchase missed 2 copies.
+		assertEquals(NUM_COPIES + 3, getBook(ISBN_B).getNumCopies());
+		assertEquals(2, getBook(ISBN_B).getNumSaleMisses());
+	}
+
+	/**
+	 * Tests that a batch below the maximal size closes once its window
+	 * elapses, and that the next request starts a new batch.
+	 *
+	 * @throws Exception
+	 *             if a request failed unexpectedly
+	 */
+	@Test
+	public void testWindowClosesBatch() throws Exception {
+		long windowMillis = 50;
+		batcher = new RequestBatcher(store, TimeUnit.MILLISECONDS.toMicros(windowMillis), 64);
+
+		long start = System.nanoTime();
+		batcher.buyBooks(copies(ISBN_A, 1));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(windowMillis));
+		assertEquals(1, batcher.getNumBatches());
+
+		batcher.buyBooks(copies(ISBN_A, 1));
+		assertEquals(2, batcher.getNumBatches());
+		assertEquals(2, batcher.getNumRequests());
+		assertEquals(NUM_COPIES - 2, getBook(ISBN_A).getNumCopies());
+	}
+
+	/**
+	 * Tests that requests submitted while the batcher shuts down are either
+	 * applied or failed, and never left waiting, and that requests submitted
+	 * after the shutdown fail.
+	 *
+	 * @throws Exception
+	 *             if a request failed unexpectedly
+	 */
+	@Test
+	public void testShutdownCompletesAllRequests() throws Exception {
+		int numRequests = 200;
+		for (int round = 0; round < 20; round++) {
+			RequestBatcher shutDown = new RequestBatcher(store, 100, 8);
+			List<Future<Void>> requests = new ArrayList<>();
+
+			for (int i = 0; i < numRequests; i++) {
+				requests.add(executor.submit(() -> {
+					shutDown.addCopies(copies(ISBN_A, 1));
+					return null;
+				}));
+				if (i == numRequests / 2) {
+					shutDown.shutdown();
+				}
+			}
+
+			for (Future<Void> request : requests) {
+				try {
+					request.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+				} catch (ExecutionException ex) {
+					assertTrue(ex.getCause() instanceof BookStoreException);
+				}
+			}
+		}
+
+		batcher = new RequestBatcher(store, 100, 8);
+		batcher.shutdown();
+		try {
+			batcher.buyBooks(copies(ISBN_A, 1));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+}
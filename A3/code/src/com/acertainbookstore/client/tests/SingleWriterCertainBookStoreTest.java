@@ -0,0 +1,181 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.SingleWriterCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link SingleWriterCertainBookStoreTest} tests the versions of the catalog
+ * published by {@link SingleWriterCertainBookStore}, which share the books a
+ * batch did not change with the previous version.
+ *
+ * @see SingleWriterCertainBookStore
+ */
+public class SingleWriterCertainBookStoreTest {
+
+	/** The Constant NUM_BOOKS. */
+	private static final int NUM_BOOKS = 5000;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 10;
+
+	/** The store. */
+	private SingleWriterCertainBookStore store;
+
+	/**
+	 * Starts a new store.
+	 */
+	@Before
+	public void setUp() {
+		store = new SingleWriterCertainBookStore();
+	}
+
+	/**
+	 * Stops the writer of the store.
+	 */
+	@After
+	public void tearDown() {
+		store.shutdown();
+	}
+
+	/**
+	 * Creates a book.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book
+	 */
+	private static StockBook newBook(int isbn) {
+		return new ImmutableStockBook(isbn, "Title " + isbn, "Author", (float) 10, NUM_COPIES, 0, 0, 0, false);
+	}
+
+	/**
+	 * Checks that the store holds exactly the given copies per ISBN.
+	 *
+	 * @param expected
+	 *            the number of copies per ISBN
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private void assertCatalog(Map<Integer, Integer> expected) throws BookStoreException {
+		List<StockBook> books = store.getBooks();
+		assertEquals(expected.size(), books.size());
+
+		Map<Integer, Integer> actual = new HashMap<>();
+		for (StockBook book : books) {
+			assertNull(actual.put(book.getISBN(), book.getNumCopies()));
+		}
+		assertEquals(expected, actual);
+
+		for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+			StockBook book = store.getBooksByISBN(Collections.singleton(entry.getKey())).get(0);
+			assertEquals(entry.getValue().intValue(), book.getNumCopies());
+		}
+	}
+
+	/**
+	 * Tests random additions, purchases and removals against a reference
+	 * catalog, so that books are added to and removed from shared and
+	 * copied parts of the catalog.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testRandomUpdates() throws BookStoreException {
+		Random random = new Random(42);
+		Map<Integer, Integer> expected = new HashMap<>();
+
+		Set<StockBook> books = new HashSet<>();
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			books.add(newBook(isbn));
+			expected.put(isbn, NUM_COPIES);
+		}
+		store.addBooks(books);
+		assertCatalog(expected);
+
+		for (int i = 0; i < 20000; i++) {
+			int isbn = 1 + random.nextInt(NUM_BOOKS);
+			Integer numCopies = expected.get(isbn);
+
+			if (numCopies == null) {
+				store.addBooks(Collections.singleton(newBook(isbn)));
+				expected.put(isbn, NUM_COPIES);
+			} else if (random.nextInt(4) == 0) {
+				store.removeBooks(Collections.singleton(isbn));
+				expected.remove(isbn);
+			} else if (numCopies > 0) {
+				store.buyBooks(Collections.singleton(new BookCopy(isbn, 1)));
+				expected.put(isbn, numCopies - 1);
+			}
+		}
+		assertCatalog(expected);
+
+		store.removeAllBooks();
+		assertTrue(store.getBooks().isEmpty());
+		store.addBooks(Collections.singleton(newBook(1)));
+		assertEquals(1, store.getBooks().size());
+	}
+
+	/**
+	 * Tests that readers see a purchase of several books either entirely or
+	 * not at all, while the writer publishes new versions of the catalog.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	@Test
+	public void testReadersSeeWholeBatches() throws BookStoreException, InterruptedException {
+		Set<StockBook> books = new HashSet<>();
+		for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+			books.add(newBook(isbn));
+		}
+		store.addBooks(books);
+
+		Set<BookCopy> pair = new HashSet<>();
+		pair.add(new BookCopy(7, 1));
+		pair.add(new BookCopy(NUM_BOOKS, 1));
+		Set<Integer> pairIsbns = new HashSet<>();
+		pairIsbns.add(7);
+		pairIsbns.add(NUM_BOOKS);
+		AtomicBoolean done = new AtomicBoolean();
+
+		AtomicBookStoreBookTest.runConcurrently(2, index -> {
+			if (index == 0) {
+				for (int i = 0; i < 1000; i++) {
+					store.buyBooks(pair);
+					store.addCopies(pair);
+				}
+				done.set(true);
+			} else {
+				while (!done.get()) {
+					List<StockBook> read = store.getBooksByISBN(pairIsbns);
+					assertEquals(read.get(0).getNumCopies(), read.get(1).getNumCopies());
+				}
+			}
+		});
+
+		for (StockBook book : store.getBooks()) {
+			assertEquals(NUM_COPIES, book.getNumCopies());
+		}
+	}
+}
@@ -1,8 +1,14 @@
 package com.acertainbookstore.client.tests;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -16,9 +22,18 @@ import org.junit.Test;
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.ShardedCertainBookStore;
+import com.acertainbookstore.business.StampedLockCertainBookStore;
+import com.acertainbookstore.business.SingleWriterCertainBookStore;
+import com.acertainbookstore.business.OffHeapColumnarCertainBookStore;
+import com.acertainbookstore.business.OptimisticConcurrentCertainBookStore;
+import com.acertainbookstore.business.MultiVersionCertainBookStore;
+import com.acertainbookstore.business.StripedLockCertainBookStore;
+import com.acertainbookstore.business.WriteAheadLog;
 import com.acertainbookstore.client.BookStoreHTTPProxy;
 import com.acertainbookstore.client.StockManagerHTTPProxy;
 import com.acertainbookstore.interfaces.BookStore;
@@ -57,10 +72,42 @@ public class StockManagerTest {
 			String localTestProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_LOCAL_TEST);
 			localTest = (localTestProperty != null) ? Boolean.parseBoolean(localTestProperty) : localTest;
 			
+			String engineProperty = System.getProperty(BookStoreConstants.PROPERTY_KEY_STORE_ENGINE);
+
 			if (localTest) {
-				SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
-				storeManager = store;
-				client = store;
+				if (BookStoreConstants.STORE_ENGINE_STRIPED_LOCK.equals(engineProperty)) {
+					StripedLockCertainBookStore store = new StripedLockCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_ENGINE_MULTI_VERSION.equals(engineProperty)) {
+					MultiVersionCertainBookStore store = new MultiVersionCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_ENGINE_OPTIMISTIC.equals(engineProperty)) {
+					OptimisticConcurrentCertainBookStore store = new OptimisticConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_ENGINE_OFF_HEAP_COLUMNAR.equals(engineProperty)) {
+					OffHeapColumnarCertainBookStore store = new OffHeapColumnarCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_ENGINE_SINGLE_WRITER.equals(engineProperty)) {
+					SingleWriterCertainBookStore store = new SingleWriterCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_ENGINE_STAMPED_LOCK.equals(engineProperty)) {
+					StampedLockCertainBookStore store = new StampedLockCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else if (BookStoreConstants.STORE_ENGINE_SHARDED.equals(engineProperty)) {
+					ShardedCertainBookStore store = new ShardedCertainBookStore();
+					storeManager = store;
+					client = store;
+				} else {
+					SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore();
+					storeManager = store;
+					client = store;
+				}
 			} else {
 				storeManager = new StockManagerHTTPProxy("http://localhost:8081/stock");
 				client = new BookStoreHTTPProxy("http://localhost:8081");
@@ -451,6 +498,128 @@ public class StockManagerTest {
 		assertTrue(booksToAdd.containsAll(listBooks) && booksToAdd.size() == listBooks.size());
 	}
 
+	/**
+	 * Tests listing the books page by page, in ascending ISBN order.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testGetBooksByPage() throws BookStoreException {
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		for (int i = 1; i <= 4; i++) {
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + i, "Volume " + i, "Donald Knuth", (float) 300,
+					NUM_COPIES, 0, 0, 0, false));
+		}
+		storeManager.addBooks(booksToAdd);
+
+		List<StockBook> listed = new ArrayList<StockBook>();
+		int cursor = 0;
+		List<StockBook> page = storeManager.getBooks(cursor, 2);
+
+		while (!page.isEmpty()) {
+			assertTrue(page.size() <= 2);
+			listed.addAll(page);
+			cursor = page.get(page.size() - 1).getISBN();
+			page = storeManager.getBooks(cursor, 2);
+		}
+
+		// All five books are listed once, the default book first.
+		assertEquals(5, listed.size());
+		for (int i = 0; i < listed.size(); i++) {
+			assertEquals(TEST_ISBN + i, listed.get(i).getISBN());
+		}
+
+		try {
+			storeManager.getBooks(0, 0);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that a store recovered from the last checkpoint of its write-ahead
+	 * log and the records logged since has the stock, sale misses, ratings and
+	 * editor picks it had before.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testRecoveryFromWriteAheadLog() throws BookStoreException, IOException {
+		// The log is a file of the local store.
+		assumeTrue(localTest);
+
+		Path logDirectory = Files.createTempDirectory("bookstore-log");
+		try {
+			WriteAheadLog log = new WriteAheadLog(logDirectory);
+			SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore(log);
+			log.recover(store);
+
+			Set<StockBook> booksToAdd = new HashSet<StockBook>();
+			booksToAdd.add(getDefaultBook());
+			booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+					(float) 300, NUM_COPIES, 0, 0, 0, false));
+			store.addBooks(booksToAdd);
+
+			Set<BookCopy> booksToBuy = new HashSet<BookCopy>();
+			booksToBuy.add(new BookCopy(TEST_ISBN, 2));
+			store.buyBooks(booksToBuy);
+			assertEquals(2, log.checkpoint(store));
+
+			Set<BookCopy> tooManyBooks = new HashSet<BookCopy>();
+			tooManyBooks.add(new BookCopy(TEST_ISBN + 1, NUM_COPIES + 3));
+			try {
+				store.buyBooks(tooManyBooks);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			Set<BookRating> ratings = new HashSet<BookRating>();
+			ratings.add(new BookRating(TEST_ISBN, 4));
+			store.rateBooks(ratings);
+
+			Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+			editorPicks.add(new BookEditorPick(TEST_ISBN + 1, true));
+			store.updateEditorPicks(editorPicks);
+
+			List<StockBook> booksBefore = store.getBooks();
+			log.close();
+
+			WriteAheadLog recoveredLog = new WriteAheadLog(logDirectory);
+			SingleLockConcurrentCertainBookStore recoveredStore = new SingleLockConcurrentCertainBookStore(recoveredLog);
+			assertEquals(2, recoveredLog.recover(recoveredStore));
+
+			// Only the records logged since the checkpoint are replayed.
+			assertEquals(3, recoveredLog.getNumReplayed());
+
+			List<StockBook> booksAfter = recoveredStore.getBooks();
+			assertEquals(booksBefore.size(), booksAfter.size());
+			for (StockBook book : booksBefore) {
+				StockBook recoveredBook = recoveredStore.getBooksByISBN(Collections.singleton(book.getISBN())).get(0);
+				assertTrue(book.equals(recoveredBook));
+				assertEquals(book.getNumCopies(), recoveredBook.getNumCopies());
+				assertEquals(book.getNumSaleMisses(), recoveredBook.getNumSaleMisses());
+				assertEquals(book.getTotalRating(), recoveredBook.getTotalRating());
+				assertEquals(book.getNumTimesRated(), recoveredBook.getNumTimesRated());
+				assertEquals(book.isEditorPick(), recoveredBook.isEditorPick());
+			}
+
+			recoveredLog.close();
+		} finally {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(logDirectory)) {
+				for (Path file : files) {
+					Files.delete(file);
+				}
+			}
+			Files.delete(logDirectory);
+		}
+	}
+
 	/**
 	 * Tests basic removeAllBooks functionality.
 	 *
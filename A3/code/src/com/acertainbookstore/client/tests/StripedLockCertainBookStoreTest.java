@@ -0,0 +1,184 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.StripedLockCertainBookStore;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link StripedLockCertainBookStoreTest} tests the purchases of hot books in
+ * {@link StripedLockCertainBookStore}, whose copies are split into escrow
+ * allotments.
+ *
+ * @see StripedLockCertainBookStore
+ */
+public class StripedLockCertainBookStoreTest {
+
+	/** The ISBN of the hot book. */
+	private static final int HOT_ISBN = 3044570;
+
+	/** The ISBN of a book bought together with the hot book. */
+	private static final int COLD_ISBN = 3044571;
+
+	/** The Constant NUM_THREADS. */
+	private static final int NUM_THREADS = 8;
+
+	/** The store. */
+	private StripedLockCertainBookStore store;
+
+	/**
+	 * Fills a new store.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Before
+	public void setUp() throws BookStoreException {
+		store = new StripedLockCertainBookStore();
+		Set<StockBook> books = new HashSet<>();
+		books.add(new ImmutableStockBook(HOT_ISBN, "Hot book", "Author", (float) 10, 500, 0, 0, 0, false));
+		books.add(new ImmutableStockBook(COLD_ISBN, "Cold book", "Author", (float) 10, 10000, 0, 0, 0, false));
+		store.addBooks(books);
+	}
+
+	/**
+	 * Gets a book of the store.
+	 *
+	 * @param isbn
+	 *            the ISBN
+	 * @return the book
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	private StockBook getBook(int isbn) throws BookStoreException {
+		return store.getBooksByISBN(Collections.singleton(isbn)).get(0);
+	}
+
+	/**
+	 * Buys the same books from several threads at once, one purchase after
+	 * another, and counts the rejected purchases.
+	 *
+	 * @param bookCopies
+	 *            the books of each purchase
+	 * @param numAttempts
+	 *            the number of purchases per thread
+	 * @return the number of rejected purchases
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	private int buyConcurrently(Set<BookCopy> bookCopies, int numAttempts) throws InterruptedException {
+		AtomicInteger rejected = new AtomicInteger();
+
+		AtomicBookStoreBookTest.runConcurrently(NUM_THREADS, index -> {
+			for (int i = 0; i < numAttempts; i++) {
+				try {
+					store.buyBooks(bookCopies);
+				} catch (BookStoreException ex) {
+					rejected.incrementAndGet();
+				}
+			}
+		});
+
+		return rejected.get();
+	}
+
+	/**
+	 * Tests that splitting copies checks all ISBNs before splitting any.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	@Test
+	public void testSplitCopiesRejectsInvalidIsbns() throws BookStoreException {
+		try {
+			store.splitCopies(null);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		Set<Integer> isbns = new HashSet<>();
+		isbns.add(HOT_ISBN);
+		isbns.add(-1);
+		try {
+			store.splitCopies(isbns);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		isbns.remove(-1);
+		isbns.add(COLD_ISBN + 1);
+		try {
+			store.splitCopies(isbns);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		store.splitCopies(Collections.singleton(HOT_ISBN));
+		store.splitCopies(Collections.singleton(HOT_ISBN));
+		assertEquals(500, getBook(HOT_ISBN).getNumCopies());
+	}
+
+	/**
+	 * Tests that concurrent purchases of a hot book sell exactly its copies
+	 * and count a sale miss per rejected purchase, also once added copies are
+	 * shared out again.
+	 *
+	 * @throws Exception
+	 *             if a purchase failed unexpectedly
+	 */
+	@Test
+	public void testConcurrentPurchasesOfSplitBook() throws Exception {
+		store.splitCopies(Collections.singleton(HOT_ISBN));
+
+		int rejected = buyConcurrently(Collections.singleton(new BookCopy(HOT_ISBN, 1)), 100);
+		assertEquals(NUM_THREADS * 100 - 500, rejected);
+		assertEquals(0, getBook(HOT_ISBN).getNumCopies());
+		assertEquals(rejected, getBook(HOT_ISBN).getNumSaleMisses());
+
+		// 11 copies sell as 5 purchases of 2 copies, and each rejected one misses 1.
+		store.addCopies(Collections.singleton(new BookCopy(HOT_ISBN, 11)));
+		assertEquals(0, getBook(HOT_ISBN).getNumSaleMisses());
+
+		rejected = buyConcurrently(Collections.singleton(new BookCopy(HOT_ISBN, 2)), 5);
+		assertEquals(NUM_THREADS * 5 - 5, rejected);
+		assertEquals(1, getBook(HOT_ISBN).getNumCopies());
+		assertEquals(rejected, getBook(HOT_ISBN).getNumSaleMisses());
+	}
+
+	/**
+	 * Tests that purchases of a hot book together with another book take
+	 * the copies of both or of neither.
+	 *
+	 * @throws Exception
+	 *             if a purchase failed unexpectedly
+	 */
+	@Test
+	public void testPurchasesOfSplitBookWithOtherBook() throws Exception {
+		store.splitCopies(Collections.singleton(HOT_ISBN));
+
+		Set<BookCopy> pair = new HashSet<>();
+		pair.add(new BookCopy(HOT_ISBN, 1));
+		pair.add(new BookCopy(COLD_ISBN, 1));
+
+		int rejected = buyConcurrently(pair, 100);
+		assertEquals(NUM_THREADS * 100 - 500, rejected);
+		assertEquals(0, getBook(HOT_ISBN).getNumCopies());
+		assertEquals(rejected, getBook(HOT_ISBN).getNumSaleMisses());
+		assertEquals(10000 - 500, getBook(COLD_ISBN).getNumCopies());
+		assertEquals(0, getBook(COLD_ISBN).getNumSaleMisses());
+	}
+}
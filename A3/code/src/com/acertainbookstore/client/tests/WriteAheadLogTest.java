@@ -0,0 +1,219 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.WriteAheadLog;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link WriteAheadLogTest} tests that {@link WriteAheadLog} cuts off the torn
+ * tail a crash in the middle of a write leaves in its last segment, and keeps
+ * logging after the records that were intact.
+ *
+ * @see WriteAheadLog
+ */
+public class WriteAheadLogTest {
+
+	/** The Constant TEST_ISBN. */
+	private static final int TEST_ISBN = 3044560;
+
+	/** The Constant NUM_COPIES. */
+	private static final int NUM_COPIES = 5;
+
+	/** The log directory. */
+	private Path logDirectory;
+
+	/**
+	 * Creates the log directory.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		logDirectory = Files.createTempDirectory("bookstore-log");
+	}
+
+	/**
+	 * Deletes the log directory.
+	 *
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@After
+	public void tearDown() throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(logDirectory)) {
+			for (Path file : files) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(logDirectory);
+	}
+
+	/**
+	 * Gets the last segment of the log.
+	 *
+	 * @return the segment file
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private Path lastSegment() throws IOException {
+		Path last = null;
+		try (DirectoryStream<Path> segments = Files.newDirectoryStream(logDirectory, "segment-*.log")) {
+			for (Path segment : segments) {
+				if (last == null || segment.getFileName().toString().compareTo(last.getFileName().toString()) > 0) {
+					last = segment;
+				}
+			}
+		}
+		assertNotNull(last);
+		return last;
+	}
+
+	/**
+	 * Fills a logged store with two books and buys copies of one, then closes
+	 * the log.
+	 *
+	 * @return the number of records logged
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private long fillLog() throws BookStoreException, IOException {
+		WriteAheadLog log = new WriteAheadLog(logDirectory);
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore(log);
+		log.recover(store);
+
+		Set<StockBook> booksToAdd = new HashSet<StockBook>();
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN, "Harry Potter and JUnit", "JK Unit", (float) 10, NUM_COPIES,
+				0, 0, 0, false));
+		booksToAdd.add(new ImmutableStockBook(TEST_ISBN + 1, "The Art of Computer Programming", "Donald Knuth",
+				(float) 300, NUM_COPIES, 0, 0, 0, false));
+		store.addBooks(booksToAdd);
+		store.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 2)));
+
+		long numRecords = log.getNumRecords();
+		log.close();
+		return numRecords;
+	}
+
+	/**
+	 * Recovers a store from the log, checks that it holds the books logged by
+	 * {@link #fillLog()}, buys one more copy and closes the log.
+	 *
+	 * @param numCopiesBought
+	 *            the number of copies of the first book bought before
+	 * @param numDiscardedBytes
+	 *            the number of bytes of a torn tail expected to be discarded
+	 * @return the recovered log, closed
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private WriteAheadLog recoverAndBuy(int numCopiesBought, long numDiscardedBytes)
+			throws BookStoreException, IOException {
+		WriteAheadLog log = new WriteAheadLog(logDirectory);
+		SingleLockConcurrentCertainBookStore store = new SingleLockConcurrentCertainBookStore(log);
+		assertEquals(2, log.recover(store));
+		assertEquals(numDiscardedBytes, log.getNumDiscardedBytes());
+
+		assertEquals(NUM_COPIES - numCopiesBought,
+				store.getBooksByISBN(Collections.singleton(TEST_ISBN)).get(0).getNumCopies());
+		assertEquals(NUM_COPIES, store.getBooksByISBN(Collections.singleton(TEST_ISBN + 1)).get(0).getNumCopies());
+
+		store.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 1)));
+		log.close();
+		return log;
+	}
+
+	/**
+	 * Appends bytes to the last segment of the log, as a crash in the middle
+	 * of a write would leave them.
+	 *
+	 * @param tail
+	 *            the bytes
+	 * @return the length of the segment before the bytes were appended
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private long appendToLastSegment(byte[] tail) throws IOException {
+		Path segment = lastSegment();
+		long length = Files.size(segment);
+		Files.write(segment, tail, StandardOpenOption.APPEND);
+		return length;
+	}
+
+	/**
+	 * Tests that a partial record at the end of the last segment is cut off
+	 * on recovery, and that the records logged afterwards follow the intact
+	 * ones, so the next recovery replays them without discarding anything.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testPartialRecordIsTruncated() throws BookStoreException, IOException {
+		long numRecords = fillLog();
+
+		// The first bytes of the first record, which adds both books, are a prefix of a record.
+		byte[] segment = Files.readAllBytes(lastSegment());
+		long validLength = appendToLastSegment(Arrays.copyOf(segment, 12));
+
+		WriteAheadLog recovered = recoverAndBuy(2, 12);
+		assertEquals(numRecords, recovered.getNumReplayed());
+		assertTrue(Files.size(lastSegment()) > validLength);
+
+		WriteAheadLog recoveredAgain = recoverAndBuy(3, 0);
+		assertEquals(numRecords + 1, recoveredAgain.getNumReplayed());
+	}
+
+	/**
+	 * Tests that garbage at the end of the last segment is cut off on
+	 * recovery, leaving the segment as long as its intact records.
+	 *
+	 * @throws BookStoreException
+	 *             the book store exception
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test
+	public void testGarbageTailIsTruncated() throws BookStoreException, IOException {
+		long numRecords = fillLog();
+
+		byte[] garbage = new byte[64];
+		new Random(42).nextBytes(garbage);
+		long validLength = appendToLastSegment(garbage);
+
+		WriteAheadLog log = new WriteAheadLog(logDirectory);
+		assertEquals(2, log.recover(new SingleLockConcurrentCertainBookStore(log)));
+		assertEquals(garbage.length, log.getNumDiscardedBytes());
+		assertEquals(numRecords, log.getNumReplayed());
+		assertEquals(validLength, Files.size(lastSegment()));
+		log.close();
+
+		recoverAndBuy(2, 0);
+	}
+}
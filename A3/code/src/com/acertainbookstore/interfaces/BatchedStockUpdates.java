@@ -0,0 +1,41 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.List;
+import java.util.Set;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link BatchedStockUpdates} declares the methods applying a batch of
+ * independent requests in one pass over the bookstore, i.e. under one
+ * acquisition of its locks. Each request of a batch is still all-or-nothing:
+ * it either fully takes effect or fails with the exception it would have
+ * failed with on its own, without affecting the other requests.
+ */
+public interface BatchedStockUpdates {
+
+	/**
+	 * Buys the books of each request of the batch.
+	 *
+	 * @param batch
+	 *            the books to buy, per request
+	 * @return the exception each request failed with, or null if it succeeded
+	 * @throws BookStoreException
+	 *             if the whole batch failed
+	 * @see BookStore#buyBooks(Set)
+	 */
+	public List<BookStoreException> buyBooks(List<Set<BookCopy>> batch) throws BookStoreException;
+
+	/**
+	 * Adds the copies of each request of the batch.
+	 *
+	 * @param batch
+	 *            the copies to add, per request
+	 * @return the exception each request failed with, or null if it succeeded
+	 * @throws BookStoreException
+	 *             if the whole batch failed
+	 * @see StockManager#addCopies(Set)
+	 */
+	public List<BookStoreException> addCopies(List<Set<BookCopy>> batch) throws BookStoreException;
+}
@@ -0,0 +1,28 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.Collection;
+
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.business.WriteAheadLog;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link RecoverableStore} declares the methods of the stores whose updates
+ * are made durable by a {@link WriteAheadLog}. The log checkpoints the store
+ * by listing its books page by page with {@link #getBooks(int, int)}, and
+ * recovers it by restoring the books rebuilt from the last checkpoint and the
+ * log.
+ */
+public interface RecoverableStore extends StockManager {
+
+	/**
+	 * Restores recovered books in the store, as they were, without validating
+	 * them or logging them again.
+	 *
+	 * @param books
+	 *            the books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public void restoreBooks(Collection<StockBook> books) throws BookStoreException;
+}
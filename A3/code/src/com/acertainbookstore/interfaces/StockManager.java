@@ -1,10 +1,13 @@
 package com.acertainbookstore.interfaces;
 
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.ParallelTopK;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreException;
 
@@ -43,6 +46,39 @@ public interface StockManager {
 	 */
 	public List<StockBook> getBooks() throws BookStoreException;
 
+	/**
+	 * Gets a page of the books in the store, in ascending ISBN order. A page
+	 * holds the books whose ISBN is greater than the cursor, up to the limit;
+	 * the ISBN of its last book is the cursor of the next page. The first page
+	 * starts at cursor 0, and an empty page ends the listing. Each page is
+	 * read on its own, so books added or removed meanwhile appear in or
+	 * disappear from the pages not read yet. Stores keeping their books
+	 * ordered by ISBN override the default, which reads all books.
+	 *
+	 * @param cursor
+	 *            the ISBN the page starts after
+	 * @param limit
+	 *            the maximal number of books of the page
+	 * @return the page of books
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public default List<StockBook> getBooks(int cursor, int limit) throws BookStoreException {
+		if (cursor < 0) {
+			throw new BookStoreException("cursor = " + cursor + ", but it must not be negative");
+		}
+
+		if (limit < 1) {
+			throw new BookStoreException("limit = " + limit + ", but it must be positive");
+		}
+
+		return getBooks().stream()
+				.filter(book -> book.getISBN() > cursor)
+				.sorted(Comparator.comparingInt(StockBook::getISBN))
+				.limit(limit)
+				.collect(Collectors.toList());
+	}
+
 	/**
 	 * Gets the books matching the set of ISBNs given, is different to getBooks
 	 * in the BookStore interface because of the return type of the books.
@@ -64,6 +100,27 @@ public interface StockManager {
 	 */
 	public List<StockBook> getBooksInDemand() throws BookStoreException;
 
+	/**
+	 * Gets the books with the most sale misses, most first. Stores keeping
+	 * their books in demand ordered override the default, which aggregates
+	 * them with {@link ParallelTopK}.
+	 *
+	 * @param numBooks
+	 *            the number of books
+	 * @return the books most in demand
+	 * @throws BookStoreException
+	 *             the book store exception
+	 */
+	public default List<StockBook> getBooksInDemand(int numBooks) throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks + ", but it must be positive");
+		}
+
+		return ParallelTopK.top(getBooksInDemand(),
+				Comparator.comparingLong(StockBook::getNumSaleMisses).reversed().thenComparingInt(StockBook::getISBN),
+				numBooks);
+	}
+
 	/**
 	 * Updates the books by mark/unmark them as editor pick.
 	 *
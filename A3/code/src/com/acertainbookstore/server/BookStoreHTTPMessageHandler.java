@@ -16,6 +16,7 @@ import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreKryoSerializer;
+import com.acertainbookstore.utils.BookStoreSerializerPool;
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.BookStoreSerializer;
 import com.acertainbookstore.interfaces.StockManager;
@@ -44,8 +45,11 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	/** The stock manager. */
 	private StockManager stockManager = null;
 
+	/** The batcher of purchases and additions of copies, null if disabled. */
+	private RequestBatcher batcher = null;
+
 	/** The serializer. */
-	private static ThreadLocal<BookStoreSerializer> serializer;
+	private static BookStoreSerializer serializer;
 
 	/**
 	 * Instantiates a new {@link BookStoreHTTPMessageHandler}.
@@ -59,12 +63,28 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 
 		// Setup the type of serializer.
 		if (BookStoreConstants.BINARY_SERIALIZATION) {
-			serializer = ThreadLocal.withInitial(BookStoreKryoSerializer::new);
+			serializer = new BookStoreSerializerPool(BookStoreKryoSerializer::new);
 		} else {
-			serializer = ThreadLocal.withInitial(BookStoreXStreamSerializer::new);
+			serializer = new BookStoreSerializerPool(BookStoreXStreamSerializer::new);
 		}
 	}
 
+	/**
+	 * Instantiates a new {@link BookStoreHTTPMessageHandler} that batches
+	 * BUYBOOKS and ADDCOPIES requests.
+	 *
+	 * @param bookStore
+	 *            the book store
+	 * @param stockManager
+	 *            the stock manager
+	 * @param batcher
+	 *            the batcher applying purchases and additions of copies
+	 */
+	public BookStoreHTTPMessageHandler(BookStore bookStore, StockManager stockManager, RequestBatcher batcher) {
+		this(bookStore, stockManager);
+		this.batcher = batcher;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -114,6 +134,10 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 				listBooks(response);
 				break;
 
+			case LISTBOOKSPAGE:
+				listBooksPage(request, response);
+				break;
+
 			case UPDATEEDITORPICKS:
 				updateEditorPicks(request, response);
 				break;
@@ -158,7 +182,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	private void getStockBooksByISBN(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		byte[] serializedRequestContent = getSerializedRequestContent(request);
 
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+		Set<Integer> isbnSet = (Set<Integer>) serializer.deserialize(serializedRequestContent);
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -167,7 +191,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		byte[] serializedResponseContent = serializer.serialize(bookStoreResponse);
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
@@ -192,7 +216,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		byte[] serializedResponseContent = serializer.serialize(bookStoreResponse);
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
@@ -210,7 +234,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	private void getBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		byte[] serializedRequestContent = getSerializedRequestContent(request);
 
-		Set<Integer> isbnSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+		Set<Integer> isbnSet = (Set<Integer>) serializer.deserialize(serializedRequestContent);
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -219,7 +243,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		byte[] serializedResponseContent = serializer.serialize(bookStoreResponse);
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
@@ -237,16 +261,20 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	private void buyBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		byte[] serializedRequestContent = getSerializedRequestContent(request);
 
-		Set<BookCopy> bookCopiesToBuy = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
+		Set<BookCopy> bookCopiesToBuy = (Set<BookCopy>) serializer.deserialize(serializedRequestContent);
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			bookStore.buyBooks(bookCopiesToBuy);
+			if (batcher != null) {
+				batcher.buyBooks(bookCopiesToBuy);
+			} else {
+				bookStore.buyBooks(bookCopiesToBuy);
+			}
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		byte[] serializedResponseContent = serializer.serialize(bookStoreResponse);
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
@@ -264,8 +292,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	private void updateEditorPicks(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		byte[] serializedRequestContent = getSerializedRequestContent(request);
 
-		Set<BookEditorPick> mapEditorPicksValues = (Set<BookEditorPick>) serializer.get()
-				.deserialize(serializedRequestContent);
+		Set<BookEditorPick> mapEditorPicksValues = (Set<BookEditorPick>) serializer.deserialize(serializedRequestContent);
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -274,7 +301,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		byte[] serializedResponseContent = serializer.serialize(bookStoreResponse);
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
@@ -294,7 +321,32 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		byte[] serializedResponseContent = serializer.serialize(bookStoreResponse);
+		response.getOutputStream().write(serializedResponseContent);
+	}
+
+	/**
+	 * Lists a page of the books.
+	 *
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void listBooksPage(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		BookStoreResponse bookStoreResponse = new BookStoreResponse();
+
+		try {
+			int cursor = BookStoreUtility.convertStringToInt(request.getParameter(BookStoreConstants.BOOK_CURSOR_PARAM));
+			int limit = BookStoreUtility.convertStringToInt(request.getParameter(BookStoreConstants.BOOK_NUM_PARAM));
+			bookStoreResponse.setList(stockManager.getBooks(cursor, limit));
+		} catch (BookStoreException ex) {
+			bookStoreResponse.setException(ex);
+		}
+
+		byte[] serializedResponseContent = serializer.serialize(bookStoreResponse);
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
@@ -312,16 +364,20 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	private void addCopies(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		byte[] serializedRequestContent = getSerializedRequestContent(request);
 
-		Set<BookCopy> listBookCopies = (Set<BookCopy>) serializer.get().deserialize(serializedRequestContent);
+		Set<BookCopy> listBookCopies = (Set<BookCopy>) serializer.deserialize(serializedRequestContent);
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
-			stockManager.addCopies(listBookCopies);
+			if (batcher != null) {
+				batcher.addCopies(listBookCopies);
+			} else {
+				stockManager.addCopies(listBookCopies);
+			}
 		} catch (BookStoreException ex) {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		byte[] serializedResponseContent = serializer.serialize(bookStoreResponse);
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
@@ -339,7 +395,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	private void addBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		byte[] serializedRequestContent = getSerializedRequestContent(request);
 
-		Set<StockBook> newBooks = (Set<StockBook>) serializer.get().deserialize(serializedRequestContent);
+		Set<StockBook> newBooks = (Set<StockBook>) serializer.deserialize(serializedRequestContent);
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -348,7 +404,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		byte[] serializedResponseContent = serializer.serialize(bookStoreResponse);
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
@@ -369,7 +425,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		byte[] serializedResponseContent = serializer.serialize(bookStoreResponse);
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
@@ -387,7 +443,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 	private void removeBooks(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		byte[] serializedRequestContent = getSerializedRequestContent(request);
 
-		Set<Integer> bookSet = (Set<Integer>) serializer.get().deserialize(serializedRequestContent);
+		Set<Integer> bookSet = (Set<Integer>) serializer.deserialize(serializedRequestContent);
 		BookStoreResponse bookStoreResponse = new BookStoreResponse();
 
 		try {
@@ -396,7 +452,7 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 			bookStoreResponse.setException(ex);
 		}
 
-		byte[] serializedResponseContent = serializer.get().serialize(bookStoreResponse);
+		byte[] serializedResponseContent = serializer.serialize(bookStoreResponse);
 		response.getOutputStream().write(serializedResponseContent);
 	}
 
@@ -1,10 +1,29 @@
 package com.acertainbookstore.server;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.acertainbookstore.business.LockManager;
 import com.acertainbookstore.business.SingleLockConcurrentCertainBookStore;
+import com.acertainbookstore.business.ShardedCertainBookStore;
+import com.acertainbookstore.business.StampedLockCertainBookStore;
+import com.acertainbookstore.business.SingleWriterCertainBookStore;
+import com.acertainbookstore.business.OffHeapColumnarCertainBookStore;
+import com.acertainbookstore.business.OptimisticConcurrentCertainBookStore;
+import com.acertainbookstore.business.MultiVersionCertainBookStore;
+import com.acertainbookstore.business.StripedLockCertainBookStore;
 import com.acertainbookstore.business.TwoLevelLockingConcurrentCertainBookStore;
+import com.acertainbookstore.business.WriteAheadLog;
+import com.acertainbookstore.interfaces.RecoverableStore;
 
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.VirtualThreadPool;
 
 /**
  * Starts the {@link BookStoreHTTPServer} that the clients will communicate
@@ -19,9 +38,17 @@ public class BookStoreHTTPServer {
 	
 	/** The constant, defining which locking scheme implementation to use
 	 *  true - single lock 
-	 *  false - two-level locking */
+	 *  false - two-level locking
+	 *  Setting the "engine" system property overrides this choice. */
 	private static final boolean SINGLE_LOCK = true;
 
+	/** The constant, defining how two-level locking deals with deadlocks
+	 *  "detect" - break them with a waits-for graph detector
+	 *  "waitdie" - prevent them with the wait-die rule
+	 *  "woundwait" - prevent them with the wound-wait rule
+	 *  Setting the "deadlockpolicy" system property overrides this choice. */
+	private static final String DEADLOCK_POLICY = BookStoreConstants.DEADLOCK_POLICY_DETECT;
+
 	/**
 	 * Prevents the instantiation of a new {@link BookStoreHTTPServer}.
 	 */
@@ -34,21 +61,77 @@ public class BookStoreHTTPServer {
 	 *
 	 * @param args
 	 *            the arguments
+	 * @throws IOException
+	 *             if the write-ahead log could not be opened
+	 * @throws BookStoreException
+	 *             if the store could not be recovered from the log
 	 */
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException, BookStoreException {
 		int listenOnPort = DEFAULT_PORT;
 		
 		BookStoreHTTPMessageHandler handler = null;
+		WriteAheadLog log = openLog();
+		String engine = System.getProperty(BookStoreConstants.PROPERTY_KEY_STORE_ENGINE);
 		
-		if (SINGLE_LOCK) {
-			SingleLockConcurrentCertainBookStore bookStore = new SingleLockConcurrentCertainBookStore();
-			/* we pass bookStore to BookStoreHTTPMessageHandler constructor twice, 
-			 * since it implements both interfaces: BookStore and StockManager */
+		if (BookStoreConstants.STORE_ENGINE_STRIPED_LOCK.equals(engine)) {
+			StripedLockCertainBookStore bookStore = new StripedLockCertainBookStore();
+			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+		} else if (BookStoreConstants.STORE_ENGINE_MULTI_VERSION.equals(engine)) {
+			MultiVersionCertainBookStore bookStore = new MultiVersionCertainBookStore();
+			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+		} else if (BookStoreConstants.STORE_ENGINE_OPTIMISTIC.equals(engine)) {
+			OptimisticConcurrentCertainBookStore bookStore = new OptimisticConcurrentCertainBookStore();
+			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+		} else if (BookStoreConstants.STORE_ENGINE_OFF_HEAP_COLUMNAR.equals(engine)) {
+			OffHeapColumnarCertainBookStore bookStore = new OffHeapColumnarCertainBookStore();
 			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+		} else if (BookStoreConstants.STORE_ENGINE_SINGLE_WRITER.equals(engine)) {
+			SingleWriterCertainBookStore bookStore = new SingleWriterCertainBookStore();
+			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+		} else if (BookStoreConstants.STORE_ENGINE_STAMPED_LOCK.equals(engine)) {
+			StampedLockCertainBookStore bookStore = new StampedLockCertainBookStore(log);
+			recover(log, bookStore);
+			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+		} else if (BookStoreConstants.STORE_ENGINE_SHARDED.equals(engine)) {
+			ShardedCertainBookStore bookStore = new ShardedCertainBookStore();
+			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+		} else if (SINGLE_LOCK) {
+			SingleLockConcurrentCertainBookStore bookStore = new SingleLockConcurrentCertainBookStore(log);
+			recover(log, bookStore);
+			String batchWindowString = System.getProperty(BookStoreConstants.PROPERTY_KEY_BATCH_WINDOW);
+
+			if (batchWindowString == null) {
+				/* we pass bookStore to BookStoreHTTPMessageHandler constructor twice, 
+				 * since it implements both interfaces: BookStore and StockManager */
+				handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+			} else {
+				// Purchases and additions of copies share one lock acquisition per batch.
+				RequestBatcher batcher = new RequestBatcher(bookStore, Long.parseLong(batchWindowString),
+						Integer.getInteger(BookStoreConstants.PROPERTY_KEY_BATCH_SIZE,
+								RequestBatcher.DEFAULT_MAX_BATCH_SIZE));
+				handler = new BookStoreHTTPMessageHandler(bookStore, bookStore, batcher);
+
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println("Batched "
+						+ batcher.getNumRequests() + " requests into " + batcher.getNumBatches() + " batches")));
+			}
 		} else {
-			TwoLevelLockingConcurrentCertainBookStore bookStore = new TwoLevelLockingConcurrentCertainBookStore();
+			String deadlockPolicy = System.getProperty(BookStoreConstants.PROPERTY_KEY_DEADLOCK_POLICY, DEADLOCK_POLICY);
+			TwoLevelLockingConcurrentCertainBookStore bookStore = new TwoLevelLockingConcurrentCertainBookStore(
+					LockManager.DeadlockPolicy.forName(deadlockPolicy), log);
+			recover(log, bookStore);
 			handler = new BookStoreHTTPMessageHandler(bookStore, bookStore);
+
+			// Report how often requests were restarted, to compare the policies.
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println(
+					"Deadlock policy " + deadlockPolicy + ": " + bookStore.getNumRestarts() + " restarts, "
+							+ bookStore.getNumEscalations() + " escalations")));
 		}		
+
+		if (log != WriteAheadLog.DISABLED && !log.isRecovered()) {
+			System.err.println("The " + engine + " engine does not support the write-ahead log,"
+					+ " its updates are not durable");
+			log.close();
+		}
 		
 		String serverPortString = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT);
 
@@ -60,7 +143,79 @@ public class BookStoreHTTPServer {
 			}
 		}
 
-		QueuedThreadPool threadpool = new QueuedThreadPool(MAX_THREADPOOL_SIZE, MIN_THREADPOOL_SIZE);
+		ThreadPool threadpool;
+
+		if (VirtualThreadPool.isEnabled()) {
+			// Requests blocked on the bookstore park their virtual thread instead of a pooled one.
+			threadpool = new VirtualThreadPool();
+		} else {
+			threadpool = new QueuedThreadPool(MAX_THREADPOOL_SIZE, MIN_THREADPOOL_SIZE);
+		}
 		BookStoreHTTPServerUtility.createServer(listenOnPort, handler, threadpool);
 	}
+
+	/**
+	 * Opens the write-ahead log named by the "wal" system property.
+	 *
+	 * @return the log, or the disabled log if the property is not set
+	 * @throws IOException
+	 *             if the log could not be opened
+	 */
+	private static WriteAheadLog openLog() throws IOException {
+		String logDirectory = System.getProperty(BookStoreConstants.PROPERTY_KEY_WRITE_AHEAD_LOG);
+		return logDirectory == null ? WriteAheadLog.DISABLED : new WriteAheadLog(Paths.get(logDirectory));
+	}
+
+	/**
+	 * Recovers a store from the write-ahead log, before it serves requests,
+	 * checkpoints it every "checkpointinterval" seconds if the property is set,
+	 * and closes the log on shutdown.
+	 *
+	 * @param log
+	 *            the log
+	 * @param bookStore
+	 *            the store
+	 * @throws BookStoreException
+	 *             if the store could not be recovered
+	 */
+	private static void recover(WriteAheadLog log, RecoverableStore bookStore) throws BookStoreException {
+		if (log == WriteAheadLog.DISABLED) {
+			return;
+		}
+
+		long start = System.nanoTime();
+		long numBooks = log.recover(bookStore);
+		System.out.println("Recovered " + numBooks + " books, replaying " + log.getNumReplayed() + " log records, in "
+				+ (System.nanoTime() - start) / 1_000_000 + " ms");
+		if (log.getNumDiscardedBytes() > 0) {
+			System.out.println("Discarded " + log.getNumDiscardedBytes() + " bytes of a torn log tail");
+		}
+
+		long checkpointInterval = Long.getLong(BookStoreConstants.PROPERTY_KEY_CHECKPOINT_INTERVAL, 0);
+		if (checkpointInterval > 0) {
+			ScheduledExecutorService checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "bookstore-checkpointer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			checkpointer.scheduleWithFixedDelay(() -> {
+				try {
+					log.checkpoint(bookStore);
+				} catch (BookStoreException ex) {
+					System.err.println(ex.getMessage());
+				}
+			}, checkpointInterval, checkpointInterval, TimeUnit.SECONDS);
+		}
+
+		// Report how many updates each fsync covered.
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			System.out.println("Logged " + log.getNumRecords() + " records in " + log.getNumSyncs() + " syncs, with "
+					+ log.getNumCheckpoints() + " checkpoints");
+			try {
+				log.close();
+			} catch (BookStoreException ex) {
+				System.err.println(ex.getMessage());
+			}
+		}));
+	}
 }
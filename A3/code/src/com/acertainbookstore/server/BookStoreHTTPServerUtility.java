@@ -7,7 +7,7 @@ import java.net.UnknownHostException;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.AbstractHandler;
-import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 
 /**
  * {@link BookStoreHTTPServerUtility} creates Jetty server instances.
@@ -28,9 +28,10 @@ public class BookStoreHTTPServerUtility {
 	 *            the port
 	 * @param handler
 	 *            the handler
-	 * @return true, if successful
+	 * @param threadpool
+	 *            the thread pool running the requests, or null for the default
 	 */
-	public static void createServer(int port, AbstractHandler handler, QueuedThreadPool threadpool) {
+	public static void createServer(int port, AbstractHandler handler, ThreadPool threadpool) {
 		Server server = null;
 		if (threadpool != null) {
 			server = new Server(threadpool);
@@ -0,0 +1,280 @@
+package com.acertainbookstore.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.interfaces.BatchedStockUpdates;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * {@link RequestBatcher} collects the BUYBOOKS and ADDCOPIES requests handled
+ * by the {@link BookStoreHTTPMessageHandler} into batches, and applies each
+ * batch to the store in one pass through {@link BatchedStockUpdates}.
+ * <p>
+ * A batch starts with the first request arriving while the batcher is idle
+ * and closes once its window elapsed or it holds the maximal number of
+ * requests. The threads of the requests wait until their batch is applied, and
+ * each gets back the outcome of its own request. All requests of a batch are
+ * pending at the same time, so applying the additions of copies before the
+ * purchases is as valid an order as any other.
+ */
+public class RequestBatcher {
+
+	/** The default maximal number of requests per batch. */
+	public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+	/**
+	 * {@link PendingRequest} is a request waiting for its batch.
+	 */
+	private static final class PendingRequest {
+
+		/** Whether the request buys books, rather than adds copies. */
+		private final boolean purchase;
+
+		/** The copies to buy or add. */
+		private final Set<BookCopy> bookCopies;
+
+		/** The handle completed with the failure of the request, or null. */
+		private final CompletableFuture<BookStoreException> outcome = new CompletableFuture<>();
+
+		/**
+		 * Instantiates a new {@link PendingRequest}.
+		 *
+		 * @param purchase
+		 *            whether the request buys books
+		 * @param bookCopies
+		 *            the copies to buy or add
+		 */
+		private PendingRequest(boolean purchase, Set<BookCopy> bookCopies) {
+			this.purchase = purchase;
+			this.bookCopies = bookCopies;
+		}
+	}
+
+	/** The store applying the batches. */
+	private final BatchedStockUpdates store;
+
+	/** The time a batch stays open, in nanoseconds. */
+	private final long windowNanos;
+
+	/** The maximal number of requests per batch. */
+	private final int maxBatchSize;
+
+	/** The requests waiting for the next batch. */
+	private final BlockingQueue<PendingRequest> pending = new LinkedBlockingQueue<>();
+
+	/** The thread closing and applying the batches. */
+	private final Thread flusher;
+
+	/** Whether the batcher is shut down, set before its thread fails the pending requests. */
+	private volatile boolean shutdown = false;
+
+	/** The number of batches applied. */
+	private final AtomicLong numBatches = new AtomicLong();
+
+	/** The number of requests applied. */
+	private final AtomicLong numRequests = new AtomicLong();
+
+	/**
+	 * Instantiates a new {@link RequestBatcher} and starts its thread.
+	 *
+	 * @param store
+	 *            the store applying the batches
+	 * @param windowMicros
+	 *            the time a batch stays open, in microseconds
+	 * @param maxBatchSize
+	 *            the maximal number of requests per batch
+	 */
+	public RequestBatcher(BatchedStockUpdates store, long windowMicros, int maxBatchSize) {
+		if (windowMicros < 0 || maxBatchSize < 1) {
+			throw new IllegalArgumentException("The window must not be negative and the batch size must be positive");
+		}
+
+		this.store = store;
+		this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+		this.maxBatchSize = maxBatchSize;
+		this.flusher = new Thread(this::flush, "bookstore-batcher");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	/**
+	 * Stops the thread of the batcher. Requests still pending are failed.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		flusher.interrupt();
+	}
+
+	/**
+	 * Gets the number of batches applied.
+	 *
+	 * @return the number of batches
+	 */
+	public long getNumBatches() {
+		return numBatches.get();
+	}
+
+	/**
+	 * Gets the number of requests applied.
+	 *
+	 * @return the number of requests
+	 */
+	public long getNumRequests() {
+		return numRequests.get();
+	}
+
+	/**
+	 * Buys books in the next batch.
+	 *
+	 * @param bookCopiesToBuy
+	 *            the books to buy
+	 * @throws BookStoreException
+	 *             the exception the purchase failed with
+	 */
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy) throws BookStoreException {
+		await(submit(new PendingRequest(true, bookCopiesToBuy)));
+	}
+
+	/**
+	 * Adds copies in the next batch.
+	 *
+	 * @param bookCopiesSet
+	 *            the copies to add
+	 * @throws BookStoreException
+	 *             the exception the addition failed with
+	 */
+	public void addCopies(Set<BookCopy> bookCopiesSet) throws BookStoreException {
+		await(submit(new PendingRequest(false, bookCopiesSet)));
+	}
+
+	/**
+	 * Enqueues a request for the next batch. The shutdown flag is checked
+	 * after the request is enqueued: if the thread of the batcher may already
+	 * have failed the pending requests, the request is failed here unless the
+	 * thread took it, so no request is left waiting.
+	 *
+	 * @param request
+	 *            the request
+	 * @return the handle completed once the batch of the request is applied
+	 */
+	private CompletableFuture<BookStoreException> submit(PendingRequest request) {
+		pending.add(request);
+
+		if (shutdown && pending.remove(request)) {
+			request.outcome.completeExceptionally(new BookStoreException("The batcher is shut down"));
+		}
+		return request.outcome;
+	}
+
+	/**
+	 * Waits for a request to be applied.
+	 *
+	 * @param outcome
+	 *            the handle of the request
+	 * @throws BookStoreException
+	 *             the exception the request failed with
+	 */
+	private static void await(CompletableFuture<BookStoreException> outcome) throws BookStoreException {
+		BookStoreException failure;
+
+		try {
+			failure = outcome.join();
+		} catch (CompletionException ex) {
+			if (ex.getCause() instanceof BookStoreException) {
+				throw (BookStoreException) ex.getCause();
+			}
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new BookStoreException(ex.getCause());
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Runs the thread of the batcher: waits for the first request of a batch,
+	 * collects requests until the batch closes and applies it.
+	 */
+	private void flush() {
+		List<PendingRequest> batch = new ArrayList<>(maxBatchSize);
+
+		try {
+			while (true) {
+				batch.add(pending.take());
+				long deadline = System.nanoTime() + windowNanos;
+
+				while (batch.size() < maxBatchSize) {
+					PendingRequest next = pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+
+				// Counted first, so a request sees its batch counted once it returns.
+				numBatches.incrementAndGet();
+				numRequests.addAndGet(batch.size());
+				apply(batch, false);
+				apply(batch, true);
+				batch.clear();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			shutdown = true;
+			pending.drainTo(batch);
+			for (PendingRequest request : batch) {
+				request.outcome.completeExceptionally(new BookStoreException("The batcher is shut down"));
+			}
+		}
+	}
+
+	/**
+	 * Applies the purchases or the additions of copies of a batch in one pass,
+	 * and completes their requests.
+	 *
+	 * @param batch
+	 *            the batch
+	 * @param purchases
+	 *            whether to apply the purchases, rather than the additions
+	 */
+	private void apply(List<PendingRequest> batch, boolean purchases) {
+		List<PendingRequest> requests = new ArrayList<>(batch.size());
+		List<Set<BookCopy>> bookCopies = new ArrayList<>(batch.size());
+
+		for (PendingRequest request : batch) {
+			if (request.purchase == purchases) {
+				requests.add(request);
+				bookCopies.add(request.bookCopies);
+			}
+		}
+
+		if (requests.isEmpty()) {
+			return;
+		}
+
+		try {
+			List<BookStoreException> failures = purchases ? store.buyBooks(bookCopies) : store.addCopies(bookCopies);
+
+			for (int i = 0; i < requests.size(); i++) {
+				requests.get(i).outcome.complete(failures.get(i));
+			}
+		} catch (BookStoreException | RuntimeException ex) {
+			for (PendingRequest request : requests) {
+				request.outcome.completeExceptionally(ex);
+			}
+		}
+	}
+}
@@ -19,6 +19,9 @@ public final class BookStoreConstants {
 	/** The Constant BOOK_NUM_PARAM. */
 	public static final String BOOK_NUM_PARAM = "number_of_books";
 
+	/** The Constant BOOK_CURSOR_PARAM, the ISBN a page of books starts after. */
+	public static final String BOOK_CURSOR_PARAM = "cursor";
+
 	/** The Constant XMLSTRINGLEN_PARAM. */
 	public static final String XMLSTRINGLEN_PARAM = "len";
 
@@ -39,6 +42,12 @@ public final class BookStoreConstants {
 	/** The Constant NOT_AVAILABLE when the book is not in the store. */
 	public static final String NOT_AVAILABLE = " is not available";
 
+	/** The Constant TRANSACTION_ABORTED when a transaction could not commit. */
+	public static final String TRANSACTION_ABORTED = "Transaction aborted due to conflicts, please retry";
+
+	/** The Constant DEADLOCK_VICTIM when a transaction was aborted to break a deadlock. */
+	public static final String DEADLOCK_VICTIM = "Transaction aborted to break a deadlock, please retry";
+
 	/** The Constant BOOK. */
 	public static final String BOOK = "The Book: ";
 
@@ -60,6 +69,63 @@ public final class BookStoreConstants {
 	/** The Constant PROPERTY_KEY_SINGLE_LOCK. */
 	public static final String PROPERTY_KEY_SINGLE_LOCK = "singlelock";
 
+	/** The Constant PROPERTY_KEY_STORE_ENGINE. */
+	public static final String PROPERTY_KEY_STORE_ENGINE = "engine";
+
+	/** The Constant STORE_ENGINE_STRIPED_LOCK selecting the striped lock store. */
+	public static final String STORE_ENGINE_STRIPED_LOCK = "stripedlock";
+
+	/** The Constant STORE_ENGINE_MULTI_VERSION selecting the multi-version store. */
+	public static final String STORE_ENGINE_MULTI_VERSION = "mvcc";
+
+	/** The Constant STORE_ENGINE_OPTIMISTIC selecting the optimistic concurrency control store. */
+	public static final String STORE_ENGINE_OPTIMISTIC = "occ";
+
+	/** The Constant STORE_ENGINE_OFF_HEAP_COLUMNAR selecting the off-heap columnar store. */
+	public static final String STORE_ENGINE_OFF_HEAP_COLUMNAR = "offheap";
+
+	/** The Constant STORE_ENGINE_SINGLE_WRITER selecting the single-writer store. */
+	public static final String STORE_ENGINE_SINGLE_WRITER = "singlewriter";
+
+	/** The Constant PROPERTY_KEY_DEADLOCK_POLICY selecting how the two-level store deals with deadlocks. */
+	public static final String PROPERTY_KEY_DEADLOCK_POLICY = "deadlockpolicy";
+
+	/** The Constant DEADLOCK_POLICY_DETECT selecting deadlock detection. */
+	public static final String DEADLOCK_POLICY_DETECT = "detect";
+
+	/** The Constant DEADLOCK_POLICY_WAIT_DIE selecting wait-die deadlock prevention. */
+	public static final String DEADLOCK_POLICY_WAIT_DIE = "waitdie";
+
+	/** The Constant DEADLOCK_POLICY_WOUND_WAIT selecting wound-wait deadlock prevention. */
+	public static final String DEADLOCK_POLICY_WOUND_WAIT = "woundwait";
+
+	/** The Constant STORE_ENGINE_STAMPED_LOCK selecting the stamped lock store with optimistic reads. */
+	public static final String STORE_ENGINE_STAMPED_LOCK = "stamped";
+
+	/** The Constant STORE_ENGINE_SHARDED selecting the sharded store with one thread per shard. */
+	public static final String STORE_ENGINE_SHARDED = "sharded";
+
+	/** The Constant PROPERTY_KEY_BATCH_WINDOW setting the microseconds the server batches BUYBOOKS and ADDCOPIES requests. */
+	public static final String PROPERTY_KEY_BATCH_WINDOW = "batchwindow";
+
+	/** The Constant PROPERTY_KEY_BATCH_SIZE setting the maximal number of requests per batch. */
+	public static final String PROPERTY_KEY_BATCH_SIZE = "batchsize";
+
+	/** The Constant PROPERTY_KEY_VIRTUAL_THREADS running the server and the HTTP proxies on virtual threads. */
+	public static final String PROPERTY_KEY_VIRTUAL_THREADS = "virtualthreads";
+
+	/** The Constant PROPERTY_KEY_TOPK_PARALLELISM setting the number of threads aggregating top books without an index. */
+	public static final String PROPERTY_KEY_TOPK_PARALLELISM = "topkparallelism";
+
+	/** The Constant PROPERTY_KEY_TOPK_THRESHOLD setting the number of books from which top books are aggregated in parallel. */
+	public static final String PROPERTY_KEY_TOPK_THRESHOLD = "topkthreshold";
+
+	/** The Constant PROPERTY_KEY_WRITE_AHEAD_LOG naming the directory the server logs the updates to. */
+	public static final String PROPERTY_KEY_WRITE_AHEAD_LOG = "wal";
+
+	/** The Constant PROPERTY_KEY_CHECKPOINT_INTERVAL setting the seconds between checkpoints of the write-ahead log. */
+	public static final String PROPERTY_KEY_CHECKPOINT_INTERVAL = "checkpointinterval";
+
 	/** The Constant PROPERTY_KEY_SERVER_PORT. */
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
 
@@ -0,0 +1,105 @@
+package com.acertainbookstore.utils;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+
+import com.acertainbookstore.interfaces.BookStoreSerializer;
+
+/**
+ * {@link BookStoreSerializerPool} shares a bounded number of serializers
+ * between threads. Kryo and XStream instances are expensive to create and not
+ * thread-safe, so each call borrows an idle serializer, or creates one if
+ * none is idle, and returns it afterwards.
+ * <p>
+ * A serializer per thread does not suit virtual threads, which are started
+ * per request and never reused: each of them would create its own serializer.
+ * The pool instead keeps at most its capacity of idle serializers, and drops
+ * the ones returned while it is full.
+ *
+ * @see BookStoreSerializer
+ */
+public final class BookStoreSerializerPool implements BookStoreSerializer {
+
+	/** The default maximal number of idle serializers. */
+	public static final int DEFAULT_CAPACITY = 4 * Runtime.getRuntime().availableProcessors();
+
+	/** The factory of serializers. */
+	private final Supplier<BookStoreSerializer> factory;
+
+	/** The idle serializers. */
+	private final BlockingQueue<BookStoreSerializer> idle;
+
+	/**
+	 * Instantiates a new {@link BookStoreSerializerPool} with the default
+	 * capacity.
+	 *
+	 * @param factory
+	 *            the factory of serializers
+	 */
+	public BookStoreSerializerPool(Supplier<BookStoreSerializer> factory) {
+		this(factory, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Instantiates a new {@link BookStoreSerializerPool}.
+	 *
+	 * @param factory
+	 *            the factory of serializers
+	 * @param capacity
+	 *            the maximal number of idle serializers
+	 */
+	public BookStoreSerializerPool(Supplier<BookStoreSerializer> factory, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be positive");
+		}
+
+		this.factory = factory;
+		this.idle = new ArrayBlockingQueue<>(capacity);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.acertainbookstore.interfaces.BookStoreSerializer#serialize(java.lang.
+	 * Object)
+	 */
+	@Override
+	public byte[] serialize(Object object) throws IOException {
+		BookStoreSerializer serializer = borrow();
+
+		try {
+			return serializer.serialize(object);
+		} finally {
+			idle.offer(serializer);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.acertainbookstore.interfaces.BookStoreSerializer#deserialize(byte[])
+	 */
+	@Override
+	public Object deserialize(byte[] bytes) throws IOException {
+		BookStoreSerializer serializer = borrow();
+
+		try {
+			return serializer.deserialize(bytes);
+		} finally {
+			idle.offer(serializer);
+		}
+	}
+
+	/**
+	 * Borrows an idle serializer, or creates one if none is idle.
+	 *
+	 * @return the serializer
+	 */
+	private BookStoreSerializer borrow() {
+		BookStoreSerializer serializer = idle.poll();
+		return serializer != null ? serializer : factory.get();
+	}
+}
@@ -0,0 +1,29 @@
+package com.acertainbookstore.utils;
+
+/**
+ * {@link TransactionAbortedException} signals that a request was aborted
+ * because of a conflict with concurrent requests, such as a failed validation
+ * or a deadlock, before it changed anything. The request can be retried.
+ */
+public class TransactionAbortedException extends BookStoreException {
+
+	/** The Constant serialVersionUID. */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Instantiates a new {@link TransactionAbortedException}.
+	 */
+	public TransactionAbortedException() {
+		super(BookStoreConstants.TRANSACTION_ABORTED);
+	}
+
+	/**
+	 * Instantiates a new {@link TransactionAbortedException}.
+	 *
+	 * @param message
+	 *            the message
+	 */
+	public TransactionAbortedException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,155 @@
+package com.acertainbookstore.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * {@link VirtualThreadPool} is a Jetty {@link ThreadPool} running each task on
+ * a new virtual thread. A task blocked on I/O or on a lock of the bookstore
+ * then parks its virtual thread instead of holding on to a platform thread, so
+ * the number of concurrent requests is not bounded by the size of a pool.
+ * <p>
+ * Virtual threads are available from Java 21 on. The executor is looked up
+ * reflectively, so the bookstore still builds and runs on older JVMs, where
+ * {@link #isSupported()} is false and the callers keep their bounded pools.
+ * Both the server and the HTTP clients manage the pool as a bean, which
+ * starts and stops it with them.
+ */
+public final class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+	/** The factory of virtual thread executors, null if not supported. */
+	private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutorFactory();
+
+	/** The executor starting a virtual thread per task. */
+	private final ExecutorService executor;
+
+	/**
+	 * Instantiates a new {@link VirtualThreadPool}.
+	 *
+	 * @throws UnsupportedOperationException
+	 *             if the JVM has no virtual threads
+	 */
+	public VirtualThreadPool() {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+		}
+
+		try {
+			executor = (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			throw new UnsupportedOperationException("Virtual threads could not be started", ex);
+		}
+	}
+
+	/**
+	 * Checks whether the JVM supports virtual threads.
+	 *
+	 * @return true, if virtual threads are supported
+	 */
+	public static boolean isSupported() {
+		return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+	}
+
+	/**
+	 * Checks whether the virtual thread execution mode is selected by the
+	 * "virtualthreads" system property. If the JVM does not support it, a
+	 * warning is printed and the mode stays disabled.
+	 *
+	 * @return true, if virtual threads are to be used
+	 */
+	public static boolean isEnabled() {
+		if (!Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_VIRTUAL_THREADS)) {
+			return false;
+		}
+
+		if (!isSupported()) {
+			System.err.println("Virtual threads require Java 21 or later, using platform threads");
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Looks up {@code Executors.newVirtualThreadPerTaskExecutor()}.
+	 *
+	 * @return the method, or null if the JVM has no virtual threads
+	 */
+	private static Method findVirtualThreadExecutorFactory() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException ex) {
+			return null;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+	 */
+	@Override
+	public void execute(Runnable task) {
+		executor.execute(task);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.thread.ThreadPool#join()
+	 */
+	@Override
+	public void join() throws InterruptedException {
+		while (!executor.awaitTermination(1, TimeUnit.DAYS)) {
+			// Keep waiting until the pool is stopped.
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.thread.ThreadPool#getThreads()
+	 */
+	@Override
+	public int getThreads() {
+		// Virtual threads are not pooled, so none are kept around.
+		return 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.thread.ThreadPool#getIdleThreads()
+	 */
+	@Override
+	public int getIdleThreads() {
+		return 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.thread.ThreadPool#isLowOnThreads()
+	 */
+	@Override
+	public boolean isLowOnThreads() {
+		// A new virtual thread can always be started.
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.eclipse.jetty.util.component.AbstractLifeCycle#doStop()
+	 */
+	@Override
+	protected void doStop() throws Exception {
+		executor.shutdownNow();
+		super.doStop();
+	}
+}